@@ -4,6 +4,7 @@ import sun.jvmstat.monitor.MonitoredVmUtil.jvmArgs
 
 plugins {
     id("java")
+    id(net.silver.buildsrc.BuildMeta.PluginVersions.JMH_ID) version net.silver.buildsrc.BuildMeta.PluginVersions.JMH_VERSION
 }
 
 group = "net.silver.services"
@@ -21,18 +22,57 @@ dependencies {
 
     // 2. Select only the necessary Netty modules (no version needed thanks to the BOM)
     implementation("io.netty:netty-transport") // Core Nio transport layer
+    implementation("io.netty:netty-transport-classes-epoll")    // Linux epoll transport (API)
+    implementation("io.netty:netty-transport-classes-io_uring") // Linux io_uring transport (API)
+    runtimeOnly("io.netty:netty-transport-native-epoll::linux-x86_64")    // Native libraries, NIO fallback elsewhere
+    runtimeOnly("io.netty:netty-transport-native-epoll::linux-aarch_64")
+    runtimeOnly("io.netty:netty-transport-native-io_uring::linux-x86_64")
+    runtimeOnly("io.netty:netty-transport-native-io_uring::linux-aarch_64")
     implementation("io.netty:netty-handler")      // Core handler chain logic
     implementation("io.netty:netty-codec-mqtt")   // MQTT protocol encoding/decoding
+    implementation("io.netty:netty-codec-http")   // HTTP upgrade and WebSocket frames (MQTT over WebSocket)
     implementation("io.netty:netty-buffer")       // Byte buffer management
     implementation(project(":Logging"))
+    implementation(project(":Utils"))   // PasswordUtil for PasswordAuthenticator
     testImplementation(BuildMeta.Libs.JUNIT_API)// JUnit 5 API for compiling tests
     testImplementation(BuildMeta.Libs.JUNIT_JUPITER)// JUnit 5 Engine for running tests (runtime only)
+    testImplementation("io.netty:netty-pkitesting") // Test certificates for the TLS listener (CertificateBuilder)
     testRuntimeOnly(BuildMeta.Libs.JUNIT_PLATFORM)
 
 }
 tasks.test {
     useJUnitPlatform()
 }
+
+// ------------------------------------------------------------
+// JMH micro-benchmarks (src/jmh/java) - run with: gradlew :Services:jmh
+// ------------------------------------------------------------
+jmh {
+    jmhVersion.set(BuildMeta.Libs.JMH_VERSION)
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("TEXT")
+}
+
+// ------------------------------------------------------------
+// Loopback load / soak harness (src/load/java) - run with:
+// gradlew :Services:loadTest -Pload.args="subscribers=5000 publishers=50 rate=200 duration=600"
+// ------------------------------------------------------------
+val load: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + configurations.runtimeClasspath.get()
+    runtimeClasspath += output + compileClasspath
+}
+
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs MQTTBroker in-process under simulated client load (see LoadHarness)"
+    classpath = load.runtimeClasspath
+    mainClass.set("net.silver.services.LoadHarness")
+    args = (findProperty("load.args") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: emptyList()
+    jvmArgs("-XX:MaxDirectMemorySize=1g")
+}
+
 //tasks.withType<JavaCompile> {
 //    options.compilerArgs.addAll(
 //        listOf(
@@ -0,0 +1,75 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QoS 0 fan-out cost: MqttPublishMessage encoded by every recipient's MqttEncoder
+ * versus one {@link PublishEncoder} frame shared through retainedDuplicate().
+ * <p>
+ * Each invocation fans one publish out to {@code recipients} writes through a pipeline
+ * with MqttEncoder in front of a sink that releases what reaches the socket.
+ * <p>
+ * Run with: gradlew :Services:jmh -Pjmh.includes=FanOutEncodingBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FanOutEncodingBenchmark {
+
+  @Param({"1", "100", "1000"})
+  public int recipients;
+
+  @Param({"64", "4096"})
+  public int payloadSize;
+
+  private final String topic = "stores/42/terminals/7/prices";
+  private EmbeddedChannel channel;
+  private ByteBuf payload;
+
+  @Setup
+  public void setup() {
+    channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+      @Override public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        ReferenceCountUtil.release(msg); // socket stand-in
+        promise.setSuccess();
+      }
+    }, MqttEncoder.INSTANCE);
+    payload = PooledByteBufAllocator.DEFAULT.directBuffer(payloadSize).writeZero(payloadSize);
+  }
+
+  @TearDown
+  public void tearDown() {
+    payload.release();
+    channel.finishAndReleaseAll();
+  }
+
+  @Benchmark
+  public void encodePerRecipient() {
+    for (int i = 0; i < recipients; i++) {
+      MqttFixedHeader header = new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_MOST_ONCE, false, 0);
+      channel.write(new MqttPublishMessage(header, new MqttPublishVariableHeader(topic, 0), payload.retainedDuplicate()));
+    }
+    channel.flush();
+  }
+
+  @Benchmark
+  public void encodeOnce() {
+    ByteBuf frame = PublishEncoder.encodeQos0(channel.alloc(), topic, payload, false);
+    for (int i = 0; i < recipients; i++) {
+      channel.write(frame.retainedDuplicate());
+    }
+    frame.release();
+    channel.flush();
+  }
+
+}
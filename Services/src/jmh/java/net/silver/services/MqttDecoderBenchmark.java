@@ -0,0 +1,77 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound decode throughput of the broker's MqttDecoder for typical POS traffic:
+ * terminal heartbeats (32 B), price / stock updates (256 B) and full receipts (2 KB).
+ * <p>
+ * One invocation feeds a buffer holding {@link #BATCH} back-to-back PUBLISH packets
+ * (as a socket read would) and consumes every decoded message.
+ * <p>
+ * Run with: gradlew :Services:jmh -Pjmh.includes=MqttDecoderBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class MqttDecoderBenchmark {
+
+  private static final int BATCH = 64;
+
+  @Param({"32", "256", "2048"})
+  public int payloadSize;
+
+  @Param({"AT_MOST_ONCE", "AT_LEAST_ONCE"})
+  public String qos;
+
+  private EmbeddedChannel channel;
+  private ByteBuf packets;
+
+  @Setup
+  public void setup() {
+    // Encode the batch once with the client-side encoder
+    EmbeddedChannel encoder = new EmbeddedChannel(MqttEncoder.INSTANCE);
+    packets = PooledByteBufAllocator.DEFAULT.directBuffer();
+    for (int i = 0; i < BATCH; i++) {
+      encoder.writeOutbound(MqttMessageBuilders.publish()
+          .topicName("stores/42/terminals/" + (i % 8) + "/sales")
+          .qos(MqttQoS.valueOf(qos))
+          .messageId(i + 1)
+          .payload(Unpooled.wrappedBuffer(new byte[payloadSize]))
+          .build());
+      ByteBuf encoded = encoder.readOutbound();
+      packets.writeBytes(encoded);
+      encoded.release();
+    }
+    encoder.finishAndReleaseAll();
+
+    channel = new EmbeddedChannel(new MqttDecoder(256 * 1024));
+  }
+
+  @TearDown
+  public void tearDown() {
+    packets.release();
+    channel.finishAndReleaseAll();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int decode() {
+    channel.writeInbound(packets.retainedDuplicate());
+    int decoded = 0;
+    for (Object msg; (msg = channel.readInbound()) != null; ) {
+      ReferenceCountUtil.release(msg);
+      decoded++;
+    }
+    return decoded;
+  }
+
+}
@@ -0,0 +1,124 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost of one PUBLISH through BrokerHandler: retained check, trie walk, recipient
+ * dedupe, per-loop batching, QoS 0 frame encoding, one write per subscriber and the
+ * coalesced flush of every subscriber channel.
+ * <p>
+ * Publisher and subscribers are EmbeddedChannels (no sockets, single thread); each subscriber
+ * pipeline ends in a sink that releases what would reach the socket. Every subscriber uses
+ * the filter "stores/+/prices" (half of them through "stores/#" as well, so dedupe is exercised).
+ * <p>
+ * Run with: gradlew :Services:jmh -Pjmh.includes=PublishFanOutBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PublishFanOutBenchmark {
+
+  @Param({"1", "100", "10000"})
+  public int subscribers;
+
+  @Param({"AT_MOST_ONCE", "AT_LEAST_ONCE"})
+  public String qos;
+
+  private MQTTBroker broker;
+  private EmbeddedChannel publisher;
+  private EmbeddedChannel[] subscriberChannels;
+  private ByteBuf payload;
+  private MqttQoS publishQoS;
+  private int packetId;
+
+  @Setup
+  public void setup() throws Exception {
+    broker = new MQTTBroker(Files.createTempDirectory("mqtt-bench"), MQTTBroker.DEFAULT_LIMITS);
+    publishQoS = MqttQoS.valueOf(qos);
+
+    subscriberChannels = new EmbeddedChannel[subscribers];
+    for (int i = 0; i < subscribers; i++) {
+      EmbeddedChannel ch = connect("sub-" + i, new Sink());
+      MqttMessageBuilders.SubscribeBuilder subscribe = MqttMessageBuilders.subscribe().messageId(1).addSubscription(publishQoS, "stores/+/prices");
+      if (i % 2 == 0) {
+        subscribe.addSubscription(publishQoS, "stores/#");
+      }
+      ch.writeInbound(subscribe.build());
+      subscriberChannels[i] = ch;
+    }
+    publisher = connect("publisher", new Sink());
+    payload = PooledByteBufAllocator.DEFAULT.directBuffer(128).writeZero(128);
+  }
+
+  private EmbeddedChannel connect(String clientId, Sink sink) {
+    EmbeddedChannel ch = new EmbeddedChannel(sink, MqttEncoder.INSTANCE, broker.newHandler());
+    ch.writeInbound(MqttMessageBuilders.connect().clientId(clientId).protocolVersion(MqttVersion.MQTT_3_1_1).cleanSession(true).build());
+    return ch;
+  }
+
+  @TearDown
+  public void tearDown() {
+    payload.release();
+    publisher.finishAndReleaseAll();
+    for (EmbeddedChannel ch : subscriberChannels) {
+      ch.finishAndReleaseAll();
+    }
+  }
+
+  @Benchmark
+  public void publish() {
+    int id = publishQoS == MqttQoS.AT_MOST_ONCE ? 0 : nextPacketId();
+    MqttFixedHeader header = new MqttFixedHeader(MqttMessageType.PUBLISH, false, publishQoS, false, 0);
+    publisher.writeInbound(new MqttPublishMessage(header, new MqttPublishVariableHeader("stores/42/prices", id), payload.retainedDuplicate()));
+
+    // Subscriber loop iteration: coalesced flush; QoS 1: the client acknowledges (frees the in-flight slot)
+    for (EmbeddedChannel ch : subscriberChannels) {
+      ch.runPendingTasks();
+      if (publishQoS != MqttQoS.AT_MOST_ONCE) {
+        ch.writeInbound(MqttMessageBuilders.pubAck().packetId(((Sink) ch.pipeline().first()).lastPacketId).build());
+      }
+    }
+  }
+
+  private int nextPacketId() {
+    packetId = packetId == 65535 ? 1 : packetId + 1;
+    return packetId;
+  }
+
+  /**
+   * Socket stand-in: releases every outbound message and remembers the last packet ID sent.
+   */
+  private static final class Sink extends ChannelOutboundHandlerAdapter {
+    int lastPacketId;
+
+    @Override public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+      if (msg instanceof ByteBuf frame && frame.readableBytes() > 4 && (frame.getByte(frame.readerIndex()) & 0xF0) == 0x30) {
+        // QoS 1 PUBLISH: packet ID follows the topic (fixed header + remaining length + topic length + topic)
+        int qos = (frame.getByte(frame.readerIndex()) >> 1) & 0x03;
+        if (qos > 0) {
+          int index = frame.readerIndex() + 1;
+          while ((frame.getByte(index) & 0x80) != 0) {
+            index++;
+          }
+          index++;
+          int topicLength = frame.getUnsignedShort(index);
+          lastPacketId = frame.getUnsignedShort(index + 2 + topicLength);
+        }
+      }
+      ReferenceCountUtil.release(msg);
+      promise.setSuccess();
+    }
+  }
+
+}
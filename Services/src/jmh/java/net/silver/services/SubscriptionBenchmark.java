@@ -0,0 +1,84 @@
+package net.silver.services;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscription index ({@link TopicTree}) with {@code filters} POS-style filters installed
+ * (per-store and per-terminal, exact and wildcard):
+ * - subscribeUnsubscribe: one SUBSCRIBE + UNSUBSCRIBE pair on a new filter (copy-on-write arrays, pruning)
+ * - route: trie walk and recipient dedupe for one published topic
+ * - aclPublishCheck: PUBLISH permission check against a {@link TopicAcl} compiled from the same filters
+ * <p>
+ * Run with: gradlew :Services:jmh -Pjmh.includes=SubscriptionBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class SubscriptionBenchmark {
+
+  @Param({"1", "100", "10000"})
+  public int filters;
+
+  private TopicTree tree;
+  private ClientSession[] sessions;
+  private ClientSession extra;
+  private TopicAcl acl;
+  private int next;
+
+  @Setup
+  public void setup() {
+    tree = new TopicTree();
+    MQTTBroker.BrokerMetrics metrics = new MQTTBroker.BrokerMetrics();
+    sessions = new ClientSession[16];
+    for (int i = 0; i < sessions.length; i++) {
+      sessions[i] = new ClientSession("s" + i, new EmbeddedChannel(), MQTTBroker.DEFAULT_LIMITS, null, metrics);
+    }
+    extra = new ClientSession("extra", new EmbeddedChannel(), MQTTBroker.DEFAULT_LIMITS, null, metrics);
+
+    Map<String, Integer> allowed = new HashMap<>();
+    for (int i = 0; i < filters; i++) {
+      int store = i % 100;
+      int terminal = i / 100;
+      String filter = switch (i % 4) {
+        case 0 -> "stores/" + store + "/terminals/" + terminal + "/sales";
+        case 1 -> "stores/" + store + "/terminals/+/sales";
+        case 2 -> "stores/" + store + "/#";
+        default -> "stores/+/terminals/" + terminal + "/status";
+      };
+      tree.subscribe(filter, sessions[i % sessions.length], MqttQoS.AT_MOST_ONCE);
+      allowed.put(filter, TopicAcl.PUBLISH);
+    }
+    acl = TopicAcl.compile(allowed);
+  }
+
+  @Benchmark
+  public boolean subscribeUnsubscribe() {
+    String filter = "stores/" + (next++ & 1023) + "/terminals/new/sales";
+    tree.subscribe(filter, extra, MqttQoS.AT_LEAST_ONCE);
+    return tree.unsubscribe(filter, extra);
+  }
+
+  @Benchmark
+  public void route(Blackhole bh) {
+    Recipients recipients = Recipients.acquire();
+    try {
+      tree.collect("stores/42/terminals/7/sales", recipients);
+      bh.consume(recipients.size());
+    } finally {
+      recipients.release();
+    }
+  }
+
+  @Benchmark
+  public boolean aclPublishCheck() {
+    return acl.canPublish("stores/42/terminals/7/sales");
+  }
+
+}
@@ -0,0 +1,109 @@
+package net.silver.services;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the allocation-free {@link MqttTopics} helpers with the previous
+ * String.split("/") based implementation that lived in MQTTBroker.
+ * <p>
+ * Run with: gradlew :Services:jmh -Pjmh.includes=TopicMatchingBenchmark
+ * Add "-prof gc" to see the allocation rate (legacy: two String[] plus one substring per level).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class TopicMatchingBenchmark {
+
+  @Param({"stores/+/terminals/+/sales", "stores/42/#", "stores/42/terminals/7/sales"})
+  public String filter;
+
+  public String topic = "stores/42/terminals/7/sales";
+
+  @Benchmark
+  public boolean matchesLegacy() {
+    return legacyTopicMatches(filter, topic);
+  }
+
+  @Benchmark
+  public boolean matchesInPlace() {
+    return MqttTopics.matches(filter, topic);
+  }
+
+  @Benchmark
+  public boolean validateLegacy() {
+    return legacyValidateTopicFilter(filter);
+  }
+
+  @Benchmark
+  public boolean validateInPlace() {
+    return MqttTopics.isValidFilter(filter);
+  }
+
+  @Benchmark
+  public void matchesMiss(Blackhole bh) {
+    bh.consume(MqttTopics.matches(filter, "prices/list/full"));
+  }
+
+  // ============================================================================
+  // BASELINE (pre-trie MQTTBroker implementation, kept verbatim for comparison)
+  // ============================================================================
+
+  private static boolean legacyTopicMatches(String filter, String topic) {
+    if (filter.equals(topic)) {
+      return true;
+    }
+
+    String[] filterLevels = filter.split("/", -1);
+    String[] topicLevels = topic.split("/", -1);
+
+    for (int i = 0; i < filterLevels.length; i++) {
+      String filterLevel = filterLevels[i];
+      if (filterLevel.equals("#")) {
+        return i == filterLevels.length - 1;
+      }
+      if (i >= topicLevels.length) {
+        return false;
+      }
+      if (filterLevel.equals("+")) {
+        continue;
+      }
+      if (!filterLevel.equals(topicLevels[i])) {
+        return false;
+      }
+    }
+    return filterLevels.length == topicLevels.length;
+  }
+
+  private static boolean legacyValidateTopicFilter(String filter) {
+    if (filter == null || filter.isEmpty() || filter.contains("\u0000")) {
+      return false;
+    }
+    if (filter.length() > MqttTopics.MAX_TOPIC_LENGTH) {
+      return false;
+    }
+
+    String[] levels = filter.split("/", -1);
+    int lastIndex = levels.length - 1;
+
+    for (int i = 0; i < levels.length; i++) {
+      String level = levels[i];
+      if (level.isEmpty()) {
+        if (i != 0 && i != lastIndex) {
+          return false;
+        }
+        continue;
+      }
+      if (level.contains("#") && (i != lastIndex || level.length() > 1)) {
+        return false;
+      }
+      if (level.contains("+") && level.length() > 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
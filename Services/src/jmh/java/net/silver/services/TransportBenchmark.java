@@ -0,0 +1,149 @@
+package net.silver.services;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection setup rate and QoS 0 publish throughput of the broker per {@link Transport},
+ * over loopback TCP with clients on the same transport.
+ * <p>
+ * - connect: TCP connect + CONNECT/CONNACK + close, one connection per operation
+ * - publish: one publisher, {@link #SUBSCRIBERS} subscribers; an operation is one PUBLISH
+ *   (measured in bursts of {@link #BURST}, each burst waits until every delivery has arrived)
+ * <p>
+ * Native transports must be available on the machine (Linux); others fail at setup.
+ * <p>
+ * Run with: gradlew :Services:jmh -Pjmh.includes=TransportBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+
+  private static final int SUBSCRIBERS = 10;
+  private static final int BURST = 1000;
+
+  @Param({"NIO", "EPOLL", "IO_URING"})
+  public String transport;
+
+  private MQTTBroker broker;
+  private MultiThreadIoEventLoopGroup clientGroup;
+  private Bootstrap bootstrap;
+  private int port;
+
+  private final AtomicLong clientIds = new AtomicLong();
+  private final List<Channel> clients = new ArrayList<>();
+  private Channel publisher;
+  private volatile CountDownLatch deliveries = new CountDownLatch(0);
+  private final byte[] payload = new byte[64];
+
+  @Setup
+  public void setup() throws Exception {
+    Transport selected = Transport.valueOf(transport);
+    if (!selected.isAvailable()) {
+      throw new IllegalStateException("Transport " + selected + " is not available on this machine");
+    }
+    // No admission control: connect() measures the transport, not the CONNECT token bucket
+    broker = new MQTTBroker(Files.createTempDirectory("mqtt-bench"), MQTTBroker.DEFAULT_LIMITS, selected, null);
+    port = broker.bind(0);
+
+    clientGroup = new MultiThreadIoEventLoopGroup(2, selected.ioHandlerFactory());
+    bootstrap = new Bootstrap().group(clientGroup).channel(selected.socketChannelClass()).option(ChannelOption.TCP_NODELAY, true);
+
+    for (int i = 0; i < SUBSCRIBERS; i++) {
+      Client subscriber = connect();
+      subscriber.channel.writeAndFlush(MqttMessageBuilders.subscribe().messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, "bench/#").build());
+      subscriber.await(MqttMessageType.SUBACK);
+      clients.add(subscriber.channel);
+    }
+    publisher = connect().channel;
+    clients.add(publisher);
+  }
+
+  @TearDown
+  public void tearDown() {
+    for (Channel client : clients) {
+      client.close().awaitUninterruptibly();
+    }
+    clientGroup.shutdownGracefully().awaitUninterruptibly();
+    broker.shutdown();
+  }
+
+  @Benchmark
+  public void connect(Blackhole bh) throws Exception {
+    Client client = connect();
+    bh.consume(client.channel.close().sync());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public void publish() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(BURST * SUBSCRIBERS);
+    deliveries = latch;
+    for (int i = 0; i < BURST; i++) {
+      publisher.write(MqttMessageBuilders.publish().topicName("bench/prices").qos(MqttQoS.AT_MOST_ONCE).payload(Unpooled.wrappedBuffer(payload)).build());
+    }
+    publisher.flush();
+    if (!latch.await(10, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("Deliveries missing: " + latch.getCount());
+    }
+  }
+
+  // ============================================================================
+  // CLIENT
+  // ============================================================================
+
+  private Client connect() throws Exception {
+    Client client = new Client();
+    client.channel = bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+      @Override protected void initChannel(SocketChannel ch) {
+        ch.pipeline().addLast(MqttEncoder.INSTANCE, new MqttDecoder(), client);
+      }
+    }).connect("127.0.0.1", port).sync().channel();
+    client.channel.writeAndFlush(MqttMessageBuilders.connect().clientId("bench-" + clientIds.incrementAndGet()).cleanSession(true).protocolVersion(MqttVersion.MQTT_3_1_1).build());
+    client.await(MqttMessageType.CONNACK);
+    return client;
+  }
+
+  /**
+   * Counts PUBLISH deliveries, queues control packets for {@link #await}.
+   */
+  private final class Client extends ChannelInboundHandlerAdapter {
+
+    private final BlockingQueue<MqttMessageType> control = new LinkedBlockingQueue<>();
+    private Channel channel;
+
+    @Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      if (msg instanceof MqttPublishMessage) {
+        deliveries.countDown();
+      }
+      else if (msg instanceof MqttMessage mqtt) {
+        control.add(mqtt.fixedHeader().messageType());
+      }
+      ReferenceCountUtil.release(msg);
+    }
+
+    void await(MqttMessageType type) throws InterruptedException {
+      MqttMessageType received = control.poll(5, TimeUnit.SECONDS);
+      if (received != type) {
+        throw new IllegalStateException("Expected " + type + " but got " + received);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,405 @@
+package net.silver.services;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loopback load generator and soak test for {@link MQTTBroker}.
+ * <p>
+ * Starts the broker in-process on an ephemeral port and connects {@code subscribers} +
+ * {@code publishers} simulated clients through Netty's MQTT codec on their own event loops.
+ * Every payload carries its send time, so subscribers measure publish-to-delivery latency.
+ * <p>
+ * TOPOLOGIES (topic = stores/{store}/terminals/{terminal}/sales, {@code stores} stores):
+ * - fanout: every subscriber subscribes to "stores/#" (each message goes to all subscribers)
+ * - store:  subscriber i subscribes to "stores/{i % stores}/#" (back office per store)
+ * - shared: every subscriber joins "$share/backoffice/stores/#" (one delivery per message)
+ * <p>
+ * REPORT (every {@code interval} seconds, plus a summary at the end):
+ * - published / delivered messages per second, publishes skipped by client backpressure
+ * - delivery latency p50 / p99 / p99.9 / max of the interval
+ * - connected clients, connects and disconnects (churn) per interval
+ * - direct memory: Netty's default allocator and the JVM's direct buffer pool
+ * <p>
+ * USAGE (key=value arguments, all optional):
+ * gradlew :Services:loadTest -Pload.args="subscribers=5000 publishers=50 rate=200 topology=store duration=600"
+ * <p>
+ * - subscribers=1000, publishers=10, rate=100 (messages/s per publisher, 0 = as fast as writable)
+ * - topology=store, stores=100, qos=0, payload=256 (bytes, at least 8)
+ * - churn=0 (subscriber reconnects per second), duration=60, interval=5 (seconds)
+ * - transport=EPOLL (IO_URING / EPOLL / NIO, falls back like the broker)
+ * - admission=false (true = the broker's default CONNECT token buckets, which cap the connect
+ *   rate at 500/s; off by default so "Connected N clients" measures the broker, not the cap)
+ * <p>
+ * Thousands of clients need two file descriptors each (client + broker side): raise
+ * "ulimit -n" accordingly.
+ */
+public final class LoadHarness {
+
+  private static final String HOST = "127.0.0.1";
+  private static final int CONNECT_CONCURRENCY = 256;
+  private static final long TICK_MS = 10;
+
+  // Configuration
+  private final int subscriberCount;
+  private final int publisherCount;
+  private final int rate;
+  private final String topology;
+  private final int stores;
+  private final MqttQoS qos;
+  private final int payloadSize;
+  private final int churn;
+  private final int durationSeconds;
+  private final int intervalSeconds;
+  private final Transport transport;
+  private final boolean admission;
+
+  // Measurements (recorded on the client event loops)
+  private final LatencyRecorder latency = new LatencyRecorder();
+  private final LongAdder published = new LongAdder();
+  private final LongAdder delivered = new LongAdder();
+  private final LongAdder backpressured = new LongAdder();
+  private final LongAdder connects = new LongAdder();
+  private final LongAdder disconnects = new LongAdder();
+  private final AtomicInteger connected = new AtomicInteger();
+
+  private MQTTBroker broker;
+  private MultiThreadIoEventLoopGroup clientGroup;
+  private Bootstrap bootstrap;
+  private int port;
+  private final List<Channel> subscribers = new CopyOnWriteArrayList<>();
+  private final List<Channel> publishers = new CopyOnWriteArrayList<>();
+  private final AtomicInteger clientIds = new AtomicInteger();
+
+  LoadHarness(Map<String, String> options) {
+    subscriberCount = Integer.parseInt(options.getOrDefault("subscribers", "1000"));
+    publisherCount = Integer.parseInt(options.getOrDefault("publishers", "10"));
+    rate = Integer.parseInt(options.getOrDefault("rate", "100"));
+    topology = options.getOrDefault("topology", "store");
+    stores = Integer.parseInt(options.getOrDefault("stores", "100"));
+    qos = MqttQoS.valueOf(Integer.parseInt(options.getOrDefault("qos", "0")));
+    payloadSize = Math.max(Long.BYTES, Integer.parseInt(options.getOrDefault("payload", "256")));
+    churn = Integer.parseInt(options.getOrDefault("churn", "0"));
+    durationSeconds = Integer.parseInt(options.getOrDefault("duration", "60"));
+    intervalSeconds = Integer.parseInt(options.getOrDefault("interval", "5"));
+    transport = Transport.select(Transport.valueOf(options.getOrDefault("transport", "EPOLL")));
+    admission = Boolean.parseBoolean(options.getOrDefault("admission", "false"));
+    if (!List.of("fanout", "store", "shared").contains(topology)) {
+      throw new IllegalArgumentException("Unknown topology: " + topology);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (eq <= 0) {
+        throw new IllegalArgumentException("Expected key=value, got: " + arg);
+      }
+      options.put(arg.substring(0, eq), arg.substring(eq + 1));
+    }
+    new LoadHarness(options).run();
+    System.exit(0);
+  }
+
+  // ============================================================================
+  // RUN
+  // ============================================================================
+
+  void run() throws Exception {
+    broker = new MQTTBroker(Files.createTempDirectory("mqtt-load"), MQTTBroker.DEFAULT_LIMITS, transport, admission ? MQTTBroker.DEFAULT_ADMISSION : null);
+    port = broker.bind(0);
+    clientGroup = new MultiThreadIoEventLoopGroup(transport.ioHandlerFactory());
+    bootstrap = new Bootstrap().group(clientGroup).channel(transport.socketChannelClass()).option(ChannelOption.TCP_NODELAY, true);
+
+    System.out.printf("Broker on %s:%d (%s), %d subscribers, %d publishers x %s msg/s, topology=%s, qos=%d, payload=%d B, churn=%d/s, admission=%s%n",
+        HOST, port, transport, subscriberCount, publisherCount, rate == 0 ? "max" : rate, topology, qos.value(), payloadSize, churn,
+        admission ? "on (connect rate capped)" : "off");
+
+    long start = System.nanoTime();
+    connectAll(subscriberCount, true);
+    connectAll(publisherCount, false);
+    System.out.printf("Connected %d clients in %d ms%n", connected.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+    ScheduledExecutorService control = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "LoadControl"));
+    if (churn > 0) {
+      control.scheduleAtFixedRate(this::churnOne, 0, 1_000_000 / churn, TimeUnit.MICROSECONDS);
+    }
+    for (Channel publisher : publishers) {
+      publisher.eventLoop().scheduleAtFixedRate(() -> publishTick(publisher), TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    report();
+
+    control.shutdownNow();
+    for (Channel ch : publishers) {
+      ch.close();
+    }
+    for (Channel ch : subscribers) {
+      ch.close();
+    }
+    clientGroup.shutdownGracefully().awaitUninterruptibly();
+    broker.shutdown();
+  }
+
+  private void connectAll(int count, boolean subscriber) throws InterruptedException {
+    Semaphore inFlight = new Semaphore(CONNECT_CONCURRENCY);
+    CountDownLatch done = new CountDownLatch(count);
+    for (int i = 0; i < count; i++) {
+      inFlight.acquire();
+      connect(subscriber).addListener(f -> {
+        inFlight.release();
+        done.countDown();
+        if (!f.isSuccess()) {
+          System.err.println("Connect failed: " + f.cause());
+        }
+      });
+    }
+    done.await();
+  }
+
+  /**
+   * Opens a client and completes once CONNACK (and SUBACK for subscribers) has arrived.
+   */
+  private Future<Void> connect(boolean subscriber) {
+    int id = clientIds.getAndIncrement();
+    Promise<Void> ready = ImmediateEventExecutor.INSTANCE.newPromise();
+    ClientHandler handler = new ClientHandler((subscriber ? "load-sub-" : "load-pub-") + id, subscriber ? filterFor(id) : null, ready);
+
+    ChannelFuture connect = bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+      @Override protected void initChannel(SocketChannel ch) {
+        ch.pipeline().addLast(new MqttDecoder(), MqttEncoder.INSTANCE, handler);
+      }
+    }).connect(HOST, port);
+    connect.addListener(f -> {
+      if (!f.isSuccess()) {
+        ready.tryFailure(f.cause());
+      }
+    });
+
+    Channel ch = connect.channel();
+    ch.closeFuture().addListener(f -> {
+      ready.tryFailure(new IllegalStateException("Closed before ready"));
+      if (handler.wasConnected) {
+        connected.decrementAndGet();
+        disconnects.increment();
+      }
+    });
+    ready.addListener(f -> {
+      if (f.isSuccess()) {
+        (subscriber ? subscribers : publishers).add(ch);
+      }
+    });
+    return ready;
+  }
+
+  private String filterFor(int id) {
+    return switch (topology) {
+      case "fanout" -> "stores/#";
+      case "shared" -> "$share/backoffice/stores/#";
+      default -> "stores/" + (id % stores) + "/#";
+    };
+  }
+
+  /**
+   * Closes a random subscriber and connects a replacement (connection churn).
+   */
+  private void churnOne() {
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    Channel victim = subscribers.remove(ThreadLocalRandom.current().nextInt(subscribers.size()));
+    victim.close().addListener(f -> connect(true));
+  }
+
+  // ============================================================================
+  // PUBLISHING
+  // ============================================================================
+
+  /**
+   * Runs on the publisher's event loop every {@link #TICK_MS}: sends rate × tick messages,
+   * or fills the channel up to its high-water mark when rate is 0.
+   */
+  private void publishTick(Channel ch) {
+    if (!ch.isActive()) {
+      return;
+    }
+    int burst = rate == 0 ? Integer.MAX_VALUE : (int) Math.max(1, rate * TICK_MS / 1000);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < burst; i++) {
+      if (!ch.isWritable()) {
+        if (rate != 0) {
+          backpressured.add(burst - i);
+        }
+        break;
+      }
+      String topic = "stores/" + random.nextInt(stores) + "/terminals/" + random.nextInt(16) + "/sales";
+      // Built directly: MqttMessageBuilders.publish() takes its own reference to the payload
+      int packetId = qos == MqttQoS.AT_MOST_ONCE ? 0 : 1 + random.nextInt(65535);
+      MqttFixedHeader header = new MqttFixedHeader(MqttMessageType.PUBLISH, false, qos, false, 0);
+      ch.write(new MqttPublishMessage(header, new MqttPublishVariableHeader(topic, packetId), payload(ch.alloc())), ch.voidPromise());
+      published.increment();
+    }
+    ch.flush();
+  }
+
+  private ByteBuf payload(ByteBufAllocator alloc) {
+    ByteBuf buf = alloc.ioBuffer(payloadSize);
+    buf.writeLong(System.nanoTime());
+    buf.writeZero(payloadSize - Long.BYTES);
+    return buf;
+  }
+
+  // ============================================================================
+  // CLIENT HANDLER
+  // ============================================================================
+
+  private final class ClientHandler extends SimpleChannelInboundHandler<MqttMessage> {
+    private final String clientId;
+    /** Subscription of a subscriber, null for a publisher */
+    private final String filter;
+    private final Promise<Void> ready;
+    boolean wasConnected;
+
+    ClientHandler(String clientId, String filter, Promise<Void> ready) {
+      this.clientId = clientId;
+      this.filter = filter;
+      this.ready = ready;
+    }
+
+    @Override public void channelActive(ChannelHandlerContext ctx) {
+      ctx.writeAndFlush(MqttMessageBuilders.connect().clientId(clientId).protocolVersion(MqttVersion.MQTT_3_1_1).cleanSession(true).keepAlive(0).build());
+    }
+
+    @Override protected void channelRead0(ChannelHandlerContext ctx, MqttMessage msg) {
+      switch (msg.fixedHeader().messageType()) {
+        case
+            CONNACK -> {
+          wasConnected = true;
+          connected.incrementAndGet();
+          connects.increment();
+          if (filter != null) {
+            ctx.writeAndFlush(MqttMessageBuilders.subscribe().messageId(1).addSubscription(qos, filter).build());
+          }
+          else {
+            ready.trySuccess(null);
+          }
+        }
+        case
+            SUBACK -> ready.trySuccess(null);
+        case
+            PUBLISH -> {
+          MqttPublishMessage publish = (MqttPublishMessage) msg;
+          ByteBuf payload = publish.payload();
+          if (payload.readableBytes() >= Long.BYTES) {
+            latency.record(System.nanoTime() - payload.getLong(payload.readerIndex()));
+          }
+          delivered.increment();
+          int packetId = publish.variableHeader().packetId();
+          switch (publish.fixedHeader().qosLevel()) {
+            case
+                AT_LEAST_ONCE -> ctx.writeAndFlush(MqttMessageBuilders.pubAck().packetId(packetId).build(), ctx.voidPromise());
+            case
+                EXACTLY_ONCE -> ctx.writeAndFlush(new MqttMessage(new MqttFixedHeader(MqttMessageType.PUBREC, false, MqttQoS.AT_MOST_ONCE, false, 0),
+                MqttMessageIdVariableHeader.from(packetId)), ctx.voidPromise());
+            default -> {
+            }
+          }
+        }
+        case
+            PUBREC -> ctx.writeAndFlush(new MqttMessage(new MqttFixedHeader(MqttMessageType.PUBREL, false, MqttQoS.AT_LEAST_ONCE, false, 0),
+            msg.variableHeader()), ctx.voidPromise());
+        case
+            PUBREL -> ctx.writeAndFlush(new MqttMessage(new MqttFixedHeader(MqttMessageType.PUBCOMP, false, MqttQoS.AT_MOST_ONCE, false, 0),
+            msg.variableHeader()), ctx.voidPromise());
+        default -> {
+          // PUBACK, PUBCOMP: nothing to track on the client side
+        }
+      }
+    }
+
+    @Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      ctx.close();
+    }
+  }
+
+  // ============================================================================
+  // REPORTING
+  // ============================================================================
+
+  private void report() throws Exception {
+    long startNanos = System.nanoTime();
+    LatencyRecorder.Snapshot first = latency.snapshot();
+    long maxDirect = 0;
+
+    System.out.printf("%6s %10s %10s %8s %9s %9s %9s %9s %7s %6s %6s %10s %10s%n",
+        "t[s]", "pub/s", "recv/s", "skip/s", "p50[ms]", "p99[ms]", "p99.9[ms]", "max[ms]", "clients", "conn", "disc", "netty", "direct");
+
+    long[] last = {published.sum(), delivered.sum(), backpressured.sum(), connects.sum(), disconnects.sum()};
+    LatencyRecorder.Snapshot previous = first;
+    for (int elapsed = intervalSeconds; elapsed <= durationSeconds; elapsed += intervalSeconds) {
+      Thread.sleep(intervalSeconds * 1000L);
+      long[] now = {published.sum(), delivered.sum(), backpressured.sum(), connects.sum(), disconnects.sum()};
+      LatencyRecorder.Snapshot current = latency.snapshot();
+      LatencyRecorder.Snapshot interval = current.since(previous);
+      long netty = ByteBufAllocator.DEFAULT instanceof ByteBufAllocatorMetricProvider provider ? provider.metric().usedDirectMemory() : -1;
+      long direct = jvmDirectMemory();
+      maxDirect = Math.max(maxDirect, direct);
+
+      System.out.printf("%6d %10.0f %10.0f %8.0f %9s %9s %9s %9s %7d %6d %6d %10s %10s%n",
+          elapsed,
+          (now[0] - last[0]) / (double) intervalSeconds,
+          (now[1] - last[1]) / (double) intervalSeconds,
+          (now[2] - last[2]) / (double) intervalSeconds,
+          millis(interval.valueAt(0.5)), millis(interval.valueAt(0.99)), millis(interval.valueAt(0.999)), millis(interval.valueAt(1.0)),
+          connected.get(), now[3] - last[3], now[4] - last[4],
+          megabytes(netty), megabytes(direct));
+      last = now;
+      previous = current;
+    }
+
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    LatencyRecorder.Snapshot total = latency.snapshot().since(first);
+    System.out.printf("%nSUMMARY over %.0f s: published %d (%.0f/s), delivered %d (%.0f/s), skipped %d%n",
+        seconds, published.sum(), published.sum() / seconds, delivered.sum(), delivered.sum() / seconds, backpressured.sum());
+    System.out.printf("latency p50 %s  p99 %s  p99.9 %s  max %s ms; connects %d, disconnects %d; max direct memory %s%n",
+        millis(total.valueAt(0.5)), millis(total.valueAt(0.99)), millis(total.valueAt(0.999)), millis(total.valueAt(1.0)),
+        connects.sum(), disconnects.sum(), megabytes(maxDirect));
+  }
+
+  private static long jvmDirectMemory() {
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if (pool.getName().equals("direct")) {
+        return pool.getMemoryUsed();
+      }
+    }
+    return -1;
+  }
+
+  private static String millis(long nanos) {
+    return String.format("%.3f", nanos / 1e6);
+  }
+
+  private static String megabytes(long bytes) {
+    return String.format("%.1fMB", bytes / (1024.0 * 1024));
+  }
+
+}
@@ -1,12 +1,18 @@
 open module net.silver.services {
 
   requires io.netty.transport;
+  requires io.netty.transport.classes.epoll;
+  requires io.netty.transport.classes.io_uring;
+  requires io.netty.transport.unix.common;
   requires io.netty.codec.mqtt;
+  requires io.netty.codec.http;
   requires io.netty.buffer;
   requires io.netty.handler;
   requires io.netty.codec;
   requires io.netty.common;
   requires net.silver.log;
+  requires net.silver.utils;
+  requires jdk.httpserver;
 
   exports net.silver.services;
 }
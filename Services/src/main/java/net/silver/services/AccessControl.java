@@ -0,0 +1,217 @@
+package net.silver.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publish / subscribe permissions of MQTT clients, per user and per user group.
+ * <p>
+ * A connection may use the topics allowed by the rules for everyone, for its group and for its
+ * user name (identity from the {@link Authenticator}); everything else is denied. In a filter,
+ * {@code %c} stands for the Client ID and {@code %u} for the user name
+ * (e.g. "stores/%c/sales" lets each terminal publish only its own sales).
+ * <p>
+ * CONFIG FILE FORMAT (one rule per line, '#' at line start is a comment):
+ * <pre>
+ * all
+ *   subscribe stores/+/prices
+ * group cashiers
+ *   publish   stores/%c/sales
+ * user admin
+ *   readwrite #
+ * </pre>
+ * Rules before the first section apply to everyone ({@code all}). Rules can also be added in
+ * code, e.g. from the users / groups tables.
+ * <p>
+ * COMPILATION: Rules are compiled into a {@link TopicAcl} trie at CONNECT. Roles (group without
+ * user rules or placeholders) are compiled once and shared; the rest per connection.
+ */
+public final class AccessControl {
+
+  public enum Permission {
+    PUBLISH(TopicAcl.PUBLISH),
+    SUBSCRIBE(TopicAcl.SUBSCRIBE),
+    READWRITE(TopicAcl.PUBLISH | TopicAcl.SUBSCRIBE);
+
+    final int bits;
+
+    Permission(int bits) {
+      this.bits = bits;
+    }
+  }
+
+  private record Rule(Permission permission, String filter, boolean personal) {
+  }
+
+  private final List<Rule> everyone = new ArrayList<>();
+  private final Map<String, List<Rule>> groups = new HashMap<>();
+  private final Map<String, List<Rule>> users = new HashMap<>();
+
+  /** Compiled tries of roles without personal rules: group ("" = no group) → ACL */
+  private final Map<String, TopicAcl> roles = new ConcurrentHashMap<>();
+
+  public synchronized AccessControl allowAll(Permission permission, String filter) {
+    everyone.add(rule(permission, filter));
+    roles.clear();
+    return this;
+  }
+
+  public synchronized AccessControl allowGroup(String group, Permission permission, String filter) {
+    groups.computeIfAbsent(group, g -> new ArrayList<>()).add(rule(permission, filter));
+    roles.clear();
+    return this;
+  }
+
+  public synchronized AccessControl allowUser(String userName, Permission permission, String filter) {
+    users.computeIfAbsent(userName, u -> new ArrayList<>()).add(rule(permission, filter));
+    roles.clear();
+    return this;
+  }
+
+  private static Rule rule(Permission permission, String filter) {
+    boolean personal = filter.contains("%c") || filter.contains("%u");
+    if (!MqttTopics.isValidFilter(personal ? substitute(filter, "c", "u") : filter) || MqttTopics.isShared(filter)) {
+      throw new IllegalArgumentException("Invalid ACL topic filter: " + filter);
+    }
+    return new Rule(permission, filter, personal);
+  }
+
+  // ============================================================================
+  // CONFIG FILE
+  // ============================================================================
+
+  /**
+   * Reads rules in the config file format (see class comment).
+   *
+   * @throws IllegalArgumentException on a malformed line (with its line number)
+   */
+  public static AccessControl load(Path file) throws IOException {
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return parse(reader);
+    }
+  }
+
+  static AccessControl parse(Reader reader) throws IOException {
+    AccessControl acl = new AccessControl();
+    BufferedReader lines = new BufferedReader(reader);
+    String sectionKind = "all";
+    String sectionName = null;
+    int lineNumber = 0;
+    for (String line; (line = lines.readLine()) != null; ) {
+      lineNumber++;
+      line = line.strip();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] words = line.split("\\s+");
+      try {
+        switch (words[0]) {
+          case "all" -> {
+            sectionKind = "all";
+            sectionName = null;
+          }
+          case "group", "user" -> {
+            if (words.length != 2) {
+              throw new IllegalArgumentException("Expected: " + words[0] + " <name>");
+            }
+            sectionKind = words[0];
+            sectionName = words[1];
+          }
+          case "publish", "subscribe", "readwrite" -> {
+            if (words.length != 2) {
+              throw new IllegalArgumentException("Expected: " + words[0] + " <topic filter>");
+            }
+            Permission permission = Permission.valueOf(words[0].toUpperCase());
+            switch (sectionKind) {
+              case "group" -> acl.allowGroup(sectionName, permission, words[1]);
+              case "user" -> acl.allowUser(sectionName, permission, words[1]);
+              default -> acl.allowAll(permission, words[1]);
+            }
+          }
+          default -> throw new IllegalArgumentException("Unknown keyword: " + words[0]);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("ACL line " + lineNumber + ": " + e.getMessage(), e);
+      }
+    }
+    return acl;
+  }
+
+  // ============================================================================
+  // COMPILATION
+  // ============================================================================
+
+  /**
+   * Returns the compiled permissions of a connection (cached on the channel by the broker).
+   *
+   * @param identity Authenticated identity, or null (only the rules for everyone apply)
+   * @param clientId Client ID, substituted for %c
+   */
+  TopicAcl forConnection(Authenticator.Identity identity, String clientId) {
+    String userName = identity == null ? null : identity.userName();
+    String group = identity == null || identity.group() == null ? "" : identity.group();
+
+    TopicAcl role = roles.get(group);
+    if (role != null && (userName == null || !hasUserRules(userName))) {
+      return role;
+    }
+
+    synchronized (this) {
+      List<Rule> applicable = new ArrayList<>(everyone);
+      applicable.addAll(groups.getOrDefault(group, List.of()));
+      boolean personal = applicable.stream().anyMatch(Rule::personal);
+      if (userName != null && users.containsKey(userName)) {
+        applicable.addAll(users.get(userName));
+        personal = true;
+      }
+
+      TopicAcl acl = compile(applicable, clientId, userName);
+      if (!personal) {
+        roles.put(group, acl);
+      }
+      return acl;
+    }
+  }
+
+  private synchronized boolean hasUserRules(String userName) {
+    return users.containsKey(userName);
+  }
+
+  private static TopicAcl compile(List<Rule> rules, String clientId, String userName) {
+    if (rules.isEmpty()) {
+      return TopicAcl.DENY_ALL;
+    }
+    Map<String, Integer> filters = new HashMap<>();
+    for (Rule rule : rules) {
+      String filter = rule.filter;
+      if (rule.personal) {
+        // An ID containing '/', '+' or '#' would widen the rule: skip it (deny)
+        if ((filter.contains("%c") && !isPlainLevel(clientId)) || (filter.contains("%u") && !isPlainLevel(userName))) {
+          continue;
+        }
+        filter = substitute(filter, clientId, userName);
+      }
+      filters.merge(filter, rule.permission.bits, (a, b) -> a | b);
+    }
+    return TopicAcl.compile(filters);
+  }
+
+  private static boolean isPlainLevel(String value) {
+    return value != null && !value.isEmpty() && value.indexOf('/') < 0 && value.indexOf('+') < 0 && value.indexOf('#') < 0;
+  }
+
+  private static String substitute(String filter, String clientId, String userName) {
+    String result = filter.replace("%c", clientId);
+    return userName == null ? result : result.replace("%u", userName);
+  }
+
+}
@@ -0,0 +1,15 @@
+package net.silver.services;
+
+/**
+ * Token-bucket admission of new sockets (CONNECT storm protection), see {@link ConnectAdmission}.
+ *
+ * @param connectRate     New connections admitted per second, over all addresses
+ * @param connectBurst    Admitted at once after an idle period
+ * @param perAddressRate  Same per source IP (loopback is only limited by the global bucket)
+ * @param perAddressBurst Per source IP burst
+ * @param queueCapacity   Sockets waiting for admission (unread) before new ones are refused
+ * @param maxWaitMillis   Longest wait of a queued socket before it is closed
+ */
+record AdmissionLimits(double connectRate, double connectBurst, double perAddressRate, double perAddressBurst,
+                       int queueCapacity, long maxWaitMillis) {
+}
@@ -0,0 +1,36 @@
+package net.silver.services;
+
+/**
+ * Credential check for MQTT CONNECT (service provider interface).
+ * <p>
+ * THREADING: Called on the broker's authentication executor, never on an event loop, so
+ * implementations may block (key derivation, database lookups). The connection stays
+ * unread until the result is back.
+ * <p>
+ * Successful results are cached by the broker for a short time, keyed by a digest of the
+ * presented credentials: a reconnecting client with unchanged credentials is not verified again.
+ */
+@FunctionalInterface
+public interface Authenticator {
+
+  /**
+   * @param clientId Client ID of the CONNECT
+   * @param userName User name, or null if absent
+   * @param password Password bytes, or null if absent
+   *
+   * @return the authenticated identity, or null to refuse the connection
+   *
+   * @throws Exception treated as a refusal (logged)
+   */
+  Identity authenticate(String clientId, String userName, byte[] password) throws Exception;
+
+  /**
+   * Who a connection belongs to, kept on the channel for its lifetime.
+   *
+   * @param userName Authenticated user name
+   * @param group    User group (users table {@code user_group}), or null
+   */
+  record Identity(String userName, String group) {
+  }
+
+}
@@ -0,0 +1,730 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.EventExecutor;
+import net.silver.log.slf4j.SilverLogger;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-client session state, created on a successful CONNECT.
+ * <p>
+ * A clean session lives exactly as long as its connection. A persistent session
+ * (CONNECT with CleanSession=0) outlives it: while offline its subscriptions stay in the
+ * topic trie, QoS 1/2 messages are queued (and appended to the {@link SessionStore}),
+ * and on reconnect unacknowledged and queued messages are re-sent.
+ * <p>
+ * OWNS:
+ * - Subscriptions of this client (filter → granted QoS) for O(K) cleanup
+ * - Its own packet-ID space and bounded QoS 1/2 in-flight window
+ * - A bounded outbound queue (messages and bytes) for messages that cannot be written yet
+ * - Inbound QoS 2 packet IDs received but not yet released (paged bitset)
+ * <p>
+ * OUTBOUND QoS 1/2 DELIVERY:
+ * 1. Reserve a packet ID in the {@link InflightWindow} (or queue if the window is full)
+ * 2. Write PUBLISH and keep a retained copy in the window
+ * 3. QoS 1: PUBACK frees the slot and drains the queue
+ *    QoS 2: PUBREC releases the payload and sends PUBREL, PUBCOMP frees the slot
+ * 4. Unacknowledged PUBLISH (DUP=1) / PUBREL are re-sent from a shared timer wheel
+ * <p>
+ * BACKPRESSURE (slow consumers):
+ * - A message is queued instead of written while the channel is not writable
+ *   (outbound buffer above the high water mark) or the in-flight window is full
+ * - channelWritabilityChanged / PUBACK / PUBCOMP drain the queue in FIFO order
+ * - A full queue applies the {@link OverflowPolicy}: drop oldest, drop new, or disconnect
+ * - The outbound buffer is thus bounded by the high water mark plus the queue limits
+ * <p>
+ * INBOUND QoS 2 (method B: deliver on PUBLISH, dedupe until PUBREL):
+ * - First PUBLISH with an ID is routed and the ID is recorded; re-sends are only re-acknowledged
+ * - PUBREL clears the ID and is answered with PUBCOMP
+ * <p>
+ * THREADING: All state is confined to one event loop, the executor: the channel's loop
+ * while connected, the last connection's loop while offline. On reconnect ownership is
+ * handed over to the new channel's loop. {@link #send} and the ack handlers may be called
+ * from any thread and hop to the executor when needed.
+ */
+final class ClientSession {
+
+  private static final SilverLogger LOGGER = new SilverLogger("ClientSession.class");
+
+  final String clientId;
+
+  /** Current connection, or null while a persistent session is offline */
+  volatile Channel channel;
+
+  /** Event loop owning the session state (see THREADING) */
+  private volatile EventExecutor executor;
+
+  /** CleanSession=0: the session survives disconnects */
+  final boolean persistent;
+
+  /** Current connection speaks MQTT 5 (selects the QoS 0 frame variant of a fan-out) */
+  volatile boolean mqtt5;
+
+  /** How long the session outlives its connection: MQTT 5 Session Expiry Interval in ms, -1 = never */
+  volatile long expiryMillis = -1;
+
+  /** Expiry of the offline session, armed by {@link #detach} */
+  private volatile Timeout expiryTimeout;
+
+  /** Disk store for a persistent session, or null (clean session / persistence disabled) */
+  private final SessionStore store;
+
+  /** Subscribed filters → granted QoS (event-loop confined) */
+  final Map<String, MqttQoS> subscriptions = new HashMap<>();
+
+  private final SessionLimits limits;
+  private final InflightWindow inflight;
+  private final ArrayDeque<PendingPublish> pending = new ArrayDeque<>();
+  private long pendingBytes;
+
+  /** Queue not empty: QoS 0 must not bypass it (read without hopping to the event loop) */
+  private volatile boolean backlogged;
+
+  /** Queued + in-flight messages, read by shared subscriptions to pick the least-loaded member */
+  private volatile int load;
+
+  /** Inbound QoS 2 IDs awaiting PUBREL (allocated on the first QoS 2 PUBLISH) */
+  private PacketIdSet inboundQos2;
+
+  private final Timer timer;
+  private final long retryNanos;
+  private final MQTTBroker.BrokerMetrics metrics;
+
+  private Timeout retryTimeout;
+  private boolean closed;
+
+  /** Registered with the loop's {@link FlushCoalescer} (event-loop confined) */
+  boolean flushScheduled;
+
+  /**
+   * Creates a clean session bound to {@code channel}.
+   */
+  ClientSession(String clientId, Channel channel, SessionLimits limits, Timer timer, MQTTBroker.BrokerMetrics metrics) {
+    this(clientId, channel, channel.eventLoop(), false, null, limits, timer, metrics);
+  }
+
+  /**
+   * @param channel  Current connection, or null for a session restored from the store
+   * @param executor Event loop owning the session state
+   */
+  ClientSession(String clientId, Channel channel, EventExecutor executor, boolean persistent, SessionStore store,
+                SessionLimits limits, Timer timer, MQTTBroker.BrokerMetrics metrics) {
+    this.clientId = clientId;
+    this.channel = channel;
+    this.executor = executor;
+    this.persistent = persistent;
+    this.store = store;
+    this.limits = limits;
+    this.inflight = new InflightWindow(limits.inflightWindow());
+    this.retryNanos = TimeUnit.MILLISECONDS.toNanos(limits.retryMillis());
+    this.timer = timer;
+    this.metrics = metrics;
+  }
+
+  // ============================================================================
+  // OUTBOUND DELIVERY
+  // ============================================================================
+
+  /**
+   * Delivers a message to this client. The caller keeps ownership of {@code payload}.
+   * QoS 0 messages to a writable channel without backlog are written directly
+   * (Channel.write is thread-safe); everything else is handed to the session's event loop.
+   * <p>
+   * Does not flush: the caller flushes once after its fan-out loop.
+   */
+  void send(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+    if (qos == MqttQoS.AT_MOST_ONCE) {
+      // QoS 0 is never queued for an offline session
+      Channel ch = channel;
+      if (ch == null) {
+        return;
+      }
+      if (!backlogged && ch.isWritable()) {
+        writeQos0(ch, topic, payload.retainedDuplicate(), retain);
+        return;
+      }
+    }
+
+    EventExecutor loop = executor;
+    if (loop.inEventLoop()) {
+      deliver(topic, payload, qos, retain);
+      return;
+    }
+
+    // Cross-thread: keep the payload alive until the task runs on the subscriber's loop
+    ByteBuf held = payload.retainedDuplicate();
+    loop.execute(() -> {
+      try {
+        deliver(topic, held, qos, retain);
+      } finally {
+        held.release();
+      }
+    });
+  }
+
+  /**
+   * Delivers a QoS 0 message whose PUBLISH was already serialized once for the whole fan-out
+   * (see {@link PublishEncoder}). The caller keeps ownership of {@code frame} and {@code payload}.
+   * Falls back to {@link #send} (queue) while the channel is backlogged or not writable.
+   */
+  void sendEncoded(ByteBuf frame, String topic, ByteBuf payload, boolean retain) {
+    Channel ch = channel;
+    if (ch == null) {
+      return;
+    }
+    if (!backlogged && ch.isWritable()) {
+      ch.write(frame.retainedDuplicate());
+      return;
+    }
+    send(topic, payload, MqttQoS.AT_MOST_ONCE, retain);
+  }
+
+  /**
+   * Writes or queues one message on the session's event loop. The caller keeps ownership of {@code payload}.
+   */
+  private void deliver(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+    if (closed) {
+      return;
+    }
+    if (!executor.inEventLoop()) {
+      // Ownership moved to another loop (reconnect) while this task was queued
+      send(topic, payload, qos, retain);
+      return;
+    }
+    Channel ch = channel;
+    if (ch == null) {
+      if (qos != MqttQoS.AT_MOST_ONCE) {
+        enqueue(topic, payload, qos, retain, OverflowPolicy.DROP_NEW);
+      }
+      return;
+    }
+
+    // Keep FIFO order: only bypass the queue if it is empty and the socket can take more
+    if (pending.isEmpty() && ch.isWritable()) {
+      if (qos == MqttQoS.AT_MOST_ONCE) {
+        writeQos0(ch, topic, payload.retainedDuplicate(), retain);
+        return;
+      }
+      int packetId = inflight.acquire();
+      if (packetId != 0) {
+        writeReliable(ch, packetId, topic, payload.retainedDuplicate(), qos, retain);
+        return;
+      }
+    }
+
+    // Slow consumer or window full: park until writability / PUBACK / PUBCOMP
+    enqueue(topic, payload, qos, retain, limits.overflowPolicy());
+  }
+
+  /**
+   * Adds a message to the bounded outbound queue, applying {@code policy} when it is full.
+   * Offline persistent sessions also append the message to the store.
+   */
+  private void enqueue(String topic, ByteBuf payload, MqttQoS qos, boolean retain, OverflowPolicy policy) {
+    int size = payload.readableBytes();
+    if (isFull(size)) {
+      switch (policy) {
+        case
+            DROP_NEW -> {
+          dropped(size);
+          return;
+        }
+        case
+            DROP_OLDEST -> {
+          while (!pending.isEmpty() && isFull(size)) {
+            PendingPublish oldest = takeFirst();
+            dropped(oldest.payload.readableBytes());
+            oldest.payload.release();
+          }
+          if (isFull(size)) {
+            dropped(size); // larger than the whole queue
+            return;
+          }
+        }
+        case
+            DISCONNECT -> {
+          dropped(size);
+          Channel ch = channel;
+          if (ch != null && ch.isActive()) {
+            LOGGER.warn("Disconnecting slow consumer " + clientId + " (" + pending.size() + " messages, " + pendingBytes + " bytes queued)");
+            metrics.incrementSlowConsumerDisconnects();
+            ch.close();
+          }
+          return;
+        }
+      }
+    }
+
+    if (channel == null && store != null && !store.enqueue(clientId, topic, qos, retain, payload)) {
+      dropped(size);
+      return;
+    }
+    pending.addLast(new PendingPublish(topic, payload.retainedDuplicate(), qos, retain));
+    pendingBytes += size;
+    metrics.addQueuedBytes(size);
+    backlogged = true;
+    updateLoad();
+  }
+
+  private boolean isFull(int incomingBytes) {
+    return pending.size() >= limits.maxQueuedMessages() || pendingBytes + incomingBytes > limits.maxQueuedBytes();
+  }
+
+  private PendingPublish takeFirst() {
+    PendingPublish p = pending.pollFirst();
+    int size = p.payload.readableBytes();
+    pendingBytes -= size;
+    metrics.addQueuedBytes(-size);
+    if (pending.isEmpty()) {
+      backlogged = false;
+    }
+    updateLoad();
+    return p;
+  }
+
+  private void updateLoad() {
+    load = pending.size() + inflight.size();
+  }
+
+  /**
+   * Outbound queue depth plus unacknowledged QoS 1/2 messages (readable from any thread, may be stale).
+   */
+  int load() {
+    return load;
+  }
+
+  private void dropped(int bytes) {
+    metrics.incrementDroppedMessages();
+    metrics.addDroppedBytes(bytes);
+  }
+
+  /**
+   * Writes one QoS 0 PUBLISH, transferring ownership of {@code payload} to the pipeline.
+   */
+  private static void writeQos0(Channel ch, String topic, ByteBuf payload, boolean retain) {
+    MqttFixedHeader header = new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_MOST_ONCE, retain, 0);
+    ch.write(new MqttPublishMessage(header, new MqttPublishVariableHeader(topic, 0), payload));
+  }
+
+  /**
+   * Writes one QoS 1/2 PUBLISH and transfers {@code payload} ownership to the in-flight window.
+   */
+  private void writeReliable(Channel ch, int packetId, String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+    MqttFixedHeader header = new MqttFixedHeader(MqttMessageType.PUBLISH, false, qos, retain, 0);
+    MqttPublishMessage message = new MqttPublishMessage(header, new MqttPublishVariableHeader(topic, packetId), payload);
+
+    inflight.put(packetId, message, System.nanoTime() + retryNanos);
+    updateLoad();
+    ch.write(message.retainedDuplicate());
+    scheduleRetry();
+  }
+
+  /**
+   * Handles PUBACK from the client: frees the window slot and drains queued messages.
+   */
+  void onPubAck(int packetId) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> onPubAck(packetId));
+      return;
+    }
+    if (inflight.ack(packetId)) {
+      updateLoad();
+      drainPending();
+    }
+  }
+
+  /**
+   * Handles PUBREC from the client: drops the stored payload and answers with PUBREL.
+   */
+  void onPubRec(int packetId) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> onPubRec(packetId));
+      return;
+    }
+    Channel ch = channel;
+    if (inflight.received(packetId, System.nanoTime() + retryNanos) && ch != null) {
+      ch.writeAndFlush(pubRel(packetId));
+    }
+  }
+
+  /**
+   * Handles PUBCOMP from the client: frees the window slot and drains queued messages.
+   */
+  void onPubComp(int packetId) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> onPubComp(packetId));
+      return;
+    }
+    if (inflight.complete(packetId)) {
+      updateLoad();
+      drainPending();
+    }
+  }
+
+  /**
+   * Handles channelWritabilityChanged: resumes draining once the outbound buffer fell below the low water mark.
+   */
+  void onWritabilityChanged() {
+    if (!executor.inEventLoop()) {
+      executor.execute(this::onWritabilityChanged);
+      return;
+    }
+    drainPending();
+  }
+
+  /**
+   * Writes queued messages in FIFO order while the channel is writable
+   * and (for QoS 1/2) the in-flight window has room.
+   */
+  private void drainPending() {
+    Channel ch = channel;
+    if (closed || ch == null) {
+      return;
+    }
+    boolean wrote = false;
+    while (!pending.isEmpty() && ch.isWritable()) {
+      PendingPublish next = pending.peekFirst();
+      if (next.qos == MqttQoS.AT_MOST_ONCE) {
+        takeFirst();
+        writeQos0(ch, next.topic, next.payload, next.retain);
+      }
+      else {
+        int id = inflight.acquire();
+        if (id == 0) {
+          break;
+        }
+        takeFirst();
+        writeReliable(ch, id, next.topic, next.payload, next.qos, next.retain);
+      }
+      wrote = true;
+    }
+    if (wrote) {
+      ch.flush();
+    }
+  }
+
+  // ============================================================================
+  // INBOUND QoS 2
+  // ============================================================================
+
+  /**
+   * Records an inbound QoS 2 PUBLISH. Called on the current connection's event loop.
+   *
+   * @return true if this is the first delivery of the ID (route it), false for a re-send
+   */
+  boolean onInboundQos2Publish(int packetId) {
+    if (inboundQos2 == null) {
+      inboundQos2 = new PacketIdSet();
+    }
+    return inboundQos2.add(packetId);
+  }
+
+  /**
+   * Inbound QoS 2 messages awaiting PUBREL (counted against the broker's MQTT 5 Receive Maximum).
+   */
+  int inboundQos2Count() {
+    return inboundQos2 == null ? 0 : inboundQos2.size();
+  }
+
+  /**
+   * @return true if the client's QoS 2 message with this ID is awaiting PUBREL (retransmission)
+   */
+  boolean isInboundQos2Pending(int packetId) {
+    return inboundQos2 != null && inboundQos2.contains(packetId);
+  }
+
+  /**
+   * Handles PUBREL from the client: forgets the ID and answers with PUBCOMP (always, per spec).
+   */
+  void onPubRel(Channel ch, int packetId) {
+    if (inboundQos2 != null) {
+      inboundQos2.remove(packetId);
+    }
+    MqttFixedHeader header = new MqttFixedHeader(MqttMessageType.PUBCOMP, false, MqttQoS.AT_MOST_ONCE, false, 0);
+    ch.writeAndFlush(new MqttMessage(header, MqttMessageIdVariableHeader.from(packetId)));
+  }
+
+  private static MqttMessage pubRel(int packetId) {
+    // PUBREL fixed header flags are 0b0010 (QoS 1 bit set) per spec
+    MqttFixedHeader header = new MqttFixedHeader(MqttMessageType.PUBREL, false, MqttQoS.AT_LEAST_ONCE, false, 0);
+    return new MqttMessage(header, MqttMessageIdVariableHeader.from(packetId));
+  }
+
+  // ============================================================================
+  // RETRANSMISSION
+  // ============================================================================
+
+  /**
+   * Arms one timer-wheel timeout per session (not per message) while messages are in flight.
+   */
+  private void scheduleRetry() {
+    if (retryTimeout == null && !closed) {
+      retryTimeout = timer.newTimeout(t -> executor.execute(this::retransmitExpired), retryNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void cancelRetry() {
+    if (retryTimeout != null) {
+      retryTimeout.cancel();
+      retryTimeout = null;
+    }
+  }
+
+  private void retransmitExpired() {
+    retryTimeout = null;
+    if (!executor.inEventLoop()) {
+      executor.execute(this::retransmitExpired);
+      return;
+    }
+    Channel ch = channel;
+    if (closed || ch == null || inflight.isEmpty()) {
+      return;
+    }
+
+    long now = System.nanoTime();
+    inflight.forEachExpired(now, now + retryNanos, (packetId, message) -> resend(ch, packetId, message));
+    ch.flush();
+    scheduleRetry();
+  }
+
+  private void resend(Channel ch, int packetId, MqttPublishMessage message) {
+    if (message == null) {
+      // QoS 2 after PUBREC: only the PUBREL is re-sent
+      ch.write(pubRel(packetId));
+    }
+    else {
+      MqttFixedHeader h = message.fixedHeader();
+      MqttFixedHeader dupHeader = new MqttFixedHeader(h.messageType(), true, h.qosLevel(), h.isRetain(), 0);
+      ch.write(new MqttPublishMessage(dupHeader, message.variableHeader(), message.payload().retainedDuplicate()));
+    }
+    metrics.incrementRetransmits();
+  }
+
+  // ============================================================================
+  // PERSISTENT SESSION: DETACH / ATTACH
+  // ============================================================================
+
+  /**
+   * Called when the connection of a persistent session closes (on that connection's loop).
+   * Subscriptions, in-flight and queued messages are kept; undelivered messages are
+   * appended to the store so they survive a broker restart.
+   *
+   * @param onExpiry Run on the timer thread once {@link #expiryMillis} passed offline
+   *                 (unless {@link #cancelExpiry} wins first)
+   */
+  void detach(Channel ch, Runnable onExpiry) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> detach(ch, onExpiry));
+      return;
+    }
+    if (closed || channel != ch) {
+      return; // already taken over by a newer connection
+    }
+    channel = null;
+    cancelRetry();
+    long expiry = expiryMillis;
+    if (expiry >= 0) {
+      expiryTimeout = timer.newTimeout(t -> onExpiry.run(), expiry, TimeUnit.MILLISECONDS);
+    }
+
+    if (store != null) {
+      inflight.forEach((packetId, message) -> {
+        if (message != null) {
+          MqttFixedHeader h = message.fixedHeader();
+          store.enqueue(clientId, message.variableHeader().topicName(), h.qosLevel(), h.isRetain(), message.payload());
+        }
+      });
+      for (PendingPublish p : pending) {
+        if (p.qos != MqttQoS.AT_MOST_ONCE) {
+          store.enqueue(clientId, p.topic, p.qos, p.retain, p.payload);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the expiry of an offline session that a client is about to resume.
+   *
+   * @return false if the session already expired (the expiry task owns it)
+   */
+  boolean cancelExpiry() {
+    Timeout timeout = expiryTimeout;
+    expiryTimeout = null;
+    return timeout == null || timeout.cancel();
+  }
+
+  /**
+   * Binds a reconnecting client to this persistent session (called on {@code ch}'s loop,
+   * after the CONNACK was written). Ownership moves to {@code ch}'s event loop, then the
+   * new connection's flow control is applied, unacknowledged messages are re-sent
+   * (DUP=1 / PUBREL) and queued messages drained.
+   *
+   * @param receiveMaximum See {@link #connected}
+   */
+  void attach(Channel ch, boolean mqtt5, int receiveMaximum) {
+    // Protocol level before the owner: fan-out picks the frame version from it once channel is set
+    this.mqtt5 = mqtt5;
+    // Publish the new owner first: stale packets from the old connection are ignored from now on
+    channel = ch;
+    EventExecutor previous = executor;
+    if (previous.inEventLoop()) {
+      handOver(ch, receiveMaximum);
+    }
+    else {
+      previous.execute(() -> handOver(ch, receiveMaximum));
+    }
+  }
+
+  private void handOver(Channel ch, int receiveMaximum) {
+    if (closed || channel != ch) {
+      return;
+    }
+    cancelRetry();
+    executor = ch.eventLoop();
+    if (ch.eventLoop().inEventLoop()) {
+      resume(ch, receiveMaximum);
+    }
+    else {
+      ch.eventLoop().execute(() -> resume(ch, receiveMaximum));
+    }
+  }
+
+  private void resume(Channel ch, int receiveMaximum) {
+    if (closed || channel != ch) {
+      return;
+    }
+    // Owned by this loop since handOver: the old loop no longer touches the window
+    inflight.limit(Math.min(limits.inflightWindow(), receiveMaximum));
+    if (store != null) {
+      store.clearQueue(clientId);
+    }
+    inflight.forEach((packetId, message) -> resend(ch, packetId, message));
+    drainPending();
+    ch.flush();
+    if (!inflight.isEmpty()) {
+      scheduleRetry();
+    }
+  }
+
+  /**
+   * Queues a message restored from the store (before any client attached).
+   * Takes ownership of {@code payload}.
+   */
+  void restore(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+    pending.addLast(new PendingPublish(topic, payload, qos, retain));
+    pendingBytes += payload.readableBytes();
+    metrics.addQueuedBytes(payload.readableBytes());
+    backlogged = true;
+    updateLoad();
+  }
+
+  /**
+   * Applies the protocol level and flow control of a new session's first connection
+   * (on its loop; a resumed session gets them through {@link #attach}).
+   *
+   * @param receiveMaximum Client's MQTT 5 Receive Maximum (in-flight QoS 1/2 messages it accepts),
+   *                       or the window capacity for 3.1.1 clients
+   */
+  void connected(boolean mqtt5, int receiveMaximum) {
+    this.mqtt5 = mqtt5;
+    inflight.limit(Math.min(limits.inflightWindow(), receiveMaximum));
+  }
+
+  /**
+   * Runs {@code task} on the event loop owning this session.
+   */
+  void execute(Runnable task) {
+    EventExecutor loop = executor;
+    if (loop.inEventLoop()) {
+      task.run();
+    }
+    else {
+      loop.execute(task);
+    }
+  }
+
+  /**
+   * Records a granted subscription (SUBSCRIBE on the current connection's loop).
+   */
+  void subscribed(String filter, MqttQoS qos) {
+    subscriptions.put(filter, qos);
+    if (store != null) {
+      store.subscribe(clientId, filter, qos);
+    }
+  }
+
+  void unsubscribed(String filter) {
+    subscriptions.remove(filter);
+    if (store != null) {
+      store.unsubscribe(clientId, filter);
+    }
+  }
+
+  /**
+   * Flushes pending writes of the current connection (no-op while offline).
+   */
+  void flush() {
+    Channel ch = channel;
+    if (ch != null) {
+      ch.flush();
+    }
+  }
+
+  /**
+   * Flushes at the end of the current event-loop iteration, shared with every other
+   * write to this connection in the same iteration (no-op while offline).
+   */
+  void flushLater() {
+    Channel ch = channel;
+    if (ch != null) {
+      FlushCoalescer.flushLater(this, ch);
+    }
+  }
+
+  /**
+   * Event loop currently owning the session state.
+   */
+  EventExecutor executor() {
+    return executor;
+  }
+
+  // ============================================================================
+  // LIFECYCLE
+  // ============================================================================
+
+  int inflightCount() {
+    return inflight.size();
+  }
+
+  /**
+   * Releases all in-flight and queued messages. Must run on the session's event loop.
+   */
+  void close() {
+    closed = true;
+    cancelRetry();
+    inflight.clear();
+    updateLoad();
+    if (inboundQos2 != null) {
+      inboundQos2.clear();
+    }
+    while (!pending.isEmpty()) {
+      ReferenceCountUtil.safeRelease(takeFirst().payload);
+    }
+  }
+
+  /**
+   * Message waiting for writability or a free in-flight slot (owns one payload reference).
+   */
+  private record PendingPublish(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+  }
+
+}
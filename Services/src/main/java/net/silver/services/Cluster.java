@@ -0,0 +1,655 @@
+package net.silver.services;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.Timer;
+import net.silver.log.slf4j.SilverLogger;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Links brokers of a cluster: a PUBLISH is forwarded only to the peers with a matching subscriber.
+ * <p>
+ * LINKS: Every node dials every configured peer. The dialed link carries two flows:
+ * - Accepting node → dialing node: subscription summary (snapshot on connect, then added / removed filters)
+ * - Dialing node → accepting node: PUBLISH frames matching that summary
+ * So each node forwards over the links it dialed and receives over the links it accepted;
+ * no node IDs or link deduplication are needed. Messages received from a peer are only
+ * routed to local subscribers (full mesh, never re-forwarded).
+ * <p>
+ * SUMMARY: A node announces each distinct filter with local subscribers once (first subscriber
+ * added, last one removed). The dialing side compiles the peer's filters into a {@link TopicAcl}
+ * trie (PUBLISH bit = "has subscribers"), recompiled once per read batch, so the forwarding
+ * check is an allocation-free trie walk per peer. Retained messages go to every peer, so a later
+ * subscriber on any node gets them.
+ * <p>
+ * SHARED SUBSCRIPTIONS: Announced with their group ("$share/{group}/{filter}"), kept apart from the
+ * plain filters. For each message the publishing node serves every matching group exactly once:
+ * - It collects the groups matching the topic on itself and on each connected peer
+ * - Per group it picks one of those nodes in round-robin order (that node then picks its member)
+ * - A peer's PUBLISH frame lists the groups it was picked for; it serves only those
+ *   (and is sent for them even if no plain filter of the peer matches)
+ * - Local routing skips the groups picked for a peer
+ * Topics without a group on any peer take the plain path (no allocation).
+ * <p>
+ * BATCHING: Frames are queued per link from any event loop; the first frame of a batch schedules
+ * one drain task on the link's loop, which writes everything queued and flushes once.
+ * The payload is not copied: each frame is a small header plus a retained duplicate.
+ * <p>
+ * BACKPRESSURE: A link holds at most {@code maxQueuedBytes} of frames waiting for the drain task,
+ * and Netty's outbound buffer becomes non-writable above the same amount. A PUBLISH frame is
+ * dropped (counted as cluster dropped) while the link is not writable or the queue is full, so a
+ * slow or stalled peer costs bounded memory and never slows local delivery. Summary frames are
+ * never dropped (a lost FILTER_REMOVED would leave the peer's summary wrong until reconnect);
+ * they are few and bounded by the number of distinct filters.
+ * <p>
+ * WIRE FORMAT (4-byte length prefix per frame):
+ * - FILTER_ADDED / FILTER_REMOVED: type, UTF-8 filter
+ * - PUBLISH: type, flags (bits 0-1 QoS, bit 2 retain), 2-byte topic length, UTF-8 topic,
+ *   2-byte number of shared groups to serve, each as 2-byte length and UTF-8 "$share/..." filter, payload
+ * <p>
+ * SECURITY:
+ * - The listener binds the configured address only (an interface of the store network, not 0.0.0.0)
+ * - A link is accepted only from the IP address of a configured peer; any other connection is
+ *   closed before a frame is read or our summary is sent
+ * - Peers are trusted: the origin node checked the publisher against its {@link AccessControl},
+ *   and the publisher's identity does not travel, so forwarded messages are routed without a
+ *   second ACL check. Only the topic name is validated (no wildcards)
+ * - Links are neither encrypted nor authenticated beyond the address: run them on a trusted
+ *   network or a VPN between sites
+ * <p>
+ * LIMITATIONS: Forwarding is at most once between nodes (a message in flight when a link drops
+ * is lost, whatever its QoS); sessions and retained messages are not replicated.
+ */
+final class Cluster {
+
+  /**
+   * Delivers a message received from a peer to the local subscribers (never back to the cluster).
+   * The payload is only valid during the call.
+   */
+  interface Router {
+    /**
+     * @param groups Shared groups this node was picked to serve (tested with the full "$share/..." filter)
+     */
+    void route(ByteBufAllocator alloc, String topic, ByteBuf payload, MqttQoS qos, boolean retain, Predicate<String> groups);
+  }
+
+  private static final SilverLogger LOGGER = new SilverLogger("Cluster.class");
+
+  private static final byte FILTER_ADDED = 1;
+  private static final byte FILTER_REMOVED = 2;
+  private static final byte PUBLISH = 3;
+
+  private static final int RETAIN_FLAG = 0x04;
+
+  /** A forwarded message naming no shared group: the receiving node serves none of its groups */
+  private static final Predicate<String> NO_GROUPS = filter -> false;
+
+  private final Router router;
+  private final int maxFrameSize;
+  private final long reconnectMillis;
+  private final int maxQueuedBytes;
+  private final Timer timer;
+  private final MQTTBroker.BrokerMetrics metrics;
+
+  /** Filter → number of local subscriptions (guarded by this) */
+  private final Map<String, Integer> localFilters = new HashMap<>();
+
+  /** Shared groups with members on this node, "$share/{group}/{filter}" (copy-on-write) */
+  private volatile Set<String> localShares = Set.of();
+
+  /** Round-robin position for picking the node that serves a shared group */
+  private final AtomicInteger shareCursor = new AtomicInteger();
+
+  /** Accepted links, receiving our summary (guarded by this) */
+  private final List<Outbox> summaryLinks = new ArrayList<>();
+
+  /** Dialed links, one per configured peer */
+  private final List<Peer> peers = new CopyOnWriteArrayList<>();
+
+  private final List<Channel> serverChannels = new ArrayList<>();
+  private volatile boolean closed;
+
+  /**
+   * @param maxPayloadSize  Largest PUBLISH payload accepted from clients
+   * @param reconnectMillis Delay before redialing a lost peer
+   * @param maxQueuedBytes  Backlog per link above which forwarded messages are dropped
+   */
+  Cluster(Router router, int maxPayloadSize, long reconnectMillis, int maxQueuedBytes, Timer timer, MQTTBroker.BrokerMetrics metrics) {
+    this.router = router;
+    this.maxFrameSize = maxPayloadSize + 64 * 1024;
+    this.reconnectMillis = reconnectMillis;
+    this.maxQueuedBytes = maxQueuedBytes;
+    this.timer = timer;
+    this.metrics = metrics;
+  }
+
+  // ============================================================================
+  // LINKS
+  // ============================================================================
+
+  /**
+   * Binds the cluster listener, on which peers dial in to receive forwarded messages.
+   * Only the addresses of peers added with {@link #addPeer} are accepted.
+   *
+   * @param address Local address to bind (port 0 for an ephemeral port)
+   *
+   * @return The bound port
+   */
+  int listen(EventLoopGroup boss, EventLoopGroup worker, Transport transport, InetSocketAddress address) throws InterruptedException {
+    ServerBootstrap b = new ServerBootstrap();
+    b.group(boss, worker).channel(transport.serverChannelClass())
+        .childOption(ChannelOption.TCP_NODELAY, true)
+        .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark())
+        .childHandler(new ChannelInitializer<SocketChannel>() {
+      @Override protected void initChannel(SocketChannel ch) {
+        InetAddress remote = ch.remoteAddress().getAddress();
+        if (!isPeer(remote)) {
+          LOGGER.warn("Cluster link from " + remote + " refused: not a configured peer");
+          ch.close();
+          return;
+        }
+        addCodec(ch.pipeline());
+        ch.pipeline().addLast("cluster", new AcceptedLink(new Outbox(ch)));
+      }
+    });
+    Channel serverChannel = b.bind(address).sync().channel();
+    synchronized (serverChannels) {
+      serverChannels.add(serverChannel);
+    }
+    return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+  }
+
+  /**
+   * Dials a peer's cluster listener; the link is redialed whenever it drops.
+   */
+  void addPeer(EventLoopGroup worker, Transport transport, InetSocketAddress address) {
+    Peer peer = new Peer(address, new Bootstrap().group(worker).channel(transport.socketChannelClass())
+        .option(ChannelOption.TCP_NODELAY, true)
+        .option(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark()));
+    peers.add(peer);
+    peer.connect();
+  }
+
+  private boolean isPeer(InetAddress remote) {
+    for (Peer peer : peers) {
+      if (remote.equals(peer.address.getAddress())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private WriteBufferWaterMark waterMark() {
+    return new WriteBufferWaterMark(maxQueuedBytes / 2, maxQueuedBytes);
+  }
+
+  private void addCodec(ChannelPipeline p) {
+    p.addLast("frameDecoder", new LengthFieldBasedFrameDecoder(maxFrameSize, 0, 4, 0, 4));
+    p.addLast("framePrepender", new LengthFieldPrepender(4));
+  }
+
+  void close() {
+    closed = true;
+    synchronized (serverChannels) {
+      for (Channel serverChannel : serverChannels) {
+        serverChannel.close();
+      }
+      serverChannels.clear();
+    }
+    for (Peer peer : peers) {
+      Channel ch = peer.channel;
+      if (ch != null) {
+        ch.close();
+      }
+    }
+    peers.clear();
+  }
+
+  /**
+   * @return Number of peers whose link is up (dialed side)
+   */
+  int connectedPeers() {
+    int connected = 0;
+    for (Peer peer : peers) {
+      if (peer.outbox != null) {
+        connected++;
+      }
+    }
+    return connected;
+  }
+
+  // ============================================================================
+  // SUBSCRIPTION SUMMARY
+  // ============================================================================
+
+  /**
+   * A session subscribed to {@code filter} (called once per new session / filter pair).
+   */
+  synchronized void subscribed(String filter) {
+    if (localFilters.merge(filter, 1, Integer::sum) == 1) {
+      if (MqttTopics.isShared(filter)) {
+        Set<String> updated = new HashSet<>(localShares);
+        updated.add(filter);
+        localShares = Set.copyOf(updated);
+      }
+      for (Outbox link : summaryLinks) {
+        link.send(filterFrame(link.channel.alloc(), FILTER_ADDED, filter));
+      }
+    }
+  }
+
+  /**
+   * A session's subscription to {@code filter} was removed.
+   */
+  synchronized void unsubscribed(String filter) {
+    Integer count = localFilters.computeIfPresent(filter, (f, n) -> n == 1 ? null : n - 1);
+    if (count == null) {
+      if (localShares.contains(filter)) {
+        Set<String> updated = new HashSet<>(localShares);
+        updated.remove(filter);
+        localShares = Set.copyOf(updated);
+      }
+      for (Outbox link : summaryLinks) {
+        link.send(filterFrame(link.channel.alloc(), FILTER_REMOVED, filter));
+      }
+    }
+  }
+
+  private static ByteBuf filterFrame(ByteBufAllocator alloc, byte type, String filter) {
+    ByteBuf frame = alloc.buffer(1 + ByteBufUtil.utf8MaxBytes(filter));
+    frame.writeByte(type);
+    ByteBufUtil.writeUtf8(frame, filter);
+    return frame;
+  }
+
+  // ============================================================================
+  // FORWARDING
+  // ============================================================================
+
+  /**
+   * Forwards a message published on this node to every peer with a matching subscriber
+   * (retained messages: to every peer) and picks the node serving each matching shared group
+   * (see SHARED SUBSCRIPTIONS). Called on the publisher's event loop before the message is routed
+   * locally; the caller keeps ownership of the payload.
+   *
+   * @return Shared groups this node serves, for {@link TopicTree#collect}; null for all of them
+   */
+  Predicate<String> forward(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+    Map<Peer, List<String>> picked = Map.of();
+    Set<String> servedByPeers = null;
+    Map<String, List<Peer>> groups = sharedGroupsOnPeers(topic);
+    if (groups != null) {
+      Set<String> local = localShares;
+      picked = new HashMap<>();
+      for (Map.Entry<String, List<Peer>> group : groups.entrySet()) {
+        List<Peer> candidates = group.getValue();
+        boolean servedHere = local.contains(group.getKey());
+        int pick = Math.floorMod(shareCursor.getAndIncrement(), candidates.size() + (servedHere ? 1 : 0));
+        if (pick == candidates.size()) {
+          continue; // This node
+        }
+        picked.computeIfAbsent(candidates.get(pick), p -> new ArrayList<>()).add(group.getKey());
+        if (servedHere) {
+          if (servedByPeers == null) {
+            servedByPeers = new HashSet<>();
+          }
+          servedByPeers.add(group.getKey());
+        }
+      }
+    }
+
+    for (Peer peer : peers) {
+      Outbox link = peer.outbox;
+      if (link == null) {
+        continue;
+      }
+      List<String> shares = picked.getOrDefault(peer, List.of());
+      if (!retain && shares.isEmpty() && !peer.summary.canPublish(topic)) {
+        metrics.incrementClusterFiltered();
+        continue;
+      }
+      ByteBufAllocator alloc = link.channel.alloc();
+      ByteBuf header = publishHeader(alloc, topic, qos, retain, shares);
+      if (link.offer(alloc.compositeBuffer(2).addComponents(true, header, payload.retainedDuplicate()))) {
+        metrics.incrementClusterForwarded();
+      }
+      else {
+        metrics.incrementClusterDropped();
+      }
+    }
+
+    Set<String> skipped = servedByPeers;
+    return skipped == null ? null : filter -> !skipped.contains(filter);
+  }
+
+  /**
+   * @return Shared group → connected peers with members, for the groups matching the topic;
+   *         null if no peer has one
+   */
+  private Map<String, List<Peer>> sharedGroupsOnPeers(String topic) {
+    Map<String, List<Peer>> groups = null;
+    for (Peer peer : peers) {
+      Shares shares = peer.shares;
+      if (peer.outbox == null || !shares.filters.canPublish(topic)) {
+        continue;
+      }
+      for (int i = 0; i < shares.keys.length; i++) {
+        if (MqttTopics.matches(shares.realFilters[i], topic)) {
+          if (groups == null) {
+            groups = new HashMap<>();
+          }
+          groups.computeIfAbsent(shares.keys[i], k -> new ArrayList<>(2)).add(peer);
+        }
+      }
+    }
+    return groups;
+  }
+
+  private static ByteBuf publishHeader(ByteBufAllocator alloc, String topic, MqttQoS qos, boolean retain, List<String> shares) {
+    int size = 6 + ByteBufUtil.utf8MaxBytes(topic);
+    for (String share : shares) {
+      size += 2 + ByteBufUtil.utf8MaxBytes(share);
+    }
+    ByteBuf header = alloc.buffer(size);
+    header.writeByte(PUBLISH);
+    header.writeByte(qos.value() | (retain ? RETAIN_FLAG : 0));
+    header.writeShort(ByteBufUtil.utf8Bytes(topic));
+    ByteBufUtil.writeUtf8(header, topic);
+    header.writeShort(shares.size());
+    for (String share : shares) {
+      header.writeShort(ByteBufUtil.utf8Bytes(share));
+      ByteBufUtil.writeUtf8(header, share);
+    }
+    return header;
+  }
+
+  /**
+   * Shared groups with members on a peer: their real filters compiled into a trie for a quick
+   * miss, then a scan of the (few) groups on a hit.
+   */
+  private record Shares(TopicAcl filters, String[] keys, String[] realFilters) {
+    static final Shares NONE = new Shares(TopicAcl.DENY_ALL, new String[0], new String[0]);
+
+    static Shares compile(List<String> keys) {
+      if (keys.isEmpty()) {
+        return NONE;
+      }
+      Map<String, Integer> filters = new HashMap<>();
+      String[] realFilters = new String[keys.size()];
+      for (int i = 0; i < realFilters.length; i++) {
+        String key = keys.get(i);
+        realFilters[i] = key.substring(MqttTopics.sharedFilterStart(key));
+        filters.put(realFilters[i], TopicAcl.PUBLISH);
+      }
+      return new Shares(TopicAcl.compile(filters), keys.toArray(new String[0]), realFilters);
+    }
+  }
+
+  /**
+   * Per-link send queue, drained in one batch on the link's event loop.
+   */
+  private final class Outbox implements Runnable {
+    final Channel channel;
+    private final Queue<ByteBuf> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** Bytes in {@link #pending}, approximate while frames are being added concurrently */
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    Outbox(Channel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Queues a summary frame (never dropped).
+     */
+    void send(ByteBuf frame) {
+      queuedBytes.addAndGet(frame.readableBytes());
+      pending.add(frame);
+      if (scheduled.compareAndSet(false, true)) {
+        channel.eventLoop().execute(this);
+      }
+    }
+
+    /**
+     * Queues a PUBLISH frame unless the link is backlogged.
+     *
+     * @return false if the frame was dropped (and released)
+     */
+    boolean offer(ByteBuf frame) {
+      if (!channel.isWritable() || queuedBytes.get() + frame.readableBytes() > maxQueuedBytes) {
+        frame.release();
+        return false;
+      }
+      send(frame);
+      return true;
+    }
+
+    @Override public void run() {
+      // Cleared first: a frame queued during the drain schedules the next batch
+      scheduled.set(false);
+      boolean active = channel.isActive();
+      for (ByteBuf frame; (frame = pending.poll()) != null; ) {
+        queuedBytes.addAndGet(-frame.readableBytes());
+        if (active) {
+          channel.write(frame, channel.voidPromise());
+        }
+        else {
+          frame.release();
+        }
+      }
+      if (active) {
+        channel.flush();
+      }
+    }
+  }
+
+  // ============================================================================
+  // ACCEPTED LINK (sends our summary, receives forwarded messages)
+  // ============================================================================
+
+  private final class AcceptedLink extends ChannelInboundHandlerAdapter {
+    private final Outbox outbox;
+
+    AcceptedLink(Outbox outbox) {
+      this.outbox = outbox;
+    }
+
+    @Override public void channelActive(ChannelHandlerContext ctx) {
+      // Snapshot and registration under one lock: no filter change is missed or sent twice
+      synchronized (Cluster.this) {
+        for (String filter : localFilters.keySet()) {
+          outbox.send(filterFrame(ctx.alloc(), FILTER_ADDED, filter));
+        }
+        summaryLinks.add(outbox);
+      }
+      LOGGER.info("Cluster peer connected from " + ctx.channel().remoteAddress());
+      ctx.fireChannelActive();
+    }
+
+    @Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      ByteBuf frame = (ByteBuf) msg;
+      try {
+        if (frame.readByte() != PUBLISH) {
+          LOGGER.warn("Unexpected cluster frame from " + ctx.channel().remoteAddress());
+          return;
+        }
+        int flags = frame.readByte();
+        String topic = frame.readCharSequence(frame.readUnsignedShort(), StandardCharsets.UTF_8).toString();
+        if (!MqttTopics.isValidTopicName(topic)) {
+          LOGGER.warn("Invalid topic name from cluster peer " + ctx.channel().remoteAddress() + ": " + topic);
+          return;
+        }
+        Predicate<String> groups = NO_GROUPS;
+        int shareCount = frame.readUnsignedShort();
+        if (shareCount > 0) {
+          Set<String> shares = new HashSet<>(shareCount * 2);
+          for (int i = 0; i < shareCount; i++) {
+            shares.add(frame.readCharSequence(frame.readUnsignedShort(), StandardCharsets.UTF_8).toString());
+          }
+          groups = shares::contains;
+        }
+        metrics.incrementClusterReceived();
+        router.route(ctx.alloc(), topic, frame, MqttQoS.valueOf(flags & 0x03), (flags & RETAIN_FLAG) != 0, groups);
+      } finally {
+        frame.release();
+      }
+    }
+
+    @Override public void channelInactive(ChannelHandlerContext ctx) {
+      synchronized (Cluster.this) {
+        summaryLinks.remove(outbox);
+      }
+      outbox.run(); // Releases anything still queued
+      ctx.fireChannelInactive();
+    }
+
+    @Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      LOGGER.error("Cluster link exception: " + cause.getMessage());
+      ctx.close();
+    }
+  }
+
+  // ============================================================================
+  // DIALED LINK (receives the peer's summary, sends forwarded messages)
+  // ============================================================================
+
+  private final class Peer extends ChannelInboundHandlerAdapter {
+    private final InetSocketAddress address;
+    private final Bootstrap bootstrap;
+
+    /** Compiled filters with subscribers on the peer, read by every publishing loop */
+    volatile TopicAcl summary = TopicAcl.DENY_ALL;
+
+    /** Shared groups with members on the peer */
+    volatile Shares shares = Shares.NONE;
+
+    /** Send queue while the link is up, else null */
+    volatile Outbox outbox;
+    volatile Channel channel;
+
+    /** Filters announced by the peer (link event loop only) */
+    private final Set<String> filters = new HashSet<>();
+    private boolean summaryChanged;
+
+    Peer(InetSocketAddress address, Bootstrap bootstrap) {
+      this.address = address;
+      this.bootstrap = bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+        @Override protected void initChannel(SocketChannel ch) {
+          addCodec(ch.pipeline());
+          ch.pipeline().addLast("cluster", Peer.this);
+        }
+      });
+    }
+
+    @Override public boolean isSharable() {
+      return true; // One link at a time; reused across reconnects
+    }
+
+    void connect() {
+      if (closed) {
+        return;
+      }
+      bootstrap.connect(address).addListener((ChannelFuture f) -> {
+        if (!f.isSuccess()) {
+          reconnectLater();
+        }
+      });
+    }
+
+    private void reconnectLater() {
+      if (!closed) {
+        timer.newTimeout(t -> connect(), reconnectMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    @Override public void channelActive(ChannelHandlerContext ctx) {
+      channel = ctx.channel();
+      outbox = new Outbox(ctx.channel());
+      LOGGER.info("Cluster link to " + address + " up");
+      ctx.fireChannelActive();
+    }
+
+    @Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      ByteBuf frame = (ByteBuf) msg;
+      try {
+        byte type = frame.readByte();
+        String filter = frame.toString(StandardCharsets.UTF_8);
+        switch (type) {
+          case FILTER_ADDED -> summaryChanged |= filters.add(filter);
+          case FILTER_REMOVED -> summaryChanged |= filters.remove(filter);
+          default -> LOGGER.warn("Unexpected cluster frame from " + address);
+        }
+      } finally {
+        frame.release();
+      }
+    }
+
+    @Override public void channelReadComplete(ChannelHandlerContext ctx) {
+      // One compilation per read batch (a snapshot of thousands of filters compiles once)
+      if (summaryChanged) {
+        summaryChanged = false;
+        Map<String, Integer> compiled = new HashMap<>();
+        List<String> sharedGroups = new ArrayList<>();
+        for (String filter : filters) {
+          if (MqttTopics.isShared(filter)) {
+            sharedGroups.add(filter);
+          }
+          else {
+            compiled.put(filter, TopicAcl.PUBLISH);
+          }
+        }
+        summary = TopicAcl.compile(compiled);
+        shares = Shares.compile(sharedGroups);
+      }
+      ctx.fireChannelReadComplete();
+    }
+
+    @Override public void channelInactive(ChannelHandlerContext ctx) {
+      Outbox lost = outbox;
+      outbox = null;
+      channel = null;
+      summary = TopicAcl.DENY_ALL;
+      shares = Shares.NONE;
+      filters.clear();
+      summaryChanged = false;
+      if (lost != null) {
+        lost.run(); // Releases anything still queued
+      }
+      LOGGER.warn("Cluster link to " + address + " down");
+      reconnectLater();
+      ctx.fireChannelInactive();
+    }
+
+    @Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      LOGGER.error("Cluster link exception: " + cause.getMessage());
+      ctx.close();
+    }
+  }
+
+}
@@ -0,0 +1,253 @@
+package net.silver.services;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.Timer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control for new connections (CONNECT storms after a store router reboots).
+ * <p>
+ * Sits first in every child pipeline. A new socket needs one token from the global bucket
+ * and one from the bucket of its source IP; with both it is admitted at once and this handler
+ * leaves the pipeline. Otherwise the socket waits in a bounded FIFO queue with auto-read off:
+ * nothing is read, so no CONNECT is decoded and no session takeover runs until it is admitted.
+ * <p>
+ * QUEUE:
+ * - Drained on the shared timer wheel, only while non-empty; each admission hops onto the
+ *   channel's event loop and turns auto-read back on
+ * - An IP whose bucket is empty is skipped, so one busy store does not hold up the others
+ * - Sockets are closed when the queue is full or after waiting {@code maxWaitNanos}
+ * - While the queue is non-empty new sockets queue behind it (FIFO fairness)
+ * <p>
+ * PERFORMANCE: The fast path is two synchronized token checks per accepted socket; rejection
+ * costs a close before a single byte is read.
+ */
+@ChannelHandler.Sharable
+final class ConnectAdmission extends ChannelInboundHandlerAdapter {
+
+  /** Per-IP buckets tracked before full (idle) ones are pruned */
+  private static final int MAX_TRACKED_ADDRESSES = 4096;
+
+  private final TokenBucket global;
+  private final double perAddressRate;
+  private final double perAddressBurst;
+  private final int queueCapacity;
+  private final long maxWaitNanos;
+  private final long drainIntervalMs;
+  private final Timer timer;
+  private final MQTTBroker.BrokerMetrics metrics;
+
+  private final Map<InetAddress, TokenBucket> addresses = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+  /**
+   * @param rate            Connections per second admitted in total
+   * @param burst           Connections admitted at once after an idle period
+   * @param perAddressRate  Connections per second admitted from one source IP
+   * @param perAddressBurst Connections admitted at once from one source IP (terminals behind one NAT)
+   * @param queueCapacity   Sockets waiting for admission before new ones are closed
+   * @param maxWaitMs       Longest wait in the queue (keep below the CONNECT timeout)
+   * @param drainIntervalMs Queue drain period on the timer
+   */
+  ConnectAdmission(double rate, double burst, double perAddressRate, double perAddressBurst,
+                   int queueCapacity, long maxWaitMs, long drainIntervalMs, Timer timer, MQTTBroker.BrokerMetrics metrics) {
+    this.global = new TokenBucket(rate, burst);
+    this.perAddressRate = perAddressRate;
+    this.perAddressBurst = perAddressBurst;
+    this.queueCapacity = queueCapacity;
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    this.drainIntervalMs = drainIntervalMs;
+    this.timer = timer;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return sockets currently waiting for admission
+   */
+  int queued() {
+    return queued.get();
+  }
+
+  @Override public void channelActive(ChannelHandlerContext ctx) {
+    // Always propagate: BrokerHandler pairs its connection gauge with channelInactive
+    ctx.fireChannelActive();
+
+    Channel ch = ctx.channel();
+    InetAddress address = address(ch);
+    long now = System.nanoTime();
+    if (queue.isEmpty() && tryAcquire(address, now)) {
+      ctx.pipeline().remove(this);
+      return;
+    }
+    if (queued.get() >= queueCapacity) {
+      metrics.incrementConnectsRejected();
+      ch.close();
+      return;
+    }
+
+    // Auto-read off before the pipeline's first read: the socket stays unread while queued
+    ch.config().setAutoRead(false);
+    queued.incrementAndGet();
+    queue.add(new Pending(ctx, address, now));
+    metrics.incrementConnectsQueued();
+    scheduleDrain();
+  }
+
+  private boolean tryAcquire(InetAddress address, long now) {
+    if (!global.tryAcquire(now)) {
+      return false;
+    }
+    if (address == null || bucket(address, now).tryAcquire(now)) {
+      return true;
+    }
+    global.refund();
+    return false;
+  }
+
+  private TokenBucket bucket(InetAddress address, long now) {
+    TokenBucket bucket = addresses.get(address);
+    if (bucket != null) {
+      return bucket;
+    }
+    if (addresses.size() >= MAX_TRACKED_ADDRESSES) {
+      // A full bucket is equivalent to a fresh one
+      addresses.values().removeIf(b -> b.isFull(now));
+    }
+    return addresses.computeIfAbsent(address, a -> new TokenBucket(perAddressRate, perAddressBurst));
+  }
+
+  /**
+   * @return the source IP, or null (global bucket only) for loopback and non-IP transports
+   */
+  private static InetAddress address(Channel ch) {
+    if (ch.remoteAddress() instanceof InetSocketAddress inet && !inet.getAddress().isLoopbackAddress()) {
+      return inet.getAddress();
+    }
+    return null;
+  }
+
+  // ============================================================================
+  // QUEUE DRAIN
+  // ============================================================================
+
+  private void scheduleDrain() {
+    if (drainScheduled.compareAndSet(false, true)) {
+      timer.newTimeout(t -> drain(), drainIntervalMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Runs on the timer thread: admits what the buckets allow, expires what waited too long.
+   */
+  private void drain() {
+    long now = System.nanoTime();
+    for (Iterator<Pending> it = queue.iterator(); it.hasNext(); ) {
+      Pending pending = it.next();
+      Channel ch = pending.ctx.channel();
+      if (!ch.isActive()) {
+        dequeue(it);
+      }
+      else if (now - pending.queuedNanos > maxWaitNanos) {
+        dequeue(it);
+        metrics.incrementConnectsRejected();
+        ch.close();
+      }
+      else if (tryAcquire(pending.address, now)) {
+        dequeue(it);
+        ch.eventLoop().execute(() -> admit(pending.ctx));
+      }
+      else if (!global.hasToken(now)) {
+        // Only expiry is left to do this round; it catches up on the next one
+        break;
+      }
+    }
+
+    drainScheduled.set(false);
+    if (!queue.isEmpty()) {
+      scheduleDrain();
+    }
+  }
+
+  private void dequeue(Iterator<Pending> it) {
+    it.remove();
+    queued.decrementAndGet();
+  }
+
+  private void admit(ChannelHandlerContext ctx) {
+    if (!ctx.channel().isActive()) {
+      return;
+    }
+    ctx.pipeline().remove(this);
+    ctx.channel().config().setAutoRead(true);
+  }
+
+  private record Pending(ChannelHandlerContext ctx, InetAddress address, long queuedNanos) {
+  }
+
+  // ============================================================================
+  // TOKEN BUCKET
+  // ============================================================================
+
+  /**
+   * Classic token bucket refilled lazily from the elapsed time (no refill thread).
+   */
+  static final class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilledNanos;
+
+    TokenBucket(double perSecond, double capacity) {
+      this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+      this.capacity = capacity;
+      this.tokens = capacity;
+      this.refilledNanos = System.nanoTime();
+    }
+
+    synchronized boolean tryAcquire(long now) {
+      refill(now);
+      if (tokens < 1) {
+        return false;
+      }
+      tokens--;
+      return true;
+    }
+
+    synchronized void refund() {
+      tokens = Math.min(capacity, tokens + 1);
+    }
+
+    synchronized boolean hasToken(long now) {
+      refill(now);
+      return tokens >= 1;
+    }
+
+    synchronized boolean isFull(long now) {
+      refill(now);
+      return tokens >= capacity;
+    }
+
+    private void refill(long now) {
+      long elapsed = now - refilledNanos;
+      if (elapsed > 0) {
+        tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+        refilledNanos = now;
+      }
+    }
+  }
+
+}
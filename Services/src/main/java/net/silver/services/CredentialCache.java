@@ -0,0 +1,102 @@
+package net.silver.services;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recently verified credentials, so a reconnect storm does not redo the key derivation.
+ * <p>
+ * LAYOUT:
+ * - Key: Client ID + user name; value: HMAC-SHA256 of the password under a random per-process
+ *   key, the resulting identity and an expiry time
+ * - No plain or reversible password is kept; the digest is worthless outside this process
+ * - LRU bounded to {@code maxEntries}; entries expire after {@code ttlMillis}, so a changed or
+ *   revoked password is honoured within the TTL
+ * <p>
+ * PERFORMANCE: A lookup is one HMAC (about a microsecond) and a synchronized map access;
+ * it runs on the event loop. Only misses go to the authentication executor.
+ */
+final class CredentialCache {
+
+  private static final String HMAC = "HmacSHA256";
+
+  private final byte[] secret = new byte[32];
+  private final long ttlNanos;
+  private final Map<String, Entry> entries;
+
+  private final FastThreadLocal<Mac> macs = new FastThreadLocal<>() {
+    @Override protected Mac initialValue() throws GeneralSecurityException {
+      Mac mac = Mac.getInstance(HMAC);
+      mac.init(new SecretKeySpec(secret, HMAC));
+      return mac;
+    }
+  };
+
+  CredentialCache(int maxEntries, long ttlMillis) {
+    new SecureRandom().nextBytes(secret);
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @return the cached identity if these exact credentials were verified within the TTL, else null
+   *     (always null without a password: nothing expensive to skip)
+   */
+  Authenticator.Identity lookup(String clientId, String userName, byte[] password) {
+    if (password == null) {
+      return null;
+    }
+    String key = key(clientId, userName);
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+    if (entry == null || System.nanoTime() - entry.expiresNanos > 0) {
+      return null;
+    }
+    return MessageDigest.isEqual(entry.digest, digest(password)) ? entry.identity : null;
+  }
+
+  /**
+   * Remembers successfully verified credentials.
+   */
+  void put(String clientId, String userName, byte[] password, Authenticator.Identity identity) {
+    if (password == null) {
+      return;
+    }
+    Entry entry = new Entry(digest(password), identity, System.nanoTime() + ttlNanos);
+    synchronized (entries) {
+      entries.put(key(clientId, userName), entry);
+    }
+  }
+
+  int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  private static String key(String clientId, String userName) {
+    return clientId + '\0' + (userName == null ? "" : userName);
+  }
+
+  private byte[] digest(byte[] password) {
+    return macs.get().doFinal(password);
+  }
+
+  private record Entry(byte[] digest, Authenticator.Identity identity, long expiresNanos) {
+  }
+
+}
@@ -0,0 +1,149 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.Recycler;
+
+import java.util.Arrays;
+
+/**
+ * Deliveries of one PUBLISH to the sessions owned by one other event loop.
+ * <p>
+ * The fan-out groups recipients by owning loop: sessions of the publisher's own loop
+ * are served inline straight from {@link Recipients} (no batch), every other loop gets
+ * exactly one batch task per publish (instead of one cross-thread task per recipient).
+ * Flushes go through {@link FlushCoalescer}, so they are shared with other publishes of
+ * the same iteration.
+ * <p>
+ * POOLING: Batches come from a Netty {@link Recycler}: taken on the routing thread,
+ * handed back by the loop that ran them, so their arrays (grown to the largest batch seen)
+ * are reused and a steady fan-out allocates no batch.
+ * <p>
+ * METRICS: Once all writes of the batch are issued, the time since the PUBLISH was
+ * decoded is recorded in the delivery latency histogram of the executing loop.
+ * <p>
+ * MEMORY SAFETY: The batch owns one reference to {@code payload} and releases it
+ * (and its lazily encoded QoS 0 frame) after {@link #run()}.
+ */
+final class DeliveryBatch implements Runnable {
+
+  private static final Recycler<DeliveryBatch> RECYCLER = new Recycler<>() {
+    @Override protected DeliveryBatch newObject(Handle<DeliveryBatch> handle) {
+      return new DeliveryBatch(handle);
+    }
+  };
+
+  private final Recycler.Handle<DeliveryBatch> handle;
+
+  private String topic;
+  private ByteBuf payload;
+  private MqttQoS publishQoS;
+  private ByteBufAllocator alloc;
+  private long receivedNanos;
+  private LatencyRecorder deliveryLatency;
+
+  private ClientSession[] sessions = new ClientSession[8];
+  private MqttQoS[] granted = new MqttQoS[8];
+  private int size;
+
+  private DeliveryBatch(Recycler.Handle<DeliveryBatch> handle) {
+    this.handle = handle;
+  }
+
+  /**
+   * @param payload       Payload reference owned by the batch
+   * @param receivedNanos System.nanoTime() when the PUBLISH was decoded
+   */
+  static DeliveryBatch newInstance(String topic, ByteBuf payload, MqttQoS publishQoS, ByteBufAllocator alloc, long receivedNanos, LatencyRecorder deliveryLatency) {
+    DeliveryBatch batch = RECYCLER.get();
+    batch.topic = topic;
+    batch.payload = payload;
+    batch.publishQoS = publishQoS;
+    batch.alloc = alloc;
+    batch.receivedNanos = receivedNanos;
+    batch.deliveryLatency = deliveryLatency;
+    return batch;
+  }
+
+  void add(ClientSession session, MqttQoS grantedQoS) {
+    if (size == sessions.length) {
+      sessions = Arrays.copyOf(sessions, size * 2);
+      granted = Arrays.copyOf(granted, size * 2);
+    }
+    sessions[size] = session;
+    granted[size] = grantedQoS;
+    size++;
+  }
+
+  /**
+   * Delivers to every session of the batch, then returns it to the pool. Runs on the sessions' event loop.
+   */
+  @Override public void run() {
+    try {
+      deliver(sessions, granted, size, false, topic, payload, publishQoS, alloc);
+      deliveryLatency.record(System.nanoTime() - receivedNanos);
+    } finally {
+      payload.release();
+      Arrays.fill(sessions, 0, size, null);
+      Arrays.fill(granted, 0, size, null);
+      size = 0;
+      topic = null;
+      payload = null;
+      alloc = null;
+      handle.recycle(this);
+    }
+  }
+
+  /**
+   * Writes one message to the given sessions. The caller keeps ownership of {@code payload}.
+   *
+   * @param thisLoopOnly Skip sessions of other loops and sessions whose channel is closed
+   *                     (inline delivery straight from the recipient set)
+   */
+  static void deliver(ClientSession[] sessions, MqttQoS[] granted, int size, boolean thisLoopOnly, String topic, ByteBuf payload, MqttQoS publishQoS, ByteBufAllocator alloc) {
+    // QoS 0 deliveries of this loop share one pre-encoded frame per protocol version (no per-channel MqttEncoder pass)
+    ByteBuf qos0Frame = null;
+    ByteBuf qos0Frame5 = null;
+    try {
+      for (int i = 0; i < size; i++) {
+        ClientSession session = sessions[i];
+        Channel ch = session.channel;
+        if (thisLoopOnly && (!session.executor().inEventLoop() || ch != null && !ch.isActive())) {
+          continue;
+        }
+        // Delivery QoS = min(publish QoS, granted QoS); existing subscribers always get RETAIN=0
+        MqttQoS qos = publishQoS.value() <= granted[i].value() ? publishQoS : granted[i];
+        if (qos == MqttQoS.AT_MOST_ONCE && ch != null) {
+          ByteBuf frame;
+          if (session.mqtt5) {
+            if (qos0Frame5 == null) {
+              qos0Frame5 = PublishEncoder.encodeQos0(alloc, topic, payload, false, true);
+            }
+            frame = qos0Frame5;
+          }
+          else {
+            if (qos0Frame == null) {
+              qos0Frame = PublishEncoder.encodeQos0(alloc, topic, payload, false);
+            }
+            frame = qos0Frame;
+          }
+          session.sendEncoded(frame, topic, payload, false);
+        }
+        else {
+          session.send(topic, payload, qos, false);
+        }
+        session.flushLater();
+      }
+    } finally {
+      if (qos0Frame != null) {
+        qos0Frame.release();
+      }
+      if (qos0Frame5 != null) {
+        qos0Frame5.release();
+      }
+    }
+  }
+
+}
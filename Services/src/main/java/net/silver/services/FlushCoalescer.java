@@ -0,0 +1,82 @@
+package net.silver.services;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Coalesces flushes of subscriber channels per event-loop iteration.
+ * <p>
+ * Fan-out only writes; the session is registered here instead of flushing. The first
+ * registration in an iteration schedules one task on the loop, which runs after the
+ * current I/O and task batch and flushes every registered session once. A burst of
+ * publishes read in one iteration therefore costs one writev per subscriber, not one per message.
+ * <p>
+ * THREADING: One instance per event loop, looked up through a FastThreadLocal of the
+ * loop's thread (a worker thread drives exactly one loop; only EmbeddedEventLoop in tests
+ * shares a thread between loops). Never touched from another thread.
+ */
+final class FlushCoalescer implements Runnable {
+
+  private static final FastThreadLocal<Map<EventLoop, FlushCoalescer>> LOCAL = new FastThreadLocal<>() {
+    @Override protected Map<EventLoop, FlushCoalescer> initialValue() {
+      return new IdentityHashMap<>(2);
+    }
+  };
+
+  private final EventLoop loop;
+
+  private ArrayList<ClientSession> dirty = new ArrayList<>();
+  private ArrayList<ClientSession> flushing = new ArrayList<>();
+  private boolean scheduled;
+
+  private FlushCoalescer(EventLoop loop) {
+    this.loop = loop;
+  }
+
+  /**
+   * Flushes {@code session}'s channel at the end of the current loop iteration.
+   * Must be called on the channel's event loop; otherwise flushes immediately.
+   */
+  static void flushLater(ClientSession session, Channel ch) {
+    EventLoop loop = ch.eventLoop();
+    if (!loop.inEventLoop()) {
+      ch.flush();
+      return;
+    }
+    LOCAL.get().computeIfAbsent(loop, FlushCoalescer::new).add(session);
+  }
+
+  private void add(ClientSession session) {
+    if (session.flushScheduled) {
+      return;
+    }
+    session.flushScheduled = true;
+    dirty.add(session);
+    if (!scheduled) {
+      scheduled = true;
+      loop.execute(this);
+    }
+  }
+
+  @Override public void run() {
+    scheduled = false;
+
+    // Swap so that flushes triggering new registrations start a fresh batch
+    ArrayList<ClientSession> batch = dirty;
+    dirty = flushing;
+    flushing = batch;
+
+    for (int i = 0; i < batch.size(); i++) {
+      ClientSession session = batch.get(i);
+      session.flushScheduled = false;
+      session.flush();
+    }
+    batch.clear();
+  }
+
+}
@@ -0,0 +1,232 @@
+package net.silver.services;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Most frequently published topic names at constant memory (Space-Saving algorithm).
+ * <p>
+ * ALGORITHM (Metwally et al., Space-Saving):
+ * - Exactly {@code capacity} counters are monitored
+ * - A monitored topic increments its counter
+ * - An unmonitored topic takes over the smallest counter: count = min + 1, error = min
+ * - Every topic published more than N / capacity times is guaranteed to be monitored,
+ *   and a reported count overestimates the true count by at most its error
+ * <p>
+ * LAYOUT (per sketch):
+ * - Counters in a binary min-heap (slot indexes), so the smallest is found in O(1)
+ *   and an increment sifts down in O(log K)
+ * - Topic to slot: open-addressed table with linear probing, backward-shift deletion
+ * <p>
+ * THREADING: One sketch per publishing thread (event loop), found through a FastThreadLocal.
+ * A sketch is guarded by its own monitor, which is only contended while a report is copying
+ * it; {@link #top(int)} merges the sketches (sums counts and errors of equal topics).
+ * <p>
+ * MEMORY: O(capacity) per event loop, independent of the number of distinct topics
+ * (previously: one map entry per subscribed filter, and wildcard traffic was not counted).
+ */
+final class HeavyHitters {
+
+  /**
+   * A reported topic.
+   *
+   * @param count Publishes counted (never below the true count)
+   * @param error Maximum overestimation of count
+   */
+  record Entry(String topic, long count, long error) {
+  }
+
+  private final int capacity;
+  private final CopyOnWriteArrayList<Sketch> sketches = new CopyOnWriteArrayList<>();
+
+  private final FastThreadLocal<Sketch> local = new FastThreadLocal<>() {
+    @Override protected Sketch initialValue() {
+      Sketch sketch = new Sketch(capacity);
+      sketches.add(sketch);
+      return sketch;
+    }
+  };
+
+  /**
+   * @param capacity Counters monitored per publishing thread
+   */
+  HeavyHitters(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Counts one publish to the topic on the calling thread's sketch.
+   */
+  void offer(String topic) {
+    Sketch sketch = local.get();
+    synchronized (sketch) {
+      sketch.offer(topic);
+    }
+  }
+
+  /**
+   * @return Up to n topics with the highest counts, highest first
+   */
+  List<Entry> top(int n) {
+    Map<String, long[]> merged = new HashMap<>();
+    for (Sketch sketch : sketches) {
+      synchronized (sketch) {
+        for (int slot = 0; slot < sketch.size; slot++) {
+          long[] totals = merged.computeIfAbsent(sketch.topics[slot], t -> new long[2]);
+          totals[0] += sketch.counts[slot];
+          totals[1] += sketch.errors[slot];
+        }
+      }
+    }
+    List<Entry> entries = new ArrayList<>(merged.size());
+    for (Map.Entry<String, long[]> e : merged.entrySet()) {
+      entries.add(new Entry(e.getKey(), e.getValue()[0], e.getValue()[1]));
+    }
+    entries.sort((a, b) -> Long.compare(b.count, a.count));
+    return entries.size() > n ? entries.subList(0, n) : entries;
+  }
+
+  // ============================================================================
+  // SPACE-SAVING SKETCH
+  // ============================================================================
+
+  private static final class Sketch {
+    private static final int EMPTY = -1;
+
+    // Counter slots
+    final String[] topics;
+    final long[] counts;
+    final long[] errors;
+    int size;
+
+    /** Min-heap of slots ordered by count; heapIndex[slot] = position of slot in heap */
+    private final int[] heap;
+    private final int[] heapIndex;
+
+    /** Topic to slot, open-addressed (length is a power of two, at most half full) */
+    private final int[] table;
+
+    Sketch(int capacity) {
+      topics = new String[capacity];
+      counts = new long[capacity];
+      errors = new long[capacity];
+      heap = new int[capacity];
+      heapIndex = new int[capacity];
+      table = new int[Integer.highestOneBit(Math.max(1, capacity - 1)) << 2];
+      Arrays.fill(table, EMPTY);
+    }
+
+    void offer(String topic) {
+      int mask = table.length - 1;
+      int i = spread(topic.hashCode()) & mask;
+      for (int slot; (slot = table[i]) != EMPTY; i = (i + 1) & mask) {
+        if (topics[slot].equals(topic)) {
+          counts[slot]++;
+          siftDown(heapIndex[slot]);
+          return;
+        }
+      }
+
+      if (size < topics.length) {
+        // Free counter
+        int slot = size++;
+        topics[slot] = topic;
+        counts[slot] = 1;
+        errors[slot] = 0;
+        table[i] = slot;
+        heap[slot] = slot;
+        heapIndex[slot] = slot;
+        siftUp(slot);
+        return;
+      }
+
+      // Replace the smallest counter
+      int slot = heap[0];
+      long min = counts[slot];
+      removeFromTable(topics[slot]);
+      topics[slot] = topic;
+      counts[slot] = min + 1;
+      errors[slot] = min;
+      insertIntoTable(topic, slot);
+      siftDown(0);
+    }
+
+    private void insertIntoTable(String topic, int slot) {
+      int mask = table.length - 1;
+      int i = spread(topic.hashCode()) & mask;
+      while (table[i] != EMPTY) {
+        i = (i + 1) & mask;
+      }
+      table[i] = slot;
+    }
+
+    /**
+     * Linear-probing deletion: shifts later entries of the probe run back into the hole.
+     */
+    private void removeFromTable(String topic) {
+      int mask = table.length - 1;
+      int i = spread(topic.hashCode()) & mask;
+      while (!topics[table[i]].equals(topic)) {
+        i = (i + 1) & mask;
+      }
+      int hole = i;
+      for (int j = (hole + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+        int home = spread(topics[table[j]].hashCode()) & mask;
+        // Move j into the hole unless its home lies cyclically in (hole, j]
+        if (((j - home) & mask) >= ((j - hole) & mask)) {
+          table[hole] = table[j];
+          hole = j;
+        }
+      }
+      table[hole] = EMPTY;
+    }
+
+    private void siftUp(int pos) {
+      int slot = heap[pos];
+      while (pos > 0) {
+        int parent = (pos - 1) >>> 1;
+        if (counts[heap[parent]] <= counts[slot]) {
+          break;
+        }
+        move(heap[parent], pos);
+        pos = parent;
+      }
+      move(slot, pos);
+    }
+
+    private void siftDown(int pos) {
+      int slot = heap[pos];
+      while (true) {
+        int child = 2 * pos + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+          child++;
+        }
+        if (counts[heap[child]] >= counts[slot]) {
+          break;
+        }
+        move(heap[child], pos);
+        pos = child;
+      }
+      move(slot, pos);
+    }
+
+    private void move(int slot, int pos) {
+      heap[pos] = slot;
+      heapIndex[slot] = pos;
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+}
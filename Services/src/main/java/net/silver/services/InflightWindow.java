@@ -0,0 +1,228 @@
+package net.silver.services;
+
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Bounded in-flight window for outbound QoS 1 and QoS 2 messages of one session.
+ * <p>
+ * LAYOUT:
+ * - Packet IDs are handed out sequentially (1..65535, wrapping, 0 is never used)
+ * - Packet ID N lives in slot N & (capacity - 1) of plain parallel arrays
+ *   (char[] packet IDs, byte[] states, long[] deadlines, message references)
+ * - A new ID is only issued if its slot is free, so IDs in flight are always unique
+ * <p>
+ * STATES:
+ * - AWAIT_PUBACK:  QoS 1 PUBLISH sent, message kept for retransmission
+ * - AWAIT_PUBREC:  QoS 2 PUBLISH sent, message kept for retransmission
+ * - AWAIT_PUBCOMP: QoS 2 PUBREL sent, payload already released (only the ID is tracked)
+ * <p>
+ * PERFORMANCE: acquire / put / ack are O(1) and allocate nothing
+ * (no map entry, no boxed key per in-flight message).
+ * <p>
+ * THREADING: Not thread-safe. Confined to the owning channel's event loop.
+ */
+final class InflightWindow {
+
+  private static final int MAX_PACKET_ID = 65535;
+
+  static final byte FREE = 0;
+  static final byte AWAIT_PUBACK = 1;
+  static final byte AWAIT_PUBREC = 2;
+  static final byte AWAIT_PUBCOMP = 3;
+
+  /**
+   * Receives each expired entry during {@link #forEachExpired}.
+   */
+  interface RetryAction {
+    /**
+     * @param message The stored PUBLISH, or null in state AWAIT_PUBCOMP (re-send PUBREL)
+     */
+    void retry(int packetId, MqttPublishMessage message);
+  }
+
+  private final int mask;
+
+  /** Maximum messages in flight: capacity, or less if the client's MQTT 5 Receive Maximum is lower */
+  private int limit;
+  private final char[] packetIds;
+  private final byte[] states;
+  private final long[] deadlines;
+  private final MqttPublishMessage[] messages;
+
+  /** Next packet ID to issue */
+  private int head = 1;
+  /** Oldest packet ID that may still be in flight */
+  private int tail = 1;
+  private int size;
+
+  /**
+   * @param capacity Window size, rounded up to a power of two
+   */
+  InflightWindow(int capacity) {
+    int slots = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.mask = slots - 1;
+    this.limit = capacity;
+    this.packetIds = new char[slots];
+    this.states = new byte[slots];
+    this.deadlines = new long[slots];
+    this.messages = new MqttPublishMessage[slots];
+  }
+
+  /**
+   * Issues the next packet ID, or returns 0 if the window is full.
+   * The slot is reserved by the subsequent {@link #put}.
+   */
+  int acquire() {
+    if (size >= limit || states[head & mask] != FREE) {
+      return 0;
+    }
+    int id = head;
+    head = next(head);
+    return id;
+  }
+
+  /**
+   * Stores the QoS 1/2 message sent with a packet ID returned by {@link #acquire()}.
+   * The window takes ownership of the message (it is released on ack or {@link #clear()}).
+   */
+  void put(int packetId, MqttPublishMessage message, long deadlineNanos) {
+    int slot = packetId & mask;
+    packetIds[slot] = (char) packetId;
+    states[slot] = message.fixedHeader().qosLevel() == MqttQoS.EXACTLY_ONCE ? AWAIT_PUBREC : AWAIT_PUBACK;
+    deadlines[slot] = deadlineNanos;
+    messages[slot] = message;
+    size++;
+  }
+
+  /**
+   * Handles PUBACK (QoS 1): frees the slot.
+   *
+   * @return false if the ID was not awaiting a PUBACK (duplicate or stale ack)
+   */
+  boolean ack(int packetId) {
+    if (!inState(packetId, AWAIT_PUBACK)) {
+      return false;
+    }
+    free(packetId & mask);
+    return true;
+  }
+
+  /**
+   * Handles PUBREC (QoS 2 step 1): releases the payload and waits for PUBCOMP.
+   *
+   * @return true if a PUBREL must be sent (also for a duplicate PUBREC)
+   */
+  boolean received(int packetId, long deadlineNanos) {
+    int slot = packetId & mask;
+    if (inState(packetId, AWAIT_PUBCOMP)) {
+      return true;
+    }
+    if (!inState(packetId, AWAIT_PUBREC)) {
+      return false;
+    }
+    ReferenceCountUtil.safeRelease(messages[slot]);
+    messages[slot] = null;
+    states[slot] = AWAIT_PUBCOMP;
+    deadlines[slot] = deadlineNanos;
+    return true;
+  }
+
+  /**
+   * Handles PUBCOMP (QoS 2 step 2): frees the slot.
+   *
+   * @return false if the ID was not awaiting a PUBCOMP
+   */
+  boolean complete(int packetId) {
+    if (!inState(packetId, AWAIT_PUBCOMP)) {
+      return false;
+    }
+    free(packetId & mask);
+    return true;
+  }
+
+  private boolean inState(int packetId, byte state) {
+    int slot = packetId & mask;
+    return states[slot] == state && packetIds[slot] == packetId;
+  }
+
+  private void free(int slot) {
+    if (messages[slot] != null) {
+      ReferenceCountUtil.safeRelease(messages[slot]);
+      messages[slot] = null;
+    }
+    states[slot] = FREE;
+    packetIds[slot] = 0;
+    size--;
+
+    // Advance the oldest pointer past acknowledged slots
+    while (tail != head && states[tail & mask] == FREE) {
+      tail = next(tail);
+    }
+  }
+
+  /**
+   * Visits every in-flight entry whose retry deadline has passed, oldest first,
+   * and moves its deadline to {@code nextDeadlineNanos}.
+   * <p>
+   * PERFORMANCE: O(W) where W = window capacity, once per retry tick (not per message).
+   */
+  void forEachExpired(long nowNanos, long nextDeadlineNanos, RetryAction action) {
+    for (int id = tail; id != head; id = next(id)) {
+      int slot = id & mask;
+      if (states[slot] != FREE && packetIds[slot] == id && deadlines[slot] - nowNanos <= 0) {
+        deadlines[slot] = nextDeadlineNanos;
+        action.retry(id, messages[slot]);
+      }
+    }
+  }
+
+  /**
+   * Visits every in-flight entry, oldest first (reconnect of a persistent session).
+   */
+  void forEach(RetryAction action) {
+    for (int id = tail; id != head; id = next(id)) {
+      int slot = id & mask;
+      if (states[slot] != FREE && packetIds[slot] == id) {
+        action.retry(id, messages[slot]);
+      }
+    }
+  }
+
+  /**
+   * Caps the messages in flight below the capacity (MQTT 5 Receive Maximum of the current connection).
+   */
+  void limit(int maxInflight) {
+    limit = Math.max(1, maxInflight);
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Releases every stored message (session discarded).
+   */
+  void clear() {
+    for (int i = 0; i < messages.length; i++) {
+      if (messages[i] != null) {
+        ReferenceCountUtil.safeRelease(messages[i]);
+        messages[i] = null;
+      }
+      states[i] = FREE;
+      packetIds[i] = 0;
+    }
+    size = 0;
+    tail = head;
+  }
+
+  private static int next(int id) {
+    return id == MAX_PACKET_ID ? 1 : id + 1;
+  }
+
+}
@@ -0,0 +1,153 @@
+package net.silver.services;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency distribution of one broker operation, recorded lock-free per event loop.
+ * <p>
+ * LAYOUT (HDR-style log-linear buckets):
+ * - Values 0..31 ns have one bucket each
+ * - Every further power of two is split into 32 linear sub-buckets, so a bucket is never
+ *   wider than 1/32 of its value (≤ 3.2% relative error at any percentile)
+ * - Values are clamped to {@link #MAX_VALUE_NANOS} (~68 s): 1024 buckets, 8 KB per histogram
+ * <p>
+ * THREADING:
+ * - Every recording thread (one per event loop) owns a private histogram, found through a
+ *   FastThreadLocal: recording is a plain increment published with a release store (no CAS)
+ * - {@link #snapshot()} (metrics endpoint thread) merges all histograms; counts may be one
+ *   increment behind, which is irrelevant for percentiles
+ * <p>
+ * PERFORMANCE: record() is O(1): a leading-zero count, a shift and one array write.
+ */
+final class LatencyRecorder {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  static final long MAX_VALUE_NANOS = (1L << 36) - 1;
+  private static final int BUCKETS = bucket(MAX_VALUE_NANOS) + 1;
+
+  private final CopyOnWriteArrayList<AtomicLongArray> histograms = new CopyOnWriteArrayList<>();
+
+  private final FastThreadLocal<AtomicLongArray> local = new FastThreadLocal<>() {
+    @Override protected AtomicLongArray initialValue() {
+      AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+      histograms.add(histogram);
+      return histogram;
+    }
+  };
+
+  /**
+   * Records one latency sample of the calling thread.
+   */
+  void record(long nanos) {
+    AtomicLongArray histogram = local.get();
+    int i = bucket(Math.max(0, Math.min(nanos, MAX_VALUE_NANOS)));
+    // Single writer per histogram: no read-modify-write race, release store for the reader
+    histogram.lazySet(i, histogram.getPlain(i) + 1);
+  }
+
+  /**
+   * Merges the histograms of all threads.
+   */
+  Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    for (AtomicLongArray histogram : histograms) {
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] += histogram.get(i);
+      }
+    }
+    return new Snapshot(counts);
+  }
+
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  /**
+   * @return the highest value that falls into bucket i
+   */
+  private static long highestValue(int i) {
+    if (i < SUB_BUCKETS) {
+      return i;
+    }
+    int shift = i / SUB_BUCKETS - 1;
+    long sub = SUB_BUCKETS + i % SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  // ============================================================================
+  // SNAPSHOT
+  // ============================================================================
+
+  /**
+   * Merged, immutable view of the distribution at one point in time.
+   */
+  static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+
+    private Snapshot(long[] counts) {
+      this.counts = counts;
+      long n = 0;
+      long total = 0;
+      for (int i = 0; i < counts.length; i++) {
+        n += counts[i];
+        total += counts[i] * highestValue(i);
+      }
+      this.count = n;
+      this.sum = total;
+    }
+
+    /**
+     * @return the samples recorded after {@code earlier} (interval view of a cumulative recorder)
+     */
+    Snapshot since(Snapshot earlier) {
+      long[] delta = counts.clone();
+      for (int i = 0; i < delta.length; i++) {
+        delta[i] -= earlier.counts[i];
+      }
+      return new Snapshot(delta);
+    }
+
+    long count() {
+      return count;
+    }
+
+    /**
+     * @return approximate sum of all samples (each counted at its bucket's upper bound)
+     */
+    long sum() {
+      return sum;
+    }
+
+    /**
+     * @param quantile 0.0 .. 1.0 (e.g. 0.999)
+     *
+     * @return upper bound of the bucket holding the quantile, or 0 if nothing was recorded
+     */
+    long valueAt(double quantile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return highestValue(i);
+        }
+      }
+      return MAX_VALUE_NANOS;
+    }
+  }
+
+}
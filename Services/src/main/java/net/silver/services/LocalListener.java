@@ -0,0 +1,22 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * In-process subscriber of the embedded broker, see {@link MQTTBroker#subscribeLocal}.
+ * <p>
+ * THREADING: Called on the executor chosen at subscription, never on an event loop, so
+ * implementations may block (e.g. hop to the JavaFX thread). Calls of one listener may run
+ * concurrently if its executor has several threads.
+ */
+@FunctionalInterface
+public interface LocalListener {
+
+  /**
+   * @param topic   Topic name the message was published to
+   * @param payload Message payload, released by the broker when this method returns
+   *                (retain or copy it to keep it longer)
+   */
+  void onMessage(String topic, ByteBuf payload);
+
+}
@@ -0,0 +1,126 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import net.silver.log.slf4j.SilverLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Subscriptions of in-process listeners ({@link LocalListener}), matched next to the topic trie
+ * on every routed message.
+ * <p>
+ * STRUCTURE: Copy-on-write snapshot of the subscriptions plus their filters compiled into a
+ * {@link TopicAcl} trie (PUBLISH bit = "has a listener"). Subscribing rebuilds both; local
+ * listeners are few and long-lived, publishes are many.
+ * <p>
+ * PERFORMANCE: A publish without a matching listener costs one volatile read and an
+ * allocation-free trie walk (nothing at all while no listener is registered). On a hit the
+ * snapshot is scanned and each matching listener gets one task on its executor carrying a
+ * retained duplicate of the payload (no copy).
+ */
+final class LocalSubscriptions {
+
+  private static final SilverLogger LOGGER = new SilverLogger("LocalSubscriptions.class");
+
+  private record Subscription(String filter, Executor executor, LocalListener listener) {
+  }
+
+  private record Snapshot(List<Subscription> subscriptions, TopicAcl filters) {
+  }
+
+  private static final Snapshot EMPTY = new Snapshot(List.of(), TopicAcl.DENY_ALL);
+
+  private final MQTTBroker.BrokerMetrics metrics;
+
+  private volatile Snapshot snapshot = EMPTY;
+
+  LocalSubscriptions(MQTTBroker.BrokerMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return false if the listener was already subscribed to this filter
+   */
+  synchronized boolean add(String filter, Executor executor, LocalListener listener) {
+    List<Subscription> subscriptions = new ArrayList<>(snapshot.subscriptions);
+    for (Subscription s : subscriptions) {
+      if (s.filter.equals(filter) && s.listener == listener) {
+        return false;
+      }
+    }
+    subscriptions.add(new Subscription(filter, executor, listener));
+    snapshot = compile(subscriptions);
+    return true;
+  }
+
+  /**
+   * @return false if the listener was not subscribed to this filter
+   */
+  synchronized boolean remove(String filter, LocalListener listener) {
+    List<Subscription> subscriptions = new ArrayList<>(snapshot.subscriptions);
+    if (!subscriptions.removeIf(s -> s.filter.equals(filter) && s.listener == listener)) {
+      return false;
+    }
+    snapshot = subscriptions.isEmpty() ? EMPTY : compile(subscriptions);
+    return true;
+  }
+
+  private static Snapshot compile(List<Subscription> subscriptions) {
+    Map<String, Integer> filters = new HashMap<>();
+    for (Subscription s : subscriptions) {
+      filters.put(s.filter, TopicAcl.PUBLISH);
+    }
+    return new Snapshot(List.copyOf(subscriptions), TopicAcl.compile(filters));
+  }
+
+  /**
+   * Dispatches a routed message to every matching listener. Called on any thread; the caller
+   * keeps ownership of {@code payload}.
+   *
+   * @return Number of listeners the message was handed to
+   */
+  int deliver(String topic, ByteBuf payload) {
+    Snapshot current = snapshot;
+    if (current == EMPTY || !current.filters.canPublish(topic)) {
+      return 0;
+    }
+    int delivered = 0;
+    for (Subscription s : current.subscriptions) {
+      if (MqttTopics.matches(s.filter, topic) && dispatch(s.executor, s.listener, topic, payload)) {
+        delivered++;
+      }
+    }
+    return delivered;
+  }
+
+  /**
+   * Hands one message to a listener on its executor (also used for retained messages on subscribe).
+   *
+   * @return false if the executor refused the task (message dropped)
+   */
+  boolean dispatch(Executor executor, LocalListener listener, String topic, ByteBuf payload) {
+    ByteBuf reference = payload.retainedDuplicate();
+    try {
+      executor.execute(() -> {
+        try {
+          listener.onMessage(topic, reference);
+        } catch (Exception e) {
+          LOGGER.error("Local listener failed on " + topic + ": " + e.getMessage(), e);
+        } finally {
+          reference.release();
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      reference.release();
+      metrics.incrementDroppedMessages();
+      return false;
+    }
+  }
+
+}
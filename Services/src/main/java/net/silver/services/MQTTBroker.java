@@ -2,53 +2,92 @@ package net.silver.services;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.nio.NioIoHandler;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolConfig;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.codec.mqtt.*;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
 import net.silver.log.Log;
 import net.silver.log.slf4j.SilverLogger;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
 
 /**
- * High-Performance MQTT 3.1.1 Broker Implementation
+ * High-Performance MQTT 3.1.1 / 5 Broker Implementation
  * <p>
  * FEATURES:
- * - Clean session only (no persistence)
- * - QoS 0 and QoS 1 support (QoS 2 not implemented)
+ * - Clean and persistent sessions (persistent ones survive disconnects and restarts via an mmap'd log)
+ * - MQTT 3.1, 3.1.1 and 5 (CONNECT/CONNACK/SUBACK/UNSUBACK properties and reason codes,
+ *   inbound topic aliases, Receive Maximum flow control in both directions)
+ * - QoS 0, 1 and 2 support (QoS 2 inbound dedupe via a per-session packet-ID bitset)
+ * - QoS 1/2 outbound delivery: per-session packet IDs, bounded in-flight window, DUP/PUBREL retransmission
  * - Last Will and Testament (LWT) with proper lifecycle management
+ * - Keep-alive enforcement: silent connections are closed after 1.5 × their keep-alive (LWT is sent)
+ * - CONNECT storm protection: global and per-IP token buckets, bounded admission queue
+ * - Pluggable authentication, verified off the event loops with a cache of recent successes
+ * - Topic authorization per user / group ({@link AccessControl}), compiled into a trie per role
  * - Atomic client session replacement (duplicate connection handling)
- * - Topic wildcard support (+ and #)
- * - Comprehensive metrics and monitoring
- * - Zero-copy message fan-out using ByteBuf.duplicate()
+ * - Topic wildcard support (+ and #) via a concurrent topic trie
+ * - Shared subscriptions ($share/{group}/{filter}): one member per group receives each message
+ * - Retained messages (off-heap store with memory cap)
+ * - Slow-consumer backpressure (writability-driven bounded queue per subscriber, overflow policy)
+ * - Comprehensive metrics and monitoring: counters plus per-event-loop publish latency
+ *   histograms, served in Prometheus text format on http://127.0.0.1:9404/metrics
+ * - Zero-copy message fan-out: QoS 0 PUBLISH encoded once, recipients share retainedDuplicate() frames
+ * - Native transports (io_uring / epoll with SO_REUSEPORT acceptors), NIO fallback
+ * - Optional MQTT over TLS listener (8883): session resumption, handshakes on a delegated executor
+ * - Optional MQTT over WebSocket listener (path /mqtt, off unless a port is set) for browser clients, same broker core
+ * - Event-loop-aware fan-out: one batch task per worker loop, flushes coalesced per loop iteration
+ * - In-process publish / subscribe for components of the application ({@link #publishLocal},
+ *   {@link #subscribeLocal}): straight into the routing engine, no socket and no codec
+ * - Cluster mode: nodes exchange subscription summaries, a PUBLISH is forwarded over a batched
+ *   link only to the peers with a matching subscriber
  * <p>
  * REQUIREMENTS MET:
  * ✓ Non-anonymous connections enforced (Client ID required)
  * ✓ Duplicate connection handling with atomic kick-out
- * ✓ Clean sessions only (non-clean rejected)
+ * ✓ Persistent sessions resume subscriptions and queued QoS 1/2 messages (CONNACK session present)
  * ✓ LWT implementation with proper ByteBuf lifecycle
  * ✓ High-performance fan-out with memory safety
  * ✓ Topic filter validation per MQTT spec
  * ✓ Graceful shutdown with resource cleanup
  * <p>
  * LIMITATIONS:
- * - No retained messages
- * - No QoS 2 (exactly once delivery)
- * - No session persistence
- * - No authentication/authorization (basic check only)
- * - O(N×M) topic matching (consider topic tree for >10K topics)
+ * - MQTT 5: no outbound topic aliases, user properties are not forwarded, no No Local /
+ *   Retain As Published options; the Session Expiry Interval of CONNECT is honoured, a new
+ *   interval in DISCONNECT is ignored, and sessions restored after a restart never expire
  *
  * @author Silver
  * @version 2.0
@@ -62,6 +101,12 @@ public class MQTTBroker {
   /** Enable automatic metrics reporting every 10 seconds */
   private static final boolean DEBUG_AUTO_REPORT = false;
 
+  /** Counters of the hot-topic sketch per event loop (topics published more than 1/N of the time are always caught) */
+  private static final int HOT_TOPIC_COUNTERS = 128;
+
+  /** Loopback port of the Prometheus metrics endpoint (GET /metrics), -1 to disable */
+  private static final int METRICS_ENDPOINT_PORT = 9404;
+
   /** Maximum MQTT payload size (256 KB) - prevents memory exhaustion */
   private static final int MAX_PAYLOAD_SIZE = 256 * 1024;
 
@@ -71,8 +116,105 @@ public class MQTTBroker {
   /** MQTT SUBACK failure code for invalid topic filters */
   private static final int SUBSCRIBE_FAILURE_CODE = 0x80;
 
-  /** Maximum topic length per MQTT 3.1.1 spec */
-  private static final int MAX_TOPIC_LENGTH = 65535;
+  /** Memory cap for retained message payloads (64 MB, pooled direct memory) */
+  private static final long RETAINED_STORE_MAX_BYTES = 64L * 1024 * 1024;
+
+  /** Maximum unacknowledged QoS 1 messages per subscriber (power of two) */
+  private static final int INFLIGHT_WINDOW_SIZE = 32;
+
+  /** Re-send unacknowledged QoS 1 messages (DUP=1) after this delay */
+  private static final long RETRY_INTERVAL_MS = 10_000;
+
+  /** Tick of the shared timer wheel used for retransmission and keep-alive */
+  private static final long TIMER_TICK_MS = 100;
+
+  /** A connection that has not sent CONNECT after this delay is closed (half-open or idle socket) */
+  private static final long CONNECT_TIMEOUT_MS = 10_000;
+
+  /** New connections admitted per second, and at once after an idle period (CONNECT storm protection) */
+  private static final double CONNECT_RATE = 500;
+  private static final double CONNECT_BURST = 1000;
+
+  /** Same per source IP; a whole store's terminals may share one NAT address */
+  private static final double CONNECT_RATE_PER_ADDRESS = 50;
+  private static final double CONNECT_BURST_PER_ADDRESS = 200;
+
+  /** Sockets waiting for admission (unread) before new ones are refused, and their longest wait */
+  private static final int CONNECT_QUEUE_CAPACITY = 10_000;
+  private static final long CONNECT_QUEUE_MAX_WAIT_MS = 5_000;
+
+  /** Threads verifying credentials off the event loops (PBKDF2 is CPU-bound) */
+  private static final int AUTH_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+  /** CONNECTs waiting for verification before new ones are refused as busy */
+  private static final int AUTH_QUEUE_CAPACITY = 1024;
+
+  /** MQTT over TLS port; the listener starts only if the certificate chain and key files exist */
+  private static final int TLS_PORT = 8883;
+  private static final String TLS_CERT_CHAIN_FILE = "mqtt-tls/server.crt";
+  private static final String TLS_KEY_FILE = "mqtt-tls/server.key";
+
+  /** Path of MQTT over WebSocket for browser clients (kitchen displays, customer screens) */
+  private static final String WEBSOCKET_PATH = "/mqtt";
+
+  /** Subprotocols of MQTT over WebSocket: "mqtt" (3.1.1 and 5), "mqttv3.1" */
+  private static final String WEBSOCKET_SUBPROTOCOLS = "mqtt,mqttv3.1";
+
+  /** Largest HTTP upgrade request accepted */
+  private static final int WEBSOCKET_MAX_HANDSHAKE_SIZE = 8 * 1024;
+
+  /** Resumable TLS sessions kept server-side (TLS 1.2 session IDs) and their lifetime */
+  private static final int TLS_SESSION_CACHE_SIZE = 20_000;
+  private static final long TLS_SESSION_TIMEOUT_S = 24 * 3600;
+
+  /** Threads running TLS handshake crypto (key exchange, signatures) off the event loops */
+  private static final int TLS_HANDSHAKE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+  /** Delay before redialing a cluster peer whose link dropped */
+  private static final long CLUSTER_RECONNECT_MS = 1_000;
+
+  /** Backlog per cluster link (queued and unflushed bytes) above which forwarded messages are dropped */
+  private static final int CLUSTER_MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+
+  /** Recently verified credentials kept, and for how long (bounds the delay of a password change) */
+  private static final int AUTH_CACHE_SIZE = 10_000;
+  private static final long AUTH_CACHE_TTL_MS = 10 * 60_000;
+
+  /** Directory of the persistent session log (relative to the working directory) */
+  private static final String SESSION_STORE_DIR = "mqtt-sessions";
+
+  /** Per-subscriber outbound queue bound (messages waiting for writability or a window slot) */
+  private static final int MAX_QUEUED_MESSAGES = 1024;
+
+  /** Per-subscriber outbound queue bound in payload bytes (1 MB) */
+  private static final long MAX_QUEUED_BYTES = 1024 * 1024;
+
+  /** What a full outbound queue does: DROP_OLDEST, DROP_NEW or DISCONNECT */
+  private static final OverflowPolicy OVERFLOW_POLICY = OverflowPolicy.DROP_OLDEST;
+
+  /** Channel becomes non-writable above the high and writable again below the low water mark */
+  private static final int WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+  private static final int WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+
+  /** Preferred I/O transport; falls back to EPOLL, then NIO, where the native library is unavailable */
+  private static final Transport PREFERRED_TRANSPORT = Transport.EPOLL;
+
+  /** Listening sockets / acceptor threads bound to the port with SO_REUSEPORT (native transports only) */
+  private static final int ACCEPTOR_THREADS = 2;
+
+  /** MQTT 5 Receive Maximum of the broker: inbound QoS 2 messages a client may have awaiting PUBREL */
+  private static final int SERVER_RECEIVE_MAXIMUM = 64;
+
+  /** MQTT 5 Topic Alias Maximum of the broker: aliases a client may define per connection */
+  private static final int TOPIC_ALIAS_MAXIMUM = 64;
+
+  /** CONNACK properties sent to every MQTT 5 client (read-only, shared) */
+  private static final MqttProperties CONNACK_PROPERTIES_V5 = connAckProperties();
+
+  static final SessionLimits DEFAULT_LIMITS = new SessionLimits(INFLIGHT_WINDOW_SIZE, RETRY_INTERVAL_MS, MAX_QUEUED_MESSAGES, MAX_QUEUED_BYTES, OVERFLOW_POLICY);
+
+  static final AdmissionLimits DEFAULT_ADMISSION = new AdmissionLimits(CONNECT_RATE, CONNECT_BURST, CONNECT_RATE_PER_ADDRESS, CONNECT_BURST_PER_ADDRESS,
+      CONNECT_QUEUE_CAPACITY, CONNECT_QUEUE_MAX_WAIT_MS);
 
   //dedicated thread to start the broker
   private static Thread brokerThread;
@@ -85,15 +227,21 @@ public class MQTTBroker {
   // ============================================================================
 
   /**
-   * Topic subscriptions: topic filter → set of subscribed channels
-   * Thread-safe for concurrent subscribe/unsubscribe operations
+   * Topic subscriptions: level-by-level trie of topic filters → subscribed sessions (with granted QoS)
+   * Lock-free matching on publish, serialized subscribe/unsubscribe
    * <p>
-   * PERFORMANCE NOTE: O(N) iteration on publish. Consider topic tree for >10K topics.
+   * PERFORMANCE NOTE: Route cost depends on topic depth, not on subscription count.
    */
-  private final Map<String, Set<Channel>> subscriptions = new ConcurrentHashMap<>();
+  private final TopicTree subscriptions = new TopicTree();
+
+  /**
+   * Retained messages: topic name → last retained payload (off-heap, capped)
+   * Delivered to new subscribers by walking the filter over the store's own topic trie
+   */
+  private final RetainedMessageStore retainedMessages = new RetainedMessageStore(RETAINED_STORE_MAX_BYTES);
 
   /** Metrics aggregator for broker monitoring */
-  private final BrokerMetrics metrics = new BrokerMetrics();
+  private final BrokerMetrics metrics = new BrokerMetrics(subscriptions::filterCount);
 
   /**
    * Active client sessions: Client ID → Channel
@@ -101,11 +249,77 @@ public class MQTTBroker {
    */
   private final Map<String, Channel> activeClients = new ConcurrentHashMap<>();
 
-  /** Packet ID generator for QoS 1+ messages (thread-safe) */
-  private final AtomicInteger packetIdGenerator = new AtomicInteger(1);
+  /**
+   * Persistent sessions (CleanSession=0): Client ID → session, online or offline
+   * Offline sessions stay subscribed in the trie and queue QoS 1/2 messages.
+   */
+  private final Map<String, ClientSession> persistentSessions = new ConcurrentHashMap<>();
+
+  /** Location of the session log; opened in {@link #start} */
+  private final Path sessionStoreDir;
+
+  /** In-flight window, retransmission and outbound queue limits of every session */
+  private final SessionLimits limits;
+
+  /** Append-only session log, or null if not opened (in-memory persistent sessions only) */
+  private SessionStore sessionStore;
+
+  /**
+   * Shared timer wheel for all sessions (one thread, O(1) schedule/cancel)
+   * Each session arms at most one retransmission timeout at a time,
+   * each connection at most one keep-alive timeout.
+   */
+  private final HashedWheelTimer timer = new HashedWheelTimer(r -> {
+    Thread t = new Thread(r, "MQTT-Timer");
+    t.setDaemon(true);
+    return t;
+  }, TIMER_TICK_MS, TimeUnit.MILLISECONDS);
+
+  /** Token-bucket admission of new sockets, first handler of every child pipeline (null = disabled) */
+  private final ConnectAdmission admission;
+
+  /** Credential check of CONNECT, or null to accept any credentials (set before start) */
+  private volatile Authenticator authenticator;
+
+  /** Topic permissions per user / group, or null for no authorization (set before start) */
+  private volatile AccessControl accessControl;
+
+  /** Successful verifications, checked on the event loop before going to the executor */
+  private final CredentialCache credentialCache = new CredentialCache(AUTH_CACHE_SIZE, AUTH_CACHE_TTL_MS);
+
+  /** Runs {@link Authenticator#authenticate}; bounded queue, idle threads time out */
+  private final ThreadPoolExecutor authExecutor = daemonExecutor("MQTT-Auth-", AUTH_THREADS, new ArrayBlockingQueue<>(AUTH_QUEUE_CAPACITY));
+
+  /**
+   * Runs the SSLEngine's delegated handshake tasks, so one expensive handshake does not stall
+   * every connection of its event loop. Unbounded queue: a waiting handshake only delays that client.
+   */
+  private final ThreadPoolExecutor tlsHandshakeExecutor = daemonExecutor("MQTT-TLS-", TLS_HANDSHAKE_THREADS, new LinkedBlockingQueue<>());
+
+  /** In-process listeners of {@link #subscribeLocal}, matched on every routed message */
+  private final LocalSubscriptions localSubscriptions = new LocalSubscriptions(metrics);
+
+  /** Links to the other nodes in cluster mode; idle (no peers, no listener) otherwise */
+  private final Cluster cluster = new Cluster(this::routeFromPeer, MAX_PAYLOAD_SIZE, CLUSTER_RECONNECT_MS, CLUSTER_MAX_QUEUED_BYTES, timer, metrics);
+
+  /** MQTT over WebSocket listener port, -1 = disabled (set before start) */
+  private volatile int webSocketPort = -1;
+
+  /** Cluster listener address (null = single node) and peers, set before start */
+  private volatile InetSocketAddress clusterAddress;
+  private volatile List<InetSocketAddress> clusterPeers = List.of();
 
   /** Scheduler for periodic metrics reporting */
   private ScheduledExecutorService metricsScheduler;
+  private MetricsEndpoint metricsEndpoint;
+
+  /** I/O transport of the event loops and sockets */
+  private final Transport transport;
+
+  /** Event loops and listening sockets, set by {@link #bind} */
+  private MultiThreadIoEventLoopGroup boss;
+  private volatile MultiThreadIoEventLoopGroup worker;
+  private final List<Channel> serverChannels = new ArrayList<>();
 
   // ============================================================================
   // CHANNEL ATTRIBUTES (Session State)
@@ -121,10 +335,85 @@ public class MQTTBroker {
   public static final AttributeKey<Boolean> GRACEFUL_DISCONNECT_KEY = AttributeKey.valueOf("gracefulDisconnect");
 
   /**
-   * OPTIMIZATION: Tracks which topics this channel is subscribed to
-   * Enables O(K) cleanup instead of O(N) where K = subscribed topics, N = all topics
+   * Session state of a connected client (subscriptions, packet IDs, in-flight window)
+   * Also tracks which topics this channel is subscribed to for O(K) cleanup
+   */
+  static final AttributeKey<ClientSession> SESSION_KEY = AttributeKey.valueOf("session");
+
+  /** Authenticated identity of the connection (null without an authenticator) */
+  static final AttributeKey<Authenticator.Identity> IDENTITY_KEY = AttributeKey.valueOf("identity");
+
+  /** Inbound MQTT 5 topic aliases of the connection (created on first use) */
+  static final AttributeKey<TopicAliases> TOPIC_ALIASES_KEY = AttributeKey.valueOf("topicAliases");
+
+  public MQTTBroker() {
+    this(Path.of(SESSION_STORE_DIR), DEFAULT_LIMITS);
+  }
+
+  /**
+   * @param sessionStoreDir Directory of the persistent session log
+   * @param limits          Per-session delivery limits (in-flight window, outbound queue, overflow policy)
+   */
+  MQTTBroker(Path sessionStoreDir, SessionLimits limits) {
+    this(sessionStoreDir, limits, Transport.select(PREFERRED_TRANSPORT));
+  }
+
+  /**
+   * @param transport I/O transport (must be available on this platform)
    */
-  public static final AttributeKey<Set<String>> SUBSCRIBED_TOPICS_KEY = AttributeKey.valueOf("subscribedTopics");
+  MQTTBroker(Path sessionStoreDir, SessionLimits limits, Transport transport) {
+    this(sessionStoreDir, limits, transport, DEFAULT_ADMISSION);
+  }
+
+  /**
+   * @param admission Connection admission limits, or null to admit every socket at once
+   *                  (benchmarks and load tests measuring the transport, not the token bucket)
+   */
+  MQTTBroker(Path sessionStoreDir, SessionLimits limits, Transport transport, AdmissionLimits admission) {
+    this.sessionStoreDir = sessionStoreDir;
+    this.limits = limits;
+    this.transport = transport;
+    this.admission = admission == null ? null : new ConnectAdmission(admission.connectRate(), admission.connectBurst(),
+        admission.perAddressRate(), admission.perAddressBurst(), admission.queueCapacity(), admission.maxWaitMillis(), TIMER_TICK_MS, timer, metrics);
+  }
+
+  private static ThreadPoolExecutor daemonExecutor(String namePrefix, int threadCount, BlockingQueue<Runnable> queue) {
+    AtomicInteger threads = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS, queue, r -> {
+      Thread t = new Thread(r, namePrefix + threads.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Installs the credential check of CONNECT (call before clients connect).
+   *
+   * @param authenticator Credential check, or null to accept any credentials
+   */
+  void setAuthenticator(Authenticator authenticator) {
+    this.authenticator = authenticator;
+  }
+
+  /**
+   * Installs the topic permissions checked on PUBLISH, SUBSCRIBE and the will topic
+   * (applies to connections made afterwards).
+   *
+   * @param accessControl Permissions, or null to allow every topic
+   */
+  void setAccessControl(AccessControl accessControl) {
+    this.accessControl = accessControl;
+  }
+
+  private static MqttProperties connAckProperties() {
+    MqttProperties properties = new MqttProperties();
+    properties.add(new MqttProperties.IntegerProperty(MqttProperties.RECEIVE_MAXIMUM, SERVER_RECEIVE_MAXIMUM));
+    properties.add(new MqttProperties.IntegerProperty(MqttProperties.TOPIC_ALIAS_MAXIMUM, TOPIC_ALIAS_MAXIMUM));
+    properties.add(new MqttProperties.IntegerProperty(MqttProperties.MAXIMUM_PACKET_SIZE, MAX_PAYLOAD_SIZE));
+    return properties;
+  }
 
   // ============================================================================
   // BROKER LIFECYCLE
@@ -140,50 +429,303 @@ public class MQTTBroker {
    * @throws Exception if unable to bind port or initialize Netty
    */
   private void start(int port) throws Exception {
+    try {
+      bind(port);
+      startTlsListener();
+      startWebSocketListener();
+      startCluster();
+      startMetricsEndpoint(METRICS_ENDPOINT_PORT);
+
+      // Block until the server sockets close
+      for (Channel serverChannel : serverChannels) {
+        serverChannel.closeFuture().sync();
+      }
+    } finally {
+      shutdown();
+    }
+  }
+
+  /**
+   * Creates the event loops and binds the listening sockets (non-blocking).
+   * <p>
+   * Native transports bind {@link #ACCEPTOR_THREADS} sockets to the same port with SO_REUSEPORT,
+   * each served by its own acceptor thread; NIO binds a single socket.
+   *
+   * @param port TCP port to bind, or 0 for an ephemeral port (shared by all acceptor sockets)
+   *
+   * @return The bound port
+   *
+   * @throws Exception if unable to bind port or initialize Netty
+   */
+  int bind(int port) throws Exception {
+    int acceptors = transport.reusePortOption() != null ? ACCEPTOR_THREADS : 1;
+
     // Modern Netty 4.1+ EventLoopGroup setup (non-deprecated)
-    MultiThreadIoEventLoopGroup boss = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
-    MultiThreadIoEventLoopGroup worker = new MultiThreadIoEventLoopGroup(NioIoHandler.newFactory());
+    boss = new MultiThreadIoEventLoopGroup(acceptors, transport.ioHandlerFactory());
+    worker = new MultiThreadIoEventLoopGroup(transport.ioHandlerFactory());
 
     startMetricsReporter();
 
+    try {
+      openSessionStore(worker);
+    } catch (IOException e) {
+      // Keep serving: persistent sessions still survive reconnects, just not restarts
+      LOGGER.error("Failed to open session store in " + sessionStoreDir + ": " + e.getMessage(), e);
+    }
+
     // CRITICAL: Register JVM shutdown hook to release LWT ByteBuffs on abnormal termination
     // Without this, abrupt JVM exit would leak native memory from unreleased LWT payloads
     Runtime.getRuntime().addShutdownHook(new Thread(this::releaseAllWillMessages, "BrokerShutdownHook"));
 
+    port = listen(port, null, false);
+    LOGGER.info("MQTT Broker started on port " + port + " (" + transport + ", " + acceptors + " acceptor(s))");
+    return port;
+  }
+
+  /**
+   * Binds an MQTT over TLS listener on the event loops created by {@link #bind}.
+   * It shares the session registry and subscription index with the plaintext listener.
+   *
+   * @param port TCP port to bind (standard MQTT over TLS port is 8883), or 0 for an ephemeral port
+   * @param tls  Server context, see {@link #serverTlsContext}
+   *
+   * @return The bound port
+   */
+  int bindTls(int port, SslContext tls) throws InterruptedException {
+    port = listen(port, tls, false);
+    LOGGER.info("MQTT over TLS listening on port " + port);
+    return port;
+  }
+
+  /**
+   * Binds an MQTT over WebSocket listener (ws://host:port/mqtt) on the event loops created by {@link #bind}.
+   * The same BrokerHandler serves it behind the HTTP upgrade and a binary frame codec, so browser
+   * clients share the session registry and subscription index with TCP clients.
+   *
+   * @param port TCP port to bind, or 0 for an ephemeral port
+   *
+   * @return The bound port
+   */
+  int bindWebSocket(int port) throws InterruptedException {
+    port = listen(port, null, true);
+    LOGGER.info("MQTT over WebSocket listening on port " + port + ", path " + WEBSOCKET_PATH);
+    return port;
+  }
+
+  /**
+   * Starts the TLS listener on {@link #TLS_PORT} if a certificate chain and key are configured.
+   */
+  private void startTlsListener() {
+    Path certChain = Path.of(TLS_CERT_CHAIN_FILE);
+    Path key = Path.of(TLS_KEY_FILE);
+    if (!Files.isReadable(certChain) || !Files.isReadable(key)) {
+      LOGGER.info("No " + TLS_CERT_CHAIN_FILE + " / " + TLS_KEY_FILE + ", TLS listener disabled");
+      return;
+    }
+    try {
+      bindTls(TLS_PORT, serverTlsContext(certChain, key));
+    } catch (Exception e) {
+      // Plaintext keeps serving
+      LOGGER.error("Failed to start TLS listener on port " + TLS_PORT + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Starts the WebSocket listener if a port was configured ({@link #setMqttBrokerWebSocket}).
+   */
+  private void startWebSocketListener() {
+    if (webSocketPort < 0) {
+      return;
+    }
+    try {
+      bindWebSocket(webSocketPort);
+    } catch (Exception e) {
+      // Plaintext keeps serving
+      LOGGER.error("Failed to start WebSocket listener on port " + webSocketPort + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Binds the cluster listener on which peers receive forwarded messages
+   * (on the event loops created by {@link #bind}). Only peers added with {@link #addClusterPeer}
+   * may connect.
+   *
+   * @param address Local address to bind, port 0 for an ephemeral port
+   *
+   * @return The bound port
+   */
+  int bindCluster(InetSocketAddress address) throws InterruptedException {
+    int port = cluster.listen(boss, worker, transport, address);
+    LOGGER.info("MQTT cluster link listening on " + address.getAddress().getHostAddress() + ":" + port);
+    return port;
+  }
+
+  /**
+   * Dials a peer's cluster listener (redialed whenever the link drops). Messages published
+   * here are forwarded to it once it has announced a matching subscriber.
+   */
+  void addClusterPeer(InetSocketAddress peer) {
+    cluster.addPeer(worker, transport, peer);
+  }
+
+  private void startCluster() {
+    InetSocketAddress address = clusterAddress;
+    if (address == null) {
+      return;
+    }
+    try {
+      bindCluster(address);
+      for (InetSocketAddress peer : clusterPeers) {
+        addClusterPeer(peer);
+      }
+    } catch (Exception e) {
+      // Keeps serving as a single node
+      LOGGER.error("Failed to start cluster listener on " + address + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Server TLS context with session resumption, so a reconnect storm is mostly abbreviated handshakes:
+   * - TLS 1.3: stateless session tickets (the client keeps the encrypted session state)
+   * - TLS 1.2: server-side session ID cache of {@link #TLS_SESSION_CACHE_SIZE} entries
+   *
+   * @param certChain PEM certificate chain
+   * @param key       PEM PKCS#8 private key
+   */
+  static SslContext serverTlsContext(Path certChain, Path key) throws IOException {
+    // JDK provider: issue TLS 1.3 tickets (read once, when the first SSLContext is created)
+    if (System.getProperty("jdk.tls.server.enableSessionTicketExtension") == null) {
+      System.setProperty("jdk.tls.server.enableSessionTicketExtension", "true");
+    }
+    return SslContextBuilder.forServer(certChain.toFile(), key.toFile())
+        .protocols("TLSv1.3", "TLSv1.2")
+        .sessionCacheSize(TLS_SESSION_CACHE_SIZE)
+        .sessionTimeout(TLS_SESSION_TIMEOUT_S)
+        .build();
+  }
+
+  /**
+   * Binds the listening socket(s) of one listener; every listener uses the same pipeline and broker state.
+   *
+   * @param tls       Server TLS context, or null for plaintext
+   * @param webSocket true to carry MQTT in WebSocket binary frames
+   *
+   * @return The bound port
+   */
+  private int listen(int port, SslContext tls, boolean webSocket) throws InterruptedException {
+    ChannelOption<Boolean> reusePort = transport.reusePortOption();
+    int acceptors = reusePort != null ? ACCEPTOR_THREADS : 1;
+
     ServerBootstrap b = new ServerBootstrap();
-    b.group(boss, worker).channel(NioServerSocketChannel.class).childHandler(new ChannelInitializer<SocketChannel>() {
+    b.group(boss, worker).channel(transport.serverChannelClass())
+        // Backpressure: isWritable() turns false once a slow subscriber's outbound buffer passes the high mark
+        .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(WRITE_BUFFER_LOW_WATER_MARK, WRITE_BUFFER_HIGH_WATER_MARK))
+        .childHandler(new ChannelInitializer<SocketChannel>() {
       @Override protected void initChannel(SocketChannel ch) {
         ChannelPipeline p = ch.pipeline();
 
         // Set DSCP marking for QoS prioritization at network layer
         ch.config().setTrafficClass(TRAFFIC_CLASS_AF3);
 
+        // Admission first: queued or refused sockets are never read, decoded or handshaken
+        if (admission != null) {
+          p.addLast("admission", admission);
+        }
+
+        if (tls != null) {
+          p.addLast("tls", newTlsHandler(ch, tls));
+        }
+
+        if (webSocket) {
+          // HTTP upgrade, then WebSocket frames ↔ the byte stream of the MQTT codec
+          p.addLast("http", new HttpServerCodec());
+          p.addLast("httpAggregator", new HttpObjectAggregator(WEBSOCKET_MAX_HANDSHAKE_SIZE));
+          p.addLast("webSocket", new WebSocketServerProtocolHandler(WebSocketServerProtocolConfig.newBuilder()
+              .websocketPath(WEBSOCKET_PATH)
+              .subprotocols(WEBSOCKET_SUBPROTOCOLS)
+              .maxFramePayloadLength(MAX_PAYLOAD_SIZE + 1024)
+              .build()));
+          p.addLast("webSocketFrames", WebSocketFrameCodec.INSTANCE);
+        }
+
         // MQTT protocol handlers (order matters!)
         p.addLast("mqttDecoder", new MqttDecoder(MAX_PAYLOAD_SIZE));
         p.addLast("mqttEncoder", MqttEncoder.INSTANCE);
         p.addLast("handler", new BrokerHandler());
       }
     });
+    if (reusePort != null) {
+      b.option(reusePort, true);
+    }
 
-    try {
-      ChannelFuture f = b.bind(port).sync();
-      LOGGER.info("MQTT Broker started on port " + port);
-
-      // Block until server socket closes
-      f.channel().closeFuture().sync();
-    } finally {
-      LOGGER.info("Shutting down event loops and metrics scheduler...");
+    // Each bind registers a new listening socket on the next boss loop
+    for (int i = 0; i < acceptors; i++) {
+      Channel serverChannel = b.bind(port).sync().channel();
+      serverChannels.add(serverChannel);
+      port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    }
+    return port;
+  }
 
-      if (metricsScheduler != null) {
-        metricsScheduler.shutdownNow();
+  /**
+   * SslHandler whose delegated tasks run on {@link #tlsHandshakeExecutor}; the handshake outcome,
+   * duration (from accept) and resumption are recorded in the metrics.
+   */
+  private SslHandler newTlsHandler(Channel ch, SslContext tls) {
+    SslHandler ssl = tls.newHandler(ch.alloc(), tlsHandshakeExecutor);
+    long startNanos = System.nanoTime();
+    long startMillis = System.currentTimeMillis();
+    ssl.handshakeFuture().addListener(f -> {
+      if (f.isSuccess()) {
+        // An abbreviated handshake continues a session created by an earlier connection
+        boolean resumed = ssl.engine().getSession().getCreationTime() < startMillis;
+        metrics.recordTlsHandshake(System.nanoTime() - startNanos, resumed);
+      }
+      else {
+        metrics.incrementTlsHandshakeFailures();
       }
+    });
+    return ssl;
+  }
 
-      // BEST PRACTICE: Use .await() to ensure full cleanup before JVM exit
-      worker.shutdownGracefully().await();
-      boss.shutdownGracefully().await();
+  /**
+   * Closes the listening sockets, shuts down the event loops and releases broker resources.
+   */
+  void shutdown() {
+    LOGGER.info("Shutting down event loops and metrics scheduler...");
+
+    for (Channel serverChannel : serverChannels) {
+      serverChannel.close();
+    }
+    serverChannels.clear();
+    cluster.close();
 
-      LOGGER.info("Broker fully stopped.");
+    if (metricsScheduler != null) {
+      metricsScheduler.shutdownNow();
     }
+    if (metricsEndpoint != null) {
+      metricsEndpoint.close();
+      metricsEndpoint = null;
+    }
+
+    // Release off-heap retained payloads
+    retainedMessages.clear();
+    timer.stop();
+    authExecutor.shutdownNow();
+    tlsHandshakeExecutor.shutdownNow();
+
+    // BEST PRACTICE: Use .await() to ensure full cleanup before JVM exit
+    if (worker != null) {
+      worker.shutdownGracefully().awaitUninterruptibly();
+    }
+    if (boss != null) {
+      boss.shutdownGracefully().awaitUninterruptibly();
+    }
+
+    // After the loops: closing channels detach persistent sessions into the store
+    closeSessionStore();
+
+    LOGGER.info("Broker fully stopped.");
   }
 
   /**
@@ -215,6 +757,85 @@ public class MQTTBroker {
     brokerThread.start();
   }
 
+  /**
+   * Installs the credential check of the application's broker, e.g. a {@link PasswordAuthenticator}
+   * over the users table. Call before {@link #startMqttBrokerAsync}.
+   *
+   * @param authenticator Credential check, or null to accept any credentials
+   */
+  public static void setMqttBrokerAuthenticator(Authenticator authenticator) {
+    broker.setAuthenticator(authenticator);
+  }
+
+  /**
+   * Installs the topic permissions of the application's broker, e.g. {@link AccessControl#load}
+   * of a config file. Call before {@link #startMqttBrokerAsync}.
+   *
+   * @param accessControl Permissions, or null to allow every topic
+   */
+  public static void setMqttBrokerAccessControl(AccessControl accessControl) {
+    broker.setAccessControl(accessControl);
+  }
+
+  /**
+   * Enables the MQTT over WebSocket listener of the application's broker (ws://host:port/mqtt),
+   * e.g. on 8083 for browser-based displays. Off by default. Call before {@link #startMqttBrokerAsync}.
+   *
+   * @param port Listener port, or -1 to disable
+   */
+  public static void setMqttBrokerWebSocket(int port) {
+    broker.webSocketPort = port;
+  }
+
+  /**
+   * Runs the application's broker as one node of a cluster. Every node lists the others;
+   * links are redialed when a node restarts. Call before {@link #startMqttBrokerAsync}.
+   * Links are accepted only from the peers' IP addresses; they are not encrypted, so bind a
+   * private interface (see {@link Cluster}, SECURITY).
+   *
+   * @param address Cluster listener address of this node (not the MQTT port)
+   * @param peers   Cluster listener addresses of the other nodes
+   */
+  public static void setMqttBrokerCluster(InetSocketAddress address, List<InetSocketAddress> peers) {
+    broker.clusterAddress = address;
+    broker.clusterPeers = List.copyOf(peers);
+  }
+
+  /**
+   * Publishes a QoS 0 message from inside the application to the embedded broker
+   * (no TCP client, no MQTT codec). See {@link #publishLocal(String, ByteBuf, MqttQoS, boolean)}.
+   *
+   * @param payload Released by the broker
+   */
+  public static void publishLocal(String topic, ByteBuf payload) {
+    broker.localPublish(topic, payload, MqttQoS.AT_MOST_ONCE, false);
+  }
+
+  /**
+   * Publishes a message from inside the application to the embedded broker, routed on a worker
+   * event loop like a client PUBLISH (QoS caps the delivery QoS to MQTT subscribers).
+   *
+   * @param payload Released by the broker
+   */
+  public static void publishLocal(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+    broker.localPublish(topic, payload, qos, retain);
+  }
+
+  /**
+   * Subscribes an in-process listener of the application to the embedded broker.
+   * Messages from MQTT clients, cluster peers and {@link #publishLocal} are dispatched
+   * on {@code executor}, never on an event loop.
+   *
+   * @return false if the listener was already subscribed to the filter
+   */
+  public static boolean subscribeLocal(String filter, Executor executor, LocalListener listener) {
+    return broker.localSubscribe(filter, executor, listener);
+  }
+
+  public static boolean unsubscribeLocal(String filter, LocalListener listener) {
+    return broker.localUnsubscribe(filter, listener);
+  }
+
   public static void shutdownApplicationResources() {
     Log.info("JavaFX Application closed. Shutting down resources...");
     // Initiate Netty's graceful shutdown procedure (in MQTTBroker.start's finally block)
@@ -247,6 +868,28 @@ public class MQTTBroker {
     }, 10, 10, TimeUnit.SECONDS);
   }
 
+  /**
+   * Serves the metrics in Prometheus text format on the loopback interface.
+   * A failure only disables the endpoint, the broker keeps serving.
+   *
+   * @param port Local port, 0 for an ephemeral port, -1 to disable
+   *
+   * @return The bound port, or -1 if the endpoint is not running
+   */
+  int startMetricsEndpoint(int port) {
+    if (port < 0) {
+      return -1;
+    }
+    try {
+      metricsEndpoint = MetricsEndpoint.start(port, metrics);
+      LOGGER.info("Metrics endpoint on http://127.0.0.1:" + metricsEndpoint.port() + "/metrics");
+      return metricsEndpoint.port();
+    } catch (IOException e) {
+      LOGGER.error("Failed to start metrics endpoint on port " + port + ": " + e.getMessage(), e);
+      return -1;
+    }
+  }
+
   /**
    * Emergency cleanup: Releases all ByteBuffs associated with LWT messages.
    * Called by JVM shutdown hook to prevent native memory leaks.
@@ -264,170 +907,369 @@ public class MQTTBroker {
     LOGGER.info("All LWT messages released.");
   }
 
+  /**
+   * Opens the session log and restores every stored persistent session as offline:
+   * subscriptions go back into the trie, queued messages into the session's queue.
+   * <p>
+   * PERFORMANCE: The log is kept compacted, so this is O(live sessions + queued messages).
+   *
+   * @param loops Event loops that own the restored sessions until their clients reconnect
+   */
+  void openSessionStore(EventExecutorGroup loops) throws IOException {
+    sessionStore = SessionStore.open(sessionStoreDir);
+    sessionStore.recover((clientId, filters, queued) -> {
+      ClientSession session = new ClientSession(clientId, null, loops.next(), true, sessionStore, limits, timer, metrics);
+      for (Map.Entry<String, MqttQoS> filter : filters.entrySet()) {
+        if (subscriptions.subscribe(filter.getKey(), session, filter.getValue())) {
+          metrics.incrementSubscription();
+          cluster.subscribed(filter.getKey());
+        }
+        session.subscriptions.put(filter.getKey(), filter.getValue());
+      }
+      for (SessionStore.StoredMessage m : queued) {
+        session.restore(m.topic(), m.payload(), m.qos(), m.retain());
+      }
+      persistentSessions.put(clientId, session);
+    });
+    metrics.updatePersistentSessions(persistentSessions.size());
+    LOGGER.info("Restored " + persistentSessions.size() + " persistent sessions from " + sessionStoreDir);
+  }
+
+  /**
+   * Shuts the session store (package-private for tests; {@link #start} closes it on shutdown).
+   */
+  void closeSessionStore() {
+    if (sessionStore != null) {
+      sessionStore.close();
+      sessionStore = null;
+    }
+  }
+
   // ============================================================================
-  // TOPIC MATCHING LOGIC
+  // MESSAGE ROUTING
   // ============================================================================
 
   /**
-   * Determines if a topic filter matches a concrete topic name.
-   * <p>
-   * MQTT WILDCARD RULES:
-   * - '#' (multi-level): Matches zero or more levels (must be last)
-   * - '+' (single-level): Matches exactly one level
-   * - Exact match: filter and topic are identical
-   * <p>
-   * EXAMPLES:
-   * - "sensors/#" matches "sensors/temp", "sensors/temp/room1"
-   * - "sensors/+/temp" matches "sensors/living/temp", "sensors/bedroom/temp"
-   * - "sensors/temp" matches only "sensors/temp"
-   * <p>
-   * PERFORMANCE: O(L) where L = number of topic levels
-   *
-   * @param filter The subscription topic filter (may contain wildcards)
-   * @param topic  The published topic name (no wildcards)
+   * Stores a retained message and fans a message out to the local subscribers
+   * (see {@link BrokerHandler#handlePublish} for the algorithm). Shared by client PUBLISHes,
+   * wills and messages forwarded by cluster peers; runs on any event loop.
    *
-   * @return true if the filter matches the topic
+   * @param payload       Message payload, still owned by the caller
+   * @param shareGroups   Shared groups this node serves (cluster mode), null for all of them
+   * @param receivedNanos System.nanoTime() when the message was decoded
    */
-  private boolean topicMatches(String filter, String topic) {
-    // Fast path: exact match
-    if (filter.equals(topic)) {
-      return true;
-    }
+  private void route(ByteBufAllocator alloc, String publishedTopic, ByteBuf payload, MqttQoS publishQoS, boolean retain, Predicate<String> shareGroups, long receivedNanos) {
+    int payloadSize = payload.readableBytes();
 
-    String[] filterLevels = filter.split("/", -1);
-    String[] topicLevels = topic.split("/", -1);
+    metrics.incrementMessagesReceived();
+    metrics.addBytesReceived(payloadSize);
+    metrics.countTopicPublish(publishedTopic);
 
-    for (int i = 0; i < filterLevels.length; i++) {
-      String filterLevel = filterLevels[i];
+    // ========================================================================
+    // RETAINED MESSAGE
+    // ========================================================================
 
-      // Multi-level wildcard: matches everything from here onward
-      if (filterLevel.equals("#")) {
-        return i == filterLevels.length - 1; // Must be last level
+    if (retain) {
+      if (!retainedMessages.put(publishedTopic, payload, publishQoS)) {
+        LOGGER.warn("Retained store full, message not retained for topic: " + publishedTopic);
+        metrics.incrementRetainedRejected();
       }
+      metrics.updateRetained(retainedMessages.size(), retainedMessages.bytes());
+    }
 
-      // Topic ended before filter did
-      if (i >= topicLevels.length) {
-        return false;
-      }
+    // ========================================================================
+    // TOPIC MATCHING & FAN-OUT
+    // ========================================================================
+
+    int deliveredCount = 0;
+    Recipients recipients = Recipients.acquire();
 
-      // Single-level wildcard: matches any single level
-      if (filterLevel.equals("+")) {
-        continue;
+    try {
+      // PHASE 1: Match and collect recipients - O(L) trie walk
+      // A session matched by several filters gets the highest granted QoS
+      subscriptions.collect(publishedTopic, shareGroups, recipients);
+
+      // PHASE 2: Group recipients of other loops into one batch task per loop - O(R)
+      // Sessions of this loop are served inline in phase 3, straight from the recipient set
+      boolean local = false;
+      for (int i = 0; i < recipients.size(); i++) {
+        ClientSession session = recipients.session(i);
+        Channel ch = session.channel;
+        // Offline persistent sessions (no channel) queue QoS 1/2 messages
+        if (ch != null && !ch.isActive()) {
+          continue;
+        }
+        deliveredCount++;
+        EventExecutor loop = session.executor();
+        if (loop.inEventLoop()) {
+          local = true;
+          continue;
+        }
+        DeliveryBatch batch = recipients.batch(loop);
+        if (batch == null) {
+          batch = DeliveryBatch.newInstance(publishedTopic, payload.retainedDuplicate(), publishQoS, alloc, receivedNanos, metrics.deliveryLatency);
+          recipients.addBatch(loop, batch);
+        }
+        batch.add(session, recipients.granted(i));
       }
 
-      // Exact level match required
-      if (!filterLevel.equals(topicLevels[i])) {
-        return false;
+      metrics.routeLatency.record(System.nanoTime() - receivedNanos);
+
+      // PHASE 3: Deliver - other loops first so they work in parallel with this one
+      // Flushes are coalesced per loop iteration (FlushCoalescer), not issued per publish
+      recipients.executeBatches();
+      if (local) {
+        recipients.deliverInline(publishedTopic, payload, publishQoS, alloc);
+        metrics.deliveryLatency.record(System.nanoTime() - receivedNanos);
       }
+
+      // In-process listeners, each on its own executor
+      deliveredCount += localSubscriptions.deliver(publishedTopic, payload);
+
+    } catch (Exception e) {
+      LOGGER.error("Error during message fan-out: " + e.getMessage(), e);
+    } finally {
+      recipients.release();
     }
 
-    // Filter and topic must have same depth (no wildcards matched extra levels)
-    return filterLevels.length == topicLevels.length;
+    // DO NOT release the payload here: the caller owns it.
+    // Each batch of another loop holds its own retained duplicate.
+
+    metrics.addMessagesSent(deliveredCount);
+    metrics.addBytesSent((long) payloadSize * deliveredCount);
   }
 
   /**
-   * Validates topic filter syntax per MQTT 3.1.1 specification.
-   * <p>
-   * VALIDATION RULES:
-   * 1. '#' must be the last character and occupy entire level (e.g., "a/#" OK, "a/#/b" FAIL)
-   * 2. '+' must occupy entire level (e.g., "a/+/b" OK, "a/+b/c" FAIL)
-   * 3. No null characters (U+0000)
-   * 4. Length must be ≤ 65535 bytes
-   * 5. No consecutive slashes (e.g., "a//b" is INVALID per spec)
+   * {@link Cluster.Router}: a message forwarded by a peer goes to local subscribers only
+   * (shared groups: only those this node was picked for).
+   */
+  private void routeFromPeer(ByteBufAllocator alloc, String topic, ByteBuf payload, MqttQoS qos, boolean retain, Predicate<String> shareGroups) {
+    route(alloc, topic, payload, qos, retain, shareGroups, System.nanoTime());
+  }
+
+  /**
+   * Publishes on behalf of an in-process component: routed like a client PUBLISH (retained
+   * store, subscribers, local listeners, cluster peers) without an MQTT encode / decode.
+   * Topic permissions do not apply.
    * <p>
-   * PERFORMANCE: O(L) where L = number of topic levels
+   * THREADING: Routing runs on a worker event loop, not on the caller's thread, so the
+   * per-thread latency histograms and hot-topic sketches stay one per loop however many
+   * application threads publish. Before {@link #bind} (pipeline tests) it runs inline.
    *
-   * @param filter The topic filter to validate
+   * @param payload Released by the broker (ownership is transferred, as with Channel.write)
    *
-   * @return true if valid, false otherwise
+   * @throws IllegalArgumentException if the topic name is invalid (empty, wildcards, U+0000, over 65535 UTF-8 bytes)
    */
-  private boolean validateTopicFilter(String filter) {
-    // Basic validation
-    if (filter == null || filter.isEmpty() || filter.contains("\u0000")) {
-      return false;
+  void localPublish(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+    if (!MqttTopics.isValidTopicName(topic)) {
+      payload.release();
+      throw new IllegalArgumentException("Invalid topic name: " + topic);
     }
+    long receivedNanos = System.nanoTime();
+    Runnable publish = () -> {
+      try {
+        Predicate<String> shareGroups = cluster.forward(topic, payload, qos, retain);
+        route(ByteBufAllocator.DEFAULT, topic, payload, qos, retain, shareGroups, receivedNanos);
+      } finally {
+        payload.release();
+      }
+    };
+    MultiThreadIoEventLoopGroup loops = worker;
+    if (loops == null) {
+      publish.run();
+      return;
+    }
+    try {
+      loops.next().execute(publish);
+    } catch (RejectedExecutionException e) {
+      // Shutting down
+      payload.release();
+      metrics.incrementDroppedMessages();
+    }
+  }
 
-    // Enforce maximum topic length per MQTT spec
-    if (filter.length() > MAX_TOPIC_LENGTH) {
+  /**
+   * Registers an in-process listener; matching retained messages are dispatched first.
+   * The filter counts as a subscription of this node (metrics, cluster summary).
+   *
+   * @param executor Runs the listener, e.g. a single-thread executor or Platform::runLater
+   *
+   * @return false if the listener was already subscribed to the filter
+   *
+   * @throws IllegalArgumentException if the filter is invalid or a shared subscription
+   */
+  boolean localSubscribe(String filter, Executor executor, LocalListener listener) {
+    if (!MqttTopics.isValidFilter(filter) || MqttTopics.isShared(filter)) {
+      throw new IllegalArgumentException("Invalid topic filter: " + filter);
+    }
+    if (!localSubscriptions.add(filter, executor, listener)) {
       return false;
     }
-
-    String[] levels = filter.split("/", -1); // -1 to keep trailing empty strings
-    int lastIndex = levels.length - 1;
-
-    for (int i = 0; i < levels.length; i++) {
-      String level = levels[i];
-
-      // MQTT spec forbids consecutive slashes (empty levels in the middle)
-      if (level.isEmpty()) {
-        // Only allowed at start or end (e.g., "/a/b" or "a/b/")
-        if (i != 0 && i != lastIndex) {
-          return false; // Reject "a//b"
-        }
-        continue;
-      }
-
-      // Multi-level wildcard validation
-      if (level.contains("#")) {
-        // Must be last level AND must be the only character in that level
-        if (i != lastIndex || level.length() > 1) {
-          return false; // Reject "a/b#" or "a/#/c"
-        }
-      }
-
-      // Single-level wildcard validation
-      if (level.contains("+")) {
-        // Must occupy entire level
-        if (level.length() > 1) {
-          return false; // Reject "a/+b/c"
-        }
+    metrics.incrementSubscription();
+    cluster.subscribed(filter);
+    for (MqttPublishMessage retained : retainedMessages.match(filter, MqttQoS.AT_MOST_ONCE)) {
+      try {
+        localSubscriptions.dispatch(executor, listener, retained.variableHeader().topicName(), retained.payload());
+      } finally {
+        retained.release();
       }
     }
-
     return true;
   }
 
   /**
-   * Generates the next packet ID for QoS 1+ messages.
-   * Thread-safe using AtomicInteger.
-   *
-   * @return Packet ID in range [1, 65535]
+   * @return false if the listener was not subscribed to the filter
    */
-  private int nextPacketId() {
-    // Wrap around after 65535 (MQTT packet ID is 16-bit)
-    int id = packetIdGenerator.getAndIncrement();
-    if (id > 65535) {
-      packetIdGenerator.compareAndSet(id, 1);
-      return packetIdGenerator.updateAndGet(x -> x >= 65535 ? 1 : x + 1);
-    }
-    return id;
+  boolean localUnsubscribe(String filter, LocalListener listener) {
+    if (!localSubscriptions.remove(filter, listener)) {
+      return false;
+    }
+    metrics.decrementSubscription();
+    cluster.unsubscribed(filter);
+    return true;
   }
 
   // ============================================================================
   // NETTY CHANNEL HANDLER
   // ============================================================================
 
+  BrokerMetrics metrics() {
+    return metrics;
+  }
+
   /**
-   * Main MQTT protocol handler for all client connections.
+   * Creates the protocol handler for one connection (package-private for pipeline tests).
+   */
+  ChannelInboundHandler newHandler() {
+    return new BrokerHandler();
+  }
+
+  /**
+   * Main MQTT protocol handler for all client connections (one instance per channel).
    * Handles CONNECT, SUBSCRIBE, PUBLISH, PINGREQ, DISCONNECT, UNSUBSCRIBE.
+   * <p>
+   * KEEP-ALIVE: Every packet stamps {@link #lastReadNanos} (one field write, no rescheduling).
+   * A single timeout per connection on the shared timer wheel fires after the allowed silence;
+   * it closes the connection if nothing was read since, otherwise re-arms for the remainder.
+   * Before CONNECT the allowed silence is {@link #CONNECT_TIMEOUT_MS}.
+   * <p>
+   * AUTHORIZATION: The connection's {@link TopicAcl} is looked up once at CONNECT and kept in a
+   * field, so the PUBLISH check is a trie walk with no map or attribute lookup.
    */
   private class BrokerHandler extends ChannelInboundHandlerAdapter {
 
+    /** System.nanoTime() of the last packet read (event loop only) */
+    private long lastReadNanos;
+
+    /** Allowed silence: 1.5 × keep-alive after CONNECT, 0 = keep-alive disabled */
+    private long keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MS);
+
+    private Timeout keepAliveTimeout;
+
+    /** Compiled topic permissions of this connection, set at CONNECT (null = unrestricted) */
+    private TopicAcl acl;
+
+    /** Packets decoded while CONNECT is being authenticated, replayed afterwards (null otherwise) */
+    private ArrayDeque<Object> heldDuringAuth;
+
     /**
      * Helper: Creates a CONNACK message with the specified return code.
      */
     private MqttConnAckMessage createConnAck(MqttConnectReturnCode code) {
+      return createConnAck(code, false);
+    }
+
+    private MqttConnAckMessage createConnAck(MqttConnectReturnCode code, boolean sessionPresent) {
+      return createConnAck(code, sessionPresent, MqttProperties.NO_PROPERTIES);
+    }
+
+    private MqttConnAckMessage createConnAck(MqttConnectReturnCode code, boolean sessionPresent, MqttProperties properties) {
       MqttFixedHeader fixedHeader = new MqttFixedHeader(MqttMessageType.CONNACK, false, MqttQoS.AT_MOST_ONCE, false, 0);
-      MqttConnAckVariableHeader variableHeader = new MqttConnAckVariableHeader(code, false);
+      MqttConnAckVariableHeader variableHeader = new MqttConnAckVariableHeader(code, sessionPresent, properties);
       return new MqttConnAckMessage(fixedHeader, variableHeader);
     }
 
+    /**
+     * MQTT 5: sends DISCONNECT with a reason code and closes the connection (LWT is published).
+     */
+    private void disconnect(ChannelHandlerContext ctx, MqttReasonCodes.Disconnect reason) {
+      LOGGER.warn("Disconnecting " + ctx.channel().attr(CLIENT_ID_KEY).get() + ": " + reason);
+      MqttFixedHeader header = new MqttFixedHeader(MqttMessageType.DISCONNECT, false, MqttQoS.AT_MOST_ONCE, false, 0);
+      MqttReasonCodeAndPropertiesVariableHeader variableHeader = new MqttReasonCodeAndPropertiesVariableHeader(reason.byteValue(), MqttProperties.NO_PROPERTIES);
+      ctx.writeAndFlush(new MqttMessage(header, variableHeader)).addListener(ChannelFutureListener.CLOSE);
+    }
+
     // --------------------------------------------------------------------------
     // CHANNEL LIFECYCLE
     // --------------------------------------------------------------------------
 
     @Override public void channelActive(ChannelHandlerContext ctx) {
       metrics.incrementConnections();
+      lastReadNanos = System.nanoTime();
+      scheduleKeepAliveCheck(ctx, keepAliveNanos);
+    }
+
+    // --------------------------------------------------------------------------
+    // KEEP-ALIVE
+    // --------------------------------------------------------------------------
+
+    /**
+     * Applies the CONNECT keep-alive: the client must send a packet at least every
+     * keepAlive seconds, the broker allows 1.5 × before closing (MQTT 3.1.1 §3.1.2.10).
+     */
+    private void startKeepAlive(ChannelHandlerContext ctx, int keepAliveSeconds) {
+      keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveSeconds * 1500L);
+      if (keepAliveTimeout != null) {
+        keepAliveTimeout.cancel();
+        keepAliveTimeout = null;
+      }
+      if (keepAliveNanos > 0) {
+        scheduleKeepAliveCheck(ctx, keepAliveNanos);
+      }
+    }
+
+    private void scheduleKeepAliveCheck(ChannelHandlerContext ctx, long delayNanos) {
+      keepAliveTimeout = timer.newTimeout(t -> ctx.executor().execute(() -> checkKeepAlive(ctx)), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs on the channel's event loop when the keep-alive timeout fires.
+     */
+    private void checkKeepAlive(ChannelHandlerContext ctx) {
+      if (!ctx.channel().isActive() || keepAliveNanos == 0) {
+        return;
+      }
+      long silence = System.nanoTime() - lastReadNanos;
+      if (silence < keepAliveNanos) {
+        scheduleKeepAliveCheck(ctx, keepAliveNanos - silence);
+        return;
+      }
+
+      metrics.incrementKeepAliveTimeouts();
+      ClientSession session = ctx.channel().attr(SESSION_KEY).get();
+      if (session == null) {
+        LOGGER.warn("No CONNECT within " + CONNECT_TIMEOUT_MS + " ms, closing " + ctx.channel().remoteAddress());
+        ctx.close();
+      }
+      else if (session.mqtt5) {
+        disconnect(ctx, MqttReasonCodes.Disconnect.KEEP_ALIVE_TIMEOUT);
+      }
+      else {
+        LOGGER.warn("Keep-alive expired for " + ctx.channel().attr(CLIENT_ID_KEY).get() + ", closing connection");
+        ctx.close(); // Not graceful: the LWT is published
+      }
+    }
+
+    /**
+     * Slow-consumer backpressure: once the outbound buffer drains below the low water mark,
+     * the session resumes writing its queued messages.
+     */
+    @Override public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+      ClientSession session = ctx.channel().attr(SESSION_KEY).get();
+      if (session != null && ctx.channel().isWritable()) {
+        session.onWritabilityChanged();
+      }
+      ctx.fireChannelWritabilityChanged();
     }
 
     /**
@@ -437,6 +1279,10 @@ public class MQTTBroker {
      */
     @Override public void channelInactive(ChannelHandlerContext ctx) {
       metrics.decrementConnections();
+      if (keepAliveTimeout != null) {
+        keepAliveTimeout.cancel();
+      }
+      releaseHeld();
 
       // ========================================================================
       // LAST WILL AND TESTAMENT (LWT) PUBLICATION
@@ -472,40 +1318,21 @@ public class MQTTBroker {
       // SUBSCRIPTION CLEANUP (OPTIMIZED VERSION)
       // ========================================================================
 
-      Set<String> subscribedTopics = ctx.channel().attr(SUBSCRIBED_TOPICS_KEY).get();
-
-      if (subscribedTopics != null) {
-        // O(K) cleanup where K = number of topics this client subscribed to
-        for (String topic : subscribedTopics) {
-          Set<Channel> channels = subscriptions.get(topic);
-          if (channels != null) {
-            if (channels.remove(ctx.channel())) {
-              metrics.decrementSubscription();
-            }
+      ClientSession session = ctx.channel().attr(SESSION_KEY).getAndSet(null);
 
-            // Remove topic if no subscribers remain
-            if (channels.isEmpty()) {
-              subscriptions.remove(topic);
-              metrics.removeTopic(topic);
-            }
-          }
-        }
+      if (session != null && session.persistent) {
+        // Persistent session: keep subscriptions, queue messages until the client returns
+        session.detach(ctx.channel(), () -> expireSession(session));
       }
-      else {
-        // FALLBACK: O(N) cleanup if SUBSCRIBED_TOPICS_KEY wasn't set (shouldn't happen)
-        subscriptions.values().forEach(set -> {
-          if (set.remove(ctx.channel())) {
-            metrics.decrementSubscription();
-          }
-        });
+      else if (session != null) {
+        // O(K×L) cleanup where K = number of topics this client subscribed to, L = filter depth
+        for (String topic : session.subscriptions.keySet()) {
+          removeSubscription(topic, session);
+        }
+        session.subscriptions.clear();
 
-        subscriptions.entrySet().removeIf(e -> {
-          if (e.getValue().isEmpty()) {
-            metrics.removeTopic(e.getKey());
-            return true;
-          }
-          return false;
-        });
+        // Clean session: drop in-flight and queued QoS 1 messages
+        session.close();
       }
     }
 
@@ -520,29 +1347,82 @@ public class MQTTBroker {
       }
 
       MqttMessage mqttMsg = (MqttMessage) msg;
+      MqttMessageType type = mqttMsg.fixedHeader().messageType();
+      lastReadNanos = System.nanoTime();
+
+      // Auto-read is off while authenticating; these were already decoded from the last read
+      if (heldDuringAuth != null) {
+        heldDuringAuth.add(msg);
+        return;
+      }
 
-      switch (mqttMsg.fixedHeader().messageType()) {
+      // MQTT spec: the first packet MUST be CONNECT
+      ClientSession session = ctx.channel().attr(SESSION_KEY).get();
+      if (session == null && type != MqttMessageType.CONNECT) {
+        LOGGER.warn("Received " + type + " before CONNECT, closing connection");
+        ReferenceCountUtil.release(msg);
+        ctx.close();
+        return;
+      }
+
+      // A persistent session taken over by a newer connection ignores the old one
+      if (session != null && session.channel != ctx.channel()) {
+        ReferenceCountUtil.release(msg);
+        ctx.close();
+        return;
+      }
+
+      switch (type) {
         case
             CONNECT ->
             handleConnect(ctx, (MqttConnectMessage) mqttMsg);
         case
             SUBSCRIBE ->
-            handleSubscribe(ctx, (MqttSubscribeMessage) mqttMsg);
+            handleSubscribe(ctx, session, (MqttSubscribeMessage) mqttMsg);
+        case
+            PUBLISH -> {
+          MqttPublishMessage publish = (MqttPublishMessage) mqttMsg;
+          long receivedNanos = System.nanoTime();
+          try {
+            // 3.1.1 fast path: no property lookup
+            String topic = session.mqtt5 ? resolveTopic(ctx, publish) : publish.variableHeader().topicName();
+            if (topic != null && acl != null && !acl.canPublish(topic)) {
+              denyPublish(ctx, session, publish);
+            }
+            else if (topic != null && acknowledgePublish(ctx, session, publish)) {
+              handlePublish(ctx, publish, topic, receivedNanos);
+            }
+          } finally {
+            // handlePublish never takes ownership: recipients hold their own references
+            ReferenceCountUtil.release(mqttMsg);
+          }
+        }
         case
-            PUBLISH ->
-            handlePublish(ctx, (MqttPublishMessage) mqttMsg);
+            PUBACK ->
+            session.onPubAck(messageId(mqttMsg));
+        case
+            PUBREC ->
+            session.onPubRec(messageId(mqttMsg));
+        case
+            PUBREL ->
+            session.onPubRel(ctx.channel(), messageId(mqttMsg));
+        case
+            PUBCOMP ->
+            session.onPubComp(messageId(mqttMsg));
         case
             PINGREQ ->
             handlePingReq(ctx);
         case
             DISCONNECT -> {
-          // Set graceful flag BEFORE closing to suppress LWT
-          ctx.channel().attr(GRACEFUL_DISCONNECT_KEY).set(true);
+          // Set graceful flag BEFORE closing to suppress LWT (unless MQTT 5 "Disconnect with Will Message")
+          boolean withWill = mqttMsg.variableHeader() instanceof MqttReasonCodeAndPropertiesVariableHeader reason
+                                 && reason.reasonCode() == MqttReasonCodes.Disconnect.DISCONNECT_WITH_WILL_MESSAGE.byteValue();
+          ctx.channel().attr(GRACEFUL_DISCONNECT_KEY).set(!withWill);
           ctx.close();
         }
         case
             UNSUBSCRIBE ->
-            handleUnsubscribe(ctx, (MqttUnsubscribeMessage) mqttMsg);
+            handleUnsubscribe(ctx, session, (MqttUnsubscribeMessage) mqttMsg);
         default -> {
           LOGGER.warn("Unsupported MQTT message type: " + mqttMsg.fixedHeader().messageType());
           metrics.incrementUnsupportedMessages();
@@ -561,10 +1441,12 @@ public class MQTTBroker {
      * VALIDATION SEQUENCE:
      * 1. Protocol name/version check
      * 2. Username/password validation
-     * 3. Clean session enforcement (only clean sessions allowed)
-     * 4. Client ID presence check
+     * 3. Client ID presence check
+     * 4. Authentication: credential cache hit, or verification on the auth executor
+     *    (the connection is not read meanwhile, and resumes in {@link #acceptConnect})
      * 5. Atomic session replacement (kick out duplicate connections)
      * 6. LWT message storage (with proper ByteBuf lifecycle)
+     * 7. Clean session: discard any stored session; persistent: resume or create one
      * <p>
      * MEMORY SAFETY: LWT ByteBuf is properly managed with try-finally.
      */
@@ -577,8 +1459,10 @@ public class MQTTBroker {
 
       int version = msg.variableHeader().version();
       String protocolName = msg.variableHeader().name();
+      boolean mqtt5 = version == 5 && protocolName.equals("MQTT");
       boolean validProtocol = (version == 3 && protocolName.equals("MQIsdp")) ||  // MQTT 3.1
-                                  (version == 4 && protocolName.equals("MQTT"));      // MQTT 3.1.1
+                                  (version == 4 && protocolName.equals("MQTT")) ||    // MQTT 3.1.1
+                                  mqtt5;                                              // MQTT 5
 
       if (!validProtocol) {
         rejectConnect(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_UNACCEPTABLE_PROTOCOL_VERSION);
@@ -591,30 +1475,131 @@ public class MQTTBroker {
 
       // MQTT spec: If password is set, username MUST also be set
       if (!msg.variableHeader().hasUserName() && msg.variableHeader().hasPassword()) {
-        rejectConnect(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_BAD_USER_NAME_OR_PASSWORD);
+        rejectConnect(ctx, mqtt5 ? MqttConnectReturnCode.CONNECTION_REFUSED_BAD_USERNAME_OR_PASSWORD
+                               : MqttConnectReturnCode.CONNECTION_REFUSED_BAD_USER_NAME_OR_PASSWORD);
+        return;
+      }
+
+      // ========================================================================
+      // 3. CLIENT ID VALIDATION
+      // ========================================================================
+
+      String clientId = msg.payload().clientIdentifier();
+
+      // REQUIREMENT: Non-anonymous connections only (Client ID required)
+      if (clientId == null || clientId.trim().isEmpty()) {
+        rejectConnect(ctx, mqtt5 ? MqttConnectReturnCode.CONNECTION_REFUSED_CLIENT_IDENTIFIER_NOT_VALID
+                               : MqttConnectReturnCode.CONNECTION_REFUSED_IDENTIFIER_REJECTED);
         return;
       }
 
-      // ========================================================================
-      // 3. CLEAN SESSION ENFORCEMENT
-      // ========================================================================
+      // ========================================================================
+      // 4. AUTHENTICATION
+      // ========================================================================
+
+      Authenticator auth = authenticator;
+      if (auth == null) {
+        acceptConnect(ctx, msg, mqtt5, clientId, null);
+        return;
+      }
+      String userName = msg.payload().userName();
+      byte[] password = msg.payload().passwordInBytes();
+      Authenticator.Identity cached = credentialCache.lookup(clientId, userName, password);
+      if (cached != null) {
+        metrics.incrementAuthCacheHits();
+        acceptConnect(ctx, msg, mqtt5, clientId, cached);
+        return;
+      }
+
+      // Expensive check (KDF, database): off the event loop, nothing is read until it completes
+      heldDuringAuth = new ArrayDeque<>();
+      ctx.channel().config().setAutoRead(false);
+      try {
+        authExecutor.execute(() -> {
+          Authenticator.Identity identity = null;
+          try {
+            metrics.incrementAuthVerifications();
+            identity = auth.authenticate(clientId, userName, password);
+          } catch (Exception e) {
+            LOGGER.error("Authentication of " + clientId + " failed: " + e.getMessage(), e);
+          }
+          if (identity != null) {
+            credentialCache.put(clientId, userName, password, identity);
+          }
+          Authenticator.Identity result = identity;
+          ctx.executor().execute(() -> authenticated(ctx, msg, mqtt5, clientId, result));
+        });
+      } catch (RejectedExecutionException e) {
+        authenticated(ctx, msg, mqtt5, clientId, null, true);
+      }
+    }
+
+    private void authenticated(ChannelHandlerContext ctx, MqttConnectMessage msg, boolean mqtt5, String clientId, Authenticator.Identity identity) {
+      authenticated(ctx, msg, mqtt5, clientId, identity, false);
+    }
 
-      // REQUIREMENT: Broker supports clean sessions only (no persistence)
-      if (!msg.variableHeader().isCleanSession()) {
-        LOGGER.warn("Rejected non-clean session for Client ID: " + msg.payload().clientIdentifier());
-        rejectConnect(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_IDENTIFIER_REJECTED);
+    /**
+     * Resumes CONNECT on the event loop once the credentials are checked.
+     *
+     * @param busy true if the check could not run (executor saturated or stopped)
+     */
+    private void authenticated(ChannelHandlerContext ctx, MqttConnectMessage msg, boolean mqtt5, String clientId,
+                               Authenticator.Identity identity, boolean busy) {
+      if (!ctx.channel().isActive()) {
+        return; // channelInactive released the held packets
+      }
+      if (identity == null) {
+        releaseHeld();
+        if (busy) {
+          LOGGER.warn("Authentication queue full, refusing " + clientId);
+          rejectConnect(ctx, mqtt5 ? MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_BUSY
+                                   : MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_UNAVAILABLE);
+        }
+        else {
+          metrics.incrementAuthFailures();
+          rejectConnect(ctx, mqtt5 ? MqttConnectReturnCode.CONNECTION_REFUSED_BAD_USERNAME_OR_PASSWORD
+                                   : MqttConnectReturnCode.CONNECTION_REFUSED_BAD_USER_NAME_OR_PASSWORD);
+        }
         return;
       }
 
-      // ========================================================================
-      // 4. CLIENT ID VALIDATION
-      // ========================================================================
+      ArrayDeque<Object> held = heldDuringAuth;
+      heldDuringAuth = null;
+      acceptConnect(ctx, msg, mqtt5, clientId, identity);
+      if (ctx.channel().attr(SESSION_KEY).get() == null) {
+        // Refused after authentication (will topic not authorized)
+        held.forEach(ReferenceCountUtil::release);
+        return;
+      }
+      for (Object m; (m = held.poll()) != null; ) {
+        channelRead(ctx, m);
+      }
+      ctx.channel().config().setAutoRead(true);
+    }
 
-      String clientId = msg.payload().clientIdentifier();
+    private void releaseHeld() {
+      if (heldDuringAuth != null) {
+        for (Object m; (m = heldDuringAuth.poll()) != null; ) {
+          ReferenceCountUtil.release(m);
+        }
+        heldDuringAuth = null;
+      }
+    }
 
-      // REQUIREMENT: Non-anonymous connections only (Client ID required)
-      if (clientId == null || clientId.trim().isEmpty()) {
-        rejectConnect(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_IDENTIFIER_REJECTED);
+    /**
+     * Second half of CONNECT: the client is authenticated (or no authenticator is installed).
+     */
+    private void acceptConnect(ChannelHandlerContext ctx, MqttConnectMessage msg, boolean mqtt5, String clientId,
+                               Authenticator.Identity identity) {
+      ctx.channel().attr(IDENTITY_KEY).set(identity);
+
+      // Compiled once per role (or per client with personal rules), checked on every PUBLISH
+      AccessControl access = accessControl;
+      acl = access == null ? null : access.forConnection(identity, clientId);
+      if (acl != null && msg.variableHeader().isWillFlag() && !acl.canPublish(msg.payload().willTopic())) {
+        metrics.incrementAclDenied();
+        rejectConnect(ctx, mqtt5 ? MqttConnectReturnCode.CONNECTION_REFUSED_NOT_AUTHORIZED_5
+                                 : MqttConnectReturnCode.CONNECTION_REFUSED_NOT_AUTHORIZED);
         return;
       }
 
@@ -636,6 +1621,7 @@ public class MQTTBroker {
 
       metrics.incrementConnectSuccesses();
       ctx.channel().attr(CLIENT_ID_KEY).set(clientId);
+      startKeepAlive(ctx, msg.variableHeader().keepAliveTimeSeconds());
 
       // ========================================================================
       // 6. LAST WILL AND TESTAMENT (LWT) SETUP
@@ -647,8 +1633,8 @@ public class MQTTBroker {
         try {
           int willQoS = msg.variableHeader().willQos();
 
-          // Generate packet ID for QoS 1+ (though we only deliver QoS 0)
-          int packetId = (willQoS == MqttQoS.AT_MOST_ONCE.value()) ? 0 : nextPacketId();
+          // No packet ID needed: subscribers' sessions assign their own on delivery
+          int packetId = 0;
 
           MqttFixedHeader publishHeader = new MqttFixedHeader(MqttMessageType.PUBLISH, msg.variableHeader().isWillRetain(), MqttQoS.valueOf(willQoS), false, 0);
 
@@ -681,12 +1667,99 @@ public class MQTTBroker {
       // Initialize graceful disconnect flag
       ctx.channel().attr(GRACEFUL_DISCONNECT_KEY).set(false);
 
-      // Initialize subscribed topics tracking set
-      ctx.channel().attr(SUBSCRIBED_TOPICS_KEY).set(Collections.newSetFromMap(new ConcurrentHashMap<>()));
+      // ========================================================================
+      // 7. SESSION SETUP (subscriptions, packet-ID space, in-flight window)
+      // ========================================================================
 
-      // Send CONNACK
-      MqttConnAckMessage ack = createConnAck(MqttConnectReturnCode.CONNECTION_ACCEPTED);
-      ctx.writeAndFlush(ack);
+      ClientSession session;
+      boolean sessionPresent = false;
+
+      // Two independent decisions (MQTT 5; 3.1.1 CleanSession sets both):
+      // - Clean Start: discard any existing session state for this Client ID
+      // - Session Expiry Interval: how long the session outlives this connection (0 = ends with it)
+      MqttProperties properties = msg.variableHeader().properties();
+      boolean cleanStart = msg.variableHeader().isCleanSession();
+      long expiryMillis = sessionExpiryMillis(mqtt5, cleanStart, properties);
+
+      ClientSession existing = persistentSessions.get(clientId);
+      if (existing != null && (cleanStart || !existing.cancelExpiry())) {
+        // Clean Start, or the offline session expired while we looked it up
+        if (persistentSessions.remove(clientId, existing)) {
+          discardSession(existing);
+        }
+        existing = null;
+      }
+
+      if (existing != null) {
+        // Resume (MQTT 5 with interval 0: resumed once, ends with this connection)
+        session = existing;
+        sessionPresent = true;
+      }
+      else if (expiryMillis == 0) {
+        session = new ClientSession(clientId, ctx.channel(), limits, timer, metrics);
+      }
+      else {
+        session = new ClientSession(clientId, ctx.channel(), ctx.channel().eventLoop(), true, sessionStore, limits, timer, metrics);
+        persistentSessions.put(clientId, session);
+        if (sessionStore != null) {
+          sessionStore.openSession(clientId);
+        }
+      }
+      session.expiryMillis = expiryMillis;
+      metrics.updatePersistentSessions(persistentSessions.size());
+      ctx.channel().attr(SESSION_KEY).set(session);
+
+      // Outbound flow control: never more QoS 1/2 messages in flight than the client's Receive Maximum
+      int receiveMaximum = mqtt5 ? intProperty(properties, MqttProperties.RECEIVE_MAXIMUM, 65535) : limits.inflightWindow();
+      if (!sessionPresent) {
+        session.connected(mqtt5, receiveMaximum);
+      }
+
+      // Send CONNACK before any resumed message (client does not need to re-subscribe)
+      ctx.write(createConnAck(MqttConnectReturnCode.CONNECTION_ACCEPTED, sessionPresent, mqtt5 ? CONNACK_PROPERTIES_V5 : MqttProperties.NO_PROPERTIES));
+      if (sessionPresent) {
+        // Flow control is applied on the session's loop once it owns the session
+        session.attach(ctx.channel(), mqtt5, receiveMaximum);
+      }
+      ctx.flush();
+    }
+
+    /**
+     * @return How long the session outlives the connection in ms (0 = ends with it, -1 = never):
+     *     3.1.1 CleanSession=0 never expires, MQTT 5 uses the Session Expiry Interval (0xFFFFFFFF = never)
+     */
+    private static long sessionExpiryMillis(boolean mqtt5, boolean cleanSession, MqttProperties properties) {
+      if (!mqtt5) {
+        return cleanSession ? 0 : -1;
+      }
+      long seconds = intProperty(properties, MqttProperties.SESSION_EXPIRY_INTERVAL, 0) & 0xFFFFFFFFL;
+      return seconds == 0xFFFFFFFFL ? -1 : TimeUnit.SECONDS.toMillis(seconds);
+    }
+
+    /**
+     * Ends an offline persistent session whose expiry interval passed (timer thread).
+     */
+    private void expireSession(ClientSession session) {
+      if (persistentSessions.remove(session.clientId, session)) {
+        discardSession(session);
+        metrics.updatePersistentSessions(persistentSessions.size());
+      }
+    }
+
+    /**
+     * Drops a persistent session replaced by a clean one or expired: subscriptions, queued messages and stored state.
+     */
+    private void discardSession(ClientSession session) {
+      if (sessionStore != null) {
+        sessionStore.removeSession(session.clientId);
+      }
+      session.execute(() -> {
+        for (String topic : session.subscriptions.keySet()) {
+          removeSubscription(topic, session);
+        }
+        session.subscriptions.clear();
+        session.close();
+      });
     }
 
     /**
@@ -710,37 +1783,48 @@ public class MQTTBroker {
      * 2. Add channel to subscription set
      * 3. Track subscription in channel attribute for fast cleanup
      * 4. Send SUBACK with granted QoS levels (or 0x80 for failures)
+     * 5. Deliver matching retained messages (not for $share subscriptions)
      */
-    private void handleSubscribe(ChannelHandlerContext ctx, MqttSubscribeMessage msg) {
+    private void handleSubscribe(ChannelHandlerContext ctx, ClientSession session, MqttSubscribeMessage msg) {
       List<Integer> grantedQoS = new ArrayList<>();
-      Set<String> subscribedTopics = ctx.channel().attr(SUBSCRIBED_TOPICS_KEY).get();
+      List<String> acceptedFilters = new ArrayList<>();
+      List<MqttQoS> acceptedQoS = new ArrayList<>();
 
       for (MqttTopicSubscription subscription : msg.payload().topicSubscriptions()) {
         String topic = subscription.topicFilter();
 
-        // Validate topic filter syntax
-        if (!validateTopicFilter(topic)) {
-          grantedQoS.add(SUBSCRIBE_FAILURE_CODE); // 0x80 = Failure
+        // Validate topic filter syntax (allocation-free character walk)
+        if (!MqttTopics.isValidFilter(topic)) {
+          // 0x80 = Failure (3.1.1), 0x8F = Topic Filter invalid (MQTT 5)
+          grantedQoS.add(session.mqtt5 ? MqttReasonCodes.SubAck.TOPIC_FILTER_INVALID.byteValue() & 0xFF : SUBSCRIBE_FAILURE_CODE);
           LOGGER.warn("Rejected invalid topic filter: " + topic);
           continue;
         }
 
-        // Add channel to subscription set
-        Set<Channel> channelSet = subscriptions.computeIfAbsent(topic, k -> {
-          metrics.addTopic(k);
-          return Collections.newSetFromMap(new ConcurrentHashMap<>());
-        });
+        if (acl != null && !acl.canSubscribe(topic)) {
+          // 0x80 = Failure (3.1.1), 0x87 = Not authorized (MQTT 5)
+          grantedQoS.add(session.mqtt5 ? MqttReasonCodes.SubAck.NOT_AUTHORIZED.byteValue() & 0xFF : SUBSCRIBE_FAILURE_CODE);
+          metrics.incrementAclDenied();
+          continue;
+        }
+
+        // Grant the requested QoS (0, 1 and 2 are all supported)
+        MqttQoS qos = subscription.qualityOfService();
 
+        // Add session to the filter's node in the topic trie
         // Track subscription for fast cleanup on disconnect
-        if (channelSet.add(ctx.channel())) {
+        if (subscriptions.subscribe(topic, session, qos)) {
           metrics.incrementSubscription();
-          if (subscribedTopics != null) {
-            subscribedTopics.add(topic);
-          }
+          cluster.subscribed(topic);
         }
+        session.subscribed(topic, qos);
 
-        // Grant QoS 0 (only QoS level supported)
-        grantedQoS.add(MqttQoS.AT_MOST_ONCE.value());
+        grantedQoS.add(qos.value());
+        // Retained messages are not sent to shared subscriptions (one member would get them per subscribe)
+        if (!MqttTopics.isShared(topic)) {
+          acceptedFilters.add(topic);
+          acceptedQoS.add(qos);
+        }
       }
 
       // Send SUBACK
@@ -749,7 +1833,21 @@ public class MQTTBroker {
       MqttSubAckPayload payload = new MqttSubAckPayload(grantedQoS);
       MqttSubAckMessage ack = new MqttSubAckMessage(fixedHeader, variableHeader, payload);
 
-      ctx.writeAndFlush(ack);
+      ctx.write(ack);
+
+      // Deliver matching retained messages AFTER the SUBACK (per spec)
+      for (int i = 0; i < acceptedFilters.size(); i++) {
+        for (MqttPublishMessage retained : retainedMessages.match(acceptedFilters.get(i), acceptedQoS.get(i))) {
+          try {
+            session.send(retained.variableHeader().topicName(), retained.payload(), retained.fixedHeader().qosLevel(), true);
+            metrics.addMessagesSent(1);
+            metrics.addBytesSent(retained.payload().readableBytes());
+          } finally {
+            retained.release();
+          }
+        }
+      }
+      ctx.flush();
     }
 
     // --------------------------------------------------------------------------
@@ -760,136 +1858,191 @@ public class MQTTBroker {
      * Handles MQTT UNSUBSCRIBE packet.
      * Removes channel from specified topic subscriptions and cleans up empty topics.
      */
-    private void handleUnsubscribe(ChannelHandlerContext ctx, MqttUnsubscribeMessage msg) {
+    private void handleUnsubscribe(ChannelHandlerContext ctx, ClientSession session, MqttUnsubscribeMessage msg) {
       List<String> topics = msg.payload().topics();
-      Set<String> subscribedTopics = ctx.channel().attr(SUBSCRIBED_TOPICS_KEY).get();
-
-      for (String topic : topics) {
-        Set<Channel> channels = subscriptions.get(topic);
-        if (channels != null) {
-          if (channels.remove(ctx.channel())) {
-            metrics.decrementSubscription();
-            if (subscribedTopics != null) {
-              subscribedTopics.remove(topic);
-            }
-          }
+      short[] reasonCodes = new short[topics.size()];
 
-          // Remove topic if no subscribers remain
-          if (channels.isEmpty()) {
-            subscriptions.remove(topic);
-            metrics.removeTopic(topic);
-          }
+      for (int i = 0; i < topics.size(); i++) {
+        String topic = topics.get(i);
+        if (removeSubscription(topic, session)) {
+          session.unsubscribed(topic);
+          reasonCodes[i] = MqttReasonCodes.UnsubAck.SUCCESS.byteValue();
+        }
+        else {
+          reasonCodes[i] = MqttReasonCodes.UnsubAck.NO_SUBSCRIPTION_EXISTED.byteValue();
         }
       }
 
-      // Send UNSUBACK
+      // Send UNSUBACK (MQTT 5: one reason code per filter, 3.1.1: no payload)
       MqttFixedHeader fixedHeader = new MqttFixedHeader(MqttMessageType.UNSUBACK, false, MqttQoS.AT_MOST_ONCE, false, 0);
       MqttMessageIdVariableHeader variableHeader = MqttMessageIdVariableHeader.from(msg.variableHeader().messageId());
-      MqttUnsubAckMessage ack = new MqttUnsubAckMessage(fixedHeader, variableHeader);
+      MqttUnsubAckMessage ack = session.mqtt5
+                                    ? new MqttUnsubAckMessage(fixedHeader, variableHeader, new MqttUnsubAckPayload(reasonCodes))
+                                    : new MqttUnsubAckMessage(fixedHeader, variableHeader);
 
       ctx.writeAndFlush(ack);
     }
 
+    /**
+     * Removes one session from one filter and keeps metrics in sync.
+     * Empty trie branches are pruned by {@link TopicTree#unsubscribe}.
+     *
+     * @return true if the session was subscribed to the filter
+     */
+    private boolean removeSubscription(String topic, ClientSession session) {
+      if (!subscriptions.unsubscribe(topic, session)) {
+        return false;
+      }
+      metrics.decrementSubscription();
+      cluster.unsubscribed(topic);
+      return true;
+    }
+
     // --------------------------------------------------------------------------
     // PUBLISH HANDLER
     // --------------------------------------------------------------------------
 
+    /**
+     * Drops a PUBLISH to a topic the client may not use. MQTT 5 QoS 1/2 are answered with
+     * reason code 0x87 (Not authorized); 3.1.1 has no negative acknowledgement, so the message
+     * is acknowledged as usual and discarded.
+     */
+    private void denyPublish(ChannelHandlerContext ctx, ClientSession session, MqttPublishMessage msg) {
+      metrics.incrementAclDenied();
+      MqttQoS qos = msg.fixedHeader().qosLevel();
+      if (!session.mqtt5 || qos == MqttQoS.AT_MOST_ONCE) {
+        acknowledgePublish(ctx, session, msg);
+        return;
+      }
+      boolean qos1 = qos == MqttQoS.AT_LEAST_ONCE;
+      MqttFixedHeader header = new MqttFixedHeader(qos1 ? MqttMessageType.PUBACK : MqttMessageType.PUBREC, false, MqttQoS.AT_MOST_ONCE, false, 0);
+      byte reason = qos1 ? MqttReasonCodes.PubAck.NOT_AUTHORIZED.byteValue() : MqttReasonCodes.PubRec.NOT_AUTHORIZED.byteValue();
+      ctx.writeAndFlush(new MqttMessage(header, new MqttPubReplyMessageVariableHeader(msg.variableHeader().packetId(), reason, MqttProperties.NO_PROPERTIES)));
+    }
+
+    /**
+     * Acknowledges an inbound PUBLISH from a client.
+     * <p>
+     * - QoS 1: PUBACK
+     * - QoS 2: PUBREC; the packet ID is recorded until PUBREL so a re-sent
+     *   PUBLISH (DUP=1) is acknowledged again but not routed twice
+     * <p>
+     * Not used for the LWT, which is routed on the client's behalf without acks.
+     *
+     * @return true if the message must be routed
+     */
+    private boolean acknowledgePublish(ChannelHandlerContext ctx, ClientSession session, MqttPublishMessage msg) {
+      int packetId = msg.variableHeader().packetId();
+      switch (msg.fixedHeader().qosLevel()) {
+        case
+            AT_LEAST_ONCE -> {
+          MqttFixedHeader pubAckHeader = new MqttFixedHeader(
+              MqttMessageType.PUBACK, false, MqttQoS.AT_MOST_ONCE, false, 0);
+          ctx.writeAndFlush(new MqttPubAckMessage(pubAckHeader, MqttMessageIdVariableHeader.from(packetId)));
+          return true;
+        }
+        case
+            EXACTLY_ONCE -> {
+          // MQTT 5 flow control: a new QoS 2 message beyond our Receive Maximum is a protocol violation
+          if (session.mqtt5 && session.inboundQos2Count() >= SERVER_RECEIVE_MAXIMUM && !session.isInboundQos2Pending(packetId)) {
+            disconnect(ctx, MqttReasonCodes.Disconnect.RECEIVE_MAXIMUM_EXCEEDED);
+            return false;
+          }
+          boolean first = session.onInboundQos2Publish(packetId);
+          MqttFixedHeader pubRecHeader = new MqttFixedHeader(
+              MqttMessageType.PUBREC, false, MqttQoS.AT_MOST_ONCE, false, 0);
+          ctx.writeAndFlush(new MqttMessage(pubRecHeader, MqttMessageIdVariableHeader.from(packetId)));
+          return first;
+        }
+        default -> {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * MQTT 5: resolves the Topic Alias of an inbound PUBLISH.
+     *
+     * @return The topic to route to, or null if the connection was closed for an invalid alias
+     */
+    private String resolveTopic(ChannelHandlerContext ctx, MqttPublishMessage msg) {
+      String topic = msg.variableHeader().topicName();
+      MqttProperties.MqttProperty<?> alias = msg.variableHeader().properties().getProperty(MqttProperties.TOPIC_ALIAS);
+      if (alias == null) {
+        return topic;
+      }
+
+      TopicAliases aliases = ctx.channel().attr(TOPIC_ALIASES_KEY).get();
+      if (aliases == null) {
+        aliases = new TopicAliases(TOPIC_ALIAS_MAXIMUM);
+        ctx.channel().attr(TOPIC_ALIASES_KEY).set(aliases);
+      }
+      String resolved = aliases.resolve((Integer) alias.value(), topic);
+      if (resolved == null) {
+        disconnect(ctx, MqttReasonCodes.Disconnect.TOPIC_ALIAS_INVALID);
+      }
+      return resolved;
+    }
+
+    private static int intProperty(MqttProperties properties, int propertyId, int defaultValue) {
+      MqttProperties.MqttProperty<?> property = properties.getProperty(propertyId);
+      return property instanceof MqttProperties.IntegerProperty value ? value.value() : defaultValue;
+    }
+
+    private static int messageId(MqttMessage msg) {
+      return ((MqttMessageIdVariableHeader) msg.variableHeader()).messageId();
+    }
+
     /**
      * Handles MQTT PUBLISH packet and fans out to matching subscribers.
      * <p>
      * ALGORITHM:
-     * 1. Send PUBACK if QoS 1 (acknowledge receipt)
-     * 2. Match topic against all subscription filters
-     * 3. Collect unique recipient channels
-     * 4. Fan out message using ByteBuf.duplicate() (zero-copy)
-     * 5. Update metrics
+     * 1. Store/clear the retained message if RETAIN is set
+     * 2. Walk the topic trie level by level to find matching filters
+     * 3. Collect unique recipient sessions (reused per-thread {@link Recipients}, no allocation)
+     * 4. Group recipients by owning event loop: this loop's sessions are served inline straight
+     *    from the recipient set, each other loop receives one recycled {@link DeliveryBatch} task
+     * 5. Fan out through each recipient's session (QoS 0: one shared pre-encoded frame per loop,
+     *    QoS 1/2: per-session packet ID via in-flight window)
+     * 6. Flush once per recipient and loop iteration ({@link FlushCoalescer}), not per publish
+     * 7. Update metrics (route latency: decode to recipients grouped; delivery latency:
+     *    decode to the last write of each loop's batch)
+     * 8. Cluster mode: forwarded first to the peers with a matching subscriber, which also picks
+     *    the node serving each shared group; step 2 skips the groups picked for a peer ({@link Cluster})
      * <p>
      * MEMORY SAFETY:
-     * - msg.retain() ensures buffer survives fan-out loop
-     * - duplicate() creates independent buffer views with refCount=1 each
+     * - The caller owns msg and releases it after this method returns
+     * - retainedDuplicate() gives each other loop's batch and each write / in-flight entry its own
+     *   reference (zero-copy); inline delivery on this loop uses the caller's reference
      * - Each write() transfers ownership to pipeline (auto-release)
-     * - Final msg.release() balances the initial retain()
      * <p>
-     * PERFORMANCE: O(N×M) where N=subscriptions, M=topic levels
-     * Consider topic tree for >10K subscriptions.
+     * PERFORMANCE: O(L) trie walk where L=topic levels (plus wildcard branches),
+     * independent of the number of subscriptions. Allocation per routed message (see
+     * {@link Recipients}): nothing for this loop's recipients; per other loop, a retained
+     * duplicate and a recycled batch; the QoS 0 frame once per loop and protocol version.
      */
     private void handlePublish(ChannelHandlerContext ctx, MqttPublishMessage msg) {
-      String publishedTopic = msg.variableHeader().topicName();
+      handlePublish(ctx, msg, msg.variableHeader().topicName(), System.nanoTime());
+    }
 
+    /**
+     * @param publishedTopic Topic name of the message (MQTT 5: after Topic Alias resolution)
+     * @param receivedNanos  System.nanoTime() when the PUBLISH was decoded
+     */
+    private void handlePublish(ChannelHandlerContext ctx, MqttPublishMessage msg, String publishedTopic, long receivedNanos) {
       // Validate topic name
-      if (publishedTopic == null || publishedTopic.isEmpty()) {
-        LOGGER.warn("Received PUBLISH with null/empty topic");
+      if (!MqttTopics.isValidTopicName(publishedTopic)) {
+        LOGGER.warn("Received PUBLISH with invalid topic name: " + publishedTopic);
         return;
       }
 
-      int payloadSize = msg.payload().readableBytes();
-
-      metrics.incrementMessagesReceived();
-      metrics.addBytesReceived(payloadSize);
-      metrics.incrementTopicPublish(publishedTopic);
-
-      // ========================================================================
-      // QoS 1 ACKNOWLEDGMENT
-      // ========================================================================
-
-      if (msg.fixedHeader().qosLevel() == MqttQoS.AT_LEAST_ONCE) {
-        MqttFixedHeader pubAckHeader = new MqttFixedHeader(
-            MqttMessageType.PUBACK, false, MqttQoS.AT_MOST_ONCE, false, 0);
-        MqttPubAckMessage pubAck = new MqttPubAckMessage(
-            pubAckHeader,
-            MqttMessageIdVariableHeader.from(msg.variableHeader().packetId())
-        );
-        ctx.writeAndFlush(pubAck);
-      }
-
-      // ========================================================================
-      // TOPIC MATCHING & FAN-OUT
-      // ========================================================================
-
-      int deliveredCount = 0;
-      Set<Channel> recipients = Collections.newSetFromMap(new ConcurrentHashMap<>());
-
-      try {
-        // PHASE 1: Match and collect recipients - O(N×M)
-        for (Map.Entry<String, Set<Channel>> entry : subscriptions.entrySet()) {
-          if (topicMatches(entry.getKey(), publishedTopic)) {
-            recipients.addAll(entry.getValue());
-          }
-        }
-
-        deliveredCount = recipients.size();
-
-        if (deliveredCount > 0) {
-          // CRITICAL: Retain message once per recipient
-          // This ensures the underlying ByteBuf survives all writes
-          msg.retain(deliveredCount);
-
-          // PHASE 2: Write to all recipients - O(R)
-          for (Channel ch : recipients) {
-            if (ch.isActive()) {
-              // ✅ Use duplicate() for zero-copy fan-out
-              // Each duplicate has refCount=1 and is released by Netty after write
-              ch.write(msg.duplicate());
-            }
-          }
-
-          // PHASE 3: Flush all pending writes
-          recipients.forEach(Channel::flush);
-        }
-
-      } catch (Exception e) {
-        LOGGER.error("Error during message fan-out: " + e.getMessage(), e);
-      }
-
-      // ✅ DO NOT call msg.release() here
-      // Netty automatically releases the original message after channelRead
-      // The retained duplicates are released independently by the pipeline
-
-      metrics.addMessagesSent(deliveredCount);
-      metrics.addBytesSent((long) payloadSize * deliveredCount);
+      MqttQoS qos = msg.fixedHeader().qosLevel();
+      boolean retain = msg.fixedHeader().isRetain();
+      // Peers with a matching subscriber first (nothing to do outside cluster mode)
+      Predicate<String> shareGroups = cluster.forward(publishedTopic, msg.payload(), qos, retain);
+      route(ctx.alloc(), publishedTopic, msg.payload(), qos, retain, shareGroups, receivedNanos);
     }
 
-
     // --------------------------------------------------------------------------
     // PING HANDLER
     // --------------------------------------------------------------------------
@@ -935,14 +2088,65 @@ public class MQTTBroker {
     private final LongAdder bytesSent = new LongAdder();
     private final LongAdder unsupportedMessages = new LongAdder();
 
+    // QoS 1 delivery metrics
+    private final LongAdder retransmits = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+
+    // Slow-consumer backpressure metrics
+    private final LongAdder queuedBytes = new LongAdder();
+    private final LongAdder droppedBytes = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+    private final LongAdder keepAliveTimeouts = new LongAdder();
+    private final LongAdder connectsQueued = new LongAdder();
+    private final LongAdder connectsRejected = new LongAdder();
+    private final LongAdder authVerifications = new LongAdder();
+    private final LongAdder authCacheHits = new LongAdder();
+    private final LongAdder authFailures = new LongAdder();
+    private final LongAdder aclDenied = new LongAdder();
+
+    // Cluster forwarding
+    private final LongAdder clusterForwarded = new LongAdder();
+    private final LongAdder clusterFiltered = new LongAdder();
+    private final LongAdder clusterReceived = new LongAdder();
+    private final LongAdder clusterDropped = new LongAdder();
+
     // Subscription metrics
     private final AtomicLong totalSubscriptions = new AtomicLong(0);
 
-    // Topic statistics
-    private final Map<String, TopicStats> topicStats = new ConcurrentHashMap<>();
+    // Retained message metrics
+    private volatile int retainedMessages;
+    private volatile long retainedBytes;
+    private final LongAdder retainedRejected = new LongAdder();
+
+    // Persistent session metrics
+    private volatile int persistentSessions;
+
+    // Hot topics: published topic names, constant memory
+    private final HeavyHitters hotTopics = new HeavyHitters(HOT_TOPIC_COUNTERS);
+
+    // Filters with at least one subscriber (gauge, read from the topic trie)
+    private final IntSupplier topicFilters;
+
+    // Publish latency (per event loop histograms, merged on read)
+    final LatencyRecorder routeLatency = new LatencyRecorder();
+    final LatencyRecorder deliveryLatency = new LatencyRecorder();
+
+    // TLS handshakes (accept to handshake complete, recorded on the event loops)
+    private final LatencyRecorder tlsHandshakeLatency = new LatencyRecorder();
+    private final LongAdder tlsHandshakes = new LongAdder();
+    private final LongAdder tlsResumedHandshakes = new LongAdder();
+    private final LongAdder tlsHandshakeFailures = new LongAdder();
 
     private final long startTime = System.currentTimeMillis();
 
+    public BrokerMetrics() {
+      this(() -> 0);
+    }
+
+    BrokerMetrics(IntSupplier topicFilters) {
+      this.topicFilters = topicFilters;
+    }
+
     // Connection metric updates
     public void incrementConnections() {
       currentConnections.incrementAndGet();
@@ -985,6 +2189,155 @@ public class MQTTBroker {
       unsupportedMessages.increment();
     }
 
+    public void incrementRetransmits() {
+      retransmits.increment();
+    }
+
+    public void incrementDroppedMessages() {
+      droppedMessages.increment();
+    }
+
+    // Backpressure metric updates
+    public void addQueuedBytes(long delta) {
+      queuedBytes.add(delta);
+    }
+
+    public void addDroppedBytes(long bytes) {
+      droppedBytes.add(bytes);
+    }
+
+    public void incrementSlowConsumerDisconnects() {
+      slowConsumerDisconnects.increment();
+    }
+
+    public long getQueuedBytes() {
+      return queuedBytes.sum();
+    }
+
+    public long getDroppedMessages() {
+      return droppedMessages.sum();
+    }
+
+    public long getDroppedBytes() {
+      return droppedBytes.sum();
+    }
+
+    public void incrementConnectsQueued() {
+      connectsQueued.increment();
+    }
+
+    public long getConnectsQueued() {
+      return connectsQueued.sum();
+    }
+
+    public void incrementConnectsRejected() {
+      connectsRejected.increment();
+    }
+
+    public long getConnectsRejected() {
+      return connectsRejected.sum();
+    }
+
+    public void incrementAuthVerifications() {
+      authVerifications.increment();
+    }
+
+    public long getAuthVerifications() {
+      return authVerifications.sum();
+    }
+
+    public void incrementAuthCacheHits() {
+      authCacheHits.increment();
+    }
+
+    public long getAuthCacheHits() {
+      return authCacheHits.sum();
+    }
+
+    public void incrementAuthFailures() {
+      authFailures.increment();
+    }
+
+    public long getAuthFailures() {
+      return authFailures.sum();
+    }
+
+    public void incrementAclDenied() {
+      aclDenied.increment();
+    }
+
+    public long getAclDenied() {
+      return aclDenied.sum();
+    }
+
+    public void incrementClusterForwarded() {
+      clusterForwarded.increment();
+    }
+
+    public void incrementClusterFiltered() {
+      clusterFiltered.increment();
+    }
+
+    public void incrementClusterReceived() {
+      clusterReceived.increment();
+    }
+
+    public void incrementClusterDropped() {
+      clusterDropped.increment();
+    }
+
+    public long getClusterForwarded() {
+      return clusterForwarded.sum();
+    }
+
+    public long getClusterFiltered() {
+      return clusterFiltered.sum();
+    }
+
+    public long getClusterReceived() {
+      return clusterReceived.sum();
+    }
+
+    public long getClusterDropped() {
+      return clusterDropped.sum();
+    }
+
+    public void recordTlsHandshake(long nanos, boolean resumed) {
+      tlsHandshakes.increment();
+      if (resumed) {
+        tlsResumedHandshakes.increment();
+      }
+      tlsHandshakeLatency.record(nanos);
+    }
+
+    public void incrementTlsHandshakeFailures() {
+      tlsHandshakeFailures.increment();
+    }
+
+    public long getTlsHandshakes() {
+      return tlsHandshakes.sum();
+    }
+
+    public long getTlsResumedHandshakes() {
+      return tlsResumedHandshakes.sum();
+    }
+
+    public long getTlsHandshakeFailures() {
+      return tlsHandshakeFailures.sum();
+    }
+
+    public void incrementKeepAliveTimeouts() {
+      keepAliveTimeouts.increment();
+    }
+
+    public long getKeepAliveTimeouts() {
+      return keepAliveTimeouts.sum();
+    }
+
+    public long getSlowConsumerDisconnects() {
+      return slowConsumerDisconnects.sum();
+    }
+
     // Subscription metric updates
     public void incrementSubscription() {
       totalSubscriptions.incrementAndGet();
@@ -994,21 +2347,24 @@ public class MQTTBroker {
       totalSubscriptions.decrementAndGet();
     }
 
-    // Topic metric updates
-    public void addTopic(String topic) {
-      topicStats.putIfAbsent(topic, new TopicStats(topic));
+    // Retained message metric updates
+    public void updateRetained(int messages, long bytes) {
+      retainedMessages = messages;
+      retainedBytes = bytes;
     }
 
-    public void removeTopic(String topic) {
-      topicStats.remove(topic);
+    public void incrementRetainedRejected() {
+      retainedRejected.increment();
     }
 
-    public void incrementTopicPublish(String topic) {
-      TopicStats stats = topicStats.get(topic);
-      if (stats != null) {
-        stats.incrementPublishCount();
-        stats.updateLastPublish();
-      }
+    // Persistent session metric updates
+    public void updatePersistentSessions(int sessions) {
+      persistentSessions = sessions;
+    }
+
+    // Topic metric updates
+    public void countTopicPublish(String topic) {
+      hotTopics.offer(topic);
     }
 
     // Getters
@@ -1037,7 +2393,7 @@ public class MQTTBroker {
     }
 
     public int getTopicCount() {
-      return topicStats.size();
+      return topicFilters.getAsInt();
     }
 
     public long getUptimeSeconds() {
@@ -1075,17 +2431,56 @@ public class MQTTBroker {
       sb.append(String.format("  Messages Sent:          %d (%.2f msg/s)\n", getMessagesSent(), getMessagesSentPerSecond()));
       sb.append(String.format("  Bytes Received:         %s\n", formatBytes(getBytesReceived())));
       sb.append(String.format("  Bytes Sent:             %s\n", formatBytes(getBytesSent())));
-      sb.append(String.format("  Unsupported Msgs:       %d\n\n", unsupportedMessages.sum()));
+      sb.append(String.format("  Unsupported Msgs:       %d\n", unsupportedMessages.sum()));
+      sb.append(String.format("  QoS 1 Retransmits:      %d\n", retransmits.sum()));
+      sb.append(String.format("  Dropped (queue full):   %d (%s)\n", droppedMessages.sum(), formatBytes(droppedBytes.sum())));
+      sb.append(String.format("  Queued (slow consumer): %s\n", formatBytes(queuedBytes.sum())));
+      sb.append(String.format("  Slow Consumer Kicks:    %d\n", slowConsumerDisconnects.sum()));
+      sb.append(String.format("  Keep-Alive Timeouts:    %d\n", keepAliveTimeouts.sum()));
+      sb.append(String.format("  Connects Queued:        %d\n", connectsQueued.sum()));
+      sb.append(String.format("  Connects Refused:       %d\n", connectsRejected.sum()));
+      sb.append(String.format("  Auth Verified/Cached:   %d / %d (failed %d)\n", authVerifications.sum(), authCacheHits.sum(), authFailures.sum()));
+      sb.append(String.format("  ACL Denied:             %d\n\n", aclDenied.sum()));
 
       sb.append("SUBSCRIPTION STATISTICS:\n");
       sb.append(String.format("  Active Subscriptions:   %d\n", getTotalSubscriptions()));
-      sb.append(String.format("  Active Topics:          %d\n\n", getTopicCount()));
+      sb.append(String.format("  Active Topics:          %d\n", getTopicCount()));
+      sb.append(String.format("  Persistent Sessions:    %d\n\n", persistentSessions));
+
+      sb.append("RETAINED MESSAGES:\n");
+      sb.append(String.format("  Stored Messages:        %d\n", retainedMessages));
+      sb.append(String.format("  Stored Payload:         %s\n", formatBytes(retainedBytes)));
+      sb.append(String.format("  Rejected (cap):         %d\n\n", retainedRejected.sum()));
+
+      LatencyRecorder.Snapshot route = routeLatency.snapshot();
+      LatencyRecorder.Snapshot delivery = deliveryLatency.snapshot();
+      sb.append("PUBLISH LATENCY (p50 / p99 / p99.9):\n");
+      sb.append(String.format("  Route:                  %s / %s / %s\n", formatNanos(route.valueAt(0.5)), formatNanos(route.valueAt(0.99)), formatNanos(route.valueAt(0.999))));
+      sb.append(String.format("  Decode to Write:        %s / %s / %s\n\n", formatNanos(delivery.valueAt(0.5)), formatNanos(delivery.valueAt(0.99)), formatNanos(delivery.valueAt(0.999))));
+
+      long handshakes = tlsHandshakes.sum();
+      if (handshakes > 0 || tlsHandshakeFailures.sum() > 0) {
+        LatencyRecorder.Snapshot handshake = tlsHandshakeLatency.snapshot();
+        sb.append("TLS HANDSHAKES:\n");
+        sb.append(String.format("  Completed / Resumed:    %d / %d (failed %d)\n", handshakes, tlsResumedHandshakes.sum(), tlsHandshakeFailures.sum()));
+        sb.append(String.format("  Rate:                   %.1f/s\n", handshakes / (double) Math.max(1, getUptimeSeconds())));
+        sb.append(String.format("  Latency p50/p99/p99.9:  %s / %s / %s\n\n", formatNanos(handshake.valueAt(0.5)), formatNanos(handshake.valueAt(0.99)), formatNanos(handshake.valueAt(0.999))));
+      }
 
-      if (!topicStats.isEmpty()) {
+      if (clusterForwarded.sum() > 0 || clusterFiltered.sum() > 0 || clusterReceived.sum() > 0 || clusterDropped.sum() > 0) {
+        sb.append("CLUSTER:\n");
+        sb.append(String.format("  Forwarded to Peers:     %d\n", clusterForwarded.sum()));
+        sb.append(String.format("  Not Forwarded (no sub): %d\n", clusterFiltered.sum()));
+        sb.append(String.format("  Dropped (link backlog): %d\n", clusterDropped.sum()));
+        sb.append(String.format("  Received from Peers:    %d\n\n", clusterReceived.sum()));
+      }
+
+      List<HeavyHitters.Entry> top = hotTopics.top(10);
+      if (!top.isEmpty()) {
         sb.append("TOP 10 TOPICS BY ACTIVITY:\n");
-        topicStats.values().stream().sorted((a, b) -> Long.compare(b.getPublishCount(), a.getPublishCount())).limit(10).forEach(stats -> {
-          sb.append(String.format("  %-30s | Publishes: %d | Last: %s\n", truncate(stats.getTopic(), 30), stats.getPublishCount(), stats.getLastPublishTime()));
-        });
+        for (HeavyHitters.Entry entry : top) {
+          sb.append(String.format("  %-30s | Publishes: %d (±%d)\n", truncate(entry.topic(), 30), entry.count(), entry.error()));
+        }
       }
 
       sb.append("═══════════════════════════════════════════════════════\n");
@@ -1105,58 +2500,98 @@ public class MQTTBroker {
       return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
     }
 
-    private String truncate(String str, int length) {
-      return str.length() <= length ? str : str.substring(0, length - 3) + "...";
-    }
-
-  }
-
-  // ============================================================================
-  // TOPIC STATISTICS
-  // ============================================================================
-
-  /**
-   * Tracks per-topic publish statistics for monitoring hot topics.
-   */
-  public static class TopicStats {
-    private final String topic;
-    private final LongAdder publishCount = new LongAdder();
-    private volatile long lastPublishTimestamp = 0;
-
-    public TopicStats(String topic) {
-      this.topic = topic;
+    private String formatNanos(long nanos) {
+      if (nanos < 1_000) {
+        return nanos + " ns";
+      }
+      if (nanos < 1_000_000) {
+        return String.format("%.1f µs", nanos / 1e3);
+      }
+      return String.format("%.2f ms", nanos / 1e6);
     }
 
-    public void incrementPublishCount() {
-      publishCount.increment();
+    /**
+     * Renders every counter, gauge and latency summary in the Prometheus text exposition format.
+     * Latencies are summaries in seconds with quantiles 0.5, 0.9, 0.99 and 0.999.
+     */
+    public String getPrometheusText() {
+      StringBuilder sb = new StringBuilder(4096);
+      gauge(sb, "mqtt_connections", "Currently connected clients", getCurrentConnections());
+      counter(sb, "mqtt_connect_attempts_total", "CONNECT packets received", totalConnectAttempts.get());
+      counter(sb, "mqtt_connect_successes_total", "Accepted connections", totalConnectSuccesses.get());
+      counter(sb, "mqtt_connect_failures_total", "Refused connections", totalConnectFailures.get());
+      counter(sb, "mqtt_messages_received_total", "PUBLISH packets received", getMessagesReceived());
+      counter(sb, "mqtt_messages_sent_total", "PUBLISH deliveries to subscribers", getMessagesSent());
+      counter(sb, "mqtt_bytes_received_total", "Payload bytes received", getBytesReceived());
+      counter(sb, "mqtt_bytes_sent_total", "Payload bytes sent", getBytesSent());
+      counter(sb, "mqtt_unsupported_messages_total", "Packets of unsupported types", unsupportedMessages.sum());
+      counter(sb, "mqtt_retransmits_total", "QoS 1/2 retransmissions", retransmits.sum());
+      counter(sb, "mqtt_dropped_messages_total", "Messages dropped by the overflow policy", droppedMessages.sum());
+      counter(sb, "mqtt_dropped_bytes_total", "Payload bytes dropped by the overflow policy", droppedBytes.sum());
+      gauge(sb, "mqtt_queued_bytes", "Payload bytes queued for slow consumers", queuedBytes.sum());
+      counter(sb, "mqtt_slow_consumer_disconnects_total", "Clients disconnected by the overflow policy", slowConsumerDisconnects.sum());
+      counter(sb, "mqtt_connects_queued_total", "Sockets that waited for CONNECT admission", connectsQueued.sum());
+      counter(sb, "mqtt_connects_rejected_total", "Sockets refused by admission control (queue full or wait expired)", connectsRejected.sum());
+      counter(sb, "mqtt_auth_verifications_total", "Credential checks run on the authentication executor", authVerifications.sum());
+      counter(sb, "mqtt_auth_cache_hits_total", "CONNECTs accepted from the credential cache", authCacheHits.sum());
+      counter(sb, "mqtt_auth_failures_total", "CONNECTs refused for bad credentials", authFailures.sum());
+      counter(sb, "mqtt_acl_denied_total", "PUBLISH, SUBSCRIBE and will topics refused by access control", aclDenied.sum());
+      counter(sb, "mqtt_keep_alive_timeouts_total", "Connections closed for keep-alive expiry or missing CONNECT", keepAliveTimeouts.sum());
+      gauge(sb, "mqtt_subscriptions", "Active subscriptions", getTotalSubscriptions());
+      gauge(sb, "mqtt_topics", "Subscribed topic filters", getTopicCount());
+      gauge(sb, "mqtt_persistent_sessions", "Persistent sessions (online and offline)", persistentSessions);
+      gauge(sb, "mqtt_retained_messages", "Stored retained messages", retainedMessages);
+      gauge(sb, "mqtt_retained_bytes", "Stored retained payload bytes", retainedBytes);
+      counter(sb, "mqtt_retained_rejected_total", "Retained messages rejected by the memory cap", retainedRejected.sum());
+      gauge(sb, "mqtt_uptime_seconds", "Broker uptime", getUptimeSeconds());
+      summary(sb, "mqtt_publish_route_seconds", "PUBLISH decode to recipients matched and grouped", routeLatency.snapshot());
+      summary(sb, "mqtt_publish_delivery_seconds", "PUBLISH decode to last subscriber write, per event loop batch", deliveryLatency.snapshot());
+      counter(sb, "mqtt_tls_handshakes_total", "Completed TLS handshakes", tlsHandshakes.sum());
+      counter(sb, "mqtt_tls_handshakes_resumed_total", "TLS handshakes that resumed an earlier session", tlsResumedHandshakes.sum());
+      counter(sb, "mqtt_tls_handshake_failures_total", "Failed or timed out TLS handshakes", tlsHandshakeFailures.sum());
+      summary(sb, "mqtt_tls_handshake_seconds", "Accept to TLS handshake complete", tlsHandshakeLatency.snapshot());
+      counter(sb, "mqtt_cluster_forwarded_total", "Messages forwarded to cluster peers", clusterForwarded.sum());
+      counter(sb, "mqtt_cluster_filtered_total", "Messages not forwarded to a connected peer without a matching subscriber", clusterFiltered.sum());
+      counter(sb, "mqtt_cluster_received_total", "Messages received from cluster peers", clusterReceived.sum());
+      counter(sb, "mqtt_cluster_dropped_total", "Messages not forwarded because the link to the peer was backlogged", clusterDropped.sum());
+
+      sb.append("# HELP mqtt_hot_topic_publishes Publishes of the most active topic names (Space-Saving estimate, upper bound)\n");
+      sb.append("# TYPE mqtt_hot_topic_publishes gauge\n");
+      for (HeavyHitters.Entry entry : hotTopics.top(10)) {
+        sb.append("mqtt_hot_topic_publishes{topic=\"").append(escapeLabel(entry.topic())).append("\"} ").append(entry.count()).append('\n');
+      }
+      return sb.toString();
     }
 
-    public void updateLastPublish() {
-      lastPublishTimestamp = System.currentTimeMillis();
+    private static String escapeLabel(String value) {
+      return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
     }
 
-    public String getTopic() {
-      return topic;
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+      sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      sb.append("# TYPE ").append(name).append(" counter\n");
+      sb.append(name).append(' ').append(value).append('\n');
     }
 
-    public long getPublishCount() {
-      return publishCount.sum();
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+      sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      sb.append("# TYPE ").append(name).append(" gauge\n");
+      sb.append(name).append(' ').append(value).append('\n');
     }
 
-    public String getLastPublishTime() {
-      if (lastPublishTimestamp == 0) {
-        return "Never";
+    private static void summary(StringBuilder sb, String name, String help, LatencyRecorder.Snapshot snapshot) {
+      sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      sb.append("# TYPE ").append(name).append(" summary\n");
+      for (String quantile : new String[]{"0.5", "0.9", "0.99", "0.999"}) {
+        sb.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+            .append(snapshot.valueAt(Double.parseDouble(quantile)) / 1e9).append('\n');
       }
+      sb.append(name).append("_sum ").append(snapshot.sum() / 1e9).append('\n');
+      sb.append(name).append("_count ").append(snapshot.count()).append('\n');
+    }
 
-      long secondsAgo = (System.currentTimeMillis() - lastPublishTimestamp) / 1000;
-
-      if (secondsAgo < 60) {
-        return secondsAgo + "s ago";
-      }
-      if (secondsAgo < 3600) {
-        return (secondsAgo / 60) + "m ago";
-      }
-      return (secondsAgo / 3600) + "h ago";
+    private String truncate(String str, int length) {
+      return str.length() <= length ? str : str.substring(0, length - 3) + "...";
     }
 
   }
@@ -0,0 +1,76 @@
+package net.silver.services;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves {@link MQTTBroker.BrokerMetrics} in the Prometheus text exposition format
+ * (GET /metrics) on the loopback interface.
+ * <p>
+ * Uses the JDK's built-in HTTP server on one daemon thread: a scrape every few seconds
+ * needs no extra dependency and never touches the event loops (counters are LongAdders,
+ * latency snapshots merge the per-loop histograms on this thread).
+ * <p>
+ * SECURITY: Bound to 127.0.0.1 only; expose it through the scraper's host, not the network.
+ */
+final class MetricsEndpoint implements AutoCloseable {
+
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  private MetricsEndpoint(HttpServer server, ExecutorService executor) {
+    this.server = server;
+    this.executor = executor;
+  }
+
+  /**
+   * @param port Local TCP port, or 0 for an ephemeral port
+   */
+  static MetricsEndpoint start(int port, MQTTBroker.BrokerMetrics metrics) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "MetricsEndpoint");
+      t.setDaemon(true);
+      return t;
+    });
+    server.setExecutor(executor);
+    server.createContext("/metrics", exchange -> serve(exchange, metrics));
+    server.start();
+    return new MetricsEndpoint(server, executor);
+  }
+
+  private static void serve(HttpExchange exchange, MQTTBroker.BrokerMetrics metrics) throws IOException {
+    try (exchange) {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      byte[] body = metrics.getPrometheusText().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+
+  int port() {
+    return server.getAddress().getPort();
+  }
+
+  @Override public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+}
@@ -0,0 +1,226 @@
+package net.silver.services;
+
+/**
+ * Allocation-free MQTT topic helpers.
+ * <p>
+ * Both methods walk the strings in place using level start/end indexes instead of
+ * String.split("/"), so checking a filter creates no arrays and no substrings.
+ * <p>
+ * PERFORMANCE: O(C) where C = number of characters in the filter/topic
+ */
+final class MqttTopics {
+
+  /** Maximum topic length per MQTT 3.1.1 spec */
+  static final int MAX_TOPIC_LENGTH = 65535;
+
+  /** Prefix of a shared subscription: $share/{ShareName}/{filter} */
+  static final String SHARED_PREFIX = "$share/";
+
+  private MqttTopics() {}
+
+  /**
+   * Determines if a (validated) topic filter matches a concrete topic name.
+   * <p>
+   * MQTT WILDCARD RULES:
+   * - '#' (multi-level): Matches zero or more levels (must be last)
+   * - '+' (single-level): Matches exactly one level
+   * - Exact match: filter and topic are identical
+   * - Topics starting with '$' are not matched by a leading wildcard
+   * <p>
+   * EXAMPLES:
+   * - "sensors/#" matches "sensors", "sensors/temp", "sensors/temp/room1"
+   * - "sensors/+/temp" matches "sensors/living/temp", "sensors/bedroom/temp"
+   * - "sensors/temp" matches only "sensors/temp"
+   *
+   * @param filter The subscription topic filter (may contain wildcards)
+   * @param topic  The published topic name (no wildcards)
+   *
+   * @return true if the filter matches the topic
+   */
+  static boolean matches(String filter, String topic) {
+    // Fast path: exact match
+    if (filter.equals(topic)) {
+      return true;
+    }
+
+    int filterLength = filter.length();
+    int topicLength = topic.length();
+
+    if (topicLength > 0 && topic.charAt(0) == '$' && filterLength > 0 && isWildcard(filter.charAt(0))) {
+      return false;
+    }
+
+    int f = 0; // start of current filter level
+    int t = 0; // start of current topic level
+
+    while (true) {
+      int fEnd = levelEnd(filter, f);
+
+      // Multi-level wildcard: matches everything from here onward (including the parent level)
+      if (fEnd - f == 1 && filter.charAt(f) == '#') {
+        return true;
+      }
+
+      // Topic ended before filter did
+      if (t > topicLength) {
+        return false;
+      }
+
+      int tEnd = levelEnd(topic, t);
+
+      // Single-level wildcard matches any single level, otherwise levels must be identical
+      boolean plus = fEnd - f == 1 && filter.charAt(f) == '+';
+      if (!plus && (fEnd - f != tEnd - t || !filter.regionMatches(f, topic, t, fEnd - f))) {
+        return false;
+      }
+
+      f = fEnd + 1;
+      t = tEnd + 1;
+
+      // Filter consumed: topic must be consumed as well
+      if (f > filterLength) {
+        return t > topicLength;
+      }
+    }
+  }
+
+  /**
+   * Validates topic filter syntax per MQTT 3.1.1 specification.
+   * <p>
+   * VALIDATION RULES:
+   * 1. '#' must be the last character and occupy entire level (e.g., "a/#" OK, "a/#/b" FAIL)
+   * 2. '+' must occupy entire level (e.g., "a/+/b" OK, "a/+b/c" FAIL)
+   * 3. No null characters (U+0000)
+   * 4. Length must be ≤ 65535 bytes
+   * 5. No consecutive slashes (e.g., "a//b" is INVALID per spec)
+   * 6. Shared subscriptions: "$share/{ShareName}/{filter}" with a non-empty ShareName
+   *    without '/', '+' or '#', followed by a valid filter
+   *
+   * @param filter The topic filter to validate
+   *
+   * @return true if valid, false otherwise
+   */
+  static boolean isValidFilter(String filter) {
+    if (filter == null || filter.isEmpty() || filter.length() > MAX_TOPIC_LENGTH) {
+      return false;
+    }
+
+    int from = 0;
+    if (isShared(filter)) {
+      from = sharedFilterStart(filter);
+      if (from < 0) {
+        return false;
+      }
+    }
+
+    int length = filter.length();
+    int levelStart = from;
+
+    for (int i = from; i < length; i++) {
+      char c = filter.charAt(i);
+      switch (c) {
+        case '\u0000' -> {
+          return false;
+        }
+        case '/' -> {
+          // Empty levels are only allowed at start or end (e.g., "/a/b" or "a/b/")
+          if (i == levelStart && levelStart != from) {
+            return false; // Reject "a//b"
+          }
+          levelStart = i + 1;
+        }
+        case '#' -> {
+          // Must be the only character of the last level
+          if (i != levelStart || i != length - 1) {
+            return false; // Reject "a/b#" or "a/#/c"
+          }
+        }
+        case '+' -> {
+          // Must occupy entire level
+          if (i != levelStart || (i + 1 < length && filter.charAt(i + 1) != '/')) {
+            return false; // Reject "a/+b/c"
+          }
+        }
+        default -> {
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Validates a topic name (PUBLISH, will, in-process publish) per MQTT 3.1.1 / 5 spec.
+   * <p>
+   * VALIDATION RULES:
+   * 1. Not empty; empty levels are allowed ("a//b", "/a")
+   * 2. No wildcards ('+', '#')
+   * 3. No null characters (U+0000)
+   * 4. UTF-8 length must be ≤ 65535 bytes
+   *
+   * @param topic The topic name to validate
+   *
+   * @return true if valid, false otherwise
+   */
+  static boolean isValidTopicName(String topic) {
+    if (topic == null || topic.isEmpty() || topic.length() > MAX_TOPIC_LENGTH) {
+      return false;
+    }
+    int utf8Bytes = 0;
+    for (int i = 0; i < topic.length(); i++) {
+      char c = topic.charAt(i);
+      if (c == '+' || c == '#' || c == '\u0000') {
+        return false;
+      }
+      // A surrogate pair is 4 bytes: 2 per char
+      utf8Bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+    }
+    return utf8Bytes <= MAX_TOPIC_LENGTH;
+  }
+
+  static boolean isShared(String filter) {
+    return filter.startsWith(SHARED_PREFIX);
+  }
+
+  /**
+   * Returns the index where the real filter of a shared subscription starts
+   * ("$share/workers/orders/#" → index of "orders/#"), or -1 if the ShareName is malformed
+   * or the filter is missing.
+   */
+  static int sharedFilterStart(String filter) {
+    int groupStart = SHARED_PREFIX.length();
+    int groupEnd = filter.indexOf('/', groupStart);
+    if (groupEnd <= groupStart || groupEnd == filter.length() - 1) {
+      return -1;
+    }
+    for (int i = groupStart; i < groupEnd; i++) {
+      if (isWildcard(filter.charAt(i))) {
+        return -1;
+      }
+    }
+    return groupEnd + 1;
+  }
+
+  /**
+   * Returns the exclusive end index of the level starting at {@code start}.
+   */
+  static int levelEnd(String topic, int start) {
+    int slash = topic.indexOf('/', start);
+    return slash < 0 ? topic.length() : slash;
+  }
+
+  /**
+   * Computes String.hashCode() of topic.substring(start, end) without creating the substring.
+   */
+  static int levelHash(String topic, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + topic.charAt(i);
+    }
+    return h;
+  }
+
+  private static boolean isWildcard(char c) {
+    return c == '+' || c == '#';
+  }
+
+}
@@ -0,0 +1,19 @@
+package net.silver.services;
+
+/**
+ * What a session does when its bounded outbound queue is full (slow consumer).
+ * <p>
+ * The queue fills while the channel is not writable (outbound buffer above the high
+ * water mark) or the QoS 1/2 in-flight window is exhausted.
+ */
+enum OverflowPolicy {
+
+  /** Evict the oldest queued messages to make room (freshest data wins, e.g. price updates) */
+  DROP_OLDEST,
+
+  /** Reject the incoming message and keep the queue as is */
+  DROP_NEW,
+
+  /** Close the connection of the slow consumer (its LWT is published) */
+  DISCONNECT
+}
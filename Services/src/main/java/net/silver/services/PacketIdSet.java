@@ -0,0 +1,76 @@
+package net.silver.services;
+
+import java.util.Arrays;
+
+/**
+ * Compact set of MQTT packet IDs (1..65535) backed by a lazily paged bitset.
+ * <p>
+ * LAYOUT:
+ * - 64 pages × 1024 IDs, each page is a long[16] (128 bytes) allocated on first use
+ * - Clients issue IDs sequentially, so a session usually touches one or two pages
+ * <p>
+ * MEMORY: ~300 bytes for a typical session instead of 8 KB for a flat 65536-bit set,
+ * and no boxed Integer or map entry per ID.
+ * <p>
+ * THREADING: Not thread-safe. Confined to the owning channel's event loop.
+ */
+final class PacketIdSet {
+
+  private static final int PAGE_BITS = 10; // 1024 IDs per page
+  private static final int PAGE_COUNT = 65536 >>> PAGE_BITS;
+  private static final int WORDS_PER_PAGE = (1 << PAGE_BITS) >>> 6;
+
+  private final long[][] pages = new long[PAGE_COUNT][];
+  private int size;
+
+  /**
+   * @return true if the ID was not yet present
+   */
+  boolean add(int packetId) {
+    long[] page = pages[packetId >>> PAGE_BITS];
+    if (page == null) {
+      page = pages[packetId >>> PAGE_BITS] = new long[WORDS_PER_PAGE];
+    }
+    int word = (packetId >>> 6) & (WORDS_PER_PAGE - 1);
+    long bit = 1L << packetId; // shift uses the low 6 bits
+    if ((page[word] & bit) != 0) {
+      return false;
+    }
+    page[word] |= bit;
+    size++;
+    return true;
+  }
+
+  /**
+   * @return true if the ID was present
+   */
+  boolean remove(int packetId) {
+    long[] page = pages[packetId >>> PAGE_BITS];
+    if (page == null) {
+      return false;
+    }
+    int word = (packetId >>> 6) & (WORDS_PER_PAGE - 1);
+    long bit = 1L << packetId;
+    if ((page[word] & bit) == 0) {
+      return false;
+    }
+    page[word] &= ~bit;
+    size--;
+    return true;
+  }
+
+  boolean contains(int packetId) {
+    long[] page = pages[packetId >>> PAGE_BITS];
+    return page != null && (page[(packetId >>> 6) & (WORDS_PER_PAGE - 1)] & (1L << packetId)) != 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    Arrays.fill(pages, null);
+    size = 0;
+  }
+
+}
@@ -0,0 +1,46 @@
+package net.silver.services;
+
+import net.silver.utils.PasswordUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Verifies user name / password against stored PBKDF2 hashes ({@link PasswordUtil} format,
+ * as written to the users table).
+ * <p>
+ * PERFORMANCE: One verification is 310,000 PBKDF2 iterations (tens of milliseconds of CPU);
+ * the broker runs it on its authentication executor and caches successful results.
+ */
+public final class PasswordAuthenticator implements Authenticator {
+
+  private final Function<String, Account> accounts;
+
+  /**
+   * @param accounts User name → account, or null if unknown (may block, e.g. a database query)
+   */
+  public PasswordAuthenticator(Function<String, Account> accounts) {
+    this.accounts = accounts;
+  }
+
+  @Override public Identity authenticate(String clientId, String userName, byte[] password) {
+    if (userName == null || password == null) {
+      return null;
+    }
+    Account account = accounts.apply(userName);
+    if (account == null || !PasswordUtil.checkPassword(new String(password, StandardCharsets.UTF_8), account.passwordHash())) {
+      return null;
+    }
+    return new Identity(userName, account.group());
+  }
+
+  /**
+   * Stored credentials of one user.
+   *
+   * @param passwordHash Base64 salt + PBKDF2 hash from {@link PasswordUtil#hashPassword}
+   * @param group        User group, or null
+   */
+  public record Account(String passwordHash, String group) {
+  }
+
+}
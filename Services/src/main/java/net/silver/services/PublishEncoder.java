@@ -0,0 +1,92 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+
+/**
+ * Encodes an outgoing QoS 0 PUBLISH once for a whole fan-out.
+ * <p>
+ * A QoS 0 PUBLISH carries no packet ID, so its wire bytes are identical for every
+ * recipient. The frame is built once and each recipient gets a retainedDuplicate()
+ * of it. A ByteBuf passes through MqttEncoder untouched, so the per-channel encode
+ * (fixed header, remaining length, topic) is skipped.
+ * <p>
+ * LAYOUT:
+ * - Small payloads: header, topic and payload are copied into one contiguous buffer
+ * - Large payloads: a composite of [header + topic, payload.retainedDuplicate()] (zero-copy)
+ * - MQTT 5: the topic is followed by an empty property section (one 0x00 byte), so 3.1.1 and
+ *   MQTT 5 recipients of the same fan-out need different frames
+ * <p>
+ * PERFORMANCE: One encode per publish instead of one per recipient; per recipient only a
+ * duplicate (no buffer allocation, no copy) and one pipeline write remain.
+ */
+final class PublishEncoder {
+
+  /** Payloads up to this size are copied next to the header (cheaper than a composite) */
+  private static final int COPY_THRESHOLD = 512;
+
+  private static final int PUBLISH_QOS0 = 0x30;
+  private static final int RETAIN_FLAG = 0x01;
+
+  private PublishEncoder() {
+  }
+
+  /**
+   * Serializes a QoS 0 PUBLISH (MQTT 3.1.1 wire format).
+   * The caller keeps ownership of {@code payload} and must release the returned frame.
+   */
+  static ByteBuf encodeQos0(ByteBufAllocator alloc, String topic, ByteBuf payload, boolean retain) {
+    return encodeQos0(alloc, topic, payload, retain, false);
+  }
+
+  /**
+   * Serializes a QoS 0 PUBLISH in the 3.1.1 or the MQTT 5 (no properties) wire format.
+   * The caller keeps ownership of {@code payload} and must release the returned frame.
+   */
+  static ByteBuf encodeQos0(ByteBufAllocator alloc, String topic, ByteBuf payload, boolean retain, boolean mqtt5) {
+    int topicLength = ByteBufUtil.utf8Bytes(topic);
+    int payloadLength = payload.readableBytes();
+    int propertiesLength = mqtt5 ? 1 : 0;
+    int remainingLength = 2 + topicLength + propertiesLength + payloadLength;
+    int headerLength = 1 + varIntSize(remainingLength) + 2 + topicLength + propertiesLength;
+    boolean copy = payloadLength <= COPY_THRESHOLD;
+
+    ByteBuf header = alloc.ioBuffer(copy ? headerLength + payloadLength : headerLength);
+    header.writeByte(PUBLISH_QOS0 | (retain ? RETAIN_FLAG : 0));
+    writeVarInt(header, remainingLength);
+    header.writeShort(topicLength);
+    ByteBufUtil.reserveAndWriteUtf8(header, topic, topicLength);
+    if (mqtt5) {
+      header.writeByte(0); // property length
+    }
+
+    if (copy) {
+      header.writeBytes(payload, payload.readerIndex(), payloadLength);
+      return header;
+    }
+
+    CompositeByteBuf frame = alloc.compositeDirectBuffer(2);
+    frame.addComponents(true, header, payload.retainedDuplicate());
+    return frame;
+  }
+
+  private static int varIntSize(int value) {
+    int size = 1;
+    while (value >= 0x80) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static void writeVarInt(ByteBuf out, int value) {
+    do {
+      int digit = value & 0x7F;
+      value >>>= 7;
+      out.writeByte(value > 0 ? digit | 0x80 : digit);
+    } while (value > 0);
+  }
+
+}
@@ -0,0 +1,199 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.Arrays;
+
+/**
+ * Distinct recipients of one PUBLISH: each matched session once, with its highest granted QoS.
+ * <p>
+ * LAYOUT:
+ * - Recipients in match order: parallel ClientSession[] / MqttQoS[] arrays
+ * - Dedupe: open-addressed identity table of indexes into those arrays; a slot is live only
+ *   if its stamp equals the current epoch, so clearing the table is a single increment
+ * - Per-loop batches: parallel EventExecutor[] / {@link DeliveryBatch}[] arrays, scanned
+ *   linearly (one entry per other worker loop with recipients, a handful at most)
+ * <p>
+ * One instance per thread is reused for every publish routed on it ({@link #acquire()}).
+ * A publish nested in another one on the same thread (a will sent while a slow consumer
+ * is disconnected during fan-out) gets a private instance instead.
+ * <p>
+ * PERFORMANCE: Once the arrays have grown to the largest fan-out seen on the thread, routing
+ * a message allocates:
+ * - Nothing for recipients on the routing loop (delivered inline, see {@link #deliverInline})
+ * - Per other loop with recipients: one retained duplicate of the payload (pooled by Netty for
+ *   pooled buffers) and a {@link DeliveryBatch} taken from its recycler
+ * - The QoS 0 frame encoded once per loop and protocol version, from the channel allocator
+ * <p>
+ * THREADING: Not thread-safe. Confined to the routing thread between acquire() and release().
+ */
+final class Recipients implements TopicTree.Visitor {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final FastThreadLocal<Recipients> CURRENT = new FastThreadLocal<>() {
+    @Override protected Recipients initialValue() {
+      return new Recipients();
+    }
+  };
+
+  private ClientSession[] sessions = new ClientSession[INITIAL_CAPACITY];
+  private MqttQoS[] granted = new MqttQoS[INITIAL_CAPACITY];
+  private int size;
+
+  /** Dedupe table: index + 1 into sessions, valid where stamps[slot] == epoch (length is a power of two) */
+  private int[] slots = new int[INITIAL_CAPACITY * 2];
+  private int[] stamps = new int[INITIAL_CAPACITY * 2];
+  private int epoch = 1;
+
+  private EventExecutor[] loops = new EventExecutor[4];
+  private DeliveryBatch[] batches = new DeliveryBatch[4];
+  private int loopCount;
+
+  private boolean inUse;
+
+  private Recipients() {
+  }
+
+  /**
+   * @return the (empty) recipient set of the current thread; hand it back with {@link #release()}
+   */
+  static Recipients acquire() {
+    Recipients recipients = CURRENT.get();
+    if (recipients.inUse) {
+      recipients = new Recipients();
+    }
+    recipients.inUse = true;
+    return recipients;
+  }
+
+  /**
+   * Adds a matched subscription; a session already present keeps the higher granted QoS.
+   */
+  @Override public void visit(ClientSession session, MqttQoS grantedQoS) {
+    int mask = slots.length - 1;
+    for (int i = spread(System.identityHashCode(session)) & mask; ; i = (i + 1) & mask) {
+      if (stamps[i] != epoch) {
+        add(i, session, grantedQoS);
+        return;
+      }
+      int index = slots[i] - 1;
+      if (sessions[index] == session) {
+        if (grantedQoS.value() > granted[index].value()) {
+          granted[index] = grantedQoS;
+        }
+        return;
+      }
+    }
+  }
+
+  private void add(int slot, ClientSession session, MqttQoS grantedQoS) {
+    if (size == sessions.length) {
+      sessions = Arrays.copyOf(sessions, size * 2);
+      granted = Arrays.copyOf(granted, size * 2);
+    }
+    sessions[size] = session;
+    granted[size] = grantedQoS;
+    size++;
+    slots[slot] = size;
+    stamps[slot] = epoch;
+
+    // Keep the table at most half full
+    if (size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+  }
+
+  private void rehash(int capacity) {
+    slots = new int[capacity];
+    stamps = new int[capacity];
+    epoch = 1;
+    int mask = capacity - 1;
+    for (int index = 0; index < size; index++) {
+      int i = spread(System.identityHashCode(sessions[index])) & mask;
+      while (stamps[i] == epoch) {
+        i = (i + 1) & mask;
+      }
+      slots[i] = index + 1;
+      stamps[i] = epoch;
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  ClientSession session(int index) {
+    return sessions[index];
+  }
+
+  MqttQoS granted(int index) {
+    return granted[index];
+  }
+
+  /**
+   * Delivers the message to the recipients owned by the current loop, straight from this set
+   * (no batch, no payload duplicate). The caller keeps ownership of {@code payload}.
+   */
+  void deliverInline(String topic, ByteBuf payload, MqttQoS publishQoS, ByteBufAllocator alloc) {
+    DeliveryBatch.deliver(sessions, granted, size, true, topic, payload, publishQoS, alloc);
+  }
+
+  /**
+   * @return The batch of this publish for the given loop, or null if none was started yet
+   */
+  DeliveryBatch batch(EventExecutor loop) {
+    for (int i = 0; i < loopCount; i++) {
+      if (loops[i] == loop) {
+        return batches[i];
+      }
+    }
+    return null;
+  }
+
+  void addBatch(EventExecutor loop, DeliveryBatch batch) {
+    if (loopCount == loops.length) {
+      loops = Arrays.copyOf(loops, loopCount * 2);
+      batches = Arrays.copyOf(batches, loopCount * 2);
+    }
+    loops[loopCount] = loop;
+    batches[loopCount] = batch;
+    loopCount++;
+  }
+
+  /**
+   * Hands every batch of this publish to its loop.
+   */
+  void executeBatches() {
+    for (int i = 0; i < loopCount; i++) {
+      loops[i].execute(batches[i]);
+    }
+  }
+
+  /**
+   * Empties the set for the next publish: O(R) to drop session references, O(1) for the table.
+   */
+  void release() {
+    Arrays.fill(sessions, 0, size, null);
+    Arrays.fill(granted, 0, size, null);
+    size = 0;
+    Arrays.fill(loops, 0, loopCount, null);
+    Arrays.fill(batches, 0, loopCount, null);
+    loopCount = 0;
+    if (++epoch == 0) {
+      // Wrapped: stale stamps could become valid again
+      Arrays.fill(stamps, 0);
+      epoch = 1;
+    }
+    inUse = false;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+}
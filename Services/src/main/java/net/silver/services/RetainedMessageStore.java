@@ -0,0 +1,232 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Retained message store: topic name → last retained PUBLISH for that topic.
+ * <p>
+ * STORAGE:
+ * - Entries live in a topic-level trie, so a wildcard SUBSCRIBE walks only the branches
+ *   its filter can match instead of scanning every retained topic
+ * - Payloads are copied into pooled direct ByteBufs owned by the store (off-heap, no GC pressure)
+ * - Total payload bytes are capped; a retain that would exceed the cap is refused
+ *   (the message is still routed to current subscribers)
+ * <p>
+ * MQTT RULES:
+ * - A retained PUBLISH with an empty payload deletes the retained message for that topic
+ * - Topics starting with '$' are not matched by a leading wildcard
+ * <p>
+ * CONCURRENCY: All operations are serialized on the store. Retained publishes and
+ * SUBSCRIBE are rare compared to normal PUBLISH traffic, and the lock guarantees a payload
+ * is never released while a subscriber is taking a duplicate of it.
+ */
+final class RetainedMessageStore {
+
+  private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+  private final long maxBytes;
+
+  private final Node root = new Node(null, "");
+  private int count;
+  private long bytes;
+
+  RetainedMessageStore(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  // ============================================================================
+  // MUTATIONS
+  // ============================================================================
+
+  /**
+   * Stores (or with an empty payload, deletes) the retained message for a topic.
+   * The caller keeps ownership of {@code payload}; the store keeps its own copy.
+   *
+   * @return false if the message was refused because the memory cap would be exceeded
+   */
+  synchronized boolean put(String topic, ByteBuf payload, MqttQoS qos) {
+    int size = payload.readableBytes();
+
+    if (size == 0) {
+      remove(topic);
+      return true;
+    }
+
+    Node node = root;
+    for (String level : topic.split("/", -1)) {
+      Node child = node.children.get(level);
+      if (child == null) {
+        child = new Node(node, level);
+        node.children.put(level, child);
+      }
+      node = child;
+    }
+
+    long previousSize = node.payload != null ? node.payload.readableBytes() : 0;
+    if (bytes - previousSize + size > maxBytes) {
+      prune(node);
+      return false;
+    }
+
+    ByteBuf copy = alloc.directBuffer(size, size);
+    copy.writeBytes(payload, payload.readerIndex(), size);
+
+    if (node.payload != null) {
+      ReferenceCountUtil.safeRelease(node.payload);
+    }
+    else {
+      count++;
+    }
+    node.topic = topic;
+    node.payload = copy;
+    node.qos = qos;
+    bytes += size - previousSize;
+    return true;
+  }
+
+  private void remove(String topic) {
+    Node node = root;
+    for (String level : topic.split("/", -1)) {
+      node = node.children.get(level);
+      if (node == null) {
+        return;
+      }
+    }
+    if (node.payload != null) {
+      bytes -= node.payload.readableBytes();
+      count--;
+      ReferenceCountUtil.safeRelease(node.payload);
+      node.payload = null;
+      node.topic = null;
+    }
+    prune(node);
+  }
+
+  private void prune(Node node) {
+    while (node.parent != null && node.payload == null && node.children.isEmpty()) {
+      node.parent.children.remove(node.level);
+      node = node.parent;
+    }
+  }
+
+  /**
+   * Releases every stored payload (broker shutdown).
+   */
+  synchronized void clear() {
+    releaseAll(root);
+    root.children.clear();
+    count = 0;
+    bytes = 0;
+  }
+
+  private void releaseAll(Node node) {
+    if (node.payload != null) {
+      ReferenceCountUtil.safeRelease(node.payload);
+      node.payload = null;
+    }
+    node.children.values().forEach(this::releaseAll);
+  }
+
+  // ============================================================================
+  // QUERIES
+  // ============================================================================
+
+  /**
+   * Builds ready-to-write PUBLISH messages (RETAIN=1) for every retained topic matching the filter.
+   * Each message holds a retained duplicate of the stored payload; the pipeline releases it after write.
+   *
+   * @param filter     Validated topic filter of the new subscription
+   * @param grantedQoS QoS granted to the subscription (delivery QoS = min(stored, granted))
+   */
+  synchronized List<MqttPublishMessage> match(String filter, MqttQoS grantedQoS) {
+    List<MqttPublishMessage> out = new ArrayList<>();
+    if (count > 0) {
+      collect(root, filter.split("/", -1), 0, grantedQoS, out);
+    }
+    return out;
+  }
+
+  private void collect(Node node, String[] levels, int index, MqttQoS grantedQoS, List<MqttPublishMessage> out) {
+    if (index == levels.length) {
+      add(node, grantedQoS, out);
+      return;
+    }
+
+    String level = levels[index];
+    switch (level) {
+      case "#" -> {
+        // '#' also matches the parent level
+        add(node, grantedQoS, out);
+        for (Node child : node.children.values()) {
+          if (index > 0 || !child.level.startsWith("$")) {
+            collectSubtree(child, grantedQoS, out);
+          }
+        }
+      }
+      case "+" -> {
+        for (Node child : node.children.values()) {
+          if (index > 0 || !child.level.startsWith("$")) {
+            collect(child, levels, index + 1, grantedQoS, out);
+          }
+        }
+      }
+      default -> {
+        Node child = node.children.get(level);
+        if (child != null) {
+          collect(child, levels, index + 1, grantedQoS, out);
+        }
+      }
+    }
+  }
+
+  private void collectSubtree(Node node, MqttQoS grantedQoS, List<MqttPublishMessage> out) {
+    add(node, grantedQoS, out);
+    for (Node child : node.children.values()) {
+      collectSubtree(child, grantedQoS, out);
+    }
+  }
+
+  private void add(Node node, MqttQoS grantedQoS, List<MqttPublishMessage> out) {
+    if (node.payload == null) {
+      return;
+    }
+    MqttQoS qos = node.qos.value() <= grantedQoS.value() ? node.qos : grantedQoS;
+    MqttFixedHeader header = new MqttFixedHeader(MqttMessageType.PUBLISH, false, qos, true, 0);
+    out.add(new MqttPublishMessage(header, new MqttPublishVariableHeader(node.topic, 0), node.payload.retainedDuplicate()));
+  }
+
+  synchronized int size() {
+    return count;
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  // ============================================================================
+  // TRIE NODE
+  // ============================================================================
+
+  private static final class Node {
+    final Node parent;
+    final String level;
+    final Map<String, Node> children = new HashMap<>();
+    String topic;
+    ByteBuf payload;
+    MqttQoS qos;
+
+    Node(Node parent, String level) {
+      this.parent = parent;
+      this.level = level;
+    }
+  }
+
+}
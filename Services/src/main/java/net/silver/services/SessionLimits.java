@@ -0,0 +1,14 @@
+package net.silver.services;
+
+/**
+ * Per-session delivery limits, shared by all sessions of a broker.
+ *
+ * @param inflightWindow    Maximum unacknowledged QoS 1/2 messages (rounded up to a power of two)
+ * @param retryMillis       Re-send unacknowledged messages (DUP=1 / PUBREL) after this delay
+ * @param maxQueuedMessages Outbound queue bound in messages
+ * @param maxQueuedBytes    Outbound queue bound in payload bytes
+ * @param overflowPolicy    Applied to a connected session whose queue is full
+ *                          (offline persistent sessions always drop new messages)
+ */
+record SessionLimits(int inflightWindow, long retryMillis, int maxQueuedMessages, long maxQueuedBytes, OverflowPolicy overflowPolicy) {
+}
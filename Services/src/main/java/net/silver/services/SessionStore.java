@@ -0,0 +1,612 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import net.silver.log.slf4j.SilverLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, memory-mapped store for persistent (non-clean) MQTT sessions.
+ * <p>
+ * CONTENT (per client ID):
+ * - Session existence
+ * - Subscriptions (filter → granted QoS)
+ * - Queued QoS 1/2 messages not yet delivered to the client
+ * <p>
+ * FILE FORMAT ({@code sessions-<generation>.log}):
+ * - Header:  int magic, int version, long generation (written last during compaction)
+ * - Records: int bodyLength, int crc32c(body), body
+ * - Body:    byte type, clientId, text (filter or topic), byte flags (qos | retain << 2), payload
+ *   (strings are u16 length + UTF-8, payload is i32 length + bytes)
+ * - A zero length marks the end of the log; a bad CRC (torn write) also ends replay
+ * <p>
+ * COMPACTION: The live state is tracked in memory (subscriptions, file offsets of queued
+ * messages, live byte count). When the log grows past twice the live bytes, live records
+ * are copied into a new generation file and the old one is deleted. Recovery therefore
+ * reads O(live sessions + queued messages), not the full history.
+ * <p>
+ * DURABILITY: Appends are plain stores into the mapping (no fsync per record), so data
+ * survives a broker crash or restart but not necessarily a power loss. The mapping is
+ * forced on compaction and on {@link #close()}.
+ * <p>
+ * THREADING: All methods are synchronized (appends are short memory copies).
+ */
+final class SessionStore implements AutoCloseable {
+
+  private static final SilverLogger LOGGER = new SilverLogger("SessionStore.class");
+
+  private static final int MAGIC = 0x4D515353; // "MQSS"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  private static final byte OPEN = 1;
+  private static final byte SUBSCRIBE = 2;
+  private static final byte UNSUBSCRIBE = 3;
+  private static final byte ENQUEUE = 4;
+  private static final byte CLEAR_QUEUE = 5;
+  private static final byte REMOVE = 6;
+
+  /** Initial mapping size; doubled when full */
+  private static final int INITIAL_MAP_SIZE = 4 * 1024 * 1024;
+  /** Hard cap of one generation file (offsets are ints) */
+  private static final int MAX_MAP_SIZE = 1 << 30;
+  /** Logs smaller than this are never compacted */
+  private static final int COMPACT_MIN_BYTES = 1024 * 1024;
+
+  private static final String FILE_PREFIX = "sessions-";
+  private static final String FILE_SUFFIX = ".log";
+
+  /**
+   * Receives each stored session during {@link #recover}.
+   */
+  interface RecoveryVisitor {
+    void session(String clientId, Map<String, MqttQoS> subscriptions, List<StoredMessage> queued);
+  }
+
+  /**
+   * A queued message read back from the store (the payload is owned by the receiver).
+   */
+  record StoredMessage(String topic, MqttQoS qos, boolean retain, ByteBuf payload) {
+  }
+
+  private final Path directory;
+  private final CRC32C crc = new CRC32C();
+  private final Map<String, Entry> sessions = new HashMap<>();
+
+  private long generation;
+  private FileChannel file;
+  private MappedByteBuffer map;
+  private int position;
+  private long liveBytes;
+  private boolean failed;
+
+  private SessionStore(Path directory) {
+    this.directory = directory;
+  }
+
+  // ============================================================================
+  // OPEN / RECOVERY
+  // ============================================================================
+
+  /**
+   * Opens (or creates) the store in {@code directory} and replays the newest complete generation.
+   */
+  static SessionStore open(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    SessionStore store = new SessionStore(directory);
+    store.load();
+    return store;
+  }
+
+  private void load() throws IOException {
+    // Pick the newest generation with a valid header (a half-written compaction has none)
+    Path newest = null;
+    long newestGeneration = -1;
+    List<Path> all = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+      for (Path p : files) {
+        all.add(p);
+        long g = readGeneration(p);
+        if (g > newestGeneration) {
+          newestGeneration = g;
+          newest = p;
+        }
+      }
+    }
+
+    if (newest == null) {
+      generation = 1;
+      file = FileChannel.open(path(generation), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      map = file.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_MAP_SIZE);
+      writeHeader(map, generation);
+      position = HEADER_SIZE;
+    }
+    else {
+      generation = newestGeneration;
+      file = FileChannel.open(newest, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      map = file.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_MAP_SIZE, Math.min(file.size(), MAX_MAP_SIZE)));
+      replay();
+    }
+
+    for (Path p : all) {
+      if (!p.equals(newest) && !p.equals(path(generation))) {
+        Files.deleteIfExists(p);
+      }
+    }
+
+    if (shouldCompact()) {
+      compact(0);
+    }
+  }
+
+  private static long readGeneration(Path p) {
+    try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      if (ch.read(header, 0) < HEADER_SIZE) {
+        return -1;
+      }
+      header.flip();
+      return header.getInt() == MAGIC && header.getInt() == VERSION ? header.getLong() : -1;
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Rebuilds the in-memory index from the log, stopping at the end marker or the first torn record.
+   */
+  private void replay() {
+    int p = HEADER_SIZE;
+    while (p + RECORD_HEADER_SIZE <= map.capacity()) {
+      int length = map.getInt(p);
+      if (length <= 0 || p + RECORD_HEADER_SIZE + length > map.capacity() || checksum(map, p + RECORD_HEADER_SIZE, length) != map.getInt(p + 4)) {
+        break;
+      }
+      apply(p);
+      p += RECORD_HEADER_SIZE + length;
+    }
+    position = p;
+  }
+
+  /**
+   * Applies one record at {@code offset} to the in-memory index.
+   */
+  private void apply(int offset) {
+    int p = offset + RECORD_HEADER_SIZE;
+    byte type = map.get(p++);
+    int cidLength = map.getShort(p) & 0xFFFF;
+    String clientId = readString(map, p);
+    p += 2 + cidLength;
+    String text = readString(map, p);
+    p += 2 + (map.getShort(p) & 0xFFFF);
+    int flags = map.get(p);
+
+    int size = RECORD_HEADER_SIZE + map.getInt(offset);
+    switch (type) {
+      case
+          OPEN -> sessions.computeIfAbsent(clientId, id -> newEntry(id, size));
+      case
+          REMOVE -> dropEntry(clientId);
+      case
+          SUBSCRIBE -> {
+        Entry e = sessions.computeIfAbsent(clientId, id -> newEntry(id, openRecordSize(id)));
+        if (e.subscriptions.put(text, MqttQoS.valueOf(flags & 0x03)) == null) {
+          e.bytes += size;
+          liveBytes += size;
+        }
+      }
+      case
+          UNSUBSCRIBE -> {
+        Entry e = sessions.get(clientId);
+        if (e != null && e.subscriptions.remove(text) != null) {
+          long subscribeSize = recordSize(e.clientId.length, utf8(text).length, 0);
+          e.bytes -= subscribeSize;
+          liveBytes -= subscribeSize;
+        }
+      }
+      case
+          ENQUEUE -> {
+        Entry e = sessions.get(clientId);
+        if (e != null) {
+          e.addMessage(offset, size);
+          liveBytes += size;
+        }
+      }
+      case
+          CLEAR_QUEUE -> {
+        Entry e = sessions.get(clientId);
+        if (e != null) {
+          liveBytes -= e.clearMessages();
+        }
+      }
+      default -> LOGGER.warn("Unknown session record type " + type + " at offset " + offset);
+    }
+  }
+
+  /**
+   * Hands every stored session to {@code visitor}, with queued payloads copied to pooled direct buffers.
+   */
+  synchronized void recover(RecoveryVisitor visitor) {
+    for (Entry e : sessions.values()) {
+      List<StoredMessage> queued = new ArrayList<>(e.messageCount);
+      for (int i = 0; i < e.messageCount; i++) {
+        queued.add(readMessage(e.messages[i]));
+      }
+      visitor.session(new String(e.clientId, StandardCharsets.UTF_8), new LinkedHashMap<>(e.subscriptions), queued);
+    }
+  }
+
+  private StoredMessage readMessage(int offset) {
+    int p = offset + RECORD_HEADER_SIZE + 1;
+    p += 2 + (map.getShort(p) & 0xFFFF);
+    String topic = readString(map, p);
+    p += 2 + (map.getShort(p) & 0xFFFF);
+    int flags = map.get(p++);
+    int length = map.getInt(p);
+    p += 4;
+    ByteBuf payload = PooledByteBufAllocator.DEFAULT.directBuffer(length);
+    payload.writeBytes(map.slice(p, length));
+    return new StoredMessage(topic, MqttQoS.valueOf(flags & 0x03), (flags & 0x04) != 0, payload);
+  }
+
+  // ============================================================================
+  // MUTATIONS
+  // ============================================================================
+
+  /**
+   * Registers a new persistent session (no-op if it already exists).
+   */
+  synchronized void openSession(String clientId) {
+    if (sessions.containsKey(clientId)) {
+      return;
+    }
+    byte[] cid = utf8(clientId);
+    int size = recordSize(cid.length, 0, 0);
+    if (append(OPEN, cid, null, 0, null, size) >= 0) {
+      sessions.put(clientId, newEntry(clientId, size));
+    }
+  }
+
+  /**
+   * Forgets a session with all its subscriptions and queued messages (clean session connect).
+   */
+  synchronized void removeSession(String clientId) {
+    if (sessions.containsKey(clientId)) {
+      byte[] cid = utf8(clientId);
+      append(REMOVE, cid, null, 0, null, recordSize(cid.length, 0, 0));
+      dropEntry(clientId);
+    }
+  }
+
+  synchronized void subscribe(String clientId, String filter, MqttQoS qos) {
+    Entry e = sessions.get(clientId);
+    if (e == null) {
+      return;
+    }
+    byte[] text = utf8(filter);
+    int size = recordSize(e.clientId.length, text.length, 0);
+    if (append(SUBSCRIBE, e.clientId, text, qos.value(), null, size) >= 0 && e.subscriptions.put(filter, qos) == null) {
+      e.bytes += size;
+      liveBytes += size;
+    }
+  }
+
+  synchronized void unsubscribe(String clientId, String filter) {
+    Entry e = sessions.get(clientId);
+    if (e == null || !e.subscriptions.containsKey(filter)) {
+      return;
+    }
+    byte[] text = utf8(filter);
+    if (append(UNSUBSCRIBE, e.clientId, text, 0, null, recordSize(e.clientId.length, text.length, 0)) >= 0) {
+      e.subscriptions.remove(filter);
+      long subscribeSize = recordSize(e.clientId.length, text.length, 0);
+      e.bytes -= subscribeSize;
+      liveBytes -= subscribeSize;
+    }
+  }
+
+  /**
+   * Appends a queued message for an offline session. The caller keeps ownership of {@code payload}.
+   *
+   * @return false if the session is unknown or the store is full / failed
+   */
+  synchronized boolean enqueue(String clientId, String topic, MqttQoS qos, boolean retain, ByteBuf payload) {
+    Entry e = sessions.get(clientId);
+    if (e == null) {
+      return false;
+    }
+    byte[] text = utf8(topic);
+    int size = recordSize(e.clientId.length, text.length, payload.readableBytes());
+    int offset = append(ENQUEUE, e.clientId, text, qos.value() | (retain ? 0x04 : 0), payload, size);
+    if (offset < 0) {
+      return false;
+    }
+    e.addMessage(offset, size);
+    liveBytes += size;
+    return true;
+  }
+
+  /**
+   * Drops all queued messages of a session (they were handed to a live connection).
+   */
+  synchronized void clearQueue(String clientId) {
+    Entry e = sessions.get(clientId);
+    if (e == null || e.messageCount == 0) {
+      return;
+    }
+    append(CLEAR_QUEUE, e.clientId, null, 0, null, recordSize(e.clientId.length, 0, 0));
+    liveBytes -= e.clearMessages();
+  }
+
+  // ============================================================================
+  // APPEND / COMPACTION
+  // ============================================================================
+
+  /**
+   * Appends one record.
+   *
+   * @return offset of the record, or -1 if it could not be written
+   */
+  private int append(byte type, byte[] clientId, byte[] text, int flags, ByteBuf payload, int size) {
+    if (failed) {
+      return -1;
+    }
+    try {
+      if (!ensureCapacity(size)) {
+        return -1;
+      }
+    } catch (IOException e) {
+      failed = true;
+      LOGGER.error("Session store failed, persistence disabled: " + e.getMessage(), e);
+      return -1;
+    }
+
+    int offset = position;
+    writeRecord(map, offset, type, clientId, text, flags, payload, size);
+    position += size;
+    return offset;
+  }
+
+  private void writeRecord(ByteBuffer m, int offset, byte type, byte[] clientId, byte[] text, int flags, ByteBuf payload, int size) {
+    int bodyLength = size - RECORD_HEADER_SIZE;
+    m.putInt(offset + size, 0); // end marker (ensureCapacity reserves the 4 bytes)
+
+    int p = offset + RECORD_HEADER_SIZE;
+    m.put(p++, type);
+    p = writeBytes(m, p, clientId);
+    p = writeBytes(m, p, text);
+    m.put(p++, (byte) flags);
+    int payloadLength = payload == null ? 0 : payload.readableBytes();
+    m.putInt(p, payloadLength);
+    p += 4;
+    if (payloadLength > 0) {
+      payload.getBytes(payload.readerIndex(), m.slice(p, payloadLength));
+    }
+
+    // Length is written last: a record is only visible to replay once complete
+    m.putInt(offset + 4, checksum(m, offset + RECORD_HEADER_SIZE, bodyLength));
+    m.putInt(offset, bodyLength);
+  }
+
+  /**
+   * Makes room for {@code size} bytes plus the end marker: compacts if mostly garbage, else grows the mapping.
+   */
+  private boolean ensureCapacity(int size) throws IOException {
+    long needed = (long) position + size + 4;
+    if (needed <= map.capacity()) {
+      return true;
+    }
+    if (shouldCompact() || position + (long) size > MAX_MAP_SIZE) {
+      compact(size);
+      if ((long) position + size + 4 <= map.capacity()) {
+        return true;
+      }
+    }
+    if (needed > MAX_MAP_SIZE) {
+      return false;
+    }
+    long grown = Math.min(MAX_MAP_SIZE, Math.max(needed, 2L * map.capacity()));
+    map = file.map(FileChannel.MapMode.READ_WRITE, 0, grown);
+    return true;
+  }
+
+  private boolean shouldCompact() {
+    return position > COMPACT_MIN_BYTES && position > 2 * (liveBytes + HEADER_SIZE);
+  }
+
+  /**
+   * Writes the live state into the next generation file and switches to it.
+   * Queued message records are copied byte-for-byte from the current mapping.
+   */
+  private void compact(int reserve) throws IOException {
+    long nextGeneration = generation + 1;
+    Path next = path(nextGeneration);
+    long capacity = Math.max(INITIAL_MAP_SIZE, Math.min(MAX_MAP_SIZE, 2 * (liveBytes + reserve + HEADER_SIZE)));
+
+    FileChannel nextFile = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer out = nextFile.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+    int p = HEADER_SIZE;
+    long live = 0;
+    for (Entry e : sessions.values()) {
+      int size = recordSize(e.clientId.length, 0, 0);
+      writeRecord(out, p, OPEN, e.clientId, null, 0, null, size);
+      p += size;
+      long bytes = size;
+
+      for (Map.Entry<String, MqttQoS> sub : e.subscriptions.entrySet()) {
+        byte[] text = utf8(sub.getKey());
+        size = recordSize(e.clientId.length, text.length, 0);
+        writeRecord(out, p, SUBSCRIBE, e.clientId, text, sub.getValue().value(), null, size);
+        p += size;
+        bytes += size;
+      }
+
+      for (int i = 0; i < e.messageCount; i++) {
+        int from = e.messages[i];
+        size = RECORD_HEADER_SIZE + map.getInt(from);
+        out.put(p, map, from, size);
+        e.messages[i] = p;
+        p += size;
+        bytes += size;
+      }
+      out.putInt(p, 0);
+      e.bytes = bytes;
+      live += bytes;
+    }
+
+    writeHeader(out, nextGeneration);
+    out.force();
+
+    Path previous = path(generation);
+    file.close();
+    file = nextFile;
+    map = out;
+    position = p;
+    liveBytes = live;
+    generation = nextGeneration;
+
+    // The old mapping is released by GC; deletion may be refused while it is still mapped
+    try {
+      Files.deleteIfExists(previous);
+    } catch (IOException e) {
+      LOGGER.warn("Could not delete old session log " + previous + ": " + e.getMessage());
+    }
+  }
+
+  // ============================================================================
+  // STATISTICS / LIFECYCLE
+  // ============================================================================
+
+  synchronized int sessionCount() {
+    return sessions.size();
+  }
+
+  /** Bytes of the current generation file in use (live records + garbage) */
+  synchronized long logBytes() {
+    return position;
+  }
+
+  /** Bytes of live records (what a compaction would keep) */
+  synchronized long liveBytes() {
+    return liveBytes;
+  }
+
+  @Override public synchronized void close() {
+    try {
+      map.force();
+      file.close();
+    } catch (IOException e) {
+      LOGGER.error("Failed to close session store: " + e.getMessage(), e);
+    }
+  }
+
+  // ============================================================================
+  // ENCODING HELPERS
+  // ============================================================================
+
+  private Entry newEntry(String clientId, int openRecordSize) {
+    liveBytes += openRecordSize;
+    return new Entry(utf8(clientId), openRecordSize);
+  }
+
+  private void dropEntry(String clientId) {
+    Entry e = sessions.remove(clientId);
+    if (e != null) {
+      liveBytes -= e.bytes;
+    }
+  }
+
+  private static int openRecordSize(String clientId) {
+    return recordSize(utf8(clientId).length, 0, 0);
+  }
+
+  private static int recordSize(int clientIdLength, int textLength, int payloadLength) {
+    // header + type + clientId + text + flags + payload
+    return RECORD_HEADER_SIZE + 1 + 2 + clientIdLength + 2 + textLength + 1 + 4 + payloadLength;
+  }
+
+  private int checksum(ByteBuffer m, int offset, int length) {
+    crc.reset();
+    crc.update(m.slice(offset, length));
+    return (int) crc.getValue();
+  }
+
+  private static void writeHeader(ByteBuffer m, long generation) {
+    m.putInt(4, VERSION);
+    m.putLong(8, generation);
+    m.putInt(0, MAGIC); // magic last: the file only becomes eligible once complete
+  }
+
+  private static int writeBytes(ByteBuffer m, int p, byte[] bytes) {
+    int length = bytes == null ? 0 : bytes.length;
+    m.putShort(p, (short) length);
+    if (length > 0) {
+      m.put(p + 2, bytes);
+    }
+    return p + 2 + length;
+  }
+
+  private static String readString(ByteBuffer m, int p) {
+    int length = m.getShort(p) & 0xFFFF;
+    byte[] bytes = new byte[length];
+    m.get(p + 2, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] utf8(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private Path path(long generation) {
+    return directory.resolve(FILE_PREFIX + generation + FILE_SUFFIX);
+  }
+
+  /**
+   * Live state of one session: subscriptions and file offsets of its queued messages.
+   */
+  private static final class Entry {
+    final byte[] clientId;
+    final Map<String, MqttQoS> subscriptions = new LinkedHashMap<>();
+    int[] messages = new int[4];
+    int messageCount;
+    long messageBytes;
+    long bytes;
+
+    Entry(byte[] clientId, int openRecordSize) {
+      this.clientId = clientId;
+      this.bytes = openRecordSize;
+    }
+
+    void addMessage(int offset, int size) {
+      if (messageCount == messages.length) {
+        messages = Arrays.copyOf(messages, messageCount * 2);
+      }
+      messages[messageCount++] = offset;
+      messageBytes += size;
+      bytes += size;
+    }
+
+    long clearMessages() {
+      long cleared = messageBytes;
+      messageCount = 0;
+      messageBytes = 0;
+      bytes -= cleared;
+      return cleared;
+    }
+  }
+
+}
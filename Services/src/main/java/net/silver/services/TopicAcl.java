@@ -0,0 +1,229 @@
+package net.silver.services;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiled, immutable topic permissions of one role: a level-by-level trie of allowed filters.
+ * <p>
+ * STRUCTURE (same layout as {@link TopicTree}, but built once and never mutated):
+ * - Each node is one filter level; literal children live in an open-addressed table hashed
+ *   like String.hashCode(), '+' and '#' children in dedicated slots
+ * - A node carries the permissions (PUBLISH / SUBSCRIBE bits) of the filters ending there
+ * <p>
+ * CHECKS:
+ * - {@link #canPublish}: does any allowed filter match the topic (MQTT wildcard rules,
+ *   '$' topics are not matched by a leading wildcard)
+ * - {@link #canSubscribe}: is the requested filter covered by an allowed filter
+ *   ("stores/1/#" is covered by "stores/#", "stores/+/prices" is not covered by "stores/1/prices")
+ * <p>
+ * PERFORMANCE: A check walks the topic in place (level indexes, in-place hash, regionMatches):
+ * one table lookup per level plus the wildcard branches, no regex and no allocation.
+ * Instances are shared by every connection of the role and are safe for concurrent use.
+ */
+final class TopicAcl {
+
+  static final int PUBLISH = 1;
+  static final int SUBSCRIBE = 2;
+
+  private static final Node[] EMPTY = new Node[0];
+
+  /** Permits nothing (no rule applies to the connection) */
+  static final TopicAcl DENY_ALL = compile(Map.of());
+
+  private final Node root;
+
+  private TopicAcl(Node root) {
+    this.root = root;
+  }
+
+  /**
+   * @param filters Valid topic filter → permission bits ({@link #PUBLISH} | {@link #SUBSCRIBE})
+   */
+  static TopicAcl compile(Map<String, Integer> filters) {
+    Builder root = new Builder("");
+    filters.forEach((filter, permissions) -> {
+      Builder node = root;
+      for (String level : filter.split("/", -1)) {
+        node = node.children.computeIfAbsent(level, Builder::new);
+      }
+      node.permissions |= permissions;
+    });
+    return new TopicAcl(root.build());
+  }
+
+  // ============================================================================
+  // CHECKS
+  // ============================================================================
+
+  /**
+   * @param topic Published topic name (no wildcards)
+   */
+  boolean canPublish(String topic) {
+    boolean systemTopic = !topic.isEmpty() && topic.charAt(0) == '$';
+    return matches(root, topic, 0, systemTopic);
+  }
+
+  /**
+   * @param start Index of the first character of the current level (length + 1 once all levels are consumed)
+   */
+  private static boolean matches(Node node, String topic, int start, boolean systemTopic) {
+    boolean wildcardsAllowed = start > 0 || !systemTopic;
+
+    // '#' at this position matches the remainder (including zero remaining levels)
+    Node hash = node.hashChild;
+    if (hash != null && wildcardsAllowed && (hash.permissions & PUBLISH) != 0) {
+      return true;
+    }
+    if (start > topic.length()) {
+      return (node.permissions & PUBLISH) != 0;
+    }
+
+    int end = MqttTopics.levelEnd(topic, start);
+    Node literal = node.find(topic, start, end);
+    if (literal != null && matches(literal, topic, end + 1, systemTopic)) {
+      return true;
+    }
+    Node plus = node.plusChild;
+    return plus != null && wildcardsAllowed && matches(plus, topic, end + 1, systemTopic);
+  }
+
+  /**
+   * @param filter Valid topic filter, shared subscriptions are checked on their real filter
+   */
+  boolean canSubscribe(String filter) {
+    int start = MqttTopics.isShared(filter) ? MqttTopics.sharedFilterStart(filter) : 0;
+    boolean systemTopic = start < filter.length() && filter.charAt(start) == '$';
+    return covers(root, filter, start, start, systemTopic);
+  }
+
+  /**
+   * @param from  Index where the real filter starts (after a $share prefix)
+   * @param start Index of the first character of the current level (length + 1 once all levels are consumed)
+   */
+  private static boolean covers(Node node, String filter, int from, int start, boolean systemTopic) {
+    boolean wildcardsAllowed = start > from || !systemTopic;
+
+    // An allowed '#' covers any remainder, wildcards included
+    Node hash = node.hashChild;
+    if (hash != null && wildcardsAllowed && (hash.permissions & SUBSCRIBE) != 0) {
+      return true;
+    }
+    if (start > filter.length()) {
+      return (node.permissions & SUBSCRIBE) != 0;
+    }
+
+    int end = MqttTopics.levelEnd(filter, start);
+    boolean level1 = end - start == 1;
+    if (level1 && filter.charAt(start) == '#') {
+      return false; // Only an allowed '#' covers a requested '#'
+    }
+
+    // A requested '+' is only covered by an allowed '+', a literal by the same literal or '+'
+    Node plus = node.plusChild;
+    if (plus != null && wildcardsAllowed && covers(plus, filter, from, end + 1, systemTopic)) {
+      return true;
+    }
+    if (level1 && filter.charAt(start) == '+') {
+      return false;
+    }
+    Node literal = node.find(filter, start, end);
+    return literal != null && covers(literal, filter, from, end + 1, systemTopic);
+  }
+
+  // ============================================================================
+  // TRIE NODE
+  // ============================================================================
+
+  private static final class Node {
+    final String level;
+    final int levelHash;
+    final int permissions;
+    final Node plusChild;
+    final Node hashChild;
+
+    /** Literal children, open-addressed with linear probing (length is a power of two) */
+    final Node[] children;
+
+    Node(String level, int permissions, Node plusChild, Node hashChild, Node[] children) {
+      this.level = level;
+      this.levelHash = level.hashCode();
+      this.permissions = permissions;
+      this.plusChild = plusChild;
+      this.hashChild = hashChild;
+      this.children = children;
+    }
+
+    /**
+     * Lookup of the literal child named topic[start, end) without creating the substring.
+     */
+    Node find(String topic, int start, int end) {
+      Node[] table = children;
+      if (table.length == 0) {
+        return null;
+      }
+      int length = end - start;
+      int hash = MqttTopics.levelHash(topic, start, end);
+      int mask = table.length - 1;
+      for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+        Node n = table[i];
+        if (n == null) {
+          return null;
+        }
+        if (n.levelHash == hash && n.level.length() == length && n.level.regionMatches(0, topic, start, length)) {
+          return n;
+        }
+      }
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+  /** Mutable node used only while compiling */
+  private static final class Builder {
+    final String level;
+    final Map<String, Builder> children = new HashMap<>();
+    int permissions;
+
+    Builder(String level) {
+      this.level = level;
+    }
+
+    Node build() {
+      Node plus = null;
+      Node hash = null;
+      int literals = 0;
+      for (Builder child : children.values()) {
+        if (!child.level.equals("+") && !child.level.equals("#")) {
+          literals++;
+        }
+      }
+
+      // At most half full, so probing always finds an empty slot
+      int capacity = 2;
+      while (capacity < literals * 2) {
+        capacity <<= 1;
+      }
+      Node[] table = literals == 0 ? EMPTY : new Node[capacity];
+      for (Builder child : children.values()) {
+        Node built = child.build();
+        switch (child.level) {
+          case "+" -> plus = built;
+          case "#" -> hash = built;
+          default -> {
+            int mask = table.length - 1;
+            int i = Node.spread(built.levelHash) & mask;
+            while (table[i] != null) {
+              i = (i + 1) & mask;
+            }
+            table[i] = built;
+          }
+        }
+      }
+      return new Node(level, permissions, plus, hash, table);
+    }
+  }
+
+}
@@ -0,0 +1,45 @@
+package net.silver.services;
+
+/**
+ * Inbound MQTT 5 topic aliases of one connection (client → broker).
+ * <p>
+ * A PUBLISH with Topic Alias N and a topic name binds N to that name; a later PUBLISH with
+ * Topic Alias N and an empty topic name uses the bound name. Terminals thus send a long
+ * topic once per connection and a 2-byte alias afterwards.
+ * <p>
+ * LAYOUT: Plain String[] indexed by alias (1..maximum); aliases are small dense integers.
+ * <p>
+ * THREADING: Not thread-safe. Confined to the connection's event loop; discarded with the
+ * connection (aliases never survive a reconnect, per spec).
+ */
+final class TopicAliases {
+
+  private final String[] topics;
+
+  /**
+   * @param maximum Topic Alias Maximum announced in CONNACK
+   */
+  TopicAliases(int maximum) {
+    this.topics = new String[maximum + 1];
+  }
+
+  /**
+   * Applies a Topic Alias of an inbound PUBLISH.
+   *
+   * @param alias Topic Alias property (1..maximum)
+   * @param topic Topic name of the PUBLISH (empty to use the alias)
+   *
+   * @return The topic to route to, or null if the alias is out of range or was never bound
+   */
+  String resolve(int alias, String topic) {
+    if (alias <= 0 || alias >= topics.length) {
+      return null;
+    }
+    if (topic.isEmpty()) {
+      return topics[alias];
+    }
+    topics[alias] = topic;
+    return topic;
+  }
+
+}
@@ -0,0 +1,543 @@
+package net.silver.services;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent subscription index: a level-by-level trie of topic filters.
+ * <p>
+ * STRUCTURE:
+ * - Each node represents one topic level ("sensors", "temp", ...)
+ * - Filters are tokenized once at SUBSCRIBE time; each level string is stored on its node
+ * - Literal levels live in a copy-on-write open-addressed table hashed like String.hashCode()
+ * - '+' and '#' levels have dedicated child slots (no table lookup needed)
+ * - Subscribers (session + granted QoS) are stored on the node that terminates their filter,
+ *   as a copy-on-write array (subscribe/unsubscribe are rare, matching iterates a plain array)
+ * <p>
+ * SHARED SUBSCRIPTIONS ($share/{group}/{filter}):
+ * - Stored as a named group on the node of {filter}; a node may carry several groups
+ * - Each matching message goes to ONE member per group: the next member in round-robin
+ *   order that has nothing queued or in flight, else the least-loaded member
+ *   (queued + unacknowledged messages, see {@link ClientSession#load()})
+ * - Offline members of persistent sessions are only chosen if no member is online
+ * - In cluster mode a group spread over several nodes is served by one node per message
+ *   ({@link Cluster}); the others skip it through the group filter of {@link #collect}
+ * <p>
+ * ALLOCATION-FREE MATCHING:
+ * The published topic is never split. Each level is addressed by its [start, end) indexes,
+ * hashed in place and compared with regionMatches() against the node's level string.
+ * <p>
+ * CONCURRENCY:
+ * - Matching (PUBLISH path) is lock-free: it only reads volatile fields and immutable tables
+ * - Subscribe/unsubscribe are serialized on the tree (they are rare compared to PUBLISH)
+ *   and publish a fresh child table instead of mutating the one readers may be walking
+ * - Empty branches are pruned on unsubscribe so the tree never grows without bound
+ * <p>
+ * PERFORMANCE: Matching is O(L × W) where L = topic depth and W = number of wildcard
+ * branches taken, independent of the total number of subscriptions.
+ */
+final class TopicTree {
+
+  private static final String SINGLE_LEVEL = "+";
+  private static final String MULTI_LEVEL = "#";
+
+  private static final Node[] EMPTY = new Node[0];
+  private static final SharedGroup[] NO_GROUPS = new SharedGroup[0];
+  private static final Member[] NO_MEMBERS = new Member[0];
+
+  private final Node root = new Node(null, "");
+
+  /** Number of filters that currently have at least one subscriber */
+  private int filterCount;
+
+  // ============================================================================
+  // MUTATIONS (serialized)
+  // ============================================================================
+
+  /**
+   * Adds a session to the subscriber set of the given (already validated) filter,
+   * or updates its granted QoS if it is already subscribed.
+   *
+   * @return true if the session was not yet subscribed to this filter
+   */
+  synchronized boolean subscribe(String filter, ClientSession session, MqttQoS qos) {
+    int start = pathStart(filter);
+    Node node = root;
+    for (String level : filter.substring(start).split("/", -1)) {
+      node = node.getOrCreateChild(level);
+    }
+
+    if (start > 0) {
+      String name = groupName(filter, start);
+      SharedGroup group = node.group(name);
+      if (group == null) {
+        group = new SharedGroup(name, filter);
+        node.addGroup(group);
+        filterCount++;
+      }
+      return group.put(session, qos);
+    }
+
+    boolean wasEmpty = node.subscribers.length == 0;
+    Member[] updated = put(node.subscribers, session, qos);
+    boolean added = updated.length > node.subscribers.length;
+    node.subscribers = updated;
+    if (added && wasEmpty) {
+      filterCount++;
+    }
+    return added;
+  }
+
+  /**
+   * Removes a session from the subscriber set of the given filter and prunes empty branches.
+   *
+   * @return true if the session was subscribed to this filter
+   */
+  synchronized boolean unsubscribe(String filter, ClientSession session) {
+    int start = pathStart(filter);
+    Node node = find(filter, start);
+    if (node == null) {
+      return false;
+    }
+
+    if (start > 0) {
+      SharedGroup group = node.group(groupName(filter, start));
+      return group != null && removeMember(node, group, session);
+    }
+
+    if (!removeSubscriber(node, session)) {
+      return false;
+    }
+    if (node.subscribers.length == 0) {
+      filterCount--;
+      prune(node);
+    }
+    return true;
+  }
+
+  private static boolean removeSubscriber(Node node, ClientSession session) {
+    Member[] updated = remove(node.subscribers, session);
+    if (updated == null) {
+      return false;
+    }
+    node.subscribers = updated;
+    return true;
+  }
+
+  /**
+   * Removes a session from a shared group; the last member removes the group.
+   */
+  private boolean removeMember(Node node, SharedGroup group, ClientSession session) {
+    if (!group.remove(session)) {
+      return false;
+    }
+    if (group.members.length == 0) {
+      node.removeGroup(group);
+      filterCount--;
+      prune(node);
+    }
+    return true;
+  }
+
+  /**
+   * Walks up from a node detaching every node that has neither subscribers nor children.
+   */
+  private void prune(Node node) {
+    while (node.parent != null && node.isEmpty()) {
+      node.parent.removeChild(node);
+      node = node.parent;
+    }
+  }
+
+  // ============================================================================
+  // QUERIES (lock-free)
+  // ============================================================================
+
+  /**
+   * Walks to the node of filter[start..] without creating nodes.
+   */
+  private Node find(String filter, int start) {
+    Node node = root;
+    for (String level : filter.substring(start).split("/", -1)) {
+      node = node.child(level);
+      if (node == null) {
+        return null;
+      }
+    }
+    return node;
+  }
+
+  /**
+   * @return 0 for a plain filter, else the start of the real filter of a (validated) shared subscription
+   */
+  private static int pathStart(String filter) {
+    return MqttTopics.isShared(filter) ? MqttTopics.sharedFilterStart(filter) : 0;
+  }
+
+  private static String groupName(String filter, int start) {
+    return filter.substring(MqttTopics.SHARED_PREFIX.length(), start - 1);
+  }
+
+  /**
+   * Number of distinct filters with at least one subscriber.
+   */
+  synchronized int filterCount() {
+    return filterCount;
+  }
+
+  /**
+   * Receives each matching subscription during {@link #collect}.
+   * A session matched by several filters is visited once per filter;
+   * a shared group is visited once, with the member chosen for this message.
+   */
+  interface Visitor {
+    void visit(ClientSession session, MqttQoS grantedQoS);
+  }
+
+  /**
+   * Visits every subscription whose filter matches the published topic name.
+   * <p>
+   * MQTT RULES:
+   * - '#' matches the parent level and any number of child levels ("a/#" matches "a")
+   * - '+' matches exactly one level
+   * - Topics starting with '$' are not matched by a leading wildcard
+   *
+   * @param topic The published topic name (no wildcards)
+   * @param out   Receives matching subscriptions (duplicates are the caller's concern)
+   */
+  void collect(String topic, Visitor out) {
+    collect(topic, null, out);
+  }
+
+  /**
+   * @param groups Shared groups to serve, tested with the full "$share/{group}/{filter}";
+   *               null serves every group
+   */
+  void collect(String topic, Predicate<String> groups, Visitor out) {
+    boolean systemTopic = !topic.isEmpty() && topic.charAt(0) == '$';
+    collect(root, topic, 0, systemTopic, groups, out);
+  }
+
+  /**
+   * @param start Index of the first character of the current level (length + 1 once all levels are consumed)
+   */
+  private void collect(Node node, String topic, int start, boolean systemTopic, Predicate<String> groups, Visitor out) {
+    boolean wildcardsAllowed = start > 0 || !systemTopic;
+
+    // '#' at this position matches the remainder (including zero remaining levels)
+    Node hash = node.hashChild;
+    if (hash != null && wildcardsAllowed) {
+      visitAll(hash, groups, out);
+    }
+
+    if (start > topic.length()) {
+      visitAll(node, groups, out);
+      return;
+    }
+
+    int end = MqttTopics.levelEnd(topic, start);
+
+    Node literal = node.find(topic, start, end);
+    if (literal != null) {
+      collect(literal, topic, end + 1, systemTopic, groups, out);
+    }
+
+    Node plus = node.plusChild;
+    if (plus != null && wildcardsAllowed) {
+      collect(plus, topic, end + 1, systemTopic, groups, out);
+    }
+  }
+
+  private static void visitAll(Node node, Predicate<String> groups, Visitor out) {
+    for (Member subscriber : node.subscribers) {
+      out.visit(subscriber.session, subscriber.qos);
+    }
+    for (SharedGroup group : node.groups) {
+      if (groups != null && !groups.test(group.filter)) {
+        continue; // Served by another node of the cluster
+      }
+      Member member = group.pick();
+      if (member != null) {
+        out.visit(member.session, member.qos);
+      }
+    }
+  }
+
+  // ============================================================================
+  // COPY-ON-WRITE SUBSCRIBER ARRAYS
+  // ============================================================================
+
+  /** One subscription of a session: plain subscriber of a node or member of a shared group */
+  private record Member(ClientSession session, MqttQoS qos) {
+  }
+
+  /**
+   * @return a new array with the session added, or with its granted QoS replaced (same length)
+   */
+  private static Member[] put(Member[] current, ClientSession session, MqttQoS qos) {
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].session == session) {
+        Member[] updated = current.clone();
+        updated[i] = new Member(session, qos);
+        return updated;
+      }
+    }
+    Member[] updated = Arrays.copyOf(current, current.length + 1);
+    updated[current.length] = new Member(session, qos);
+    return updated;
+  }
+
+  /**
+   * @return a new array without the session, or null if it was not present
+   */
+  private static Member[] remove(Member[] current, ClientSession session) {
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].session == session) {
+        if (current.length == 1) {
+          return NO_MEMBERS;
+        }
+        Member[] updated = new Member[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, i);
+        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+        return updated;
+      }
+    }
+    return null;
+  }
+
+  // ============================================================================
+  // SHARED SUBSCRIPTION GROUP
+  // ============================================================================
+
+  /**
+   * Members of one $share group on one filter.
+   * Copy-on-write member array (read lock-free on PUBLISH, replaced under the tree lock).
+   */
+  private static final class SharedGroup {
+    final String name;
+
+    /** Full subscription filter "$share/{group}/{filter}" */
+    final String filter;
+    volatile Member[] members = NO_MEMBERS;
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    SharedGroup(String name, String filter) {
+      this.name = name;
+      this.filter = filter;
+    }
+
+    /**
+     * @return true if the session was not yet a member
+     */
+    boolean put(ClientSession session, MqttQoS qos) {
+      Member[] current = members;
+      members = TopicTree.put(current, session, qos);
+      return members.length > current.length;
+    }
+
+    boolean remove(ClientSession session) {
+      Member[] updated = TopicTree.remove(members, session);
+      if (updated == null) {
+        return false;
+      }
+      members = updated;
+      return true;
+    }
+
+    /**
+     * Chooses the member receiving the next message (see SHARED SUBSCRIPTIONS).
+     * O(M) in the worst case, O(1) while members keep up.
+     */
+    Member pick() {
+      Member[] current = members;
+      int n = current.length;
+      if (n == 0) {
+        return null;
+      }
+      int first = Math.floorMod(cursor.getAndIncrement(), n);
+      Member leastLoaded = null;
+      int minLoad = Integer.MAX_VALUE;
+      for (int i = 0; i < n; i++) {
+        Member candidate = current[(first + i) % n];
+        if (candidate.session.channel == null) {
+          continue; // offline persistent member
+        }
+        int load = candidate.session.load();
+        if (load == 0) {
+          return candidate;
+        }
+        if (load < minLoad) {
+          minLoad = load;
+          leastLoaded = candidate;
+        }
+      }
+      // Nobody online: queue for the offline members in turn
+      return leastLoaded != null ? leastLoaded : current[first];
+    }
+  }
+
+  // ============================================================================
+  // TRIE NODE
+  // ============================================================================
+
+  private static final class Node {
+    final Node parent;
+    final String level;
+    final int levelHash;
+
+    /** Plain subscribers of this filter (copy-on-write, replaced under the tree lock) */
+    volatile Member[] subscribers = NO_MEMBERS;
+    volatile Node plusChild;
+    volatile Node hashChild;
+
+    /** Shared subscription groups on this filter (copy-on-write, usually empty) */
+    volatile SharedGroup[] groups = NO_GROUPS;
+
+    /**
+     * Literal children, open-addressed with linear probing (length is a power of two).
+     * Never mutated after publication: writers build a new array and swap the reference.
+     */
+    volatile Node[] children = EMPTY;
+    int childCount;
+
+    Node(Node parent, String level) {
+      this.parent = parent;
+      this.level = level;
+      this.levelHash = level.hashCode();
+    }
+
+    /**
+     * Lock-free lookup of the literal child named topic[start, end).
+     */
+    Node find(String topic, int start, int end) {
+      Node[] table = children;
+      if (table.length == 0) {
+        return null;
+      }
+      int length = end - start;
+      int hash = MqttTopics.levelHash(topic, start, end);
+      int mask = table.length - 1;
+      for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+        Node n = table[i];
+        if (n == null) {
+          return null;
+        }
+        if (n.levelHash == hash && n.level.length() == length && n.level.regionMatches(0, topic, start, length)) {
+          return n;
+        }
+      }
+    }
+
+    Node child(String level) {
+      return switch (level) {
+        case SINGLE_LEVEL -> plusChild;
+        case MULTI_LEVEL -> hashChild;
+        default -> find(level, 0, level.length());
+      };
+    }
+
+    Node getOrCreateChild(String level) {
+      switch (level) {
+        case SINGLE_LEVEL -> {
+          if (plusChild == null) {
+            plusChild = new Node(this, level);
+          }
+          return plusChild;
+        }
+        case MULTI_LEVEL -> {
+          if (hashChild == null) {
+            hashChild = new Node(this, level);
+          }
+          return hashChild;
+        }
+        default -> {
+          Node existing = find(level, 0, level.length());
+          if (existing != null) {
+            return existing;
+          }
+          Node created = new Node(this, level);
+          int capacity = Math.max(4, children.length);
+          if ((childCount + 1) * 2 > capacity) {
+            capacity <<= 1;
+          }
+          Node[] table = rehash(children, capacity, null);
+          insert(table, created);
+          childCount++;
+          children = table;
+          return created;
+        }
+      }
+    }
+
+    void removeChild(Node child) {
+      switch (child.level) {
+        case SINGLE_LEVEL -> plusChild = null;
+        case MULTI_LEVEL -> hashChild = null;
+        default -> {
+          childCount--;
+          children = childCount == 0 ? EMPTY : rehash(children, children.length, child);
+        }
+      }
+    }
+
+    boolean isEmpty() {
+      return subscribers.length == 0 && groups.length == 0 && childCount == 0 && plusChild == null && hashChild == null;
+    }
+
+    SharedGroup group(String name) {
+      for (SharedGroup group : groups) {
+        if (group.name.equals(name)) {
+          return group;
+        }
+      }
+      return null;
+    }
+
+    void addGroup(SharedGroup group) {
+      SharedGroup[] updated = Arrays.copyOf(groups, groups.length + 1);
+      updated[groups.length] = group;
+      groups = updated;
+    }
+
+    void removeGroup(SharedGroup group) {
+      SharedGroup[] updated = new SharedGroup[groups.length - 1];
+      int i = 0;
+      for (SharedGroup g : groups) {
+        if (g != group) {
+          updated[i++] = g;
+        }
+      }
+      groups = updated;
+    }
+
+    /**
+     * Copies every node except {@code skip} into a new table of the given capacity.
+     */
+    private static Node[] rehash(Node[] source, int capacity, Node skip) {
+      Node[] table = new Node[capacity];
+      for (Node n : source) {
+        if (n != null && n != skip) {
+          insert(table, n);
+        }
+      }
+      return table;
+    }
+
+    private static void insert(Node[] table, Node node) {
+      int mask = table.length - 1;
+      int i = spread(node.levelHash) & mask;
+      while (table[i] != null) {
+        i = (i + 1) & mask;
+      }
+      table[i] = node;
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+}
@@ -0,0 +1,131 @@
+package net.silver.services;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.IoHandlerFactory;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollIoHandler;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.uring.IoUring;
+import io.netty.channel.uring.IoUringChannelOption;
+import io.netty.channel.uring.IoUringIoHandler;
+import io.netty.channel.uring.IoUringServerSocketChannel;
+import io.netty.channel.uring.IoUringSocketChannel;
+import net.silver.log.slf4j.SilverLogger;
+
+/**
+ * I/O transport of the broker's event loops and sockets.
+ * <p>
+ * - IO_URING: Linux 5.14+, submission/completion rings (fewest syscalls), SO_REUSEPORT
+ * - EPOLL:    Linux, edge-triggered epoll, no NIO selector garbage, SO_REUSEPORT
+ * - NIO:      Portable JDK selector (Windows, macOS, or Linux without the native library)
+ * <p>
+ * With SO_REUSEPORT the broker binds one listening socket per acceptor thread on the same port
+ * and the kernel spreads incoming connections across them (no single accept bottleneck).
+ * <p>
+ * The native classes are only touched through {@link #isAvailable()} and the factory methods of
+ * the selected constant, so a missing native library just makes the transport unavailable.
+ */
+enum Transport {
+
+  IO_URING {
+    @Override boolean isAvailable() {
+      return IoUring.isAvailable();
+    }
+
+    @Override IoHandlerFactory ioHandlerFactory() {
+      return IoUringIoHandler.newFactory();
+    }
+
+    @Override Class<? extends ServerChannel> serverChannelClass() {
+      return IoUringServerSocketChannel.class;
+    }
+
+    @Override Class<? extends SocketChannel> socketChannelClass() {
+      return IoUringSocketChannel.class;
+    }
+
+    @Override ChannelOption<Boolean> reusePortOption() {
+      return IoUringChannelOption.SO_REUSEPORT;
+    }
+  },
+
+  EPOLL {
+    @Override boolean isAvailable() {
+      return Epoll.isAvailable();
+    }
+
+    @Override IoHandlerFactory ioHandlerFactory() {
+      return EpollIoHandler.newFactory();
+    }
+
+    @Override Class<? extends ServerChannel> serverChannelClass() {
+      return EpollServerSocketChannel.class;
+    }
+
+    @Override Class<? extends SocketChannel> socketChannelClass() {
+      return EpollSocketChannel.class;
+    }
+
+    @Override ChannelOption<Boolean> reusePortOption() {
+      return EpollChannelOption.SO_REUSEPORT;
+    }
+  },
+
+  NIO {
+    @Override boolean isAvailable() {
+      return true;
+    }
+
+    @Override IoHandlerFactory ioHandlerFactory() {
+      return NioIoHandler.newFactory();
+    }
+
+    @Override Class<? extends ServerChannel> serverChannelClass() {
+      return NioServerSocketChannel.class;
+    }
+
+    @Override Class<? extends SocketChannel> socketChannelClass() {
+      return NioSocketChannel.class;
+    }
+
+    @Override ChannelOption<Boolean> reusePortOption() {
+      return null;
+    }
+  };
+
+  private static final SilverLogger LOGGER = new SilverLogger("Transport.class");
+
+  abstract boolean isAvailable();
+
+  abstract IoHandlerFactory ioHandlerFactory();
+
+  abstract Class<? extends ServerChannel> serverChannelClass();
+
+  abstract Class<? extends SocketChannel> socketChannelClass();
+
+  /**
+   * @return The SO_REUSEPORT option, or null if the transport cannot share a port between sockets
+   */
+  abstract ChannelOption<Boolean> reusePortOption();
+
+  /**
+   * Returns {@code preferred} if its native library loads here, otherwise falls back
+   * to EPOLL and finally NIO (always available).
+   */
+  static Transport select(Transport preferred) {
+    if (preferred.isAvailable()) {
+      return preferred;
+    }
+    Transport fallback = preferred != NIO && EPOLL.isAvailable() ? EPOLL : NIO;
+    LOGGER.info("Transport " + preferred + " unavailable, using " + fallback);
+    return fallback;
+  }
+
+}
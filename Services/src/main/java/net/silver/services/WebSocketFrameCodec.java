@@ -0,0 +1,44 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.util.List;
+
+/**
+ * Adapts MQTT over WebSocket to the byte stream the MQTT codec expects.
+ * <p>
+ * - Inbound: the content of binary (and continuation) frames is passed on as-is; MqttDecoder
+ *   reassembles packets that span frames or share one. Text frames are a protocol error
+ *   (MQTT over WebSocket is binary only) and close the connection.
+ * - Outbound: every encoded MQTT buffer, including the shared QoS 0 frames of a fan-out,
+ *   becomes one binary frame wrapping that buffer (no copy).
+ * <p>
+ * Control frames (ping, pong, close) are answered by WebSocketServerProtocolHandler before this codec.
+ */
+@ChannelHandler.Sharable
+final class WebSocketFrameCodec extends MessageToMessageCodec<WebSocketFrame, ByteBuf> {
+
+  static final WebSocketFrameCodec INSTANCE = new WebSocketFrameCodec();
+
+  private WebSocketFrameCodec() {}
+
+  @Override protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) {
+    out.add(new BinaryWebSocketFrame(msg.retain()));
+  }
+
+  @Override protected void decode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) {
+    if (frame instanceof BinaryWebSocketFrame || frame instanceof ContinuationWebSocketFrame) {
+      out.add(frame.content().retain());
+    }
+    else {
+      ctx.close();
+    }
+  }
+
+}
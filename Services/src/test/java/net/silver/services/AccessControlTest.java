@@ -0,0 +1,96 @@
+package net.silver.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccessControlTest {
+
+  private static final String CONFIG = """
+      # Everyone reads prices
+      subscribe stores/+/prices
+
+      group cashiers
+        publish   stores/%c/sales
+        subscribe stores/%c/#
+
+      user admin
+        readwrite #
+      """;
+
+  @Test
+  void testPublishMatchesAllowedFilters() {
+    TopicAcl acl = TopicAcl.compile(Map.of(
+        "stores/1/sales", TopicAcl.PUBLISH,
+        "stores/+/status", TopicAcl.PUBLISH,
+        "terminals/#", TopicAcl.PUBLISH,
+        "prices/#", TopicAcl.SUBSCRIBE));
+
+    assertTrue(acl.canPublish("stores/1/sales"));
+    assertFalse(acl.canPublish("stores/2/sales"));
+    assertTrue(acl.canPublish("stores/2/status"));
+    assertFalse(acl.canPublish("stores/2/status/extra"));
+    assertTrue(acl.canPublish("terminals"), "'#' includes the parent level");
+    assertTrue(acl.canPublish("terminals/7/heartbeat"));
+    assertFalse(acl.canPublish("prices/milk"), "Subscribe permission does not allow publishing");
+    assertFalse(TopicAcl.compile(Map.of("#", TopicAcl.PUBLISH)).canPublish("$SYS/broker"), "Leading wildcard never matches '$' topics");
+  }
+
+  @Test
+  void testSubscribeFilterMustBeCovered() {
+    TopicAcl acl = TopicAcl.compile(Map.of(
+        "stores/#", TopicAcl.SUBSCRIBE,
+        "prices/+/milk", TopicAcl.SUBSCRIBE,
+        "payments/1", TopicAcl.SUBSCRIBE));
+
+    assertTrue(acl.canSubscribe("stores/1/+/sales"));
+    assertTrue(acl.canSubscribe("stores/#"));
+    assertTrue(acl.canSubscribe("prices/+/milk"));
+    assertTrue(acl.canSubscribe("prices/7/milk"));
+    assertFalse(acl.canSubscribe("prices/#"));
+    assertFalse(acl.canSubscribe("prices/+/+"));
+    assertTrue(acl.canSubscribe("payments/1"));
+    assertFalse(acl.canSubscribe("payments/+"), "A literal does not cover a wildcard");
+    assertFalse(acl.canSubscribe("#"));
+    assertTrue(acl.canSubscribe("$share/backoffice/stores/1/sales"), "Shared subscriptions are checked on their filter");
+    assertFalse(acl.canSubscribe("$share/backoffice/payments/#"));
+  }
+
+  @Test
+  void testConfigRolesAndPlaceholders() throws IOException {
+    AccessControl access = AccessControl.parse(new StringReader(CONFIG));
+
+    TopicAcl till1 = access.forConnection(new Authenticator.Identity("ana", "cashiers"), "till-1");
+    assertTrue(till1.canPublish("stores/till-1/sales"));
+    assertFalse(till1.canPublish("stores/till-2/sales"));
+    assertTrue(till1.canSubscribe("stores/till-1/#"));
+    assertTrue(till1.canSubscribe("stores/+/prices"));
+    assertFalse(till1.canSubscribe("payments/#"));
+
+    TopicAcl admin = access.forConnection(new Authenticator.Identity("admin", null), "backoffice");
+    assertTrue(admin.canPublish("prices/milk"));
+    assertTrue(admin.canSubscribe("payments/#"));
+
+    // Role without personal rules: compiled once and shared
+    TopicAcl anonymous = access.forConnection(null, "display-1");
+    assertSame(anonymous, access.forConnection(null, "display-2"));
+    assertTrue(anonymous.canSubscribe("stores/1/prices"));
+    assertFalse(anonymous.canPublish("stores/1/prices"));
+
+    // A Client ID with wildcards must not widen a placeholder rule
+    TopicAcl sneaky = access.forConnection(new Authenticator.Identity("bob", "cashiers"), "#");
+    assertFalse(sneaky.canPublish("stores/till-1/sales"));
+  }
+
+  @Test
+  void testMalformedConfigReportsLine() {
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+        () -> AccessControl.parse(new StringReader("group cashiers\n  publish stores/#/sales\n")));
+    assertTrue(e.getMessage().startsWith("ACL line 2"), e.getMessage());
+  }
+
+}
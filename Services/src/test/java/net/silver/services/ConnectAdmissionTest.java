@@ -0,0 +1,99 @@
+package net.silver.services;
+
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectAdmissionTest {
+
+  private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+  private final MQTTBroker.BrokerMetrics metrics = new MQTTBroker.BrokerMetrics();
+
+  @AfterEach
+  void tearDown() {
+    timer.stop();
+  }
+
+  private static EmbeddedChannel open(ConnectAdmission admission) {
+    return new EmbeddedChannel(admission, new ChannelInboundHandlerAdapter());
+  }
+
+  @Test
+  void testBurstIsAdmittedThenSocketsQueueAndOverflowIsRefused() {
+    // Burst of 2, 1 queue slot, practically no refill
+    ConnectAdmission admission = new ConnectAdmission(0.001, 2, 100, 100, 1, 5_000, 10, timer, metrics);
+
+    EmbeddedChannel first = open(admission);
+    EmbeddedChannel second = open(admission);
+    assertNull(first.pipeline().get(ConnectAdmission.class), "Admitted sockets leave the admission handler behind");
+    assertNull(second.pipeline().get(ConnectAdmission.class));
+    assertTrue(first.config().isAutoRead());
+
+    EmbeddedChannel third = open(admission);
+    assertTrue(third.isActive());
+    assertFalse(third.config().isAutoRead(), "Queued sockets are not read");
+    assertEquals(1, admission.queued());
+
+    EmbeddedChannel fourth = open(admission);
+    assertFalse(fourth.isActive(), "Queue full: refused before reading");
+
+    assertEquals(1, metrics.getConnectsQueued());
+    assertEquals(1, metrics.getConnectsRejected());
+  }
+
+  @Test
+  void testQueuedSocketIsAdmittedWhenTokensRefill() throws Exception {
+    // One token, refilled every 50 ms
+    ConnectAdmission admission = new ConnectAdmission(20, 1, 100, 100, 10, 5_000, 10, timer, metrics);
+
+    open(admission);
+    EmbeddedChannel queued = open(admission);
+    assertFalse(queued.config().isAutoRead());
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (!queued.config().isAutoRead() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+      queued.runPendingTasks();
+    }
+    assertTrue(queued.config().isAutoRead());
+    assertNull(queued.pipeline().get(ConnectAdmission.class));
+    assertEquals(0, admission.queued());
+  }
+
+  @Test
+  void testQueuedSocketExpiresAfterMaxWait() throws Exception {
+    ConnectAdmission admission = new ConnectAdmission(0.001, 1, 100, 100, 10, 50, 10, timer, metrics);
+
+    open(admission);
+    EmbeddedChannel queued = open(admission);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (queued.isOpen() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+      queued.runPendingTasks();
+    }
+    assertFalse(queued.isOpen());
+    assertEquals(1, metrics.getConnectsRejected());
+  }
+
+  @Test
+  void testTokenBucketRefillsFromElapsedTime() {
+    ConnectAdmission.TokenBucket bucket = new ConnectAdmission.TokenBucket(10, 2);
+    long now = System.nanoTime();
+    assertTrue(bucket.tryAcquire(now));
+    assertTrue(bucket.tryAcquire(now));
+    assertFalse(bucket.tryAcquire(now));
+
+    // 10 tokens/s: one token after 100 ms, never more than the capacity
+    assertTrue(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(100)));
+    assertFalse(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(100)));
+    assertTrue(bucket.isFull(now + TimeUnit.SECONDS.toNanos(10)));
+  }
+
+}
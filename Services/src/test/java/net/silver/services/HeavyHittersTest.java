@@ -0,0 +1,55 @@
+package net.silver.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeavyHittersTest {
+
+  @Test
+  void testHotTopicsSurviveLongTailAtConstantMemory() {
+    HeavyHitters hitters = new HeavyHitters(16);
+    // 3 hot topics interleaved with 10,000 distinct one-off topics
+    for (int i = 0; i < 10_000; i++) {
+      hitters.offer("sensors/" + i);
+      if (i % 2 == 0) {
+        hitters.offer("hot/a");
+      }
+      if (i % 4 == 0) {
+        hitters.offer("hot/b");
+      }
+      if (i % 8 == 0) {
+        hitters.offer("hot/c");
+      }
+    }
+
+    List<HeavyHitters.Entry> top = hitters.top(3);
+    assertEquals(List.of("hot/a", "hot/b", "hot/c"), top.stream().map(HeavyHitters.Entry::topic).toList());
+    long[] exact = {5_000, 2_500, 1_250};
+    for (int i = 0; i < 3; i++) {
+      HeavyHitters.Entry entry = top.get(i);
+      assertTrue(entry.count() >= exact[i], "Space-Saving never underestimates");
+      assertTrue(entry.count() - entry.error() <= exact[i], "count - error is a lower bound");
+    }
+    assertTrue(hitters.top(100).size() <= 16);
+  }
+
+  @Test
+  void testSketchesOfAllThreadsAreMerged() throws Exception {
+    HeavyHitters hitters = new HeavyHitters(8);
+    hitters.offer("a");
+    Thread other = new Thread(() -> {
+      hitters.offer("a");
+      hitters.offer("b");
+    });
+    other.start();
+    other.join();
+
+    List<HeavyHitters.Entry> top = hitters.top(10);
+    assertEquals(new HeavyHitters.Entry("a", 2, 0), top.get(0));
+    assertEquals(new HeavyHitters.Entry("b", 1, 0), top.get(1));
+  }
+
+}
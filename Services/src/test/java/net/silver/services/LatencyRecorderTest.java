@@ -0,0 +1,40 @@
+package net.silver.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyRecorderTest {
+
+  @Test
+  void testPercentilesWithinBucketPrecision() {
+    LatencyRecorder recorder = new LatencyRecorder();
+    for (long v = 1; v <= 100_000; v++) {
+      recorder.record(v * 1_000); // 1 µs .. 100 ms, uniform
+    }
+    LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+    assertEquals(100_000, snapshot.count());
+
+    for (double q : new double[]{0.5, 0.99, 0.999}) {
+      double exact = q * 100_000 * 1_000;
+      double error = Math.abs(snapshot.valueAt(q) - exact) / exact;
+      assertTrue(error <= 1.0 / 32, "p" + q + " off by " + error);
+    }
+  }
+
+  @Test
+  void testMergesHistogramsOfAllThreads() throws Exception {
+    LatencyRecorder recorder = new LatencyRecorder();
+    recorder.record(10);
+    Thread other = new Thread(() -> recorder.record(LatencyRecorder.MAX_VALUE_NANOS * 2));
+    other.start();
+    other.join();
+
+    LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+    assertEquals(2, snapshot.count());
+    assertEquals(10, snapshot.valueAt(0.5));
+    assertEquals(LatencyRecorder.MAX_VALUE_NANOS, snapshot.valueAt(1.0), "Values above the range are clamped");
+    assertEquals(0, new LatencyRecorder().snapshot().valueAt(0.99));
+  }
+
+}
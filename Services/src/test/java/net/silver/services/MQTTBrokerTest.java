@@ -0,0 +1,975 @@
+package net.silver.services;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolConfig;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import net.silver.utils.PasswordUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import io.netty.pkitesting.CertificateBuilder;
+import io.netty.pkitesting.X509Bundle;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MQTTBrokerTest {
+
+  private final MQTTBroker broker = new MQTTBroker();
+
+  // ============================================================================
+  // HELPERS
+  // ============================================================================
+
+  @TempDir
+  Path storeDir;
+
+  /** Loop of the socket clients of {@link #connectTcpClient} (started on first use) */
+  private final MultiThreadIoEventLoopGroup clientGroup = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+
+  @AfterEach
+  void shutdownClients() throws InterruptedException {
+    clientGroup.shutdownGracefully().sync();
+  }
+
+  private EmbeddedChannel connect(String clientId) {
+    return connect(broker, clientId, true, false);
+  }
+
+  private static EmbeddedChannel connect(MQTTBroker broker, String clientId, boolean cleanSession, boolean expectSessionPresent) {
+    EmbeddedChannel ch = new EmbeddedChannel(broker.newHandler());
+    MqttConnectMessage connect = MqttMessageBuilders.connect()
+        .clientId(clientId)
+        .protocolVersion(MqttVersion.MQTT_3_1_1)
+        .cleanSession(cleanSession)
+        .build();
+    ch.writeInbound(connect);
+    MqttConnAckMessage ack = ch.readOutbound();
+    assertEquals(MqttConnectReturnCode.CONNECTION_ACCEPTED, ack.variableHeader().connectReturnCode());
+    assertEquals(expectSessionPresent, ack.variableHeader().isSessionPresent());
+    return ch;
+  }
+
+  /**
+   * @param expirySeconds  Session Expiry Interval (0 = session ends with the connection)
+   * @param receiveMaximum Receive Maximum announced by the client
+   */
+  private static EmbeddedChannel connectV5(MQTTBroker broker, String clientId, boolean cleanStart, int expirySeconds, int receiveMaximum, boolean expectSessionPresent) {
+    EmbeddedChannel ch = new EmbeddedChannel(broker.newHandler());
+    MqttProperties properties = new MqttProperties();
+    properties.add(new MqttProperties.IntegerProperty(MqttProperties.RECEIVE_MAXIMUM, receiveMaximum));
+    properties.add(new MqttProperties.IntegerProperty(MqttProperties.SESSION_EXPIRY_INTERVAL, expirySeconds));
+    ch.writeInbound(MqttMessageBuilders.connect()
+        .clientId(clientId)
+        .protocolVersion(MqttVersion.MQTT_5)
+        .cleanSession(cleanStart)
+        .properties(properties)
+        .build());
+    MqttConnAckMessage ack = ch.readOutbound();
+    assertEquals(MqttConnectReturnCode.CONNECTION_ACCEPTED, ack.variableHeader().connectReturnCode());
+    assertEquals(expectSessionPresent, ack.variableHeader().isSessionPresent());
+    return ch;
+  }
+
+  /**
+   * Connects a socket client to 127.0.0.1:{@code port}, for listeners an EmbeddedChannel cannot
+   * reach (TLS, WebSocket, other cluster nodes).
+   *
+   * @param handlers Client pipeline, e.g. MqttDecoder, MqttEncoder and {@link #receiveInto}
+   */
+  private Channel connectTcpClient(int port, ChannelHandler... handlers) throws InterruptedException {
+    return new Bootstrap().group(clientGroup).channel(NioSocketChannel.class).handler(new ChannelInitializer<SocketChannel>() {
+      @Override protected void initChannel(SocketChannel ch) {
+        ch.pipeline().addLast(handlers);
+      }
+    }).connect("127.0.0.1", port).sync().channel();
+  }
+
+  /**
+   * @return Last handler of a client pipeline, queuing every inbound message
+   */
+  private static ChannelHandler receiveInto(BlockingQueue<Object> received) {
+    return new ChannelInboundHandlerAdapter() {
+      @Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        received.add(msg);
+      }
+    };
+  }
+
+  private static void subscribe(EmbeddedChannel ch, String filter, MqttQoS qos) {
+    ch.writeInbound(MqttMessageBuilders.subscribe().messageId(1).addSubscription(qos, filter).build());
+    MqttSubAckMessage ack = ch.readOutbound();
+    assertEquals(List.of(qos.value()), ack.payload().grantedQoSLevels());
+  }
+
+  private static void publish(EmbeddedChannel ch, String topic, String payload, MqttQoS qos, int packetId) {
+    ch.writeInbound(MqttMessageBuilders.publish()
+        .topicName(topic)
+        .qos(qos)
+        .messageId(packetId)
+        .payload(Unpooled.copiedBuffer(payload, StandardCharsets.UTF_8))
+        .build());
+  }
+
+  private static MqttMessage ackPacket(MqttMessageType type, int packetId) {
+    MqttQoS qos = type == MqttMessageType.PUBREL ? MqttQoS.AT_LEAST_ONCE : MqttQoS.AT_MOST_ONCE;
+    return new MqttMessage(new MqttFixedHeader(type, false, qos, false, 0), MqttMessageIdVariableHeader.from(packetId));
+  }
+
+  private static MqttPublishMessage readPublish(EmbeddedChannel ch) {
+    ch.runPendingTasks(); // fan-out flushes are coalesced through the subscriber's event loop
+    Object msg = ch.readOutbound();
+    if (msg instanceof ByteBuf frame) {
+      // QoS 0 fan-out writes pre-encoded frames: decode them like a client would
+      EmbeddedChannel client = new EmbeddedChannel(new MqttDecoder());
+      if (ch.attr(MQTTBroker.SESSION_KEY).get().mqtt5) {
+        client.attr(AttributeKey.<MqttVersion>valueOf("NETTY_CODEC_MQTT_VERSION")).set(MqttVersion.MQTT_5);
+      }
+      client.writeInbound(frame);
+      msg = client.readInbound();
+      client.finishAndReleaseAll();
+    }
+    assertInstanceOf(MqttPublishMessage.class, msg);
+    return (MqttPublishMessage) msg;
+  }
+
+  // ============================================================================
+  // TESTS
+  // ============================================================================
+
+  @Test
+  void testQos1DeliveryUsesSubscriberPacketIdsAndPubAck() {
+    EmbeddedChannel sub = connect("sub");
+    EmbeddedChannel pub = connect("pub");
+    subscribe(sub, "orders/#", MqttQoS.AT_LEAST_ONCE);
+
+    publish(pub, "orders/1", "receipt", MqttQoS.AT_LEAST_ONCE, 500);
+    MqttPubAckMessage pubAck = pub.readOutbound();
+    assertEquals(500, pubAck.variableHeader().messageId());
+
+    MqttPublishMessage delivered = readPublish(sub);
+    assertEquals(MqttQoS.AT_LEAST_ONCE, delivered.fixedHeader().qosLevel());
+    assertEquals(1, delivered.variableHeader().packetId(), "Packet ID must come from the subscriber's own ID space");
+    assertEquals("receipt", delivered.payload().toString(StandardCharsets.UTF_8));
+    delivered.release();
+
+    ClientSession session = sub.attr(MQTTBroker.SESSION_KEY).get();
+    assertEquals(1, session.inflightCount());
+    sub.writeInbound(MqttMessageBuilders.pubAck().packetId(1).build());
+    assertEquals(0, session.inflightCount());
+
+    sub.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testQos2InboundDuplicateIsAcknowledgedButRoutedOnce() {
+    EmbeddedChannel sub = connect("sub");
+    EmbeddedChannel pub = connect("pub");
+    subscribe(sub, "orders/#", MqttQoS.AT_MOST_ONCE);
+
+    publish(pub, "orders/1", "once", MqttQoS.EXACTLY_ONCE, 42);
+    publish(pub, "orders/1", "once", MqttQoS.EXACTLY_ONCE, 42); // re-send before PUBREL
+
+    for (int i = 0; i < 2; i++) {
+      MqttMessage pubRec = pub.readOutbound();
+      assertEquals(MqttMessageType.PUBREC, pubRec.fixedHeader().messageType());
+      assertEquals(42, ((MqttMessageIdVariableHeader) pubRec.variableHeader()).messageId());
+    }
+    readPublish(sub).release();
+    sub.runPendingTasks();
+    assertNull(sub.readOutbound(), "Duplicate QoS 2 PUBLISH must not be routed again");
+
+    pub.writeInbound(ackPacket(MqttMessageType.PUBREL, 42));
+    MqttMessage pubComp = pub.readOutbound();
+    assertEquals(MqttMessageType.PUBCOMP, pubComp.fixedHeader().messageType());
+
+    // The ID is free again after PUBREL
+    publish(pub, "orders/1", "twice", MqttQoS.EXACTLY_ONCE, 42);
+    readPublish(sub).release();
+
+    sub.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testQos2OutboundFlow() {
+    EmbeddedChannel sub = connect("sub");
+    EmbeddedChannel pub = connect("pub");
+    subscribe(sub, "orders/#", MqttQoS.EXACTLY_ONCE);
+
+    publish(pub, "orders/1", "receipt", MqttQoS.EXACTLY_ONCE, 9);
+    MqttPublishMessage delivered = readPublish(sub);
+    assertEquals(MqttQoS.EXACTLY_ONCE, delivered.fixedHeader().qosLevel());
+    int packetId = delivered.variableHeader().packetId();
+    delivered.release();
+
+    ClientSession session = sub.attr(MQTTBroker.SESSION_KEY).get();
+    sub.writeInbound(ackPacket(MqttMessageType.PUBREC, packetId));
+    MqttMessage pubRel = sub.readOutbound();
+    assertEquals(MqttMessageType.PUBREL, pubRel.fixedHeader().messageType());
+    assertEquals(MqttQoS.AT_LEAST_ONCE, pubRel.fixedHeader().qosLevel());
+    assertEquals(1, session.inflightCount(), "Slot stays reserved until PUBCOMP");
+
+    sub.writeInbound(ackPacket(MqttMessageType.PUBCOMP, packetId));
+    assertEquals(0, session.inflightCount());
+
+    sub.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testQos1PublishIsDowngradedForQos0Subscriber() {
+    EmbeddedChannel sub = connect("sub");
+    EmbeddedChannel pub = connect("pub");
+    subscribe(sub, "prices/+", MqttQoS.AT_MOST_ONCE);
+
+    publish(pub, "prices/list", "v1", MqttQoS.AT_LEAST_ONCE, 7);
+
+    MqttPublishMessage delivered = readPublish(sub);
+    assertEquals(MqttQoS.AT_MOST_ONCE, delivered.fixedHeader().qosLevel());
+    delivered.release();
+
+    sub.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testRetainedMessageDeliveredOnSubscribe() {
+    EmbeddedChannel pub = connect("pub");
+    pub.writeInbound(MqttMessageBuilders.publish()
+        .topicName("config/store/1")
+        .qos(MqttQoS.AT_MOST_ONCE)
+        .retained(true)
+        .payload(Unpooled.copiedBuffer("cfg", StandardCharsets.UTF_8))
+        .build());
+
+    EmbeddedChannel sub = connect("sub");
+    subscribe(sub, "config/#", MqttQoS.AT_MOST_ONCE);
+
+    MqttPublishMessage retained = readPublish(sub);
+    assertTrue(retained.fixedHeader().isRetain());
+    assertEquals("config/store/1", retained.variableHeader().topicName());
+    retained.release();
+
+    sub.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testPersistentSessionQueuesWhileOfflineAndResumes() {
+    EmbeddedChannel sub = connect(broker, "terminal", false, false);
+    subscribe(sub, "orders/#", MqttQoS.AT_LEAST_ONCE);
+    sub.close();
+
+    EmbeddedChannel pub = connect("pub");
+    publish(pub, "orders/1", "while-offline", MqttQoS.AT_LEAST_ONCE, 3);
+    publish(pub, "orders/2", "qos0-dropped", MqttQoS.AT_MOST_ONCE, 0);
+
+    // Reconnect: session present, no re-subscribe needed, queued message delivered
+    EmbeddedChannel again = connect(broker, "terminal", false, true);
+    MqttPublishMessage delivered = readPublish(again);
+    assertEquals("while-offline", delivered.payload().toString(StandardCharsets.UTF_8));
+    delivered.release();
+    again.runPendingTasks();
+    assertNull(again.readOutbound(), "QoS 0 messages are not queued for offline sessions");
+
+    publish(pub, "orders/3", "live", MqttQoS.AT_LEAST_ONCE, 4);
+    readPublish(again).release();
+
+    // Clean session discards the stored state
+    again.close();
+    EmbeddedChannel clean = connect(broker, "terminal", true, false);
+    publish(pub, "orders/4", "nobody", MqttQoS.AT_LEAST_ONCE, 5);
+    assertNull(clean.readOutbound());
+
+    clean.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testPersistentSessionSurvivesBrokerRestart() throws Exception {
+    MQTTBroker first = new MQTTBroker(storeDir, MQTTBroker.DEFAULT_LIMITS);
+    first.openSessionStore(ImmediateEventExecutor.INSTANCE);
+    EmbeddedChannel sub = connect(first, "terminal", false, false);
+    subscribe(sub, "orders/#", MqttQoS.EXACTLY_ONCE);
+    sub.close();
+
+    EmbeddedChannel pub = connect(first, "pub", true, false);
+    publish(pub, "orders/1", "kept", MqttQoS.AT_LEAST_ONCE, 1);
+    pub.finishAndReleaseAll();
+    first.closeSessionStore();
+
+    MQTTBroker second = new MQTTBroker(storeDir, MQTTBroker.DEFAULT_LIMITS);
+    second.openSessionStore(ImmediateEventExecutor.INSTANCE);
+    EmbeddedChannel again = connect(second, "terminal", false, true);
+    MqttPublishMessage delivered = readPublish(again);
+    assertEquals("orders/1", delivered.variableHeader().topicName());
+    assertEquals(MqttQoS.AT_LEAST_ONCE, delivered.fixedHeader().qosLevel());
+    assertEquals("kept", delivered.payload().toString(StandardCharsets.UTF_8));
+    delivered.release();
+
+    // Restored subscription is live again
+    EmbeddedChannel pub2 = connect(second, "pub", true, false);
+    publish(pub2, "orders/2", "after-restart", MqttQoS.AT_LEAST_ONCE, 2);
+    readPublish(again).release();
+
+    again.finishAndReleaseAll();
+    pub2.finishAndReleaseAll();
+    second.closeSessionStore();
+  }
+
+  @Test
+  void testSharedSubscriptionPrefersLeastLoadedMember() {
+    EmbeddedChannel stalled = connect("stalled");
+    EmbeddedChannel fast = connect("fast");
+    EmbeddedChannel pub = connect("pub");
+    subscribe(stalled, "$share/workers/orders/#", MqttQoS.AT_LEAST_ONCE);
+    subscribe(fast, "$share/workers/orders/#", MqttQoS.AT_LEAST_ONCE);
+
+    int stalledCount = 0;
+    int fastCount = 0;
+    for (int i = 1; i <= 4; i++) {
+      publish(pub, "orders/" + i, "order" + i, MqttQoS.AT_LEAST_ONCE, i);
+      pub.readOutbound(); // PUBACK
+      stalled.runPendingTasks();
+      fast.runPendingTasks();
+      if (stalled.outboundMessages().isEmpty()) {
+        // "fast" acknowledges right away, "stalled" never does
+        MqttPublishMessage delivered = readPublish(fast);
+        fast.writeInbound(ackPacket(MqttMessageType.PUBACK, delivered.variableHeader().packetId()));
+        delivered.release();
+        fastCount++;
+      }
+      else {
+        readPublish(stalled).release();
+        stalledCount++;
+      }
+    }
+    assertEquals(1, stalledCount, "Round-robin gives the first message to the first member");
+    assertEquals(3, fastCount, "Once a member has unacknowledged messages, idle members are preferred");
+
+    stalled.finishAndReleaseAll();
+    fast.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testSlowConsumerQueueDropsOldestAndDrainsOnWritability() {
+    MQTTBroker small = new MQTTBroker(storeDir, new SessionLimits(4, 1000, 2, 1024, OverflowPolicy.DROP_OLDEST));
+    EmbeddedChannel sub = connect(small, "slow", true, false);
+    EmbeddedChannel pub = connect(small, "pub", true, false);
+    subscribe(sub, "prices/#", MqttQoS.AT_MOST_ONCE);
+
+    sub.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+    for (int i = 1; i <= 3; i++) {
+      publish(pub, "prices/" + i, "p" + i, MqttQoS.AT_MOST_ONCE, 0);
+    }
+    sub.runPendingTasks();
+    assertNull(sub.readOutbound(), "Nothing is written while the channel is not writable");
+    assertEquals(1, small.metrics().getDroppedMessages());
+    assertEquals(4, small.metrics().getQueuedBytes());
+
+    sub.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+    sub.runPendingTasks(); // writability change is delivered through the event loop
+    for (String expected : List.of("prices/2", "prices/3")) {
+      MqttPublishMessage delivered = readPublish(sub);
+      assertEquals(expected, delivered.variableHeader().topicName());
+      delivered.release();
+    }
+    assertEquals(0, small.metrics().getQueuedBytes());
+
+    sub.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testSlowConsumerDisconnectPolicy() {
+    MQTTBroker strict = new MQTTBroker(storeDir, new SessionLimits(4, 1000, 1, 1024, OverflowPolicy.DISCONNECT));
+    EmbeddedChannel sub = connect(strict, "slow", true, false);
+    EmbeddedChannel pub = connect(strict, "pub", true, false);
+    subscribe(sub, "prices/#", MqttQoS.AT_LEAST_ONCE);
+
+    sub.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+    publish(pub, "prices/1", "queued", MqttQoS.AT_LEAST_ONCE, 1);
+    assertTrue(sub.isActive());
+    publish(pub, "prices/2", "overflow", MqttQoS.AT_LEAST_ONCE, 2);
+
+    assertFalse(sub.isActive(), "Slow consumer must be disconnected on overflow");
+    assertEquals(1, strict.metrics().getSlowConsumerDisconnects());
+    assertEquals(0, strict.metrics().getQueuedBytes(), "Queued messages are released on close");
+
+    sub.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testMqtt5ConnAckAdvertisesLimits() {
+    EmbeddedChannel ch = new EmbeddedChannel(broker.newHandler());
+    ch.writeInbound(MqttMessageBuilders.connect().clientId("v5").protocolVersion(MqttVersion.MQTT_5).cleanSession(true).build());
+    MqttConnAckMessage ack = ch.readOutbound();
+    assertEquals(MqttConnectReturnCode.CONNECTION_ACCEPTED, ack.variableHeader().connectReturnCode());
+
+    MqttProperties properties = ack.variableHeader().properties();
+    assertNotNull(properties.getProperty(MqttProperties.RECEIVE_MAXIMUM));
+    assertNotNull(properties.getProperty(MqttProperties.TOPIC_ALIAS_MAXIMUM));
+    assertNotNull(properties.getProperty(MqttProperties.MAXIMUM_PACKET_SIZE));
+    ch.finishAndReleaseAll();
+  }
+
+  @Test
+  void testMqtt5TopicAliasIsResolvedForRouting() {
+    EmbeddedChannel sub = connect("sub");
+    EmbeddedChannel pub = connectV5(broker, "pub", true, 0, 65535, false);
+    subscribe(sub, "sensors/temp", MqttQoS.AT_MOST_ONCE);
+
+    // First PUBLISH binds alias 1, the second one uses it with an empty topic name
+    for (String topic : new String[]{"sensors/temp", ""}) {
+      MqttProperties properties = new MqttProperties();
+      properties.add(new MqttProperties.IntegerProperty(MqttProperties.TOPIC_ALIAS, 1));
+      pub.writeInbound(MqttMessageBuilders.publish().topicName(topic).qos(MqttQoS.AT_MOST_ONCE)
+                           .properties(properties).payload(Unpooled.copiedBuffer("21", StandardCharsets.UTF_8)).build());
+      MqttPublishMessage delivered = readPublish(sub);
+      assertEquals("sensors/temp", delivered.variableHeader().topicName());
+      delivered.release();
+    }
+
+    // Unbound alias: DISCONNECT 0x94 (Topic Alias invalid)
+    MqttProperties properties = new MqttProperties();
+    properties.add(new MqttProperties.IntegerProperty(MqttProperties.TOPIC_ALIAS, 2));
+    pub.writeInbound(MqttMessageBuilders.publish().topicName("").qos(MqttQoS.AT_MOST_ONCE)
+                         .properties(properties).payload(Unpooled.copiedBuffer("21", StandardCharsets.UTF_8)).build());
+    MqttMessage disconnect = pub.readOutbound();
+    assertEquals(MqttMessageType.DISCONNECT, disconnect.fixedHeader().messageType());
+    assertEquals(MqttReasonCodes.Disconnect.TOPIC_ALIAS_INVALID.byteValue(),
+        ((MqttReasonCodeAndPropertiesVariableHeader) disconnect.variableHeader()).reasonCode());
+    assertFalse(pub.isActive());
+
+    sub.runPendingTasks();
+    assertNull(sub.readOutbound());
+    sub.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testMqtt5ReceiveMaximumLimitsInflightDeliveries() {
+    EmbeddedChannel sub = connectV5(broker, "sub", true, 0, 2, false);
+    EmbeddedChannel pub = connect("pub");
+    subscribe(sub, "jobs", MqttQoS.AT_LEAST_ONCE);
+
+    for (int i = 1; i <= 3; i++) {
+      publish(pub, "jobs", "job" + i, MqttQoS.AT_LEAST_ONCE, i);
+    }
+    readPublish(sub).release();
+    readPublish(sub).release();
+    assertNull(sub.readOutbound(), "Third message must wait for a free slot of the client's Receive Maximum");
+
+    sub.writeInbound(MqttMessageBuilders.pubAck().packetId(1).build());
+    MqttPublishMessage third = readPublish(sub);
+    assertEquals("job3", third.payload().toString(StandardCharsets.UTF_8));
+    third.release();
+
+    sub.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testMetricsEndpointServesPrometheusText() throws Exception {
+    EmbeddedChannel sub = connect("sub");
+    EmbeddedChannel pub = connect("pub");
+    subscribe(sub, "metrics/test", MqttQoS.AT_MOST_ONCE);
+    publish(pub, "metrics/test", "1", MqttQoS.AT_MOST_ONCE, 0);
+    readPublish(sub).release();
+
+    int port = broker.startMetricsEndpoint(0);
+    assertTrue(port > 0);
+    try {
+      HttpURLConnection http = (HttpURLConnection) URI.create("http://127.0.0.1:" + port + "/metrics").toURL().openConnection();
+      assertEquals(200, http.getResponseCode());
+      String body;
+      try (InputStream in = http.getInputStream()) {
+        body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      }
+      assertTrue(body.contains("# TYPE mqtt_messages_received_total counter\nmqtt_messages_received_total 1\n"));
+      assertTrue(body.contains("mqtt_publish_route_seconds_count 1\n"));
+      assertTrue(body.contains("mqtt_publish_delivery_seconds_count 1\n"));
+      assertTrue(body.contains("mqtt_publish_delivery_seconds{quantile=\"0.999\"}"));
+    } finally {
+      broker.shutdown();
+    }
+    sub.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+  @Test
+  void testPacketBeforeConnectClosesChannel() {
+    EmbeddedChannel ch = new EmbeddedChannel(broker.newHandler());
+    ch.writeInbound(MqttMessageBuilders.subscribe().messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, "a").build());
+    assertFalse(ch.isActive());
+  }
+
+  @Test
+  void testKeepAliveExpiryClosesSilentClientAndPublishesWill() throws Exception {
+    EmbeddedChannel watcher = connect("watcher");
+    subscribe(watcher, "stores/1/status", MqttQoS.AT_MOST_ONCE);
+
+    EmbeddedChannel silent = new EmbeddedChannel(broker.newHandler());
+    EmbeddedChannel pinging = new EmbeddedChannel(broker.newHandler());
+    for (EmbeddedChannel ch : List.of(silent, pinging)) {
+      ch.writeInbound(MqttMessageBuilders.connect()
+          .clientId(ch == silent ? "silent" : "pinging")
+          .protocolVersion(MqttVersion.MQTT_3_1_1)
+          .cleanSession(true)
+          .keepAlive(1)
+          .willFlag(ch == silent)
+          .willTopic("stores/1/status")
+          .willMessage("offline".getBytes(StandardCharsets.UTF_8))
+          .build());
+      MqttConnAckMessage ack = ch.readOutbound();
+      assertEquals(MqttConnectReturnCode.CONNECTION_ACCEPTED, ack.variableHeader().connectReturnCode());
+    }
+
+    // Allowed silence is 1.5 s; the timer fires on its own thread and hands off to the channel's loop
+    long deadline = System.nanoTime() + 4_000_000_000L;
+    while (silent.isActive() && System.nanoTime() < deadline) {
+      Thread.sleep(200);
+      pinging.writeInbound(new MqttMessage(new MqttFixedHeader(MqttMessageType.PINGREQ, false, MqttQoS.AT_MOST_ONCE, false, 0)));
+      pinging.runPendingTasks();
+      silent.runPendingTasks();
+    }
+
+    assertFalse(silent.isActive());
+    assertTrue(pinging.isActive());
+    assertEquals(1, broker.metrics().getKeepAliveTimeouts());
+
+    watcher.runPendingTasks();
+    MqttPublishMessage will = readPublish(watcher);
+    assertEquals("stores/1/status", will.variableHeader().topicName());
+    assertEquals("offline", will.payload().toString(StandardCharsets.UTF_8));
+    will.release();
+
+    pinging.finishAndReleaseAll();
+    watcher.finishAndReleaseAll();
+  }
+
+  private static MqttConnAckMessage connectWithPassword(EmbeddedChannel ch, String clientId, String password) throws InterruptedException {
+    ch.writeInbound(MqttMessageBuilders.connect()
+            .clientId(clientId)
+            .protocolVersion(MqttVersion.MQTT_3_1_1)
+            .cleanSession(true)
+            .username("cashier")
+            .password(password.getBytes(StandardCharsets.UTF_8))
+            .build(),
+        // Pipelined behind CONNECT in the same read: held until authentication completes
+        MqttMessageBuilders.subscribe().messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, "stores/1/prices").build());
+
+    // Verification runs on the auth executor and resumes on the channel's loop
+    long deadline = System.nanoTime() + 10_000_000_000L;
+    Object ack;
+    while ((ack = ch.readOutbound()) == null && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+      ch.runPendingTasks();
+    }
+    return (MqttConnAckMessage) ack;
+  }
+
+  @Test
+  void testAuthenticationIsOffloadedAndCached() throws Exception {
+    String hash = PasswordUtil.hashPassword("s3cret");
+    broker.setAuthenticator(new PasswordAuthenticator(user -> user.equals("cashier") ? new PasswordAuthenticator.Account(hash, "cashiers") : null));
+
+    EmbeddedChannel refused = new EmbeddedChannel(broker.newHandler());
+    MqttConnAckMessage refusal = connectWithPassword(refused, "till-1", "wrong");
+    assertEquals(MqttConnectReturnCode.CONNECTION_REFUSED_BAD_USER_NAME_OR_PASSWORD, refusal.variableHeader().connectReturnCode());
+    assertFalse(refused.isActive());
+
+    EmbeddedChannel first = new EmbeddedChannel(broker.newHandler());
+    assertEquals(MqttConnectReturnCode.CONNECTION_ACCEPTED, connectWithPassword(first, "till-1", "s3cret").variableHeader().connectReturnCode());
+    assertInstanceOf(MqttSubAckMessage.class, first.readOutbound(), "Held SUBSCRIBE is processed after CONNACK");
+    assertEquals(new Authenticator.Identity("cashier", "cashiers"), first.attr(MQTTBroker.IDENTITY_KEY).get());
+    assertTrue(first.config().isAutoRead());
+    first.finishAndReleaseAll();
+
+    // Reconnect with the same credentials: answered from the cache, on the event loop
+    EmbeddedChannel second = new EmbeddedChannel(broker.newHandler());
+    assertEquals(MqttConnectReturnCode.CONNECTION_ACCEPTED, connectWithPassword(second, "till-1", "s3cret").variableHeader().connectReturnCode());
+    assertEquals(2, broker.metrics().getAuthVerifications());
+    assertEquals(1, broker.metrics().getAuthCacheHits());
+    assertEquals(1, broker.metrics().getAuthFailures());
+    second.finishAndReleaseAll();
+  }
+
+  @Test
+  void testAccessControlDeniesPublishAndSubscribe() {
+    broker.setAccessControl(new AccessControl()
+        .allowAll(AccessControl.Permission.SUBSCRIBE, "stores/+/prices")
+        .allowAll(AccessControl.Permission.PUBLISH, "stores/%c/sales"));
+
+    EmbeddedChannel sub = connect("display");
+    subscribe(sub, "stores/+/prices", MqttQoS.AT_MOST_ONCE);
+    sub.writeInbound(MqttMessageBuilders.subscribe().messageId(2).addSubscription(MqttQoS.AT_MOST_ONCE, "payments/#").build());
+    MqttSubAckMessage denied = sub.readOutbound();
+    assertEquals(List.of(0x80), denied.payload().grantedQoSLevels());
+
+    // QoS 1 to a forbidden topic: acknowledged (3.1.1 has no negative PUBACK) but not routed
+    EmbeddedChannel till = connect("till-1");
+    publish(till, "stores/1/prices", "9.99", MqttQoS.AT_LEAST_ONCE, 7);
+    MqttPubAckMessage ack = till.readOutbound();
+    assertEquals(7, ack.variableHeader().messageId());
+    sub.runPendingTasks();
+    assertNull(sub.readOutbound());
+
+    publish(till, "stores/till-1/sales", "1", MqttQoS.AT_MOST_ONCE, 0);
+    assertEquals(2, broker.metrics().getAclDenied());
+
+    // Will topic outside the permissions: CONNECT refused
+    EmbeddedChannel sneaky = new EmbeddedChannel(broker.newHandler());
+    sneaky.writeInbound(MqttMessageBuilders.connect()
+        .clientId("till-2")
+        .protocolVersion(MqttVersion.MQTT_3_1_1)
+        .willFlag(true)
+        .willTopic("stores/1/prices")
+        .willMessage(new byte[0])
+        .build());
+    MqttConnAckMessage refusal = sneaky.readOutbound();
+    assertEquals(MqttConnectReturnCode.CONNECTION_REFUSED_NOT_AUTHORIZED, refusal.variableHeader().connectReturnCode());
+
+    sub.finishAndReleaseAll();
+    till.finishAndReleaseAll();
+  }
+
+  @Test
+  void testTlsListenerServesMqttAndResumesSessions() throws Exception {
+    X509Bundle certificate = new CertificateBuilder().subject("CN=localhost").addSanDnsName("localhost").setIsCertificateAuthority(true).buildSelfSigned();
+    Path certChain = Files.writeString(storeDir.resolve("server.crt"), certificate.getCertificatePEM());
+    Path key = Files.writeString(storeDir.resolve("server.key"), certificate.getPrivateKeyPEM());
+    MQTTBroker tlsBroker = new MQTTBroker(storeDir, MQTTBroker.DEFAULT_LIMITS, Transport.select(Transport.NIO));
+    try {
+      tlsBroker.bind(0);
+      int port = tlsBroker.bindTls(0, MQTTBroker.serverTlsContext(certChain, key));
+
+      // One client context: its session cache lets the second connection resume
+      SslContext clientTls = SslContextBuilder.forClient().trustManager(certificate.toTrustManagerFactory()).protocols("TLSv1.3").build();
+      for (int i = 0; i < 2; i++) {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        Channel ch = connectTcpClient(port, clientTls.newHandler(ByteBufAllocator.DEFAULT, "localhost", port), new MqttDecoder(), MqttEncoder.INSTANCE, receiveInto(received));
+        ch.writeAndFlush(MqttMessageBuilders.connect().clientId("tls-" + i).protocolVersion(MqttVersion.MQTT_3_1_1).cleanSession(true).build());
+
+        MqttConnAckMessage ack = (MqttConnAckMessage) received.poll(10, TimeUnit.SECONDS);
+        assertNotNull(ack, "CONNACK over TLS");
+        assertEquals(MqttConnectReturnCode.CONNECTION_ACCEPTED, ack.variableHeader().connectReturnCode());
+        ch.close().sync();
+      }
+
+      assertEquals(2, tlsBroker.metrics().getTlsHandshakes());
+      assertEquals(1, tlsBroker.metrics().getTlsResumedHandshakes(), "Second handshake resumes the first session");
+      assertTrue(tlsBroker.metrics().getPrometheusText().contains("mqtt_tls_handshake_seconds_count 2"));
+    } finally {
+      tlsBroker.shutdown();
+    }
+  }
+
+  @Test
+  void testWebSocketClientSharesRoutingWithTcpClients() throws Exception {
+    MQTTBroker wsBroker = new MQTTBroker(storeDir, MQTTBroker.DEFAULT_LIMITS, Transport.select(Transport.NIO));
+    try {
+      wsBroker.bind(0);
+      int port = wsBroker.bindWebSocket(0);
+
+      BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+      Promise<Void> upgraded = ImmediateEventExecutor.INSTANCE.newPromise();
+      Channel browser = connectTcpClient(port, new HttpClientCodec(), new HttpObjectAggregator(8192),
+          new WebSocketClientProtocolHandler(WebSocketClientProtocolConfig.newBuilder()
+              .webSocketUri("ws://127.0.0.1:" + port + "/mqtt")
+              .subprotocol("mqtt")
+              .build()),
+          WebSocketFrameCodec.INSTANCE, new MqttDecoder(), MqttEncoder.INSTANCE, new ChannelInboundHandlerAdapter() {
+            @Override public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+              if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                upgraded.trySuccess(null);
+              }
+            }
+
+            @Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+              received.add(msg);
+            }
+          });
+      assertTrue(upgraded.await(10, TimeUnit.SECONDS), "WebSocket upgrade");
+
+      browser.writeAndFlush(MqttMessageBuilders.connect().clientId("kitchen-display").protocolVersion(MqttVersion.MQTT_3_1_1).cleanSession(true).build());
+      MqttConnAckMessage ack = (MqttConnAckMessage) received.poll(10, TimeUnit.SECONDS);
+      assertEquals(MqttConnectReturnCode.CONNECTION_ACCEPTED, ack.variableHeader().connectReturnCode());
+      browser.writeAndFlush(MqttMessageBuilders.subscribe().messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, "stores/1/orders").build());
+      assertInstanceOf(MqttSubAckMessage.class, received.poll(10, TimeUnit.SECONDS));
+
+      // A TCP-side publisher reaches the browser through the same subscription index
+      EmbeddedChannel till = connect(wsBroker, "till-1", true, false);
+      publish(till, "stores/1/orders", "2x espresso", MqttQoS.AT_MOST_ONCE, 0);
+      MqttPublishMessage order = (MqttPublishMessage) received.poll(10, TimeUnit.SECONDS);
+      assertNotNull(order);
+      assertEquals("stores/1/orders", order.variableHeader().topicName());
+      assertEquals("2x espresso", order.payload().toString(StandardCharsets.UTF_8));
+      order.release();
+
+      till.finishAndReleaseAll();
+      browser.close().sync();
+    } finally {
+      wsBroker.shutdown();
+    }
+  }
+
+  @Test
+  void testClusterForwardsOnlyToPeersWithMatchingSubscriber() throws Exception {
+    MQTTBroker nodeA = new MQTTBroker(storeDir.resolve("a"), MQTTBroker.DEFAULT_LIMITS, Transport.select(Transport.NIO));
+    MQTTBroker nodeB = new MQTTBroker(storeDir.resolve("b"), MQTTBroker.DEFAULT_LIMITS, Transport.select(Transport.NIO));
+    try {
+      nodeA.bind(0);
+      int mqttPortB = nodeB.bind(0);
+      int clusterPortA = nodeA.bindCluster(new InetSocketAddress("127.0.0.1", 0));
+      int clusterPortB = nodeB.bindCluster(new InetSocketAddress("127.0.0.1", 0));
+      nodeA.addClusterPeer(new InetSocketAddress("127.0.0.1", clusterPortB));
+      nodeB.addClusterPeer(new InetSocketAddress("127.0.0.1", clusterPortA));
+
+      // Back-office display on node B
+      BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+      Channel display = connectTcpClient(mqttPortB, new MqttDecoder(), MqttEncoder.INSTANCE, receiveInto(received));
+      display.writeAndFlush(MqttMessageBuilders.connect().clientId("display").protocolVersion(MqttVersion.MQTT_3_1_1).cleanSession(true).build());
+      assertInstanceOf(MqttConnAckMessage.class, received.poll(10, TimeUnit.SECONDS));
+      display.writeAndFlush(MqttMessageBuilders.subscribe().messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, "stores/+/orders").build());
+      assertInstanceOf(MqttSubAckMessage.class, received.poll(10, TimeUnit.SECONDS));
+
+      // Till on node A; the summary reaches A asynchronously, so publish until the first message arrives
+      EmbeddedChannel till = connect(nodeA, "till-1", true, false);
+      MqttPublishMessage order = null;
+      for (int attempt = 0; order == null && attempt < 100; attempt++) {
+        publish(till, "stores/1/orders", "order-" + attempt, MqttQoS.AT_MOST_ONCE, 0);
+        order = (MqttPublishMessage) received.poll(100, TimeUnit.MILLISECONDS);
+      }
+      assertNotNull(order, "Forwarded to the subscriber on node B");
+      assertEquals("stores/1/orders", order.variableHeader().topicName());
+      order.release();
+      while (received.poll(200, TimeUnit.MILLISECONDS) instanceof MqttPublishMessage late) {
+        late.release();
+      }
+
+      long forwarded = nodeA.metrics().getClusterForwarded();
+      long filtered = nodeA.metrics().getClusterFiltered();
+      publish(till, "prices/milk", "1.20", MqttQoS.AT_MOST_ONCE, 0);
+      assertEquals(forwarded, nodeA.metrics().getClusterForwarded(), "No subscriber on B: not forwarded");
+      assertEquals(filtered + 1, nodeA.metrics().getClusterFiltered());
+
+      publish(till, "stores/2/orders", "1x latte", MqttQoS.AT_MOST_ONCE, 0);
+      order = (MqttPublishMessage) received.poll(10, TimeUnit.SECONDS);
+      assertNotNull(order);
+      assertEquals("1x latte", order.payload().toString(StandardCharsets.UTF_8));
+      order.release();
+      assertNull(received.poll(200, TimeUnit.MILLISECONDS), "Delivered once, never forwarded back");
+      assertEquals(nodeA.metrics().getClusterForwarded(), nodeB.metrics().getClusterReceived());
+      assertEquals(0, nodeB.metrics().getClusterForwarded());
+
+      till.finishAndReleaseAll();
+      display.close().sync();
+    } finally {
+      nodeA.shutdown();
+      nodeB.shutdown();
+    }
+  }
+
+  @Test
+  void testClusterDeliversSharedGroupOncePerMessage() throws Exception {
+    MQTTBroker nodeA = new MQTTBroker(storeDir.resolve("a"), MQTTBroker.DEFAULT_LIMITS, Transport.select(Transport.NIO));
+    MQTTBroker nodeB = new MQTTBroker(storeDir.resolve("b"), MQTTBroker.DEFAULT_LIMITS, Transport.select(Transport.NIO));
+    try {
+      nodeA.bind(0);
+      int mqttPortB = nodeB.bind(0);
+      int clusterPortA = nodeA.bindCluster(new InetSocketAddress("127.0.0.1", 0));
+      int clusterPortB = nodeB.bindCluster(new InetSocketAddress("127.0.0.1", 0));
+      nodeA.addClusterPeer(new InetSocketAddress("127.0.0.1", clusterPortB));
+      nodeB.addClusterPeer(new InetSocketAddress("127.0.0.1", clusterPortA));
+
+      // One kitchen worker of the group on each node
+      EmbeddedChannel workerA = connect(nodeA, "kitchen-a", true, false);
+      subscribe(workerA, "$share/kitchen/stores/+/orders", MqttQoS.AT_MOST_ONCE);
+      BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+      Channel workerB = connectTcpClient(mqttPortB, new MqttDecoder(), MqttEncoder.INSTANCE, receiveInto(received));
+      workerB.writeAndFlush(MqttMessageBuilders.connect().clientId("kitchen-b").protocolVersion(MqttVersion.MQTT_3_1_1).cleanSession(true).build());
+      assertInstanceOf(MqttConnAckMessage.class, received.poll(10, TimeUnit.SECONDS));
+      workerB.writeAndFlush(MqttMessageBuilders.subscribe().messageId(1)
+          .addSubscription(MqttQoS.AT_MOST_ONCE, "$share/kitchen/stores/+/orders")
+          .addSubscription(MqttQoS.AT_MOST_ONCE, "sync").build());
+      assertInstanceOf(MqttSubAckMessage.class, received.poll(10, TimeUnit.SECONDS));
+
+      // Summary frames arrive in order: once "sync" is forwarded, A knows B's group too
+      EmbeddedChannel till = connect(nodeA, "till-1", true, false);
+      Object synced = null;
+      for (int attempt = 0; synced == null && attempt < 100; attempt++) {
+        publish(till, "sync", "ping", MqttQoS.AT_MOST_ONCE, 0);
+        synced = received.poll(100, TimeUnit.MILLISECONDS);
+      }
+      assertInstanceOf(MqttPublishMessage.class, synced, "Summary of node B reached node A");
+      ((MqttPublishMessage) synced).release();
+      while (received.poll(200, TimeUnit.MILLISECONDS) instanceof MqttPublishMessage late) {
+        late.release();
+      }
+
+      int orders = 20;
+      for (int i = 0; i < orders; i++) {
+        publish(till, "stores/1/orders", "order-" + i, MqttQoS.AT_MOST_ONCE, 0);
+      }
+      int deliveredA = 0;
+      workerA.runPendingTasks();
+      for (Object frame; (frame = workerA.readOutbound()) != null; ) {
+        ReferenceCountUtil.release(frame); // QoS 0: one pre-encoded PUBLISH per message
+        deliveredA++;
+      }
+      int deliveredB = 0;
+      while (deliveredA + deliveredB < orders && received.poll(10, TimeUnit.SECONDS) instanceof MqttPublishMessage order) {
+        order.release();
+        deliveredB++;
+      }
+      assertNull(received.poll(200, TimeUnit.MILLISECONDS), "No second copy from the other node");
+      assertEquals(orders, deliveredA + deliveredB, "Exactly one delivery per message to the group");
+      assertTrue(deliveredA > 0 && deliveredB > 0, "Both nodes serve the group: " + deliveredA + " / " + deliveredB);
+
+      till.finishAndReleaseAll();
+      workerA.finishAndReleaseAll();
+      workerB.close().sync();
+    } finally {
+      nodeA.shutdown();
+      nodeB.shutdown();
+    }
+  }
+
+  @Test
+  void testClusterRefusesLinksFromUnlistedAddresses() throws Exception {
+    MQTTBroker node = new MQTTBroker(storeDir.resolve("a"), MQTTBroker.DEFAULT_LIMITS, Transport.select(Transport.NIO));
+    try {
+      node.bind(0);
+      int clusterPort = node.bindCluster(new InetSocketAddress("127.0.0.1", 0));
+      EmbeddedChannel display = connect(node, "display", true, false);
+      subscribe(display, "stores/#", MqttQoS.AT_MOST_ONCE);
+
+      // No peer configured: a link from 127.0.0.1 is closed before the summary is sent
+      BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+      Channel intruder = connectTcpClient(clusterPort, receiveInto(received));
+      assertTrue(intruder.closeFuture().await(5, TimeUnit.SECONDS), "Closed by the node");
+      assertNull(received.poll(), "Nothing sent to an unlisted address");
+
+      display.finishAndReleaseAll();
+    } finally {
+      node.shutdown();
+    }
+  }
+
+  @Test
+  void testLocalPublishAndSubscribeBypassTheCodec() throws Exception {
+    ExecutorService ui = Executors.newSingleThreadExecutor(r -> new Thread(r, "pos-ui"));
+    try {
+      BlockingQueue<String> received = new LinkedBlockingQueue<>();
+      LocalListener listener = (topic, payload) ->
+          received.add(Thread.currentThread().getName() + " " + topic + " " + payload.toString(StandardCharsets.UTF_8));
+
+      // Retained before subscribing: dispatched on subscribe
+      broker.localPublish("stores/1/prices", Unpooled.copiedBuffer("milk 1.20", StandardCharsets.UTF_8), MqttQoS.AT_MOST_ONCE, true);
+      assertTrue(broker.localSubscribe("stores/1/#", ui, listener));
+      assertFalse(broker.localSubscribe("stores/1/#", ui, listener), "Already subscribed");
+      assertEquals("pos-ui stores/1/prices milk 1.20", received.poll(5, TimeUnit.SECONDS));
+
+      // MQTT client → local listener
+      EmbeddedChannel till = connect("till-1");
+      publish(till, "stores/1/sales", "12.50", MqttQoS.AT_MOST_ONCE, 0);
+      assertEquals("pos-ui stores/1/sales 12.50", received.poll(5, TimeUnit.SECONDS));
+
+      // Local publisher → MQTT client
+      EmbeddedChannel display = connect("display");
+      subscribe(display, "stores/+/display", MqttQoS.AT_MOST_ONCE);
+      ByteBuf text = Unpooled.copiedBuffer("Order 42 ready", StandardCharsets.UTF_8);
+      broker.localPublish("stores/1/display", text, MqttQoS.AT_MOST_ONCE, false);
+      MqttPublishMessage shown = readPublish(display);
+      assertEquals("Order 42 ready", shown.payload().toString(StandardCharsets.UTF_8));
+      shown.release();
+      assertEquals("pos-ui stores/1/display Order 42 ready", received.poll(5, TimeUnit.SECONDS), "Local listeners see local publishes too");
+      // The listener's reference is released after onMessage returns, on the "pos-ui" thread
+      ui.submit(() -> {}).get(5, TimeUnit.SECONDS);
+      assertEquals(0, text.refCnt(), "Payload released by the broker and the listener");
+
+      assertTrue(broker.localUnsubscribe("stores/1/#", listener));
+      assertFalse(broker.localUnsubscribe("stores/1/#", listener));
+      publish(till, "stores/1/sales", "3.00", MqttQoS.AT_MOST_ONCE, 0);
+      assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+
+      ByteBuf rejected = Unpooled.copiedBuffer("x", StandardCharsets.UTF_8);
+      assertThrows(IllegalArgumentException.class, () -> broker.localPublish("stores/+/sales", rejected, MqttQoS.AT_MOST_ONCE, false));
+      assertEquals(0, rejected.refCnt());
+      assertThrows(IllegalArgumentException.class, () -> broker.localSubscribe("$share/ui/stores/#", ui, listener));
+
+      till.finishAndReleaseAll();
+      display.finishAndReleaseAll();
+    } finally {
+      ui.shutdownNow();
+    }
+  }
+
+  @Test
+  void testMqtt5CleanStartWithExpiryStartsPersistentSessionThatExpires() throws Exception {
+    EmbeddedChannel pub = connect("pub");
+
+    // Clean Start=1 discards old state, but Session Expiry > 0 still makes the new session persistent
+    EmbeddedChannel sub = connectV5(broker, "kds-1", true, 60, 65535, false);
+    subscribe(sub, "orders/#", MqttQoS.AT_LEAST_ONCE);
+    sub.close();
+    publish(pub, "orders/1", "while-offline", MqttQoS.AT_LEAST_ONCE, 1);
+
+    EmbeddedChannel again = connectV5(broker, "kds-1", false, 1, 65535, true);
+    MqttPublishMessage queued = readPublish(again);
+    assertEquals("while-offline", queued.payload().toString(StandardCharsets.UTF_8));
+    queued.release();
+
+    // The interval of the last CONNECT (1 s) applies once offline
+    again.close();
+    Thread.sleep(1_500);
+    publish(pub, "orders/2", "after-expiry", MqttQoS.AT_LEAST_ONCE, 2);
+    EmbeddedChannel expired = connectV5(broker, "kds-1", false, 60, 65535, false);
+    expired.runPendingTasks();
+    assertNull(expired.readOutbound(), "Expired session: subscriptions and queue are gone");
+
+    expired.finishAndReleaseAll();
+    pub.finishAndReleaseAll();
+  }
+
+}
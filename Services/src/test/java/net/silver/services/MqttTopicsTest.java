@@ -0,0 +1,74 @@
+package net.silver.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MqttTopicsTest {
+
+  @Test
+  void testFilterMatching() {
+    assertTrue(MqttTopics.matches("sensors/temp", "sensors/temp"));
+    assertTrue(MqttTopics.matches("sensors/#", "sensors"));
+    assertTrue(MqttTopics.matches("sensors/#", "sensors/temp/room1"));
+    assertTrue(MqttTopics.matches("sensors/+/temp", "sensors/living/temp"));
+    assertTrue(MqttTopics.matches("+/+", "a/"));
+    assertTrue(MqttTopics.matches("#", "a/b/c"));
+
+    assertFalse(MqttTopics.matches("sensors/+/temp", "sensors/temp"));
+    assertFalse(MqttTopics.matches("sensors/+", "sensors/a/b"));
+    assertFalse(MqttTopics.matches("sensors/temp", "sensors/temperature"));
+    assertFalse(MqttTopics.matches("sensors", "sensors/temp"));
+    assertFalse(MqttTopics.matches("#", "$SYS/load"), "Leading wildcard must not match '$' topics");
+    assertTrue(MqttTopics.matches("$SYS/#", "$SYS/load"));
+  }
+
+  @Test
+  void testFilterValidation() {
+    assertTrue(MqttTopics.isValidFilter("a/b/c"));
+    assertTrue(MqttTopics.isValidFilter("/a/b"));
+    assertTrue(MqttTopics.isValidFilter("a/b/"));
+    assertTrue(MqttTopics.isValidFilter("a/+/c"));
+    assertTrue(MqttTopics.isValidFilter("+"));
+    assertTrue(MqttTopics.isValidFilter("#"));
+    assertTrue(MqttTopics.isValidFilter("a/#"));
+
+    assertFalse(MqttTopics.isValidFilter(null));
+    assertFalse(MqttTopics.isValidFilter(""));
+    assertFalse(MqttTopics.isValidFilter("a//b"));
+    assertFalse(MqttTopics.isValidFilter("a/#/c"));
+    assertFalse(MqttTopics.isValidFilter("a/b#"));
+    assertFalse(MqttTopics.isValidFilter("a/+b/c"));
+    assertFalse(MqttTopics.isValidFilter("a/b+"));
+    assertFalse(MqttTopics.isValidFilter("a/\u0000"));
+  }
+
+  @Test
+  void testTopicNameValidation() {
+    assertTrue(MqttTopics.isValidTopicName("stores/1/orders"));
+    assertTrue(MqttTopics.isValidTopicName("a//b"), "Empty levels are valid in a topic name");
+    assertTrue(MqttTopics.isValidTopicName("/"));
+    assertTrue(MqttTopics.isValidTopicName("€".repeat(21_845)), "65535 UTF-8 bytes");
+
+    assertFalse(MqttTopics.isValidTopicName(null));
+    assertFalse(MqttTopics.isValidTopicName(""));
+    assertFalse(MqttTopics.isValidTopicName("a/+/c"));
+    assertFalse(MqttTopics.isValidTopicName("a/#"));
+    assertFalse(MqttTopics.isValidTopicName("a/\u0000"));
+    assertFalse(MqttTopics.isValidTopicName("€".repeat(21_846)), "65538 UTF-8 bytes");
+  }
+
+  @Test
+  void testSharedFilterValidation() {
+    assertTrue(MqttTopics.isValidFilter("$share/workers/orders/#"));
+    assertTrue(MqttTopics.isValidFilter("$share/workers/+"));
+    assertEquals("$share/workers/".length(), MqttTopics.sharedFilterStart("$share/workers/orders/#"));
+
+    assertFalse(MqttTopics.isValidFilter("$share/workers"), "Filter is missing");
+    assertFalse(MqttTopics.isValidFilter("$share/workers/"), "Filter is missing");
+    assertFalse(MqttTopics.isValidFilter("$share//orders"), "ShareName must not be empty");
+    assertFalse(MqttTopics.isValidFilter("$share/work+/orders"), "ShareName must not contain wildcards");
+    assertFalse(MqttTopics.isValidFilter("$share/workers/orders//1"));
+  }
+
+}
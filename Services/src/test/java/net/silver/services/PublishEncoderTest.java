@@ -0,0 +1,53 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PublishEncoderTest {
+
+  private static byte[] viaMqttEncoder(String topic, byte[] payload, boolean retain) {
+    EmbeddedChannel ch = new EmbeddedChannel(MqttEncoder.INSTANCE);
+    MqttFixedHeader header = new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_MOST_ONCE, retain, 0);
+    ch.writeOutbound(new MqttPublishMessage(header, new MqttPublishVariableHeader(topic, 0), Unpooled.wrappedBuffer(payload)));
+    ByteBuf encoded = ch.readOutbound();
+    byte[] bytes = ByteBufUtil.getBytes(encoded);
+    encoded.release();
+    ch.finishAndReleaseAll();
+    return bytes;
+  }
+
+  private static byte[] viaPublishEncoder(String topic, byte[] payload, boolean retain) {
+    ByteBuf source = Unpooled.wrappedBuffer(payload);
+    ByteBuf frame = PublishEncoder.encodeQos0(ByteBufAllocator.DEFAULT, topic, source, retain);
+    byte[] bytes = ByteBufUtil.getBytes(frame);
+    frame.release();
+    assertEquals(1, source.refCnt(), "Encoder must not consume the caller's payload reference");
+    source.release();
+    return bytes;
+  }
+
+  @Test
+  void testMatchesMqttEncoderForSmallAndLargePayloads() {
+    for (int size : new int[]{0, 10, 512, 513, 200_000}) {
+      byte[] payload = new byte[size];
+      Arrays.fill(payload, (byte) 7);
+      assertArrayEquals(viaMqttEncoder("stores/1/prices", payload, false), viaPublishEncoder("stores/1/prices", payload, false), "payload size " + size);
+    }
+  }
+
+  @Test
+  void testRetainFlagAndUtf8Topic() {
+    byte[] payload = {1, 2, 3};
+    assertArrayEquals(viaMqttEncoder("kasa/č/ü", payload, true), viaPublishEncoder("kasa/č/ü", payload, true));
+  }
+
+}
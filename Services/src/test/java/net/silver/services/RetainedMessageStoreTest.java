@@ -0,0 +1,61 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetainedMessageStoreTest {
+
+  private static ByteBuf payload(String s) {
+    return Unpooled.copiedBuffer(s, StandardCharsets.UTF_8);
+  }
+
+  private static Set<String> topics(List<MqttPublishMessage> messages) {
+    Set<String> topics = messages.stream().map(m -> m.variableHeader().topicName()).collect(Collectors.toSet());
+    messages.forEach(MqttPublishMessage::release);
+    return topics;
+  }
+
+  @Test
+  void testWildcardLookupAndDelete() {
+    RetainedMessageStore store = new RetainedMessageStore(1024);
+    store.put("prices/list", payload("v1"), MqttQoS.AT_MOST_ONCE);
+    store.put("config/store/1", payload("cfg1"), MqttQoS.AT_MOST_ONCE);
+    store.put("config/store/2", payload("cfg2"), MqttQoS.AT_MOST_ONCE);
+    store.put("$SYS/uptime", payload("1"), MqttQoS.AT_MOST_ONCE);
+
+    assertEquals(Set.of("config/store/1", "config/store/2"), topics(store.match("config/store/+", MqttQoS.AT_MOST_ONCE)));
+    assertEquals(Set.of("prices/list"), topics(store.match("prices/#", MqttQoS.AT_MOST_ONCE)));
+    assertEquals(3, topics(store.match("#", MqttQoS.AT_MOST_ONCE)).size(), "'#' must not match '$' topics");
+
+    // Empty payload deletes the retained message
+    store.put("prices/list", Unpooled.EMPTY_BUFFER, MqttQoS.AT_MOST_ONCE);
+    assertTrue(store.match("prices/list", MqttQoS.AT_MOST_ONCE).isEmpty());
+    assertEquals(3, store.size());
+
+    store.clear();
+    assertEquals(0, store.bytes());
+  }
+
+  @Test
+  void testMemoryCapRefusesNewMessages() {
+    RetainedMessageStore store = new RetainedMessageStore(8);
+    assertTrue(store.put("a", payload("12345"), MqttQoS.AT_MOST_ONCE));
+    assertFalse(store.put("b", payload("12345"), MqttQoS.AT_MOST_ONCE));
+
+    // Replacing an existing topic only counts the size difference
+    assertTrue(store.put("a", payload("1234567"), MqttQoS.AT_MOST_ONCE));
+    assertEquals(7, store.bytes());
+    store.clear();
+  }
+
+}
@@ -0,0 +1,109 @@
+package net.silver.services;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionStoreTest {
+
+  @TempDir
+  Path dir;
+
+  private static ByteBuf payload(String s) {
+    return Unpooled.copiedBuffer(s, StandardCharsets.UTF_8);
+  }
+
+  private static Map<String, List<SessionStore.StoredMessage>> recoverAll(SessionStore store, Map<String, Map<String, MqttQoS>> subs) {
+    Map<String, List<SessionStore.StoredMessage>> out = new HashMap<>();
+    store.recover((clientId, subscriptions, queued) -> {
+      subs.put(clientId, subscriptions);
+      out.put(clientId, queued);
+    });
+    return out;
+  }
+
+  @Test
+  void testSessionsSurviveReopen() throws Exception {
+    try (SessionStore store = SessionStore.open(dir)) {
+      store.openSession("pos-1");
+      store.subscribe("pos-1", "orders/#", MqttQoS.AT_LEAST_ONCE);
+      store.subscribe("pos-1", "prices/+", MqttQoS.AT_MOST_ONCE);
+      store.unsubscribe("pos-1", "prices/+");
+      ByteBuf p = payload("receipt");
+      assertTrue(store.enqueue("pos-1", "orders/7", MqttQoS.EXACTLY_ONCE, true, p));
+      p.release();
+
+      store.openSession("gone");
+      store.removeSession("gone");
+      assertFalse(store.enqueue("gone", "orders/7", MqttQoS.AT_LEAST_ONCE, false, Unpooled.EMPTY_BUFFER));
+    }
+
+    try (SessionStore store = SessionStore.open(dir)) {
+      Map<String, Map<String, MqttQoS>> subs = new HashMap<>();
+      Map<String, List<SessionStore.StoredMessage>> queued = recoverAll(store, subs);
+
+      assertEquals(Map.of("orders/#", MqttQoS.AT_LEAST_ONCE), subs.get("pos-1"));
+      assertFalse(subs.containsKey("gone"));
+
+      SessionStore.StoredMessage m = queued.get("pos-1").get(0);
+      assertEquals("orders/7", m.topic());
+      assertEquals(MqttQoS.EXACTLY_ONCE, m.qos());
+      assertTrue(m.retain());
+      assertEquals("receipt", m.payload().toString(StandardCharsets.UTF_8));
+      m.payload().release();
+    }
+  }
+
+  @Test
+  void testClearedQueueIsNotRecovered() throws Exception {
+    try (SessionStore store = SessionStore.open(dir)) {
+      store.openSession("pos-1");
+      ByteBuf p = payload("x");
+      store.enqueue("pos-1", "a", MqttQoS.AT_LEAST_ONCE, false, p);
+      p.release();
+      store.clearQueue("pos-1");
+    }
+    try (SessionStore store = SessionStore.open(dir)) {
+      assertTrue(recoverAll(store, new HashMap<>()).get("pos-1").isEmpty());
+    }
+  }
+
+  @Test
+  void testCompactionKeepsLogProportionalToLiveState() throws Exception {
+    ByteBuf p = Unpooled.wrappedBuffer(new byte[4096]);
+    try (SessionStore store = SessionStore.open(dir)) {
+      store.openSession("pos-1");
+      store.subscribe("pos-1", "orders/#", MqttQoS.AT_LEAST_ONCE);
+      // ~40 MB of history, almost all of it cleared
+      for (int i = 0; i < 10_000; i++) {
+        store.enqueue("pos-1", "orders/1", MqttQoS.AT_LEAST_ONCE, false, p);
+        store.clearQueue("pos-1");
+      }
+      store.enqueue("pos-1", "orders/last", MqttQoS.AT_LEAST_ONCE, false, p);
+
+      // Bounded by max(initial mapping, 2 x live bytes), not by history
+      assertTrue(store.logBytes() <= 4 * 1024 * 1024, "Log should have been compacted, was " + store.logBytes());
+      assertTrue(store.logBytes() >= store.liveBytes());
+    }
+    p.release();
+
+    try (SessionStore store = SessionStore.open(dir)) {
+      List<SessionStore.StoredMessage> queued = recoverAll(store, new HashMap<>()).get("pos-1");
+      assertEquals(1, queued.size());
+      assertEquals("orders/last", queued.get(0).topic());
+      assertEquals(4096, queued.get(0).payload().readableBytes());
+      queued.get(0).payload().release();
+    }
+  }
+
+}
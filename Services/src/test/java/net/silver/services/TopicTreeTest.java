@@ -0,0 +1,134 @@
+package net.silver.services;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopicTreeTest {
+
+  private static final MqttQoS QOS0 = MqttQoS.AT_MOST_ONCE;
+
+  private static ClientSession session(String clientId) {
+    return new ClientSession(clientId, new EmbeddedChannel(), MQTTBroker.DEFAULT_LIMITS, null, new MQTTBroker.BrokerMetrics());
+  }
+
+  private static Set<ClientSession> route(TopicTree tree, String topic) {
+    Set<ClientSession> out = new HashSet<>();
+    tree.collect(topic, (session, qos) -> out.add(session));
+    return out;
+  }
+
+  @Test
+  void testExactAndWildcardMatching() {
+    TopicTree tree = new TopicTree();
+    ClientSession exact = session("exact");
+    ClientSession plus = session("plus");
+    ClientSession hash = session("hash");
+    ClientSession rootHash = session("rootHash");
+
+    tree.subscribe("sensors/temp", exact, QOS0);
+    tree.subscribe("sensors/+/temp", plus, QOS0);
+    tree.subscribe("sensors/#", hash, QOS0);
+    tree.subscribe("#", rootHash, QOS0);
+
+    assertEquals(Set.of(exact, hash, rootHash), route(tree, "sensors/temp"));
+    assertEquals(Set.of(plus, hash, rootHash), route(tree, "sensors/living/temp"));
+    assertEquals(Set.of(hash, rootHash), route(tree, "sensors"), "'#' must also match the parent level");
+    assertEquals(Set.of(rootHash), route(tree, "prices/list"));
+    assertEquals(4, tree.filterCount());
+  }
+
+  @Test
+  void testSystemTopicsAreNotMatchedByLeadingWildcards() {
+    TopicTree tree = new TopicTree();
+    ClientSession rootHash = session("rootHash");
+    ClientSession sys = session("sys");
+
+    tree.subscribe("#", rootHash, QOS0);
+    tree.subscribe("$SYS/#", sys, QOS0);
+
+    assertEquals(Set.of(sys), route(tree, "$SYS/broker/load"));
+  }
+
+  @Test
+  void testUnsubscribePrunesEmptyBranches() {
+    TopicTree tree = new TopicTree();
+    ClientSession a = session("a");
+    ClientSession b = session("b");
+
+    assertTrue(tree.subscribe("stores/1/orders", a, QOS0));
+    assertFalse(tree.subscribe("stores/1/orders", a, QOS0), "Duplicate subscription should not be added twice");
+    assertTrue(tree.subscribe("stores/+/orders", b, QOS0));
+
+    assertTrue(tree.unsubscribe("stores/1/orders", a));
+    assertFalse(tree.unsubscribe("stores/1/orders", a));
+    assertEquals(Set.of(b), route(tree, "stores/1/orders"));
+    assertEquals(1, tree.filterCount());
+
+    assertTrue(tree.unsubscribe("stores/+/orders", b));
+    assertEquals(0, tree.filterCount());
+    assertTrue(route(tree, "stores/1/orders").isEmpty());
+  }
+
+  @Test
+  void testRecipientsDedupeOverlappingFiltersWithHighestQoS() {
+    TopicTree tree = new TopicTree();
+    List<ClientSession> sessions = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      ClientSession s = session("s" + i);
+      sessions.add(s);
+      tree.subscribe("a/#", s, QOS0);
+      tree.subscribe("a/+", s, i % 2 == 0 ? MqttQoS.AT_LEAST_ONCE : QOS0);
+    }
+
+    // Twice on the same thread: the reused instance must start empty
+    for (int round = 0; round < 2; round++) {
+      Recipients recipients = Recipients.acquire();
+      tree.collect("a/b", recipients);
+      assertEquals(100, recipients.size());
+      for (int i = 0; i < recipients.size(); i++) {
+        int n = sessions.indexOf(recipients.session(i));
+        assertEquals(n % 2 == 0 ? MqttQoS.AT_LEAST_ONCE : QOS0, recipients.granted(i));
+      }
+      recipients.release();
+    }
+  }
+
+  @Test
+  void testSharedSubscriptionDeliversToOneMemberRoundRobin() {
+    TopicTree tree = new TopicTree();
+    ClientSession w1 = session("w1");
+    ClientSession w2 = session("w2");
+    ClientSession audit = session("audit");
+
+    assertTrue(tree.subscribe("$share/workers/orders/#", w1, QOS0));
+    assertTrue(tree.subscribe("$share/workers/orders/#", w2, QOS0));
+    assertFalse(tree.subscribe("$share/workers/orders/#", w2, QOS0), "Duplicate member should not be added twice");
+    tree.subscribe("orders/#", audit, QOS0);
+    assertEquals(2, tree.filterCount());
+
+    List<ClientSession> workers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Set<ClientSession> routed = route(tree, "orders/" + i);
+      assertTrue(routed.remove(audit), "Plain subscribers still receive every message");
+      assertEquals(1, routed.size(), "Exactly one group member per message");
+      workers.addAll(routed);
+    }
+    assertEquals(List.of(w1, w2, w1, w2), workers);
+
+    assertFalse(tree.unsubscribe("$share/other/orders/#", w1), "Not a member of another group");
+    assertTrue(tree.unsubscribe("$share/workers/orders/#", w1));
+    assertEquals(Set.of(w2, audit), route(tree, "orders/9"));
+    assertTrue(tree.unsubscribe("$share/workers/orders/#", w2));
+    assertEquals(Set.of(audit), route(tree, "orders/9"), "Last member gone: group removed");
+    assertEquals(1, tree.filterCount());
+  }
+
+}
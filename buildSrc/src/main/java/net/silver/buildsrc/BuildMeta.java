@@ -40,12 +40,14 @@ public final class BuildMeta {
     public static final String JAVAFX_PLUGIN_ID = "org.openjfx.javafxplugin";
     public static final String JLINK_ID = "org.beryx.jlink";
     public static final String SHADOW_ID = "com.gradleup.shadow";
+    public static final String JMH_ID = "me.champeau.jmh";
 
     // Plugin Versions
     public static final String JAVA_MODULARITY_VERSION = "2.0.0";
     public static final String JAVAFX_PLUGIN_VERSION = "0.0.21";
     public static final String JLINK_VERSION = "3.1.4-rc";
     public static final String SHADOW_VERSION = "9.2.2";
+    public static final String JMH_VERSION = "0.7.3";
   }
 
   private static final class LibsVersions {
@@ -56,6 +58,7 @@ public final class BuildMeta {
     private static final String SLF4J = "2.0.17";
     private static final String JUNIT = "5.14.1";
     private static final String JUNIT_PLATFORM = "1.14.1";
+    private static final String JMH = "1.37";
   }
 
   public static final class Libs {
@@ -65,6 +68,7 @@ public final class BuildMeta {
     public static final String JUNIT_PLATFORM = "org.junit.platform:junit-platform-launcher:" + LibsVersions.JUNIT_PLATFORM;
     public static final String HIKARICP = "com.zaxxer:HikariCP:" + LibsVersions.HIKARICP;
     public static final String MYSQL = "com.mysql:mysql-connector-j:" + LibsVersions.MYSQL;
+    public static final String JMH_VERSION = LibsVersions.JMH;
     //===================================JAVAFX=============================================================
     public static final String BASE_JAVA_FX = "org.openjfx:javafx-base:" + JAVA_FX_VERSION + ":" + PLATFORM;
     public static final String CONTROLS_JAVA_FX = "org.openjfx:javafx-controls:" + JAVA_FX_VERSION + ":" + PLATFORM;